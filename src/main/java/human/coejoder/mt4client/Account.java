@@ -209,14 +209,16 @@ public class Account {
         return getAccountInfoDouble(AccountInfoDouble.ACCOUNT_MARGIN_SO_SO);
     }
 
-    private long getAccountInfoInteger(AccountInfoInteger prop) throws JsonProcessingException, MT4Exception {
-        return mt4.getResponse(Request.GET_ACCOUNT_INFO_INTEGER.build()
-                .put(PROPERTY_ID, prop.id), long.class);
+    long getAccountInfoInteger(AccountInfoInteger prop) throws JsonProcessingException, MT4Exception {
+        return mt4.getResponse(RequestWriter.begin(Request.GET_ACCOUNT_INFO_INTEGER)
+                .put(PROPERTY_ID, prop.id)
+                .end(), long.class);
     }
 
-    private double getAccountInfoDouble(AccountInfoDouble prop) throws JsonProcessingException, MT4Exception {
-        return mt4.getResponse(Request.GET_ACCOUNT_INFO_DOUBLE.build()
-                .put(PROPERTY_ID, prop.id), double.class);
+    double getAccountInfoDouble(AccountInfoDouble prop) throws JsonProcessingException, MT4Exception {
+        return mt4.getResponse(RequestWriter.begin(Request.GET_ACCOUNT_INFO_DOUBLE)
+                .put(PROPERTY_ID, prop.id)
+                .end(), double.class);
     }
 
     @Override
@@ -0,0 +1,982 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link MT4ClientInterface} which runs strategy code against historical bars instead of a terminal.
+ * <p>
+ * Each symbol is backed by a {@link BarSeries} of base bars (M1 by default).  A simulated clock steps through the bars
+ * of all symbols in time order, one bar per {@link #step()}; the current quote of a symbol is the close of its latest
+ * bar, with a fixed spread added for the ask.  {@link #getOHLCV}, {@link Symbol#getTick()} and {@link #runIndicator}
+ * only see bars up to the clock.  Higher timeframes are resampled from the base bars once per {@link Builder}, and each
+ * backtest reveals them up to its clock, with the latest bar still forming.  The iMA, iStdDev, iBands, iRSI, iATR and
+ * iMomentum indicators are computed locally; any other indicator fails with
+ * {@link MT4Exception.Code#ERR_INDICATOR_CANNOT_LOAD}.
+ * <p>
+ * Market orders fill at the current bid/ask.  Pending orders, stop-losses and take-profits are checked against the
+ * high and low of every bar and fill at the order price, or at the bar open if prices gapped through it.  When a bar
+ * reaches both the stop-loss and the take-profit of an order, the stop-loss is assumed to have been hit first.
+ * Commission is charged per lot when an order opens, and swap is charged at every weekday rollover, triple on
+ * Wednesdays.  Profits are converted with a fixed tick value, i.e. the deposit currency is the quote currency.
+ * <p>
+ * Nothing is serialized and nothing goes over a socket, so a year of M1 bars runs in seconds.  Instances are not
+ * thread-safe; run one backtest per thread.  The {@link BarSeries} may be shared between backtests.
+ */
+public class BacktestClient implements MT4ClientInterface {
+
+    private static final int FIRST_TICKET = 1;
+    private static final long LOGIN = 1;
+    private static final double MARGIN_CALL_LEVEL = 100;
+    private static final double MARGIN_STOP_OUT_LEVEL = 50;
+    private static final boolean DEFAULT_CLOSE_IF_OPENED = true;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy.MM.dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    /**
+     * Strategy code run by {@link #run(Strategy)}.
+     */
+    @FunctionalInterface
+    public interface Strategy {
+
+        /**
+         * Called after the clock has advanced to the next bar and all orders have been updated.
+         *
+         * @param client The client to trade through.
+         * @throws JsonProcessingException Never by the backtester itself, but allowed for strategy code.
+         * @throws MT4Exception            If a request was rejected.
+         */
+        void onBar(MT4ClientInterface client) throws JsonProcessingException, MT4Exception;
+    }
+
+    /**
+     * Builder for backtest clients.
+     */
+    public static class Builder {
+        private final Map<String, SymbolSpec> symbols = new LinkedHashMap<>();
+        private Timeframe baseTimeframe = StandardTimeframe.PERIOD_M1;
+        private double balance = 10000;
+        private int leverage = 100;
+        private double commissionPerLot;
+
+        private Builder() {}
+
+        /**
+         * Construct a new backtest client builder.
+         *
+         * @return The backtest client builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the backtest client.  Its clock is before the first bar until {@link #step()} is called.
+         *
+         * @return The backtest client.
+         */
+        public BacktestClient build() {
+            if (symbols.isEmpty()) {
+                throw new IllegalStateException("No symbols were added");
+            }
+            return new BacktestClient(this);
+        }
+
+        /**
+         * Add a symbol with a 10 point spread, a 100000 contract and no swap.
+         *
+         * @param name   The symbol name.
+         * @param digits The number of digits after the decimal point.
+         * @param bars   The base bars of the symbol.
+         * @return This Builder.
+         */
+        public Builder addSymbol(String name, int digits, BarSeries bars) {
+            return addSymbol(name, digits, 10, 100000, 0, 0, bars);
+        }
+
+        /**
+         * @param name         The symbol name.
+         * @param digits       The number of digits after the decimal point.
+         * @param spreadPoints The spread, in points.
+         * @param contractSize The contract size of one lot.
+         * @param swapLong     The swap of buy orders per lot and day, in points.
+         * @param swapShort    The swap of sell orders per lot and day, in points.
+         * @param bars         The base bars of the symbol.
+         * @return This Builder.
+         */
+        public Builder addSymbol(String name, int digits, int spreadPoints, double contractSize, double swapLong,
+                                 double swapShort, BarSeries bars) {
+            symbols.put(name, new SymbolSpec(name, digits, spreadPoints, contractSize, swapLong, swapShort, bars));
+            return this;
+        }
+
+        /**
+         * @param baseTimeframe The timeframe of the bars passed to {@link #addSymbol}.
+         * @return This Builder.
+         */
+        public Builder setBaseTimeframe(Timeframe baseTimeframe) {
+            this.baseTimeframe = baseTimeframe;
+            return this;
+        }
+
+        /**
+         * @param balance The initial account balance.
+         * @return This Builder.
+         */
+        public Builder setBalance(double balance) {
+            this.balance = balance;
+            return this;
+        }
+
+        /**
+         * @param leverage The account leverage.
+         * @return This Builder.
+         */
+        public Builder setLeverage(int leverage) {
+            this.leverage = leverage;
+            return this;
+        }
+
+        /**
+         * @param commissionPerLot The commission charged per lot when an order opens.
+         * @return This Builder.
+         */
+        public Builder setCommissionPerLot(double commissionPerLot) {
+            this.commissionPerLot = commissionPerLot;
+            return this;
+        }
+    }
+
+    private static final class SymbolSpec {
+        final String name;
+        final int digits;
+        final int spreadPoints;
+        final double contractSize;
+        final double swapLong;
+        final double swapShort;
+        final BarSeries bars;
+        // higher timeframes resampled from all the base bars, shared by every backtest built from the template
+        final Map<Long, Resampler> resampled = new ConcurrentHashMap<>();
+
+        SymbolSpec(String name, int digits, int spreadPoints, double contractSize, double swapLong, double swapShort,
+                   BarSeries bars) {
+            this.name = name;
+            this.digits = digits;
+            this.spreadPoints = spreadPoints;
+            this.contractSize = contractSize;
+            this.swapLong = swapLong;
+            this.swapShort = swapShort;
+            this.bars = bars;
+        }
+
+        Resampler resampled(int baseMinutes, int minutes) {
+            return resampled.computeIfAbsent((long) baseMinutes << 32 | minutes, key -> {
+                Resampler resampler = new Resampler(bars, baseMinutes, minutes);
+                resampler.update();
+                return resampler;
+            });
+        }
+    }
+
+    /**
+     * The simulation state of a symbol.
+     */
+    private final class SymbolState {
+        final SymbolSpec spec;
+        final BarSeries bars;
+        final double point;
+        final double spread;
+        final double tickValue;
+        final Map<Integer, Resampler> timeframes = new HashMap<>();
+        final BacktestSymbol symbol;
+        int cursor = -1;
+
+        SymbolState(SymbolSpec spec) {
+            this.spec = spec;
+            this.bars = spec.bars;
+            this.point = Math.pow(10, -spec.digits);
+            this.spread = spec.spreadPoints * point;
+            this.tickValue = spec.contractSize * point;
+            this.symbol = new BacktestSymbol(this);
+        }
+
+        double bid() {
+            return bars.getClose(cursor);
+        }
+
+        double ask() {
+            return round(bid() + spread);
+        }
+
+        double round(double price) {
+            return Math.round(price / point) * point;
+        }
+
+        /**
+         * Get the bars of a timeframe up to the clock, as a view of the bars the template resampled from the base bars.
+         */
+        BarSeries series(int minutes) throws MT4Exception {
+            if (minutes == 0 || minutes == baseMinutes) {
+                return bars;
+            }
+            Resampler resampler = timeframes.get(minutes);
+            if (resampler == null) {
+                if (!Resampler.canResample(baseMinutes, minutes)) {
+                    throw error(MT4Exception.Code.ERR_INVALID_FUNCTION_PARAMVALUE,
+                            "Cannot build " + minutes + " minute bars from " + baseMinutes + " minute bars");
+                }
+                resampler = new Resampler(spec.resampled(baseMinutes, minutes));
+                resampler.update(cursor + 1);
+                timeframes.put(minutes, resampler);
+            }
+            return resampler.getSeries();
+        }
+
+        /**
+         * @return The index of the latest bar the clock has reached.
+         */
+        int last(BarSeries series) {
+            return series == bars ? cursor : series.size() - 1;
+        }
+
+        void advance() {
+            cursor++;
+            for (Resampler resampler : timeframes.values()) {
+                resampler.update(cursor + 1);
+            }
+        }
+    }
+
+    private static final class BacktestOrder {
+        final int ticket;
+        final int magicNumber;
+        final SymbolState symbol;
+        final double lots;
+        final String comment;
+        final double commission;
+        OrderType orderType;
+        double openPrice;
+        double closePrice;
+        long openTime;
+        long closeTime;
+        double sl;
+        double tp;
+        double swap;
+        boolean closed;
+
+        BacktestOrder(int ticket, int magicNumber, SymbolState symbol, OrderType orderType, double lots,
+                      String comment, double commission) {
+            this.ticket = ticket;
+            this.magicNumber = magicNumber;
+            this.symbol = symbol;
+            this.orderType = orderType;
+            this.lots = lots;
+            this.comment = comment;
+            this.commission = commission;
+        }
+
+        double profit() {
+            if (orderType.isPending()) {
+                return 0;
+            }
+            double price = closed ? closePrice : (orderType.isBuy() ? symbol.bid() : symbol.ask());
+            double diff = orderType.isBuy() ? price - openPrice : openPrice - price;
+            return diff / symbol.point * symbol.tickValue * lots;
+        }
+
+        double margin(int leverage) {
+            return orderType.isPending() ? 0 : lots * symbol.spec.contractSize * openPrice / leverage;
+        }
+
+        Order toOrder() {
+            return new Order(ticket, magicNumber, symbol.spec.name, orderType.id, lots, openPrice,
+                    closed ? closePrice : 0,
+                    TIME_FORMAT.format(Instant.ofEpochSecond(openTime)),
+                    closed ? TIME_FORMAT.format(Instant.ofEpochSecond(closeTime)) : null,
+                    null, sl, tp, profit(), commission, swap, comment);
+        }
+    }
+
+    private final Map<String, SymbolState> symbols = new LinkedHashMap<>();
+    private final SymbolState[] symbolStates;
+    private final Map<Integer, BacktestOrder> openOrders = new LinkedHashMap<>();
+    private final List<BacktestOrder> closedOrders = new ArrayList<>();
+    private final BacktestAccount account;
+    private final int baseMinutes;
+    private final int leverage;
+    private final double commissionPerLot;
+    private double balance;
+    private long time = Long.MIN_VALUE;
+    private int nextTicket = FIRST_TICKET;
+
+    private BacktestClient(Builder builder) {
+        this.baseMinutes = builder.baseTimeframe.getMinutes();
+        this.leverage = builder.leverage;
+        this.commissionPerLot = builder.commissionPerLot;
+        this.balance = builder.balance;
+        for (SymbolSpec spec : builder.symbols.values()) {
+            symbols.put(spec.name, new SymbolState(spec));
+        }
+        this.symbolStates = symbols.values().toArray(new SymbolState[0]);
+        this.account = new BacktestAccount();
+    }
+
+    /**
+     * Advance the clock to the next bar of any symbol, then fill pending orders and stop-losses/take-profits that the
+     * new bars reached.
+     *
+     * @return False if there were no more bars, in which case the clock did not move.
+     */
+    public boolean step() {
+        long next = Long.MAX_VALUE;
+        for (SymbolState state : symbolStates) {
+            if (state.cursor + 1 < state.bars.size()) {
+                next = Math.min(next, state.bars.getTime(state.cursor + 1));
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            return false;
+        }
+        if (time != Long.MIN_VALUE) {
+            chargeSwaps(time, next);
+        }
+        time = next;
+        for (SymbolState state : symbolStates) {
+            if (state.cursor + 1 < state.bars.size() && state.bars.getTime(state.cursor + 1) == next) {
+                state.advance();
+                fillOrders(state);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Step through all remaining bars, calling the strategy after each one.
+     *
+     * @param strategy The strategy.
+     * @throws JsonProcessingException If the strategy threw it.
+     * @throws MT4Exception            If the strategy threw it.
+     */
+    public void run(Strategy strategy) throws JsonProcessingException, MT4Exception {
+        while (step()) {
+            strategy.onBar(this);
+        }
+    }
+
+    /**
+     * @return The open time of the latest bar, in epoch seconds, or {@link Long#MIN_VALUE} before the first bar.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The account balance.
+     */
+    public double getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return The account balance plus the floating profit, swap and commission of open orders.
+     */
+    public double getEquity() {
+        double equity = balance;
+        for (BacktestOrder order : openOrders.values()) {
+            if (!order.orderType.isPending()) {
+                equity += order.profit() + order.swap + order.commission;
+            }
+        }
+        return equity;
+    }
+
+    /**
+     * Does nothing; there is no connection to release.
+     */
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Does nothing; there is no connection to release.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Account getAccount() {
+        return account;
+    }
+
+    @Override
+    public List<String> getSymbolNames() {
+        return new ArrayList<>(symbols.keySet());
+    }
+
+    @Override
+    public Map<String, Symbol> getSymbols(String... names) throws MT4Exception {
+        Map<String, Symbol> result = new LinkedHashMap<>();
+        for (String name : names) {
+            result.put(name, symbol(name).symbol);
+        }
+        return result;
+    }
+
+    @Override
+    public Symbol getSymbol(String name) throws MT4Exception {
+        return symbol(name).symbol;
+    }
+
+    /**
+     * @return An empty list; signals are not simulated.
+     */
+    @Override
+    public List<String> getSignalNames() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<OHLCV> getOHLCV(String symbol, Timeframe timeframe, long limit, long timeout) throws MT4Exception {
+        return getOHLCV(symbol, timeframe, limit, timeout, 0);
+    }
+
+    /**
+     * Get the bars up to the clock, oldest first.  As {@link OHLCV} holds integers, prices are truncated; strategies
+     * which need the full precision can read the {@link BarSeries} instead.
+     */
+    @Override
+    public List<OHLCV> getOHLCV(String symbol, Timeframe timeframe, long limit, long timeout, long offset)
+            throws MT4Exception {
+        SymbolState state = symbol(symbol);
+        BarSeries series = state.series(timeframe.getMinutes());
+        int end = state.last(series) - (int) Math.min(offset, Integer.MAX_VALUE);
+        int start = (int) Math.max(0, end - limit + 1);
+        List<OHLCV> bars = new ArrayList<>(Math.max(0, end - start + 1));
+        for (int i = start; i <= end; i++) {
+            bars.add(new OHLCV((int) series.getTime(i), (int) series.getOpen(i), (int) series.getHigh(i),
+                    (int) series.getLow(i), (int) series.getClose(i), (int) series.getVolume(i)));
+        }
+        return bars;
+    }
+
+    /**
+     * @return An empty map; signals are not simulated.
+     */
+    @Override
+    public Map<String, Signal> getSignals(String... names) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return Null; signals are not simulated.
+     */
+    @Override
+    public Signal getSignal(String name) {
+        return null;
+    }
+
+    @Override
+    public double runIndicator(Indicator func) throws MT4Exception {
+        ArrayNode argv = func.getArguments();
+        SymbolState state = argv.get(0).isNull() ? symbolStates[0] : symbol(argv.get(0).asText());
+        BarSeries series = state.series(argv.get(1).asInt());
+        int last = state.last(series);
+        switch (func.getName()) {
+            case "iMA":
+                return IndicatorMath.movingAverage(series, last - argv.get(6).asInt() - argv.get(3).asInt(),
+                        argv.get(2).asInt(), smoothingMethod(argv.get(4)), appliedPrice(argv.get(5)));
+            case "iStdDev":
+                return IndicatorMath.standardDeviation(series, last - argv.get(6).asInt() - argv.get(3).asInt(),
+                        argv.get(2).asInt(), smoothingMethod(argv.get(4)), appliedPrice(argv.get(5)));
+            case "iBands":
+                return IndicatorMath.bands(series, last - argv.get(7).asInt() - argv.get(4).asInt(),
+                        argv.get(2).asInt(), argv.get(3).asDouble(), appliedPrice(argv.get(5)),
+                        IndicatorLine_iBands.values()[argv.get(6).asInt()]);
+            case "iRSI":
+                return IndicatorMath.relativeStrength(series, last - argv.get(4).asInt(), argv.get(2).asInt(),
+                        appliedPrice(argv.get(3)));
+            case "iATR":
+                return IndicatorMath.averageTrueRange(series, last - argv.get(3).asInt(), argv.get(2).asInt());
+            case "iMomentum":
+                return IndicatorMath.momentum(series, last - argv.get(4).asInt(), argv.get(2).asInt(),
+                        appliedPrice(argv.get(3)));
+            default:
+                throw error(MT4Exception.Code.ERR_INDICATOR_CANNOT_LOAD,
+                        "Indicator not supported by the backtester: " + func.getName());
+        }
+    }
+
+    @Override
+    public double runIndicator(Indicator func, int timeout) throws MT4Exception {
+        return runIndicator(func);
+    }
+
+    @Override
+    public List<Order> getOrders() {
+        List<Order> orders = new ArrayList<>(openOrders.size());
+        for (BacktestOrder order : openOrders.values()) {
+            orders.add(order.toOrder());
+        }
+        return orders;
+    }
+
+    @Override
+    public List<Order> getOrdersHistorical() {
+        List<Order> orders = new ArrayList<>(closedOrders.size());
+        for (BacktestOrder order : closedOrders) {
+            orders.add(order.toOrder());
+        }
+        return orders;
+    }
+
+    @Override
+    public Order getOrder(int ticket) throws MT4Exception {
+        BacktestOrder order = openOrders.get(ticket);
+        if (order == null) {
+            for (BacktestOrder closed : closedOrders) {
+                if (closed.ticket == ticket) {
+                    return closed.toOrder();
+                }
+            }
+            throw error(MT4Exception.Code.ERR_INVALID_TICKET, "Invalid ticket: " + ticket);
+        }
+        return order.toOrder();
+    }
+
+    @Override
+    public Order orderSend(NewOrder newOrder) throws MT4Exception {
+        SymbolState state = quotedSymbol(newOrder.symbol);
+        OrderType orderType = newOrder.orderType;
+        double lots = newOrder.lots;
+        double steps = lots / state.symbol.getVolumeStep();
+        if (lots < state.symbol.getVolumeMin() || lots > state.symbol.getVolumeMax()
+                || Math.abs(steps - Math.rint(steps)) > 1e-6) {
+            throw error(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME, "Invalid volume: " + lots);
+        }
+
+        double price;
+        if (orderType.isPending()) {
+            price = state.round(newOrder.price);
+            checkPendingPrice(state, orderType, price);
+        } else {
+            price = orderType.isBuy() ? state.ask() : state.bid();
+        }
+        double sl = stop(state, orderType, price, newOrder.sl, newOrder.slPoints, -1);
+        double tp = stop(state, orderType, price, newOrder.tp, newOrder.tpPoints, 1);
+        checkStops(orderType, price, sl, tp);
+
+        BacktestOrder order = new BacktestOrder(nextTicket, newOrder.magicNumber == null ? 0 : newOrder.magicNumber,
+                state, orderType, lots, newOrder.comment, -commissionPerLot * lots);
+        order.openPrice = price;
+        order.openTime = time;
+        order.sl = sl;
+        order.tp = tp;
+        if (orderType.isMarket()) {
+            double freeMargin = getEquity() - margin();
+            if (order.margin(leverage) > freeMargin) {
+                throw error(MT4Exception.Code.ERR_NOT_ENOUGH_MONEY, "Not enough money for " + lots + " lots");
+            }
+        }
+        nextTicket++;
+        openOrders.put(order.ticket, order);
+        return order.toOrder();
+    }
+
+    @Override
+    public Order orderModify(ModifyOrder modifyOrder) throws MT4Exception {
+        BacktestOrder order = openOrder(modifyOrder.ticket);
+        double price = order.openPrice;
+        if (modifyOrder.price != null) {
+            if (!order.orderType.isPending()) {
+                throw error(MT4Exception.Code.ERR_INVALID_TRADE_PARAMETERS, "Only pending orders can change price");
+            }
+            price = order.symbol.round(modifyOrder.price);
+            checkPendingPrice(order.symbol, order.orderType, price);
+        }
+        double sl = modifyOrder.sl != null || modifyOrder.slPoints != null
+                ? stop(order.symbol, order.orderType, price, modifyOrder.sl, modifyOrder.slPoints, -1)
+                : order.sl;
+        double tp = modifyOrder.tp != null || modifyOrder.tpPoints != null
+                ? stop(order.symbol, order.orderType, price, modifyOrder.tp, modifyOrder.tpPoints, 1)
+                : order.tp;
+        checkStops(order.orderType, order.orderType.isPending() ? price : closePrice(order), sl, tp);
+        order.openPrice = price;
+        order.sl = sl;
+        order.tp = tp;
+        return order.toOrder();
+    }
+
+    @Override
+    public void orderClose(int ticket) throws MT4Exception {
+        BacktestOrder order = openOrder(ticket);
+        if (order.orderType.isPending()) {
+            throw error(MT4Exception.Code.ERR_INVALID_TICKET, "Order is pending: " + ticket);
+        }
+        close(order, closePrice(order));
+        openOrders.remove(ticket);
+    }
+
+    @Override
+    public void orderClose(Order order) throws MT4Exception {
+        orderClose(order.getTicket());
+    }
+
+    @Override
+    public void orderDelete(int ticket, boolean closeIfOpened) throws MT4Exception {
+        BacktestOrder order = openOrder(ticket);
+        if (!order.orderType.isPending()) {
+            if (!closeIfOpened) {
+                throw error(MT4Exception.Code.ERR_INVALID_TICKET, "Order is open: " + ticket);
+            }
+            orderClose(ticket);
+            return;
+        }
+        order.closed = true;
+        order.closeTime = time;
+        openOrders.remove(ticket);
+        closedOrders.add(order);
+    }
+
+    @Override
+    public void orderDelete(Order order, boolean closeIfOpened) throws MT4Exception {
+        orderDelete(order.getTicket(), closeIfOpened);
+    }
+
+    @Override
+    public void orderDelete(int ticket) throws MT4Exception {
+        orderDelete(ticket, DEFAULT_CLOSE_IF_OPENED);
+    }
+
+    @Override
+    public void orderDelete(Order order) throws MT4Exception {
+        orderDelete(order.getTicket());
+    }
+
+    /**
+     * Trigger pending orders and stop-losses/take-profits of a symbol against its latest bar.
+     */
+    private void fillOrders(SymbolState state) {
+        if (openOrders.isEmpty()) {
+            return;
+        }
+        BarSeries bars = state.bars;
+        int i = state.cursor;
+        double bidOpen = bars.getOpen(i);
+        double bidHigh = bars.getHigh(i);
+        double bidLow = bars.getLow(i);
+        double spread = state.spread;
+        Iterator<BacktestOrder> it = openOrders.values().iterator();
+        while (it.hasNext()) {
+            BacktestOrder order = it.next();
+            if (order.symbol != state) {
+                continue;
+            }
+            double price = order.openPrice;
+            switch (order.orderType) {
+                case OP_BUYLIMIT:
+                    if (bidLow + spread <= price) {
+                        open(order, OrderType.OP_BUY, Math.min(price, bidOpen + spread));
+                    }
+                    break;
+                case OP_BUYSTOP:
+                    if (bidHigh + spread >= price) {
+                        open(order, OrderType.OP_BUY, Math.max(price, bidOpen + spread));
+                    }
+                    break;
+                case OP_SELLLIMIT:
+                    if (bidHigh >= price) {
+                        open(order, OrderType.OP_SELL, Math.max(price, bidOpen));
+                    }
+                    break;
+                case OP_SELLSTOP:
+                    if (bidLow <= price) {
+                        open(order, OrderType.OP_SELL, Math.min(price, bidOpen));
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (order.orderType == OrderType.OP_BUY) {
+                if (order.sl > 0 && bidLow <= order.sl) {
+                    close(order, Math.min(order.sl, bidOpen));
+                    it.remove();
+                } else if (order.tp > 0 && bidHigh >= order.tp) {
+                    close(order, Math.max(order.tp, bidOpen));
+                    it.remove();
+                }
+            } else if (order.orderType == OrderType.OP_SELL) {
+                if (order.sl > 0 && bidHigh + spread >= order.sl) {
+                    close(order, Math.max(order.sl, bidOpen + spread));
+                    it.remove();
+                } else if (order.tp > 0 && bidLow + spread <= order.tp) {
+                    close(order, Math.min(order.tp, bidOpen + spread));
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void open(BacktestOrder order, OrderType orderType, double price) {
+        order.orderType = orderType;
+        order.openPrice = order.symbol.round(price);
+        order.openTime = time;
+    }
+
+    private void close(BacktestOrder order, double price) {
+        order.closePrice = order.symbol.round(price);
+        order.closeTime = time;
+        order.closed = true;
+        balance += order.profit() + order.swap + order.commission;
+        closedOrders.add(order);
+    }
+
+    /**
+     * Charge swap for every weekday rollover between two times, triple on Wednesdays to cover the weekend.
+     */
+    private void chargeSwaps(long from, long to) {
+        long fromDay = Math.floorDiv(from, BarTime.SECONDS_PER_DAY);
+        long toDay = Math.floorDiv(to, BarTime.SECONDS_PER_DAY);
+        if (fromDay == toDay || openOrders.isEmpty()) {
+            return;
+        }
+        int rollovers = 0;
+        for (long day = fromDay; day < toDay; day++) {
+            int dayOfWeek = Math.floorMod(day + 3, 7); // 0 is Monday
+            if (dayOfWeek < 5) {
+                rollovers += dayOfWeek == 2 ? 3 : 1;
+            }
+        }
+        for (BacktestOrder order : openOrders.values()) {
+            if (!order.orderType.isPending()) {
+                SymbolSpec spec = order.symbol.spec;
+                double points = order.orderType.isBuy() ? spec.swapLong : spec.swapShort;
+                order.swap += rollovers * points * order.symbol.tickValue * order.lots;
+            }
+        }
+    }
+
+    private double margin() {
+        double margin = 0;
+        for (BacktestOrder order : openOrders.values()) {
+            margin += order.margin(leverage);
+        }
+        return margin;
+    }
+
+    private static double closePrice(BacktestOrder order) {
+        return order.orderType.isBuy() ? order.symbol.bid() : order.symbol.ask();
+    }
+
+    /**
+     * Resolve an absolute or relative (points) stop-loss or take-profit.
+     *
+     * @param direction -1 for a stop-loss, 1 for a take-profit.
+     */
+    private static double stop(SymbolState state, OrderType orderType, double price, Double absolute,
+                               Integer points, int direction) {
+        if (absolute != null) {
+            return state.round(absolute);
+        }
+        if (points != null) {
+            int sign = orderType.isBuy() ? direction : -direction;
+            return state.round(price + sign * points * state.point);
+        }
+        return 0;
+    }
+
+    private static void checkStops(OrderType orderType, double price, double sl, double tp) throws MT4Exception {
+        boolean valid = orderType.isBuy()
+                ? (sl == 0 || sl < price) && (tp == 0 || tp > price)
+                : (sl == 0 || sl > price) && (tp == 0 || tp < price);
+        if (!valid) {
+            throw error(MT4Exception.Code.ERR_INVALID_STOPS, "Invalid stops for price " + price + ": sl=" + sl
+                    + ", tp=" + tp);
+        }
+    }
+
+    private static void checkPendingPrice(SymbolState state, OrderType orderType, double price) throws MT4Exception {
+        boolean valid;
+        switch (orderType) {
+            case OP_BUYLIMIT:
+                valid = price < state.ask();
+                break;
+            case OP_BUYSTOP:
+                valid = price > state.ask();
+                break;
+            case OP_SELLLIMIT:
+                valid = price > state.bid();
+                break;
+            case OP_SELLSTOP:
+                valid = price < state.bid();
+                break;
+            default:
+                valid = false;
+                break;
+        }
+        if (!valid) {
+            throw error(MT4Exception.Code.ERR_INVALID_PRICE, "Invalid " + orderType + " price: " + price);
+        }
+    }
+
+    private SymbolState symbol(String name) throws MT4Exception {
+        SymbolState state = symbols.get(name);
+        if (state == null) {
+            throw error(MT4Exception.Code.ERR_UNKNOWN_SYMBOL, "Unknown symbol: " + name);
+        }
+        return state;
+    }
+
+    private SymbolState quotedSymbol(String name) throws MT4Exception {
+        SymbolState state = symbol(name);
+        if (state.cursor < 0) {
+            throw error(MT4Exception.Code.ERR_OFF_QUOTES, "No quotes yet for " + name);
+        }
+        return state;
+    }
+
+    private BacktestOrder openOrder(int ticket) throws MT4Exception {
+        BacktestOrder order = openOrders.get(ticket);
+        if (order == null) {
+            throw error(MT4Exception.Code.ERR_INVALID_TICKET, "Invalid ticket: " + ticket);
+        }
+        return order;
+    }
+
+    private static SmoothingMethod smoothingMethod(JsonNode id) {
+        return SmoothingMethod.values()[id.asInt()];
+    }
+
+    private static AppliedPrice appliedPrice(JsonNode id) {
+        return AppliedPrice.fromId(id.asInt()).orElse(AppliedPrice.PRICE_CLOSE);
+    }
+
+    private static MT4Exception error(MT4Exception.Code code, String message) {
+        return MT4Exception.Builder.newInstance()
+                .setErrorCode(code.id)
+                .setMessage(message)
+                .build();
+    }
+
+    /**
+     * A {@link Symbol} answering its queries from the backtest.
+     */
+    private final class BacktestSymbol extends Symbol {
+        private final SymbolState state;
+
+        BacktestSymbol(SymbolState state) {
+            super(null, state.spec.name, state.point, state.spec.digits, 0.01, 0.01, 100,
+                    state.spec.contractSize, state.tickValue, state.point, 0, 0);
+            this.state = state;
+        }
+
+        @Override
+        public SymbolTick getTick() throws MT4Exception {
+            SymbolState quoted = quotedSymbol(state.spec.name);
+            return new SymbolTick((int) time, quoted.bid(), quoted.ask(), 0,
+                    (int) quoted.bars.getVolume(quoted.cursor));
+        }
+
+        @Override
+        boolean getSymbolInfoBoolean(SymbolInfoInteger prop) {
+            return prop == SymbolInfoInteger.SYMBOL_SELECT || prop == SymbolInfoInteger.SYMBOL_VISIBLE;
+        }
+
+        @Override
+        long getSymbolInfoInteger(SymbolInfoInteger prop) {
+            switch (prop) {
+                case SYMBOL_TIME:
+                    return time;
+                case SYMBOL_SPREAD:
+                    return state.spec.spreadPoints;
+                case SYMBOL_TRADE_MODE:
+                    return SymbolTradeMode.SYMBOL_TRADE_MODE_FULL.id;
+                case SYMBOL_SWAP_ROLLOVER3DAYS:
+                    return DayOfWeek.WEDNESDAY.id;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        double getSymbolInfoDouble(SymbolInfoDouble prop) throws MT4Exception {
+            switch (prop) {
+                case SYMBOL_BID:
+                    return quotedSymbol(state.spec.name).bid();
+                case SYMBOL_ASK:
+                    return quotedSymbol(state.spec.name).ask();
+                case SYMBOL_SWAP_LONG:
+                    return state.spec.swapLong;
+                case SYMBOL_SWAP_SHORT:
+                    return state.spec.swapShort;
+                case SYMBOL_MARGIN_INITIAL:
+                    return state.spec.contractSize / leverage;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /**
+     * An {@link Account} answering its queries from the backtest.
+     */
+    private final class BacktestAccount extends Account {
+
+        BacktestAccount() {
+            super(null, LOGIN, AccountTradeMode.ACCOUNT_TRADE_MODE_DEMO.id, "Backtest", "Backtest", "USD",
+                    "BacktestClient");
+        }
+
+        @Override
+        long getAccountInfoInteger(AccountInfoInteger prop) {
+            switch (prop) {
+                case ACCOUNT_LEVERAGE:
+                    return leverage;
+                case ACCOUNT_TRADE_ALLOWED:
+                case ACCOUNT_TRADE_EXPERT:
+                    return 1;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        double getAccountInfoDouble(AccountInfoDouble prop) {
+            switch (prop) {
+                case ACCOUNT_BALANCE:
+                    return balance;
+                case ACCOUNT_EQUITY:
+                    return BacktestClient.this.getEquity();
+                case ACCOUNT_PROFIT:
+                    return BacktestClient.this.getEquity() - balance;
+                case ACCOUNT_MARGIN:
+                    return margin();
+                case ACCOUNT_MARGIN_FREE:
+                    return BacktestClient.this.getEquity() - margin();
+                case ACCOUNT_MARGIN_LEVEL: {
+                    double margin = margin();
+                    return margin == 0 ? 0 : BacktestClient.this.getEquity() / margin * 100;
+                }
+                case ACCOUNT_MARGIN_SO_CALL:
+                    return MARGIN_CALL_LEVEL;
+                case ACCOUNT_MARGIN_SO_SO:
+                    return MARGIN_STOP_OUT_LEVEL;
+                default:
+                    return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package human.coejoder.mt4client;
+
+import java.util.Arrays;
+
+/**
+ * Builds OHLCV bars of one symbol locally from its ticks, for any number of {@link Timeframe timeframes} at once.
+ * <p>
+ * This works for every {@link NonStandardTimeframe} as well as the standard ones, without asking the terminal for
+ * history.  Bars are built from the bid, and their volume is the number of ticks.  Bar boundaries follow
+ * {@link Timeframe#getMinutes()}: intraday and daily bars align on multiples of their length since the epoch, weekly
+ * bars open on Sunday and monthly bars on the first of the month.
+ * <p>
+ * Feed ticks from a single thread, either polled with {@link Symbol#getTick()} (repeated ticks are ignored) or
+ * streamed.  When a tick falls after the end of a forming bar, the bar is appended to the timeframe's
+ * {@link BarSeries} and delivered to the listeners before the tick is applied.  Quiet markets can be flushed with
+ * {@link #onTime(long)}.  Handling a tick allocates nothing; only the bar series grow.
+ */
+public class BarBuilder {
+
+    /**
+     * Receives completed bars.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called on the thread feeding the ticks when a bar completes.
+         *
+         * @param timeframe The timeframe of the bar.
+         * @param series    The completed bars of the timeframe.
+         * @param index     The index of the new bar in the series.
+         */
+        void onBar(Timeframe timeframe, BarSeries series, int index);
+    }
+
+    /**
+     * A live view of the bar being built for a timeframe.  It changes with every tick.
+     */
+    public static final class FormingBar {
+        private final Timeframe timeframe;
+        private final int minutes;
+        private final BarSeries series = new BarSeries();
+        private boolean empty = true;
+        private long time;
+        private long nextTime;
+        private double open;
+        private double high;
+        private double low;
+        private double close;
+        private long volume;
+
+        private FormingBar(Timeframe timeframe) {
+            this.timeframe = timeframe;
+            this.minutes = timeframe.getMinutes();
+        }
+
+        /**
+         * @return The timeframe of the bar.
+         */
+        public Timeframe getTimeframe() {
+            return timeframe;
+        }
+
+        /**
+         * @return Whether no tick has been received since the last bar completed.
+         */
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        /**
+         * @return The bar open time, in epoch seconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The open price.
+         */
+        public double getOpen() {
+            return open;
+        }
+
+        /**
+         * @return The high price so far.
+         */
+        public double getHigh() {
+            return high;
+        }
+
+        /**
+         * @return The low price so far.
+         */
+        public double getLow() {
+            return low;
+        }
+
+        /**
+         * @return The latest price.
+         */
+        public double getClose() {
+            return close;
+        }
+
+        /**
+         * @return The number of ticks so far.
+         */
+        public long getVolume() {
+            return volume;
+        }
+    }
+
+    private final FormingBar[] bars;
+    private volatile Listener[] listeners = new Listener[0];
+    private long lastTime = Long.MIN_VALUE;
+    private double lastBid = Double.NaN;
+    private double lastAsk = Double.NaN;
+
+    /**
+     * Constructor.
+     *
+     * @param timeframes The timeframes to build bars for.
+     * @throws IllegalArgumentException If a timeframe is {@link StandardTimeframe#PERIOD_CURRENT} or repeated.
+     */
+    public BarBuilder(Timeframe... timeframes) {
+        this.bars = new FormingBar[timeframes.length];
+        for (int i = 0; i < timeframes.length; i++) {
+            if (timeframes[i].getMinutes() <= 0) {
+                throw new IllegalArgumentException("Timeframe has no length: " + timeframes[i]);
+            }
+            for (int j = 0; j < i; j++) {
+                if (bars[j].minutes == timeframes[i].getMinutes()) {
+                    throw new IllegalArgumentException("Duplicate timeframe: " + timeframes[i]);
+                }
+            }
+            bars[i] = new FormingBar(timeframes[i]);
+        }
+    }
+
+    /**
+     * @param listener The listener to add.
+     */
+    public synchronized void addListener(Listener listener) {
+        Listener[] current = listeners;
+        Listener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * @param listener The listener to remove.
+     */
+    public synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] updated = new Listener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply a tick.
+     *
+     * @param tick The tick.
+     */
+    public void onTick(SymbolTick tick) {
+        onTick(tick.time, tick.bid, tick.ask);
+    }
+
+    /**
+     * Apply a tick.  A tick identical to the previous one is ignored, as polling returns the same tick until the next
+     * one arrives.  Late ticks are folded into the forming bar, or dropped if their bar has already completed.
+     *
+     * @param time The tick time, in epoch seconds.
+     * @param bid  The bid price.
+     * @param ask  The ask price.
+     */
+    public void onTick(long time, double bid, double ask) {
+        if (time == lastTime && bid == lastBid && ask == lastAsk) {
+            return;
+        }
+        lastTime = time;
+        lastBid = bid;
+        lastAsk = ask;
+        for (FormingBar bar : bars) {
+            if (!bar.empty && time >= bar.nextTime) {
+                complete(bar);
+            }
+            if (bar.empty) {
+                long openTime = BarTime.openTime(time, bar.minutes);
+                int n = bar.series.size();
+                if (n > 0 && openTime <= bar.series.getTime(n - 1)) {
+                    continue;
+                }
+                bar.empty = false;
+                bar.time = openTime;
+                bar.nextTime = BarTime.nextOpenTime(bar.time, bar.minutes);
+                bar.open = bid;
+                bar.high = bid;
+                bar.low = bid;
+                bar.volume = 0;
+            } else {
+                bar.high = Math.max(bar.high, bid);
+                bar.low = Math.min(bar.low, bid);
+            }
+            bar.close = bid;
+            bar.volume++;
+        }
+    }
+
+    /**
+     * Complete the forming bars which end at or before a time, without waiting for the next tick.
+     *
+     * @param time The current time, in epoch seconds.
+     */
+    public void onTime(long time) {
+        for (FormingBar bar : bars) {
+            if (!bar.empty && time >= bar.nextTime) {
+                complete(bar);
+            }
+        }
+    }
+
+    /**
+     * @param timeframe One of the timeframes passed to the constructor.
+     * @return The completed bars of the timeframe, oldest first.
+     * @throws IllegalArgumentException If bars are not built for the timeframe.
+     */
+    public BarSeries getSeries(Timeframe timeframe) {
+        return bar(timeframe).series;
+    }
+
+    /**
+     * @param timeframe One of the timeframes passed to the constructor.
+     * @return A live view of the bar being built.
+     * @throws IllegalArgumentException If bars are not built for the timeframe.
+     */
+    public FormingBar getFormingBar(Timeframe timeframe) {
+        return bar(timeframe);
+    }
+
+    private FormingBar bar(Timeframe timeframe) {
+        for (FormingBar bar : bars) {
+            if (bar.minutes == timeframe.getMinutes()) {
+                return bar;
+            }
+        }
+        throw new IllegalArgumentException("Bars are not built for " + timeframe);
+    }
+
+    private void complete(FormingBar bar) {
+        bar.series.append(bar.time, bar.open, bar.high, bar.low, bar.close, bar.volume);
+        bar.empty = true;
+        int index = bar.series.size() - 1;
+        for (Listener listener : listeners) {
+            listener.onBar(bar.timeframe, bar.series, index);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package human.coejoder.mt4client;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable series of price bars stored column-wise in primitive arrays.
+ * <p>
+ * Unlike {@link OHLCV}, prices keep their full precision and times are epoch seconds.  Bars are appended in ascending
+ * time order by a single writer; any number of threads may read the bars below {@link #size()} concurrently.
+ * <p>
+ * A {@link #view() view} shows the first bars of a complete series without copying them, for readers such as
+ * backtests which each need the bars up to their own clock.  Appending to a view reveals the next bar of the series,
+ * with the view's own high, low, close and volume while it is still forming.
+ */
+public final class BarSeries {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private long[] time;
+    private double[] open;
+    private double[] high;
+    private double[] low;
+    private double[] close;
+    private long[] volume;
+    private volatile int size;
+    private final BarSeries viewed;
+    private int forming = -1;
+    private double formingHigh;
+    private double formingLow;
+    private double formingClose;
+    private long formingVolume;
+
+    /**
+     * Construct an empty series.
+     */
+    public BarSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct an empty series.
+     *
+     * @param capacity The number of bars to allocate room for up front.
+     */
+    public BarSeries(int capacity) {
+        capacity = Math.max(1, capacity);
+        this.time = new long[capacity];
+        this.open = new double[capacity];
+        this.high = new double[capacity];
+        this.low = new double[capacity];
+        this.close = new double[capacity];
+        this.volume = new long[capacity];
+        this.viewed = null;
+    }
+
+    private BarSeries(BarSeries viewed) {
+        this.time = viewed.time;
+        this.open = viewed.open;
+        this.high = viewed.high;
+        this.low = viewed.low;
+        this.close = viewed.close;
+        this.volume = viewed.volume;
+        this.viewed = viewed;
+    }
+
+    /**
+     * Copy bars received from the terminal.  Since {@link OHLCV} prices are integers, this is only useful for symbols
+     * whose prices have no fractional part.
+     *
+     * @param bars The bars, oldest first.
+     * @return The series.
+     */
+    public static BarSeries of(List<OHLCV> bars) {
+        BarSeries series = new BarSeries(bars.size());
+        for (OHLCV bar : bars) {
+            series.append(bar.time, bar.open, bar.high, bar.low, bar.close, bar.tick_volume);
+        }
+        return series;
+    }
+
+    /**
+     * Append a bar.
+     *
+     * @param time   The bar open time, in epoch seconds.  Must be later than the last bar's.
+     * @param open   The open price.
+     * @param high   The high price.
+     * @param low    The low price.
+     * @param close  The close price.
+     * @param volume The tick volume.
+     */
+    public void append(long time, double open, double high, double low, double close, long volume) {
+        int n = size;
+        if (viewed != null) {
+            if (n == viewed.size || this.time[n] != time) {
+                throw new IllegalArgumentException("Bar at " + time + " is not the next bar of the viewed series");
+            }
+            forming = n;
+            formingHigh = high;
+            formingLow = low;
+            formingClose = close;
+            formingVolume = volume;
+            size = n + 1;
+            return;
+        }
+        if (n > 0 && time <= this.time[n - 1]) {
+            throw new IllegalArgumentException("Bar at " + time + " is not after the last bar at " + this.time[n - 1]);
+        }
+        if (n == this.time.length) {
+            grow();
+        }
+        this.time[n] = time;
+        this.open[n] = open;
+        this.high[n] = high;
+        this.low[n] = low;
+        this.close[n] = close;
+        this.volume[n] = volume;
+        size = n + 1;
+    }
+
+    /**
+     * Fold a later sub-bar into the last bar.
+     *
+     * @param high   The high price of the sub-bar.
+     * @param low    The low price of the sub-bar.
+     * @param close  The close price of the sub-bar.
+     * @param volume The tick volume of the sub-bar.
+     */
+    void mergeLast(double high, double low, double close, long volume) {
+        int last = size - 1;
+        if (last == forming) {
+            formingHigh = Math.max(formingHigh, high);
+            formingLow = Math.min(formingLow, low);
+            formingClose = close;
+            formingVolume += volume;
+            return;
+        }
+        this.high[last] = Math.max(this.high[last], high);
+        this.low[last] = Math.min(this.low[last], low);
+        this.close[last] = close;
+        this.volume[last] += volume;
+    }
+
+    /**
+     * Construct an empty view of this series.  The series must not change while the view is read.
+     *
+     * @return The view.
+     */
+    BarSeries view() {
+        return new BarSeries(this);
+    }
+
+    /**
+     * Reveal the first bars of a view whole.
+     *
+     * @param size The number of bars to show.
+     */
+    void seek(int size) {
+        if (viewed == null || size < this.size || size > viewed.size) {
+            throw new IllegalArgumentException("Cannot seek to " + size + " bars");
+        }
+        forming = -1;
+        this.size = size;
+    }
+
+    /**
+     * @return A copy of the bars, which is no longer a view.
+     */
+    BarSeries copy() {
+        int n = size;
+        BarSeries copy = new BarSeries(n);
+        for (int i = 0; i < n; i++) {
+            copy.append(time[i], open[i], getHigh(i), getLow(i), getClose(i), getVolume(i));
+        }
+        return copy;
+    }
+
+    /**
+     * @return The number of bars.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The bar open time, in epoch seconds.
+     */
+    public long getTime(int index) {
+        return time[index];
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The open price.
+     */
+    public double getOpen(int index) {
+        return open[index];
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The high price.
+     */
+    public double getHigh(int index) {
+        return index == forming ? formingHigh : high[index];
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The low price.
+     */
+    public double getLow(int index) {
+        return index == forming ? formingLow : low[index];
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The close price.
+     */
+    public double getClose(int index) {
+        return index == forming ? formingClose : close[index];
+    }
+
+    /**
+     * @param index The bar index, 0 being the oldest.
+     * @return The tick volume.
+     */
+    public long getVolume(int index) {
+        return index == forming ? formingVolume : volume[index];
+    }
+
+    /**
+     * @param index        The bar index, 0 being the oldest.
+     * @param appliedPrice The price to compute.
+     * @return The price of the bar.
+     */
+    public double getPrice(int index, AppliedPrice appliedPrice) {
+        switch (appliedPrice) {
+            case PRICE_OPEN:
+                return open[index];
+            case PRICE_HIGH:
+                return getHigh(index);
+            case PRICE_LOW:
+                return getLow(index);
+            case PRICE_MEDIAN:
+                return (getHigh(index) + getLow(index)) / 2;
+            case PRICE_TYPICAL:
+                return (getHigh(index) + getLow(index) + getClose(index)) / 3;
+            case PRICE_WEIGHTED:
+                return (getHigh(index) + getLow(index) + 2 * getClose(index)) / 4;
+            case PRICE_CLOSE:
+            default:
+                return getClose(index);
+        }
+    }
+
+    /**
+     * Find the last bar which opened at or before a point in time.
+     *
+     * @param time The time, in epoch seconds.
+     * @return The bar index, or -1 if every bar opened later.
+     */
+    public int indexAtOrBefore(long time) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.time[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    private void grow() {
+        int capacity = time.length * 2;
+        time = Arrays.copyOf(time, capacity);
+        open = Arrays.copyOf(open, capacity);
+        high = Arrays.copyOf(high, capacity);
+        low = Arrays.copyOf(low, capacity);
+        close = Arrays.copyOf(close, capacity);
+        volume = Arrays.copyOf(volume, capacity);
+    }
+}
@@ -0,0 +1,59 @@
+package human.coejoder.mt4client;
+
+import java.time.LocalDate;
+
+/**
+ * Bar boundary arithmetic shared by the local bar builders.
+ * <p>
+ * Times are UTC epoch seconds.  Intraday and daily bars are aligned on multiples of the timeframe length since the
+ * epoch, weekly bars open on Sunday as in MetaTrader, and monthly bars open on the first day of the month.
+ */
+final class BarTime {
+
+    static final int SECONDS_PER_MINUTE = 60;
+    static final int SECONDS_PER_DAY = 86400;
+    static final int MINUTES_PER_WEEK = StandardTimeframe.PERIOD_W1.minutes;
+    static final int MINUTES_PER_MONTH = StandardTimeframe.PERIOD_MN1.minutes;
+
+    /**
+     * The epoch (a Thursday) is 4 days after a Sunday.
+     */
+    private static final int EPOCH_DAY_OF_WEEK_FROM_SUNDAY = 4;
+
+    private BarTime() {}
+
+    /**
+     * Get the open time of the bar containing a point in time.
+     *
+     * @param time    The time, in epoch seconds.
+     * @param minutes The length of the timeframe in minutes, as returned by {@link Timeframe#getMinutes()}.
+     * @return The open time of the bar, in epoch seconds.
+     */
+    static long openTime(long time, int minutes) {
+        if (minutes == MINUTES_PER_MONTH) {
+            long day = Math.floorDiv(time, SECONDS_PER_DAY);
+            return LocalDate.ofEpochDay(day).withDayOfMonth(1).toEpochDay() * SECONDS_PER_DAY;
+        }
+        if (minutes == MINUTES_PER_WEEK) {
+            long day = Math.floorDiv(time, SECONDS_PER_DAY);
+            return (day - Math.floorMod(day + EPOCH_DAY_OF_WEEK_FROM_SUNDAY, 7)) * SECONDS_PER_DAY;
+        }
+        long length = (long) minutes * SECONDS_PER_MINUTE;
+        return Math.floorDiv(time, length) * length;
+    }
+
+    /**
+     * Get the open time of the bar following a bar.
+     *
+     * @param openTime The open time of a bar, as returned by {@link #openTime(long, int)}.
+     * @param minutes  The length of the timeframe in minutes.
+     * @return The open time of the next bar, in epoch seconds.
+     */
+    static long nextOpenTime(long openTime, int minutes) {
+        if (minutes == MINUTES_PER_MONTH) {
+            long day = Math.floorDiv(openTime, SECONDS_PER_DAY);
+            return LocalDate.ofEpochDay(day).plusMonths(1).toEpochDay() * SECONDS_PER_DAY;
+        }
+        return openTime + (long) minutes * SECONDS_PER_MINUTE;
+    }
+}
@@ -0,0 +1,299 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import human.coejoder.mt5client.MT5Order;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The JSON codec configuration shared by all clients.
+ * <p>
+ * Jackson builds the deserializer of a type the first time it decodes one, which made the first orders and quotes
+ * after startup slow in every client.  There is now one mapper for the whole process, and it is never reconfigured.
+ * The readers of all response types are resolved when this class is loaded.  Each client passes its own injectable
+ * values per read, so it can share the mapper.  The orders, symbols, quotes and bars are decoded by the streaming
+ * deserializers in {@link StreamingDeserializers} rather than by reflection.  Server replies are decoded straight from
+ * their text by {@link #readResponse(String, Class, InjectableValues)}, without building a tree first.  Call
+ * {@link #warmUp()} before trading starts to also run the decode paths until the JIT compiles them.
+ */
+public final class Codecs {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Codecs.class);
+    private static final String WARNING = "warning";
+    private static final String RESPONSE = "response";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new ParameterNamesModule())
+            .registerModule(StreamingDeserializers.module());
+    private static final ConcurrentHashMap<JavaType, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final int DEFAULT_WARM_UP_ITERATIONS = 1000;
+
+    // the samples register their symbol in the shared registry, under a name too long for a terminal to have
+    private static final String WARM_UP_SYMBOL = "<codecs warm-up>";
+    private static final String ORDER_JSON = "{\"ticket\":1,\"magic_number\":0,\"symbol\":\"" + WARM_UP_SYMBOL
+            + "\",\"order_type\":0,\"lots\":0.1,\"open_price\":1.085,\"close_price\":1.0851,"
+            + "\"open_time\":\"2024.01.02 10:00:00\",\"close_time\":null,\"expiration\":null,\"sl\":0,\"tp\":0,"
+            + "\"profit\":1.0,\"commission\":0,\"swap\":0,\"comment\":\"\"}";
+    private static final String SYMBOLS_JSON = "{\"" + WARM_UP_SYMBOL + "\":{\"name\":\"" + WARM_UP_SYMBOL + "\","
+            + "\"point\":0.00001,\"digits\":5,\"volume_min\":0.01,\"volume_step\":0.01,\"volume_max\":100,"
+            + "\"trade_contract_size\":100000,\"trade_tick_value\":1,\"trade_tick_size\":0.00001,"
+            + "\"trade_stops_level\":0,\"trade_freeze_level\":0}}";
+    private static final String OHLCV_JSON = "[{\"time\":1704189600,\"open\":108500,\"high\":108600,\"low\":108400,"
+            + "\"close\":108550,\"tick_volume\":120}]";
+    private static final String TICK_JSON = "{\"time\":1704189600,\"bid\":1.085,\"ask\":1.0851,\"last\":0,\"volume\":0}";
+    private static final String ACCOUNT_JSON = "{\"login\":1,\"trade_mode\":0,\"name\":\"\",\"server\":\"\","
+            + "\"currency\":\"USD\",\"company\":\"\"}";
+    private static final String ERROR_JSON = "{\"error_code\":4106,\"error_code_description\":\"unknown symbol\","
+            + "\"error_message\":\"\"}";
+    private static final String NAMES_JSON = "[\"EURUSD\",\"GBPUSD\"]";
+
+    static {
+        for (Object type : new Object[]{
+                Order.class, MT5Order.class, Account.class, SymbolTick.class, MT4Exception.class, double.class,
+                new TypeReference<List<String>>() {}, new TypeReference<HashMap<String, Symbol>>() {},
+                new TypeReference<HashMap<String, Signal>>() {}, new TypeReference<List<Order>>() {},
+                new TypeReference<List<CompactOrder>>() {}, new TypeReference<List<MT5Order>>() {},
+                new TypeReference<List<OHLCV>>() {}}) {
+            if (type instanceof Class) {
+                readerFor(MAPPER.constructType((Class<?>) type));
+            } else {
+                readerFor(MAPPER.constructType((TypeReference<?>) type));
+            }
+        }
+    }
+
+    private Codecs() {}
+
+    /**
+     * Run every decode path, so that the JIT has compiled it before the first real response.
+     */
+    public static void warmUp() {
+        warmUp(DEFAULT_WARM_UP_ITERATIONS);
+    }
+
+    /**
+     * Run every decode path a number of times, so that the JIT has compiled it before the first real response.
+     *
+     * @param iterations The number of times each sample response is decoded.
+     */
+    public static void warmUp(int iterations) {
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        String order = reply(ORDER_JSON);
+        String symbols = reply(SYMBOLS_JSON);
+        String ohlcv = reply(OHLCV_JSON);
+        String tick = reply(TICK_JSON);
+        String account = reply(ACCOUNT_JSON);
+        String names = reply(NAMES_JSON);
+        try {
+            for (int i = 0; i < iterations; i++) {
+                readResponse(order, Order.class, injectables);
+                readResponse(order, MT5Order.class, injectables);
+                readResponse(order, CompactOrder.class, injectables);
+                readResponse(symbols, new TypeReference<HashMap<String, Symbol>>() {}, injectables);
+                readResponse(ohlcv, new TypeReference<List<OHLCV>>() {}, injectables);
+                readResponse(tick, SymbolTick.class, injectables);
+                readResponse(account, Account.class, injectables);
+                readResponse(names, new TypeReference<List<String>>() {}, injectables);
+                try {
+                    checkResponse(ERROR_JSON, injectables);
+                    throw new IllegalStateException("Sample error was not raised");
+                } catch (MT4Exception expected) {
+                    // the sample error decodes to this
+                }
+            }
+        } catch (JsonProcessingException | MT4Exception e) {
+            throw new IllegalStateException("Sample response failed to decode", e);
+        }
+    }
+
+    private static String reply(String response) {
+        return "{\"" + RESPONSE + "\":" + response + "}";
+    }
+
+    /**
+     * Decode the response in a server reply, straight from the reply's text.  A reply carrying any of the error fields
+     * is raised as an error instead, and a warning in the reply is logged.
+     *
+     * @param reply       The text of a server reply.
+     * @param type        The type to decode the response to.
+     * @param injectables The values injected into the decoded objects, such as the client.
+     * @param <T>         The decoded type.
+     * @return The decoded response, or null if the reply has none.
+     * @throws JsonProcessingException If the reply fails to parse, or the response does not match the type.
+     * @throws MT4Exception            If the reply is an error.
+     */
+    public static <T> T readResponse(String reply, Class<T> type, InjectableValues injectables)
+            throws JsonProcessingException, MT4Exception {
+        return readResponse(reply, MAPPER.constructType(type), injectables);
+    }
+
+    /**
+     * Decode the response in a server reply, straight from the reply's text.  A reply carrying any of the error fields
+     * is raised as an error instead, and a warning in the reply is logged.
+     *
+     * @param reply       The text of a server reply.
+     * @param type        The type to decode the response to.
+     * @param injectables The values injected into the decoded objects, such as the client.
+     * @param <T>         The decoded type.
+     * @return The decoded response, or null if the reply has none.
+     * @throws JsonProcessingException If the reply fails to parse, or the response does not match the type.
+     * @throws MT4Exception            If the reply is an error.
+     */
+    public static <T> T readResponse(String reply, TypeReference<T> type, InjectableValues injectables)
+            throws JsonProcessingException, MT4Exception {
+        return readResponse(reply, MAPPER.constructType(type), injectables);
+    }
+
+    /**
+     * Check a server reply whose response is not needed, such as the reply to closing an order.
+     *
+     * @param reply       The text of a server reply.
+     * @param injectables The values injected into the decoded error, such as the client.
+     * @throws JsonProcessingException If the reply fails to parse.
+     * @throws MT4Exception            If the reply is an error.
+     */
+    public static void checkResponse(String reply, InjectableValues injectables)
+            throws JsonProcessingException, MT4Exception {
+        readResponse(reply, (JavaType) null, injectables);
+    }
+
+    /**
+     * @param json A JSON document.
+     * @return Its tree.
+     * @throws JsonProcessingException If the document fails to parse.
+     */
+    public static JsonNode readTree(String json) throws JsonProcessingException {
+        return MAPPER.readTree(json);
+    }
+
+    /**
+     * @param tree        A JSON tree.
+     * @param type        The type to decode it to.
+     * @param injectables The values injected into the decoded objects, such as the client.
+     * @param <T>         The decoded type.
+     * @return The decoded value, or null if there is no tree.
+     * @throws JsonProcessingException If the tree does not match the type.
+     */
+    public static <T> T readValue(JsonNode tree, Class<T> type, InjectableValues injectables)
+            throws JsonProcessingException {
+        return read(tree, MAPPER.constructType(type), injectables);
+    }
+
+    /**
+     * @param tree        A JSON tree.
+     * @param type        The type to decode it to.
+     * @param injectables The values injected into the decoded objects, such as the client.
+     * @param <T>         The decoded type.
+     * @return The decoded value, or null if there is no tree.
+     * @throws JsonProcessingException If the tree does not match the type.
+     */
+    public static <T> T readValue(JsonNode tree, TypeReference<T> type, InjectableValues injectables)
+            throws JsonProcessingException {
+        return read(tree, MAPPER.constructType(type), injectables);
+    }
+
+    /**
+     * @param value A value.
+     * @param <T>   The tree type.
+     * @return The value encoded as a JSON tree.
+     */
+    public static <T extends JsonNode> T valueToTree(Object value) {
+        return MAPPER.valueToTree(value);
+    }
+
+    private static <T> T read(JsonNode tree, JavaType type, InjectableValues injectables)
+            throws JsonProcessingException {
+        if (tree == null || tree.isMissingNode()) {
+            return null;
+        }
+        try {
+            return readerFor(type).with(injectables).readValue(tree);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // trees are decoded in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T readResponse(String reply, JavaType type, InjectableValues injectables)
+            throws JsonProcessingException, MT4Exception {
+        try {
+            return readFields(reply, type, injectables, true);
+        } catch (JsonProcessingException e) {
+            if (type != null) {
+                // an error reply may carry a response which does not decode, ahead of its error fields
+                try {
+                    readFields(reply, null, injectables, false);
+                } catch (JsonProcessingException malformed) {
+                    e.addSuppressed(malformed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Walk the fields of a reply with the parser, decoding the response in place and skipping everything else.  Errors
+     * are rare, so a reply with an error field is parsed again as a whole into the exception.
+     */
+    private static <T> T readFields(String reply, JavaType type, InjectableValues injectables, boolean logWarning)
+            throws JsonProcessingException, MT4Exception {
+        T response = null;
+        boolean error = false;
+        String warning = null;
+        try (JsonParser parser = MAPPER.createParser(reply)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw MismatchedInputException.from(parser, type, "Expected a reply object, got "
+                        + parser.currentToken());
+            }
+            for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+                parser.nextToken();
+                if (field.equals(RESPONSE) && type != null && !error) {
+                    response = readerFor(type).with(injectables).readValue(parser);
+                } else if (field.equals(MT4Exception.ERROR_CODE) || field.equals(MT4Exception.ERROR_CODE_DESCRIPTION)
+                        || field.equals(MT4Exception.ERROR_MESSAGE)) {
+                    error = true;
+                    parser.skipChildren();
+                } else if (field.equals(WARNING)) {
+                    warning = parser.getValueAsString();
+                    parser.skipChildren();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // replies are decoded in memory
+            throw new IllegalStateException(e);
+        }
+        if (error) {
+            throw readerFor(MAPPER.constructType(MT4Exception.class)).with(injectables).<MT4Exception>readValue(reply);
+        }
+        if (warning != null && logWarning) {
+            LOG.warn(warning);
+        }
+        return response;
+    }
+
+    private static ObjectReader readerFor(JavaType type) {
+        // the reader resolves the deserializer of its type when created
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+}
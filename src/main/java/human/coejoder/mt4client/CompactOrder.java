@@ -0,0 +1,141 @@
+package human.coejoder.mt4client;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact, read-only form of an {@link Order}, for keeping large order histories in memory.
+ * <p>
+ * The open, close and expiration times are parsed once, when the order is decoded, to <code>datetime</code> values:
+ * seconds since 1970 in the trade server's time, or 0 if unset.  The symbol is held as its id in the
+ * {@link SymbolRegistry#getInstance() shared registry}, so every order shares one copy of the name.  The comment is
+ * kept as its UTF-8 bytes and only decoded to a string by {@link #getComment()}.  This takes about half the heap of an
+ * {@link Order} holding the same values.
+ */
+@Getter
+public final class CompactOrder {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int ticket;
+    private final int magicNumber;
+    private final int symbolId;
+    private final OrderType orderType;
+    private final double lots;
+    private final double openPrice;
+    private final double closePrice;
+    private final long openTime;
+    private final long closeTime;
+    private final long expiration;
+    private final double sl;
+    private final double tp;
+    private final double profit;
+    private final double commission;
+    private final double swap;
+    @Getter(AccessLevel.NONE)
+    private final byte[] comment;
+
+    /**
+     * Package-private constructor.
+     *
+     * @param ticket      The order ticket number.
+     * @param magicNumber The identifying (magic) number.
+     * @param symbolId    The id of the symbol in the shared registry, or -1 if there is none.
+     * @param orderType   The order type.
+     * @param lots        Amount of lots (trade volume).
+     * @param openPrice   The open price.
+     * @param closePrice  The close price.
+     * @param openTime    The open time, in seconds since 1970, or 0.
+     * @param closeTime   The close time, in seconds since 1970, or 0.
+     * @param expiration  The expiration time, in seconds since 1970, or 0.
+     * @param sl          The stop-loss.
+     * @param tp          The take-profit.
+     * @param profit      The net profit (without swaps or commissions).
+     * @param commission  The calculated commission.
+     * @param swap        The swap value.
+     * @param comment     The UTF-8 bytes of the comment, or null.
+     */
+    CompactOrder(int ticket, int magicNumber, int symbolId, OrderType orderType, double lots, double openPrice,
+                 double closePrice, long openTime, long closeTime, long expiration, double sl, double tp,
+                 double profit, double commission, double swap, byte[] comment) {
+        this.ticket = ticket;
+        this.magicNumber = magicNumber;
+        this.symbolId = symbolId;
+        this.orderType = orderType;
+        this.lots = lots;
+        this.openPrice = openPrice;
+        this.closePrice = closePrice;
+        this.openTime = openTime;
+        this.closeTime = closeTime;
+        this.expiration = expiration;
+        this.sl = sl;
+        this.tp = tp;
+        this.profit = profit;
+        this.commission = commission;
+        this.swap = swap;
+        this.comment = comment != null && comment.length == 0 ? EMPTY : comment;
+    }
+
+    /**
+     * @param order An order.
+     * @return The compact form of the order.
+     * @throws IllegalArgumentException If one of its times is not a date/time.
+     */
+    public static CompactOrder of(Order order) {
+        return new CompactOrder(order.getTicket(), order.getMagicNumber(), order.getSymbolId(), order.getOrderType(),
+                order.getLots(), order.getOpenPrice(), order.getClosePrice(), ServerTime.parse(order.getOpenTime()),
+                ServerTime.parse(order.getCloseTime()), ServerTime.parse(order.getExpiration()), order.getSl(),
+                order.getTp(), order.getProfit(), order.getCommission(), order.getSwap(), encode(order.getComment()));
+    }
+
+    /**
+     * @param comment A comment, or null.
+     * @return Its UTF-8 bytes, or null.
+     */
+    static byte[] encode(String comment) {
+        return comment == null ? null : comment.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The symbol name, shared by all orders of the symbol, or null if there is none.
+     */
+    public String getSymbol() {
+        return symbolId < 0 ? null : SymbolRegistry.getInstance().getName(symbolId);
+    }
+
+    /**
+     * Decode the comment.  The string is not kept, so each call decodes it again.
+     *
+     * @return The comment, or null if there is none.
+     */
+    public String getComment() {
+        if (comment == null) {
+            return null;
+        }
+        return comment.length == 0 ? "" : new String(comment, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactOrder{" +
+                "ticket=" + ticket +
+                ", magicNumber=" + magicNumber +
+                ", symbol='" + getSymbol() + '\'' +
+                ", orderType=" + orderType +
+                ", lots=" + lots +
+                ", openPrice=" + openPrice +
+                ", closePrice=" + closePrice +
+                ", openTime=" + openTime +
+                ", closeTime=" + closeTime +
+                ", expiration=" + expiration +
+                ", sl=" + sl +
+                ", tp=" + tp +
+                ", profit=" + profit +
+                ", commission=" + commission +
+                ", swap=" + swap +
+                ", comment='" + getComment() + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package human.coejoder.mt4client;
+
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+/**
+ * A REQ socket connected to the MT4 server.
+ * <p>
+ * A REQ socket strictly alternates between sending and receiving, so once a response times out the socket is stuck:
+ * the next send fails, or a late response to the abandoned request is read as the answer to the next one.  Such a
+ * connection must be {@link #close() closed} and replaced.  Not thread-safe.
+ */
+final class Connection {
+
+    private static final int ENABLED = 1;
+    private static final int NO_LINGER = 0;
+
+    private final ZContext context;
+    private final ZMQ.Socket socket;
+    private int receiveTimeoutMs;
+
+    /**
+     * Constructor.  Create the socket and start connecting in the background.
+     *
+     * @param context          The context to create the socket in.
+     * @param address          The address of the server's listening socket.
+     * @param sendTimeoutMs    The number of milliseconds to wait for a request to be sent.
+     * @param receiveTimeoutMs The number of milliseconds to wait for a response to be received.
+     */
+    Connection(ZContext context, String address, int sendTimeoutMs, int receiveTimeoutMs) {
+        this.context = context;
+        this.socket = context.createSocket(SocketType.REQ);
+        this.socket.setSndHWM(ENABLED);
+        this.socket.setRcvHWM(ENABLED);
+        this.socket.setSendTimeOut(sendTimeoutMs);
+        this.socket.setReceiveTimeOut(receiveTimeoutMs);
+        this.receiveTimeoutMs = receiveTimeoutMs;
+        this.socket.connect(address);
+    }
+
+    /**
+     * @param buffer The encoded request.
+     * @param length The number of bytes to send.
+     * @return Whether the request was queued.  If not, it never reached the server.
+     */
+    boolean send(byte[] buffer, int length) {
+        return socket.send(buffer, 0, length, 0);
+    }
+
+    /**
+     * @return The response, or null if none arrived in time.
+     */
+    String receive() {
+        return socket.recvStr();
+    }
+
+    /**
+     * @param receiveTimeoutMs The number of milliseconds to wait for the next responses.
+     */
+    void setReceiveTimeout(int receiveTimeoutMs) {
+        if (receiveTimeoutMs != this.receiveTimeoutMs) {
+            socket.setReceiveTimeOut(receiveTimeoutMs);
+            this.receiveTimeoutMs = receiveTimeoutMs;
+        }
+    }
+
+    /**
+     * Wait for a response on either of two connections.
+     *
+     * @param first     A connection waiting for a response.
+     * @param second    Another connection waiting for a response.
+     * @param timeoutMs The number of milliseconds to wait.
+     * @return 0 if the first connection has a response, 1 if only the second one has, or -1 if neither has.
+     */
+    static int poll(Connection first, Connection second, int timeoutMs) {
+        try (ZMQ.Poller poller = first.context.createPoller(2)) {
+            poller.register(first.socket, ZMQ.Poller.POLLIN);
+            poller.register(second.socket, ZMQ.Poller.POLLIN);
+            if (poller.poll(timeoutMs) <= 0) {
+                return -1;
+            }
+            return poller.pollin(0) ? 0 : 1;
+        }
+    }
+
+    /**
+     * Close the socket, discarding any unsent request and late response.
+     */
+    void close() {
+        socket.setLinger(NO_LINGER);
+        socket.close();
+    }
+}
@@ -0,0 +1,162 @@
+package human.coejoder.mt4client;
+
+/**
+ * Local implementations of the common built-in indicators over a {@link BarSeries}.
+ * <p>
+ * Every function evaluates the indicator at a single bar index and returns 0 when there are not enough bars, as the
+ * terminal does.  Recursive averages (EMA, SMMA, RSI) are seeded {@value #WARM_UP_PERIODS} periods before the bar
+ * instead of at the start of history, which keeps each call cheap while agreeing with a full-history computation to
+ * well within a point.
+ */
+final class IndicatorMath {
+
+    static final int WARM_UP_PERIODS = 10;
+
+    private IndicatorMath() {}
+
+    /**
+     * @return <code>iMA</code> at bar {@code index}.
+     */
+    static double movingAverage(BarSeries bars, int index, int period, SmoothingMethod method, AppliedPrice price) {
+        if (period <= 0 || index - period + 1 < 0) {
+            return 0;
+        }
+        switch (method) {
+            case EMA:
+                return exponential(bars, index, period, price, 2.0 / (period + 1));
+            case SMMA:
+                return smoothed(bars, index, period, price);
+            case LWMA:
+                return linearWeighted(bars, index, period, price);
+            case SMA:
+            default:
+                return simple(bars, index, period, price);
+        }
+    }
+
+    /**
+     * @return <code>iStdDev</code> at bar {@code index}.
+     */
+    static double standardDeviation(BarSeries bars, int index, int period, SmoothingMethod method, AppliedPrice price) {
+        if (period <= 0 || index - period + 1 < 0) {
+            return 0;
+        }
+        double mean = movingAverage(bars, index, period, method, price);
+        double sum = 0;
+        for (int i = index - period + 1; i <= index; i++) {
+            double d = bars.getPrice(i, price) - mean;
+            sum += d * d;
+        }
+        return Math.sqrt(sum / period);
+    }
+
+    /**
+     * @return <code>iBands</code> at bar {@code index}.
+     */
+    static double bands(BarSeries bars, int index, int period, double deviation, AppliedPrice price,
+                        IndicatorLine_iBands mode) {
+        if (period <= 0 || index - period + 1 < 0) {
+            return 0;
+        }
+        double mean = simple(bars, index, period, price);
+        switch (mode) {
+            case UPPER:
+                return mean + deviation * standardDeviation(bars, index, period, SmoothingMethod.SMA, price);
+            case LOWER:
+                return mean - deviation * standardDeviation(bars, index, period, SmoothingMethod.SMA, price);
+            case MAIN:
+            default:
+                return mean;
+        }
+    }
+
+    /**
+     * @return <code>iRSI</code> at bar {@code index}.
+     */
+    static double relativeStrength(BarSeries bars, int index, int period, AppliedPrice price) {
+        if (period <= 0 || index - period < 0) {
+            return 0;
+        }
+        int start = Math.max(1, index - WARM_UP_PERIODS * period);
+        double gain = 0;
+        double loss = 0;
+        int i = start;
+        for (; i < start + period; i++) {
+            double change = bars.getPrice(i, price) - bars.getPrice(i - 1, price);
+            gain += Math.max(change, 0);
+            loss += Math.max(-change, 0);
+        }
+        gain /= period;
+        loss /= period;
+        for (; i <= index; i++) {
+            double change = bars.getPrice(i, price) - bars.getPrice(i - 1, price);
+            gain = (gain * (period - 1) + Math.max(change, 0)) / period;
+            loss = (loss * (period - 1) + Math.max(-change, 0)) / period;
+        }
+        if (loss == 0) {
+            return gain == 0 ? 50 : 100;
+        }
+        return 100 - 100 / (1 + gain / loss);
+    }
+
+    /**
+     * @return <code>iATR</code> at bar {@code index}.
+     */
+    static double averageTrueRange(BarSeries bars, int index, int period) {
+        if (period <= 0 || index - period < 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = index - period + 1; i <= index; i++) {
+            double previousClose = bars.getClose(i - 1);
+            sum += Math.max(bars.getHigh(i), previousClose) - Math.min(bars.getLow(i), previousClose);
+        }
+        return sum / period;
+    }
+
+    /**
+     * @return <code>iMomentum</code> at bar {@code index}.
+     */
+    static double momentum(BarSeries bars, int index, int period, AppliedPrice price) {
+        if (period <= 0 || index - period < 0) {
+            return 0;
+        }
+        double previous = bars.getPrice(index - period, price);
+        return previous == 0 ? 0 : bars.getPrice(index, price) * 100 / previous;
+    }
+
+    private static double simple(BarSeries bars, int index, int period, AppliedPrice price) {
+        double sum = 0;
+        for (int i = index - period + 1; i <= index; i++) {
+            sum += bars.getPrice(i, price);
+        }
+        return sum / period;
+    }
+
+    private static double linearWeighted(BarSeries bars, int index, int period, AppliedPrice price) {
+        double sum = 0;
+        int weight = 1;
+        for (int i = index - period + 1; i <= index; i++, weight++) {
+            sum += weight * bars.getPrice(i, price);
+        }
+        return sum / (period * (period + 1) / 2.0);
+    }
+
+    private static double exponential(BarSeries bars, int index, int period, AppliedPrice price, double alpha) {
+        int start = Math.max(0, index - WARM_UP_PERIODS * period);
+        double value = bars.getPrice(start, price);
+        for (int i = start + 1; i <= index; i++) {
+            value += alpha * (bars.getPrice(i, price) - value);
+        }
+        return value;
+    }
+
+    private static double smoothed(BarSeries bars, int index, int period, AppliedPrice price) {
+        int start = Math.max(0, index - WARM_UP_PERIODS * period);
+        double value = simple(bars, start + period - 1, period, price);
+        for (int i = start + period; i <= index; i++) {
+            value = (value * (period - 1) + bars.getPrice(i, price)) / period;
+        }
+        return value;
+    }
+}
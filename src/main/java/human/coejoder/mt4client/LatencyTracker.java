@@ -0,0 +1,100 @@
+package human.coejoder.mt4client;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Tracks the latency distribution of each {@link Request} type, to derive deadlines and hedging delays from it.
+ * <p>
+ * Latencies are counted in log-linear buckets, eight per power of two, so a percentile is off by at most 12.5%.  Every
+ * {@value #DECAY_INTERVAL} samples of a type, its counts are halved, so the distribution follows the recent behaviour
+ * of the server.
+ */
+final class LatencyTracker {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int DECAY_INTERVAL = 1024;
+
+    /**
+     * The fewest samples a percentile is computed from.
+     */
+    static final int MIN_SAMPLES = 20;
+
+    private static final class Histogram {
+        final long[] counts = new long[BUCKETS];
+        long total;
+        int sinceDecay;
+    }
+
+    private final Map<Request, Histogram> histograms = new EnumMap<>(Request.class);
+
+    LatencyTracker() {
+        for (Request request : Request.values()) {
+            histograms.put(request, new Histogram());
+        }
+    }
+
+    /**
+     * @param request The request type.
+     * @param nanos   The time from sending the request to receiving its response.
+     */
+    void record(Request request, long nanos) {
+        Histogram histogram = histograms.get(request);
+        synchronized (histogram) {
+            histogram.counts[bucket(Math.max(0, nanos))]++;
+            histogram.total++;
+            if (++histogram.sinceDecay == DECAY_INTERVAL) {
+                histogram.sinceDecay = 0;
+                histogram.total = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    histogram.counts[i] >>= 1;
+                    histogram.total += histogram.counts[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param request    The request type.
+     * @param percentile The percentile, between 0 and 1.
+     * @return The latency in nanoseconds, rounded up to its bucket's upper bound, or -1 if there are fewer than
+     * {@value #MIN_SAMPLES} samples.
+     */
+    long percentile(Request request, double percentile) {
+        Histogram histogram = histograms.get(request);
+        synchronized (histogram) {
+            if (histogram.total < MIN_SAMPLES) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(percentile * histogram.total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long base = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return base + (1L << shift) - 1;
+    }
+}
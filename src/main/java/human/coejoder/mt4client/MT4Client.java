@@ -3,40 +3,39 @@ package human.coejoder.mt4client;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.InjectableValues;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.BooleanNode;
-import com.fasterxml.jackson.databind.node.IntNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.LongNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
-import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.zeromq.SocketType;
 import org.zeromq.ZContext;
-import org.zeromq.ZMQ;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MT4Client implements MT4ClientInterface {
 
     private static final Logger LOG = LoggerFactory.getLogger(MT4Client.class);
-    private static final int ENABLED = 1;
     private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10000;
     private static final int DEFAULT_RESPONSE_TIMEOUT_MILLIS = 10000;
     private static final int DEFAULT_INDICATOR_TIMEOUT = 5000;
     private static final boolean DEFAULT_CLOSE_IF_OPENED = true;
-    private static final String ERROR_CODE = MT4Exception.ERROR_CODE;
-    private static final String ERROR_CODE_DESCRIPTION = MT4Exception.ERROR_CODE_DESCRIPTION;
-    private static final String ERROR_MESSAGE = MT4Exception.ERROR_MESSAGE;
-    private static final String WARNING = "warning";
-    private static final String RESPONSE = "response";
+    private static final double DEADLINE_PERCENTILE = 0.99;
+    private static final int DEADLINE_MULTIPLIER = 4;
+    private static final int MIN_ADAPTIVE_DEADLINE_MILLIS = 100;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int PROBE_MISSES = 3;
     private static final String NAMES = "names";
     private static final String INDICATOR = "indicator";
     private static final String ARGV = "argv";
@@ -46,15 +45,65 @@ public class MT4Client implements MT4ClientInterface {
     private static final String SYMBOL = "symbol";
     private static final String TIMEFRAME = "timeframe";
     private static final String LIMIT = "limit";
+    private static final String OFFSET = "offset";
     private static final TypeReference<List<String>> LIST_OF_STRINGS = new TypeReference<>() {};
     private static final TypeReference<HashMap<String, Symbol>> MAP_OF_SYMBOLS = new TypeReference<>() {};
     private static final TypeReference<HashMap<String, Signal>> MAP_OF_SIGNALS = new TypeReference<>() {};
     private static final TypeReference<List<Order>> LIST_OF_ORDERS = new TypeReference<>() {};
+    private static final TypeReference<List<CompactOrder>> LIST_OF_COMPACT_ORDERS = new TypeReference<>() {};
     private static final TypeReference<List<OHLCV>> LIST_OF_OHLCV = new TypeReference<>() {};
 
+    /**
+     * A bound on the time left for the calls made while it is open.
+     *
+     * @see #deadline(int)
+     */
+    public final class Deadline implements AutoCloseable {
+        private final Deadline outer;
+        private final long expiresNanos;
+
+        private Deadline(Deadline outer, long expiresNanos) {
+            this.outer = outer;
+            this.expiresNanos = expiresNanos;
+        }
+
+        /**
+         * Restore the deadline which was in effect when this one was opened.
+         */
+        @Override
+        public void close() {
+            currentDeadline.set(outer);
+        }
+    }
+
     private final ZContext context;
-    private final ZMQ.Socket socket;
-    private final ObjectMapper objectMapper;
+    private final String address;
+    private final int requestTimeoutMs;
+    private final int responseTimeoutMs;
+    private Connection connection;
+    private Connection standby;
+    private Connection hedge;
+    private boolean standbyEnabled;
+    private volatile long reconnectCount;
+    private volatile boolean alive = true;
+    private volatile boolean stale;
+    private ScheduledExecutorService prober;
+    private Connection probeConnection;
+    private int probeIntervalMs;
+    private int probeMisses;
+    private final LatencyTracker latency = new LatencyTracker();
+    private boolean adaptiveDeadlines;
+    private boolean hedging;
+    private volatile long hedgeCount;
+    private final ThreadLocal<Deadline> currentDeadline = new ThreadLocal<>();
+    private final ReentrantLock exchangeLock = new ReentrantLock();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder collapsedCount = new LongAdder();
+    private volatile boolean coalescing;
+
+    private final InjectableValues injectables;
+    private final WireRecorder wireRecorder;
+    private volatile SessionRecorder sessionRecorder;
 
     /**
      * Constructor.  Initialize the REQ socket and connect to the MT4 server.
@@ -62,26 +111,29 @@ public class MT4Client implements MT4ClientInterface {
      * @param address           The address of the server's listening socket.
      * @param requestTimeoutMs  The number of milliseconds to wait for a request to be sent.
      * @param responseTimeoutMs The number of milliseconds to wait for a response to be received.
+     * @param wireRecorder      The flight recorder for the raw requests and responses.
      */
-    public MT4Client(String address, int requestTimeoutMs, int responseTimeoutMs) {
-        // create JSON object mapper
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new ParameterNamesModule());
+    public MT4Client(String address, int requestTimeoutMs, int responseTimeoutMs, WireRecorder wireRecorder) {
+        this.wireRecorder = wireRecorder;
+        this.address = address;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.responseTimeoutMs = responseTimeoutMs;
 
-        InjectableValues.Std injectableValues = new InjectableValues.Std();
-        injectableValues.addValue(MT4Client.class, this);
-        objectMapper.setInjectableValues(injectableValues);
+        // the shared codecs inject this client into the objects they decode
+        injectables = new InjectableValues.Std().addValue(MT4Client.class, this);
 
-        // create and configure REQ socket
+        // create the REQ socket and connect to server
         this.context = new ZContext();
-        this.socket = context.createSocket(SocketType.REQ);
-        this.socket.setSndHWM(ENABLED);
-        this.socket.setRcvHWM(ENABLED);
-        this.socket.setSendTimeOut(requestTimeoutMs);
-        this.socket.setReceiveTimeOut(responseTimeoutMs);
+        this.connection = new Connection(context, address, requestTimeoutMs, responseTimeoutMs);
+    }
 
-        // connect to server
-        this.socket.connect(address);
+    /**
+     * Constructor.  Records the wire traffic in a {@link WireRecorder#WireRecorder() default flight recorder}.
+     *
+     * @see #MT4Client(String, int, int, WireRecorder)
+     */
+    public MT4Client(String address, int requestTimeoutMs, int responseTimeoutMs) {
+        this(address, requestTimeoutMs, responseTimeoutMs, new WireRecorder());
     }
 
     /**
@@ -94,7 +146,183 @@ public class MT4Client implements MT4ClientInterface {
         this(address, DEFAULT_REQUEST_TIMEOUT_MILLIS, DEFAULT_RESPONSE_TIMEOUT_MILLIS);
     }
 
+    /**
+     * Get the flight recorder holding the latest raw requests and responses, e.g. to dump it for a post-mortem.
+     *
+     * @return The {@link WireRecorder}.
+     */
+    public WireRecorder getWireRecorder() {
+        return wireRecorder;
+    }
+
+    /**
+     * Start or stop persisting every request/response pair to a session file, e.g. for a {@link SessionReplayServer}.
+     *
+     * @param sessionRecorder The session recorder, or null to stop recording.  The caller remains responsible for
+     *                        closing it.
+     */
+    public void setSessionRecorder(SessionRecorder sessionRecorder) {
+        this.sessionRecorder = sessionRecorder;
+    }
+
+    /**
+     * Keep a spare connection to the server, which replaces the current one as soon as it gets stuck after a timeout.
+     * Otherwise a new connection is created at that point.
+     *
+     * @param enabled Whether to keep a spare connection.
+     */
+    public void setStandby(boolean enabled) {
+        exchangeLock.lock();
+        try {
+            standbyEnabled = enabled;
+            if (enabled && standby == null) {
+                standby = newConnection();
+            } else if (!enabled && standby != null) {
+                standby.close();
+                standby = null;
+            }
+        } finally {
+            exchangeLock.unlock();
+        }
+    }
+
+    /**
+     * Check on a separate connection that the server answers, so that calls fail fast with {@code ERR_NO_CONNECTION}
+     * while it does not (e.g. while the terminal restarts) instead of each waiting for the response timeout.  When the
+     * server answers again, the next call starts on a fresh connection.  The server is deemed dead once
+     * {@value #PROBE_MISSES} probes in a row get no answer, not counting those which waited behind a call in flight.
+     *
+     * @param intervalMs The number of milliseconds between probes, which is also the probe's timeout.
+     */
+    public synchronized void startLivenessProbe(int intervalMs) {
+        if (prober != null) {
+            throw new IllegalStateException("Liveness probe already started");
+        }
+        probeIntervalMs = intervalMs;
+        probeConnection = new Connection(context, address, intervalMs, intervalMs);
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mt4-liveness-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return False if the {@link #startLivenessProbe(int) liveness probe} found the server not answering.
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * @return The number of times a stuck connection was replaced.
+     */
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * Bound the calls made until the returned deadline is closed, e.g. {@code try (var d = client.deadline(200)) {...}}.
+     * The deadline covers all the requests the calls send, including any sent again after a timeout.  Deadlines apply
+     * to the calling thread only, and nest; the earliest one applies.
+     *
+     * @param timeoutMs The number of milliseconds from now until the deadline.
+     * @return The deadline, to close after the calls.
+     */
+    public Deadline deadline(int timeoutMs) {
+        long expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Deadline outer = currentDeadline.get();
+        if (outer != null && outer.expiresNanos - expiresNanos < 0) {
+            expiresNanos = outer.expiresNanos;
+        }
+        Deadline deadline = new Deadline(outer, expiresNanos);
+        currentDeadline.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Derive the response timeout of each {@link Request} type from its observed latency: {@value #DEADLINE_MULTIPLIER}
+     * times its 99th percentile, at least {@value #MIN_ADAPTIVE_DEADLINE_MILLIS} ms and at most the response timeout
+     * given to the constructor.  Until a type has enough samples, the response timeout applies.  A read which times out
+     * counts as a sample at its deadline, so the deadline grows when the server slows down.  Trade actions always get
+     * the response timeout.
+     *
+     * @param enabled Whether to derive the response timeouts.
+     */
+    public void setAdaptiveDeadlines(boolean enabled) {
+        adaptiveDeadlines = enabled;
+    }
+
+    /**
+     * When a read is slower than the 95th percentile of its type, send a duplicate on a second connection and take
+     * whichever response arrives first.  This cuts the tail latency caused by requests lost or delayed in transit, e.g.
+     * across a terminal restart.  It does not speed up a busy terminal, which answers requests one at a time.  Trade
+     * actions are never hedged.
+     *
+     * @param enabled Whether to hedge reads.
+     */
+    public void setHedging(boolean enabled) {
+        exchangeLock.lock();
+        try {
+            hedging = enabled;
+            if (!enabled && hedge != null) {
+                hedge.close();
+                hedge = null;
+            }
+        } finally {
+            exchangeLock.unlock();
+        }
+    }
+
+    /**
+     * While a read is in flight, let other threads making the identical request wait for its response instead of
+     * sending it again, e.g. when many strategies poll the same tick.  Requests are identical if their encoded bodies
+     * are.  Trade actions are never coalesced.
+     *
+     * @param enabled Whether to coalesce identical reads.
+     */
+    public void setCoalescing(boolean enabled) {
+        coalescing = enabled;
+    }
+
+    /**
+     * @return The number of reads answered with the response to an identical read in flight.
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.sum();
+    }
+
+    /**
+     * @param request    The request type.
+     * @param percentile The percentile, between 0 and 1.
+     * @return The latency of the request type at the percentile, in milliseconds, or NaN if too few were observed.
+     */
+    public double getLatencyPercentile(Request request, double percentile) {
+        long nanos = latency.percentile(request, percentile);
+        return nanos < 0 ? Double.NaN : nanos / 1e6;
+    }
+
+    /**
+     * @return The number of reads for which a duplicate was sent.
+     */
+    public long getHedgeCount() {
+        return hedgeCount;
+    }
+
     public void shutdown() {
+        ScheduledExecutorService p;
+        synchronized (this) {
+            p = prober;
+        }
+        if (p != null) {
+            p.shutdownNow();
+            try {
+                p.awaitTermination(2L * probeIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         context.destroy();
     }
 
@@ -111,7 +339,7 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public Account getAccount() throws JsonProcessingException, MT4Exception {
-        return getResponse(Request.GET_ACCOUNT_INFO.build(), Account.class);
+        return getResponse(RequestWriter.begin(Request.GET_ACCOUNT_INFO).end(), Account.class);
     }
 
     /**
@@ -122,7 +350,7 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public List<String> getSymbolNames() throws JsonProcessingException, MT4Exception {
-        return getResponse(Request.GET_SYMBOLS.build(), LIST_OF_STRINGS);
+        return getResponse(RequestWriter.begin(Request.GET_SYMBOLS).end(), LIST_OF_STRINGS);
     }
 
     /**
@@ -137,12 +365,9 @@ public class MT4Client implements MT4ClientInterface {
         if (names.length == 0) {
             return Collections.emptyMap();
         }
-        ArrayNode namesArray = JsonNodeFactory.instance.arrayNode(names.length);
-        for (String name : names) {
-            namesArray.add(name);
-        }
-        ObjectNode request = Request.GET_SYMBOL_INFO.build()
-                .set(NAMES, namesArray);
+        RequestWriter request = RequestWriter.begin(Request.GET_SYMBOL_INFO)
+                .putArray(NAMES, names)
+                .end();
         return getResponse(request, MAP_OF_SYMBOLS);
     }
 
@@ -164,7 +389,7 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public List<String> getSignalNames() throws JsonProcessingException, MT4Exception {
-        return getResponse(Request.GET_SIGNALS.build(), LIST_OF_STRINGS);
+        return getResponse(RequestWriter.begin(Request.GET_SIGNALS).end(), LIST_OF_STRINGS);
     }
 
     /**
@@ -195,12 +420,13 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public List<OHLCV> getOHLCV(String symbol, Timeframe timeframe, long limit, long timeout, long offset) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.GET_OHLCV.build()
-                .<ObjectNode>set(SYMBOL, TextNode.valueOf(symbol))
-                .<ObjectNode>set(TIMEFRAME, LongNode.valueOf(timeframe.getMinutes()))
-                .<ObjectNode>set(LIMIT, LongNode.valueOf(limit))
-                .<ObjectNode>set(TIMEOUT, LongNode.valueOf(timeout))
-                .set("offset", LongNode.valueOf(offset));
+        RequestWriter request = RequestWriter.begin(Request.GET_OHLCV)
+                .put(SYMBOL, symbol)
+                .put(TIMEFRAME, timeframe.getMinutes())
+                .put(LIMIT, limit)
+                .put(TIMEOUT, timeout)
+                .put(OFFSET, offset)
+                .end();
 
         return getResponse(request, LIST_OF_OHLCV);
     }
@@ -217,12 +443,9 @@ public class MT4Client implements MT4ClientInterface {
         if (names.length == 0) {
             return Collections.emptyMap();
         }
-        ArrayNode namesArray = JsonNodeFactory.instance.arrayNode(names.length);
-        for (String name : names) {
-            namesArray.add(name);
-        }
-        ObjectNode request = Request.GET_SIGNAL_INFO.build()
-                .set(NAMES, namesArray);
+        RequestWriter request = RequestWriter.begin(Request.GET_SIGNAL_INFO)
+                .putArray(NAMES, names)
+                .end();
         return getResponse(request, MAP_OF_SIGNALS);
     }
 
@@ -263,10 +486,11 @@ public class MT4Client implements MT4ClientInterface {
      * @see <a href="https://docs.mql4.com/indicators">https://docs.mql4.com/indicators</a>
      */
     public double runIndicator(Indicator func, int timeout) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.RUN_INDICATOR.build()
-                .<ObjectNode>set(INDICATOR, TextNode.valueOf(func.getName()))
-                .<ObjectNode>set(ARGV, func.getArguments())
-                .set(TIMEOUT, IntNode.valueOf(timeout));
+        RequestWriter request = RequestWriter.begin(Request.RUN_INDICATOR)
+                .put(INDICATOR, func.getName())
+                .putNode(ARGV, func.getArguments())
+                .put(TIMEOUT, timeout)
+                .end();
         return getResponse(request, double.class);
     }
 
@@ -278,7 +502,7 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public List<Order> getOrders() throws JsonProcessingException, MT4Exception {
-        return getResponse(Request.GET_ORDERS.build(), LIST_OF_ORDERS);
+        return getResponse(RequestWriter.begin(Request.GET_ORDERS).end(), LIST_OF_ORDERS);
     }
 
     /**
@@ -289,7 +513,18 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public List<Order> getOrdersHistorical() throws JsonProcessingException, MT4Exception {
-        return getResponse(Request.GET_HISTORICAL_ORDERS.build(), LIST_OF_ORDERS);
+        return getResponse(RequestWriter.begin(Request.GET_HISTORICAL_ORDERS).end(), LIST_OF_ORDERS);
+    }
+
+    /**
+     * Get the deleted and closed orders from the Account History tab, in the compact form for large histories.
+     *
+     * @return A list of closed {@link CompactOrder orders}.
+     * @throws JsonProcessingException If JSON response fails to parse.
+     * @throws MT4Exception            If server had an error.
+     */
+    public List<CompactOrder> getOrdersHistoricalCompact() throws JsonProcessingException, MT4Exception {
+        return getResponse(RequestWriter.begin(Request.GET_HISTORICAL_ORDERS).end(), LIST_OF_COMPACT_ORDERS);
     }
 
     /**
@@ -301,8 +536,9 @@ public class MT4Client implements MT4ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     public Order getOrder(int ticket) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.GET_ORDER.build()
-                .set(TICKET, IntNode.valueOf(ticket));
+        RequestWriter request = RequestWriter.begin(Request.GET_ORDER)
+                .put(TICKET, ticket)
+                .end();
         return getResponse(request, Order.class);
     }
 
@@ -317,8 +553,9 @@ public class MT4Client implements MT4ClientInterface {
      * @see <a href="https://book.mql4.com/appendix/limits">https://book.mql4.com/appendix/limits</a>
      */
     public Order orderSend(NewOrder newOrder) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.DO_ORDER_SEND.build()
-                .setAll(objectMapper.<ObjectNode>valueToTree(newOrder));
+        RequestWriter request = RequestWriter.begin(Request.DO_ORDER_SEND)
+                .putAll(newOrder)
+                .end();
         return getResponse(request, Order.class);
     }
 
@@ -333,8 +570,9 @@ public class MT4Client implements MT4ClientInterface {
      * @see <a href="https://book.mql4.com/appendix/limits">https://book.mql4.com/appendix/limits</a>
      */
     public Order orderModify(ModifyOrder modifyOrder) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.DO_ORDER_MODIFY.build()
-                .setAll(objectMapper.<ObjectNode>valueToTree(modifyOrder));
+        RequestWriter request = RequestWriter.begin(Request.DO_ORDER_MODIFY)
+                .putAll(modifyOrder)
+                .end();
         return getResponse(request, Order.class);
     }
 
@@ -348,8 +586,9 @@ public class MT4Client implements MT4ClientInterface {
      * @see <a href="https://book.mql4.com/appendix/limits">https://book.mql4.com/appendix/limits</a>
      */
     public void orderClose(int ticket) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.DO_ORDER_CLOSE.build()
-                .set(TICKET, IntNode.valueOf(ticket));
+        RequestWriter request = RequestWriter.begin(Request.DO_ORDER_CLOSE)
+                .put(TICKET, ticket)
+                .end();
         getResponse(request);
     }
 
@@ -378,9 +617,10 @@ public class MT4Client implements MT4ClientInterface {
      * @see <a href="https://book.mql4.com/appendix/limits">https://book.mql4.com/appendix/limits</a>
      */
     public void orderDelete(int ticket, boolean closeIfOpened) throws JsonProcessingException, MT4Exception {
-        ObjectNode request = Request.DO_ORDER_DELETE.build()
-                .<ObjectNode>set(TICKET, IntNode.valueOf(ticket))
-                .set(CLOSE_IF_OPENED, BooleanNode.valueOf(closeIfOpened));
+        RequestWriter request = RequestWriter.begin(Request.DO_ORDER_DELETE)
+                .put(TICKET, ticket)
+                .put(CLOSE_IF_OPENED, closeIfOpened)
+                .end();
         getResponse(request);
     }
 
@@ -428,61 +668,344 @@ public class MT4Client implements MT4ClientInterface {
     /**
      * Send a request object to the server and wait for a response.
      *
-     * @param request      The request to send.  Must have an `action` property.
+     * @param request      The encoded request to send.
      * @param responseType The response type.
      * @param <T>          The response type.
      * @return The server response.
      * @throws JsonProcessingException If JSON response fails to parse.
      * @throws MT4Exception            If server had an error.
      */
-    <T> T getResponse(ObjectNode request, Class<T> responseType) throws JsonProcessingException, MT4Exception {
-        return objectMapper.convertValue(getResponse(request), responseType);
+    <T> T getResponse(RequestWriter request, Class<T> responseType) throws JsonProcessingException, MT4Exception {
+        String reply = getReply(request);
+        try {
+            return Codecs.readResponse(reply, responseType, injectables);
+        } catch (MT4Exception e) {
+            throw dumped(e);
+        }
     }
 
     /**
      * Send a request object to the server and wait for a response.
      *
-     * @param request      The request to send.  Must have an `action` property.
+     * @param request      The encoded request to send.
      * @param responseType The response type.
      * @param <T>          The response type.
      * @return The server response.
      * @throws JsonProcessingException If JSON response fails to parse.
      * @throws MT4Exception            If server had an error.
      */
-    <T> T getResponse(ObjectNode request, TypeReference<T> responseType) throws JsonProcessingException, MT4Exception {
-        return objectMapper.convertValue(getResponse(request), responseType);
+    <T> T getResponse(RequestWriter request, TypeReference<T> responseType) throws JsonProcessingException, MT4Exception {
+        String reply = getReply(request);
+        try {
+            return Codecs.readResponse(reply, responseType, injectables);
+        } catch (MT4Exception e) {
+            throw dumped(e);
+        }
     }
 
-    private JsonNode getResponse(ObjectNode request) throws JsonProcessingException, MT4Exception {
-        String strRequest = request.toString();
-        socket.send(strRequest);
-        LOG.trace("Request: " + strRequest);
-        String strResponse = socket.recvStr();
-        LOG.trace(strResponse == null ? "Response is empty." : "Response: " + strResponse);
+    /**
+     * Send a request object to the server and wait for a response, which is not needed.
+     */
+    private void getResponse(RequestWriter request) throws JsonProcessingException, MT4Exception {
+        String reply = getReply(request);
+        try {
+            Codecs.checkResponse(reply, injectables);
+        } catch (MT4Exception e) {
+            throw dumped(e);
+        }
+    }
 
-        // Handle null response (timeout or connection error)
-        if (strResponse == null) {
+    private MT4Exception dumped(MT4Exception e) {
+        wireRecorder.dumpOnError(e);
+        return e;
+    }
+
+    /**
+     * Send a request object to the server and wait for the text of its reply, which is decoded by the caller.
+     */
+    private String getReply(RequestWriter request) throws MT4Exception {
+        if (coalescing && !request.getRequest().isTradeAction()) {
+            return coalesce(request);
+        }
+        return exchangeExclusively(request);
+    }
+
+    /**
+     * Join the identical request in flight, or send this one and let later identical requests join it.
+     */
+    private String coalesce(RequestWriter request) throws MT4Exception {
+        String key = new String(request.buffer(), 0, request.length(), StandardCharsets.ISO_8859_1);
+        CompletableFuture<String> own = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, own);
+        if (leader != null) {
+            collapsedCount.increment();
+            return join(leader, request.getRequest());
+        }
+        try {
+            String reply = exchangeExclusively(request);
+            own.complete(reply);
+            return reply;
+        } catch (MT4Exception | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * Wait for the response of the identical request in flight, but no longer than this request's own deadline, or the
+     * default response timeout of its type.  Missing it fails the same way as a request which got no response.
+     */
+    private String join(CompletableFuture<String> leader, Request type) throws MT4Exception {
+        Deadline deadline = currentDeadline.get();
+        long remainingNanos = deadline != null
+                ? deadline.expiresNanos - System.nanoTime()
+                : TimeUnit.MILLISECONDS.toNanos(defaultTimeoutMs(type));
+        try {
+            return leader.get(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw noResponse();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MT4Exception) {
+                throw (MT4Exception) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Exchange a request while holding the connection, so threads can share the client.
+     */
+    private String exchangeExclusively(RequestWriter request) throws MT4Exception {
+        exchangeLock.lock();
+        try {
+            return exchange(request);
+        } catch (MT4Exception e) {
+            wireRecorder.dumpOnError(e);
+            throw e;
+        } finally {
+            exchangeLock.unlock();
+        }
+    }
+
+    private String exchange(RequestWriter request) throws MT4Exception {
+        if (!alive) {
             throw MT4Exception.Builder.newInstance()
-                    .setMessage("No response from MT4 server (timeout or connection error)")
+                    .setErrorCode(MT4Exception.Code.ERR_NO_CONNECTION.id)
+                    .setMessage("MT4 server is not answering the liveness probe")
                     .build();
         }
+        if (stale) {
+            stale = false;
+            reconnect();
+        }
+        wireRecorder.recordRequest(request.buffer(), request.length());
+        long sentNanos = System.nanoTime();
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Request: " + request);
+        }
+        String strResponse = transmit(request);
+        wireRecorder.recordResponse(strResponse);
+        SessionRecorder recorder = sessionRecorder;
+        if (recorder != null && strResponse != null) {
+            try {
+                recorder.record(request.buffer(), request.length(), strResponse, sentNanos, System.nanoTime());
+            } catch (IOException e) {
+                LOG.error("Failed to record session; recording stopped", e);
+                sessionRecorder = null;
+            }
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(strResponse == null ? "Response is empty." : "Response: " + strResponse);
+        }
 
-        JsonNode response = objectMapper.readTree(strResponse);
+        // Handle null response (timeout or connection error)
+        if (strResponse == null) {
+            throw noResponse();
+        }
 
-        // throw exception for any errors
-        JsonNode errorCode = response.get(ERROR_CODE);
-        JsonNode errorCodeDescription = response.get(ERROR_CODE_DESCRIPTION);
-        JsonNode errorMessage = response.get(ERROR_MESSAGE);
-        if (errorCode != null || errorCodeDescription != null || errorMessage != null) {
-            throw objectMapper.convertValue(response, MT4Exception.class);
+        // errors and warnings are found while the caller decodes the reply
+        return strResponse;
+    }
+
+    private static MT4Exception noResponse() {
+        return MT4Exception.Builder.newInstance()
+                .setMessage("No response from MT4 server (timeout or connection error)")
+                .build();
+    }
+
+    /**
+     * Send a request and wait for its response, replacing the connection whenever it gets stuck.  A request which could
+     * not be queued never reached the server, so it is sent once more on the new connection.  One whose response did
+     * not arrive is only sent again if it is a read, since a trade action may already have been executed.  All attempts
+     * share the current {@link #deadline(int) deadline}, or else the default response timeout of the request type, so a
+     * read which timed out is not sent again: the new connection only serves the next request.
+     *
+     * @param request The encoded request to send.
+     * @return The response, or null if none arrived.
+     * @throws MT4Exception If a trade action timed out, so its outcome is unknown.
+     */
+    private String transmit(RequestWriter request) throws MT4Exception {
+        Request type = request.getRequest();
+        Deadline deadline = currentDeadline.get();
+        long deadlineNanos = deadline != null
+                ? deadline.expiresNanos
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(defaultTimeoutMs(type));
+        for (int attempt = 0; attempt < 2; attempt++) {
+            long sentNanos = System.nanoTime();
+            if (deadlineNanos - sentNanos <= 0) {
+                break;
+            }
+            if (!connection.send(request.buffer(), request.length())) {
+                reconnect();
+                continue;
+            }
+            String response = hedging && !type.isTradeAction()
+                    ? receiveHedged(request, sentNanos, deadlineNanos)
+                    : receive(connection, deadlineNanos);
+            if (response != null) {
+                latency.record(type, System.nanoTime() - sentNanos);
+                return response;
+            }
+            if (deadline == null) {
+                // a miss is at least as slow as its deadline; without it, the histogram would never see the slow
+                // responses, so an adaptive deadline that is too short would stay too short
+                latency.record(type, deadlineNanos - sentNanos);
+            }
+            reconnect();
+            if (type.isTradeAction()) {
+                wireRecorder.recordResponse(null);
+                throw MT4Exception.Builder.newInstance()
+                        .setErrorCode(MT4Exception.Code.ERR_TRADE_TIMEOUT.id)
+                        .setMessage("No response to " + request.getRequest() + "; it may have been executed, "
+                                + "so it was not sent again")
+                        .build();
+            }
+            if (!alive) {
+                break;
+            }
         }
+        return null;
+    }
 
-        // log any warnings
-        if (response.has(WARNING)) {
-            LOG.warn(response.get(WARNING).asText());
+    /**
+     * Wait for the response to a read, sending a duplicate on the hedge connection once the read is slower than the
+     * {@value #HEDGE_PERCENTILE} percentile of its type.  Whichever connection answers first becomes the current one; the
+     * other one is left waiting for a response, so it is replaced.
+     */
+    private String receiveHedged(RequestWriter request, long sentNanos, long deadlineNanos) {
+        long hedgeDelayNanos = latency.percentile(request.getRequest(), HEDGE_PERCENTILE);
+        if (hedgeDelayNanos < 0 || sentNanos + hedgeDelayNanos - deadlineNanos >= 0) {
+            return receive(connection, deadlineNanos);
+        }
+        String response = receive(connection, sentNanos + hedgeDelayNanos);
+        if (response != null) {
+            return response;
         }
 
-        // unwrap the response
-        return response.get(RESPONSE);
+        if (hedge == null) {
+            hedge = newConnection();
+        }
+        if (!hedge.send(request.buffer(), request.length())) {
+            hedge.close();
+            hedge = null;
+            return receive(connection, deadlineNanos);
+        }
+        hedgeCount++;
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        int winner = remainingNanos > 0 ? Connection.poll(connection, hedge, toTimeoutMs(remainingNanos)) : -1;
+        if (winner < 0) {
+            hedge.close();
+            hedge = null;
+            return null;
+        }
+        Connection loser;
+        if (winner == 0) {
+            response = connection.receive();
+            loser = hedge;
+        } else {
+            response = hedge.receive();
+            loser = connection;
+            connection = hedge;
+        }
+        loser.close();
+        hedge = newConnection();
+        return response;
+    }
+
+    /**
+     * Wait for a response until a deadline.
+     */
+    private static String receive(Connection connection, long deadlineNanos) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+            return null;
+        }
+        connection.setReceiveTimeout(toTimeoutMs(remainingNanos));
+        return connection.receive();
+    }
+
+    private static int toTimeoutMs(long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (nanos + 999_999) / 1_000_000));
+    }
+
+    private int defaultTimeoutMs(Request type) {
+        if (adaptiveDeadlines && !type.isTradeAction()) {
+            long nanos = latency.percentile(type, DEADLINE_PERCENTILE);
+            if (nanos >= 0) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(nanos * DEADLINE_MULTIPLIER);
+                return (int) Math.min(responseTimeoutMs, Math.max(MIN_ADAPTIVE_DEADLINE_MILLIS, millis));
+            }
+        }
+        return responseTimeoutMs;
+    }
+
+    /**
+     * Replace the current connection with the standby, or a new one.
+     */
+    private void reconnect() {
+        connection.close();
+        connection = standby != null ? standby : newConnection();
+        standby = standbyEnabled ? newConnection() : null;
+        reconnectCount++;
+        LOG.debug("Replaced the connection to {}", address);
+    }
+
+    private Connection newConnection() {
+        return new Connection(context, address, requestTimeoutMs, responseTimeoutMs);
+    }
+
+    /**
+     * Runs on the probe thread.  A probe which gets no answer leaves its connection stuck, so it is replaced too.
+     */
+    private void probe() {
+        RequestWriter request = RequestWriter.begin(Request.GET_ACCOUNT_INFO).end();
+        boolean answered = probeConnection.send(request.buffer(), request.length())
+                && probeConnection.receive() != null;
+        if (answered) {
+            probeMisses = 0;
+            if (!alive) {
+                LOG.info("MT4 server at {} is answering again", address);
+                stale = true;
+                alive = true;
+            }
+        } else {
+            probeConnection.close();
+            probeConnection = new Connection(context, address, probeIntervalMs, probeIntervalMs);
+            if (exchangeLock.isLocked()) {
+                // the server answers one request at a time, so the probe may only have queued behind e.g. an indicator
+                LOG.debug("Liveness probe of {} waited behind a call in flight", address);
+            } else if (++probeMisses >= PROBE_MISSES && alive) {
+                LOG.warn("MT4 server at {} did not answer {} liveness probes", address, probeMisses);
+                alive = false;
+            }
+        }
     }
 }
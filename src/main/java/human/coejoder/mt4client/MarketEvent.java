@@ -0,0 +1,162 @@
+package human.coejoder.mt4client;
+
+/**
+ * A slot of the {@link MarketEventBus} ring, holding either a tick or a bar of a symbol.
+ * <p>
+ * Slots are allocated once and overwritten as the ring wraps, so an event is only valid while it is being handled:
+ * copy it with {@link #toTick()} or {@link #toBar()} to keep it.
+ */
+public final class MarketEvent {
+
+    /**
+     * The kind of data an event holds.
+     */
+    public enum Type {
+        TICK,
+        BAR
+    }
+
+    private Type type;
+    private int symbolId;
+    private String symbol;
+    private int time;
+    private double bid;
+    private double ask;
+    private double last;
+    private long volume;
+    private int open;
+    private int high;
+    private int low;
+    private int close;
+
+    MarketEvent() {}
+
+    void setTick(int symbolId, String symbol, int time, double bid, double ask, double last, long volume) {
+        this.type = Type.TICK;
+        this.symbolId = symbolId;
+        this.symbol = symbol;
+        this.time = time;
+        this.bid = bid;
+        this.ask = ask;
+        this.last = last;
+        this.volume = volume;
+    }
+
+    void setBar(int symbolId, String symbol, int time, int open, int high, int low, int close, long volume) {
+        this.type = Type.BAR;
+        this.symbolId = symbolId;
+        this.symbol = symbol;
+        this.time = time;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+    }
+
+    /**
+     * @return Whether the event holds a tick or a bar.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    /**
+     * @return The symbol name.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return The time of the tick, or the open time of the bar.
+     */
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * @return The bid price of the tick.
+     */
+    public double getBid() {
+        return bid;
+    }
+
+    /**
+     * @return The ask price of the tick.
+     */
+    public double getAsk() {
+        return ask;
+    }
+
+    /**
+     * @return The last deal price of the tick.
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * @return The volume of the tick, or the tick volume of the bar.
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+    /**
+     * @return The open price of the bar.
+     */
+    public int getOpen() {
+        return open;
+    }
+
+    /**
+     * @return The high price of the bar.
+     */
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+     * @return The low price of the bar.
+     */
+    public int getLow() {
+        return low;
+    }
+
+    /**
+     * @return The close price of the bar.
+     */
+    public int getClose() {
+        return close;
+    }
+
+    /**
+     * @return A copy of the tick.
+     * @throws IllegalStateException If the event holds a bar.
+     */
+    public SymbolTick toTick() {
+        if (type != Type.TICK) {
+            throw new IllegalStateException("Not a tick: " + type);
+        }
+        return new SymbolTick(time, bid, ask, last, (int) volume);
+    }
+
+    /**
+     * @return A copy of the bar.
+     * @throws IllegalStateException If the event holds a tick.
+     */
+    public OHLCV toBar() {
+        if (type != Type.BAR) {
+            throw new IllegalStateException("Not a bar: " + type);
+        }
+        return new OHLCV(time, open, high, low, close, (int) volume);
+    }
+}
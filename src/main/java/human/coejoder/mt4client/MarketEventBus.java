@@ -0,0 +1,351 @@
+package human.coejoder.mt4client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fans out ticks and bars from one producer thread to many in-process consumers, without locks or garbage on the
+ * delivery path.
+ * <p>
+ * Events are written into a preallocated ring of {@link MarketEvent} slots and published by advancing the ring's
+ * cursor.  Each {@link Handler} runs on its own thread with its own cursor, and handles every event published since it
+ * last looked in one batch before advancing its cursor, so a consumer which falls behind catches up in large steps.
+ * The producer never overwrites a slot before every consumer has handled it: once the ring is full, publishing waits
+ * for the slowest consumer.  How idle consumers wait for new events is chosen by a {@link WaitStrategy}.
+ * <p>
+ * The publishing methods must only be called by one thread at a time.
+ */
+public class MarketEventBus implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MarketEventBus.class);
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * Handles the events of the bus on a consumer thread.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * @param event      The event, only valid until this method returns.
+         * @param sequence   The sequence number of the event.
+         * @param endOfBatch Whether this is the last event published so far, e.g. to flush work done for the batch.
+         */
+        void onEvent(MarketEvent event, long sequence, boolean endOfBatch);
+    }
+
+    /**
+     * How consumers wait for events while the ring has none for them.
+     */
+    public enum WaitStrategy {
+        /**
+         * Sleep until the producer signals, which leaves the CPU idle but adds a wake-up to the latency of the first
+         * event of a batch.
+         */
+        BLOCKING,
+        /**
+         * Spin briefly, then yield the CPU to other threads between checks.
+         */
+        YIELDING,
+        /**
+         * Spin without pause, for the lowest latency when each consumer has a CPU to itself.
+         */
+        BUSY_SPIN
+    }
+
+    /**
+     * Builder for market event buses.
+     */
+    public static class Builder {
+        private final List<Handler> handlers = new ArrayList<>();
+        private int bufferSize = 1 << 16;
+        private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+        private Builder() {}
+
+        /**
+         * Construct a new market event bus builder.
+         *
+         * @return The market event bus builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the bus and start a thread for each handler.
+         *
+         * @return The bus.
+         */
+        public MarketEventBus build() {
+            return new MarketEventBus(this);
+        }
+
+        /**
+         * @param bufferSize The number of slots in the ring, a power of two.
+         * @return This Builder.
+         */
+        public Builder setBufferSize(int bufferSize) {
+            if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+                throw new IllegalArgumentException("Buffer size must be a power of two: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param waitStrategy How consumers wait for events.
+         * @return This Builder.
+         */
+        public Builder setWaitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * @param handler A consumer of every event.
+         * @return This Builder.
+         */
+        public Builder addHandler(Handler handler) {
+            handlers.add(handler);
+            return this;
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        final Handler handler;
+        final Sequence sequence = new Sequence(-1);
+
+        Consumer(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                long available = waitFor(next);
+                if (available < next) {
+                    return;
+                }
+                for (long s = next; s <= available; s++) {
+                    try {
+                        handler.onEvent(slots[(int) s & mask], s, s == available);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Handler failed on event {}", s, e);
+                    }
+                }
+                sequence.set(available);
+                next = available + 1;
+            }
+        }
+    }
+
+    private final SymbolRegistry registry = SymbolRegistry.getInstance();
+    private final MarketEvent[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence(-1);
+    private final Consumer[] consumers;
+    private final Thread[] threads;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final AtomicInteger blocked = new AtomicInteger();
+    private volatile boolean closed;
+    private long nextSequence;
+    private long cachedGatingSequence = -1;
+
+    private MarketEventBus(Builder builder) {
+        this.slots = new MarketEvent[builder.bufferSize];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new MarketEvent();
+        }
+        this.mask = builder.bufferSize - 1;
+        this.waitStrategy = builder.waitStrategy;
+        this.consumers = new Consumer[builder.handlers.size()];
+        this.threads = new Thread[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Consumer(builder.handlers.get(i));
+            threads[i] = new Thread(consumers[i], "mt4-bus-consumer-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Publish a tick.
+     *
+     * @param symbol The symbol name.
+     * @param tick   The tick.
+     */
+    public void publish(String symbol, SymbolTick tick) {
+        publishTick(symbol, tick.time, tick.bid, tick.ask, tick.last, tick.volume);
+    }
+
+    /**
+     * Publish a bar.
+     *
+     * @param symbol The symbol name.
+     * @param bar    The bar.
+     */
+    public void publish(String symbol, OHLCV bar) {
+        int symbolId = registry.register(symbol);
+        MarketEvent slot = claim();
+        slot.setBar(symbolId, registry.getName(symbolId), bar.time, bar.open, bar.high, bar.low, bar.close,
+                bar.tick_volume);
+        commit();
+    }
+
+    /**
+     * Publish a tick without allocating.
+     *
+     * @param symbol The symbol name.
+     * @param time   The time of the tick.
+     * @param bid    The bid price.
+     * @param ask    The ask price.
+     * @param last   The last deal price.
+     * @param volume The volume.
+     */
+    public void publishTick(String symbol, int time, double bid, double ask, double last, long volume) {
+        publishTick(registry.register(symbol), time, bid, ask, last, volume);
+    }
+
+    /**
+     * Publish a tick without allocating or hashing the symbol name.
+     *
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param time     The time of the tick.
+     * @param bid      The bid price.
+     * @param ask      The ask price.
+     * @param last     The last deal price.
+     * @param volume   The volume.
+     */
+    public void publishTick(int symbolId, int time, double bid, double ask, double last, long volume) {
+        String symbol = registry.getName(symbolId);
+        MarketEvent slot = claim();
+        slot.setTick(symbolId, symbol, time, bid, ask, last, volume);
+        commit();
+    }
+
+    /**
+     * @return The sequence number of the latest published event, or -1 if none.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * @return The sequence number of the latest event handled by every consumer, or -1 if none.
+     */
+    public long getMinimumConsumerSequence() {
+        return minimumConsumerSequence(cursor.get());
+    }
+
+    /**
+     * Stop the consumers once they have handled every published event, and wait for them.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        signal();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The next slot, once every consumer is done with it.
+     */
+    private MarketEvent claim() {
+        if (closed) {
+            throw new IllegalStateException("Bus closed");
+        }
+        long wrapPoint = nextSequence - slots.length;
+        if (wrapPoint > cachedGatingSequence) {
+            long gating;
+            while (wrapPoint > (gating = minimumConsumerSequence(nextSequence - 1))) {
+                LockSupport.parkNanos(1);
+            }
+            cachedGatingSequence = gating;
+        }
+        return slots[(int) nextSequence & mask];
+    }
+
+    private void commit() {
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            // a volatile write, so that either the consumer sees the new cursor or we see it waiting
+            cursor.setVolatile(nextSequence++);
+            if (blocked.get() > 0) {
+                signal();
+            }
+        } else {
+            cursor.set(nextSequence++);
+        }
+    }
+
+    private long minimumConsumerSequence(long minimum) {
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * @return The latest published sequence, which is below the one asked for once the bus is closed and drained.
+     */
+    private long waitFor(long sequence) {
+        long available;
+        int tries = 0;
+        while ((available = cursor.get()) < sequence) {
+            if (closed) {
+                // the producer's writes happen before closing, so the cursor read after it is final
+                return cursor.get();
+            }
+            switch (waitStrategy) {
+                case BLOCKING:
+                    lock.lock();
+                    try {
+                        blocked.incrementAndGet();
+                        while (cursor.get() < sequence && !closed) {
+                            published.awaitUninterruptibly();
+                        }
+                    } finally {
+                        blocked.decrementAndGet();
+                        lock.unlock();
+                    }
+                    break;
+                case YIELDING:
+                    if (++tries > SPIN_TRIES) {
+                        Thread.yield();
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                    break;
+                default:
+                    Thread.onSpinWait();
+            }
+        }
+        return available;
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
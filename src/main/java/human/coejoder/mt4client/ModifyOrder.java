@@ -12,6 +12,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class ModifyOrder {
 
+    static final String TICKET = "ticket";
+    static final String PRICE = "price";
+    static final String SL = "sl";
+    static final String TP = "tp";
+    static final String SL_POINTS = "sl_points";
+    static final String TP_POINTS = "tp_points";
+
     public static class Builder implements OrderStep {
         private int ticket;
         private Double price;
@@ -115,9 +122,9 @@ public class ModifyOrder {
     public final Double price;
     public final Double sl;
     public final Double tp;
-    @JsonProperty("sl_points")
+    @JsonProperty(SL_POINTS)
     public final Integer slPoints;
-    @JsonProperty("tp_points")
+    @JsonProperty(TP_POINTS)
     public final Integer tpPoints;
 
     private ModifyOrder(Builder builder) {
@@ -10,6 +10,18 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class NewOrder {
 
+    static final String SYMBOL = "symbol";
+    static final String ORDER_TYPE = "order_type";
+    static final String LOTS = "lots";
+    static final String PRICE = "price";
+    static final String SLIPPAGE = "slippage";
+    static final String SL = "sl";
+    static final String TP = "tp";
+    static final String SL_POINTS = "sl_points";
+    static final String TP_POINTS = "tp_points";
+    static final String COMMENT = "comment";
+    static final String MAGIC_NUMBER = "magic_number";
+
     /**
      * Step builder for new order requests.
      */
@@ -174,19 +186,19 @@ public class NewOrder {
     }
 
     public final String symbol;
-    @JsonProperty("order_type")
+    @JsonProperty(ORDER_TYPE)
     public final OrderType orderType;
     public final Double lots;
     public final Double price;
     public final Integer slippage;
     public final Double sl;
     public final Double tp;
-    @JsonProperty("sl_points")
+    @JsonProperty(SL_POINTS)
     public final Integer slPoints;
-    @JsonProperty("tp_points")
+    @JsonProperty(TP_POINTS)
     public final Integer tpPoints;
     public final String comment;
-    @JsonProperty("magic_number")
+    @JsonProperty(MAGIC_NUMBER)
     public final Integer magicNumber;
 
     private NewOrder(Builder builder) {
@@ -0,0 +1,274 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches a {@link ParameterSpace} for the strategy parameters with the best backtest score, in parallel.
+ * <p>
+ * Every combination is evaluated on its own {@link BacktestClient}, built from a shared
+ * {@link BacktestClient.Builder template}, so each task trades an isolated simulated account while all tasks read the
+ * same {@link BarSeries} without copying them, including the higher timeframes, which the template resamples once.
+ * The combinations are split recursively across a {@link ForkJoinPool}; each leaf keeps the best results in a bounded
+ * heap and heaps are merged as the tasks join, so workers never contend on shared state.
+ */
+public class Optimizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Optimizer.class);
+    private static final Comparator<Result> WORST_FIRST = Comparator.comparingDouble((Result r) -> r.score)
+            .thenComparingLong(r -> -r.index);
+
+    /**
+     * Scores one combination of parameters.
+     */
+    @FunctionalInterface
+    public interface Evaluation {
+
+        /**
+         * Run a backtest with the given parameters.
+         *
+         * @param parameters The parameters to evaluate.
+         * @param client     A fresh backtest, with its clock before the first bar.
+         * @return The score; higher is better.  NaN discards the result.
+         * @throws JsonProcessingException If the strategy threw it; the combination is counted as failed.
+         * @throws MT4Exception            If the strategy threw it; the combination is counted as failed.
+         */
+        double evaluate(ParameterSpace.Parameters parameters, BacktestClient client)
+                throws JsonProcessingException, MT4Exception;
+    }
+
+    /**
+     * Builder for optimizers.
+     */
+    public static class Builder {
+        private BacktestClient.Builder backtest;
+        private ParameterSpace space;
+        private Evaluation evaluation;
+        private int topK = 10;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        private Builder() {}
+
+        /**
+         * Construct a new optimizer builder.
+         *
+         * @return The optimizer builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the optimizer.
+         *
+         * @return The optimizer.
+         */
+        public Optimizer build() {
+            if (backtest == null || space == null || evaluation == null) {
+                throw new IllegalStateException("The backtest, parameter space and evaluation are required");
+            }
+            return new Optimizer(this);
+        }
+
+        /**
+         * @param backtest The template of the backtest run for each combination.  It must not be changed while the
+         *                 optimizer runs.
+         * @return This Builder.
+         */
+        public Builder setBacktest(BacktestClient.Builder backtest) {
+            this.backtest = backtest;
+            return this;
+        }
+
+        /**
+         * @param space The parameters to search.
+         * @return This Builder.
+         */
+        public Builder setParameterSpace(ParameterSpace space) {
+            this.space = space;
+            return this;
+        }
+
+        /**
+         * @param evaluation The function scoring each combination.
+         * @return This Builder.
+         */
+        public Builder setEvaluation(Evaluation evaluation) {
+            this.evaluation = evaluation;
+            return this;
+        }
+
+        /**
+         * @param topK The number of best results to keep.
+         * @return This Builder.
+         */
+        public Builder setTopK(int topK) {
+            if (topK < 1) {
+                throw new IllegalArgumentException("topK must be positive: " + topK);
+            }
+            this.topK = topK;
+            return this;
+        }
+
+        /**
+         * @param pool The pool to run the backtests on.  Defaults to the common pool.
+         * @return This Builder.
+         */
+        public Builder setPool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+    }
+
+    /**
+     * The score of one combination of parameters.
+     */
+    public static final class Result {
+        public final ParameterSpace.Parameters parameters;
+        public final double score;
+        final long index;
+
+        Result(ParameterSpace.Parameters parameters, double score, long index) {
+            this.parameters = parameters;
+            this.score = score;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "parameters=" + parameters +
+                    ", score=" + score +
+                    '}';
+        }
+    }
+
+    private final BacktestClient.Builder backtest;
+    private final ParameterSpace space;
+    private final Evaluation evaluation;
+    private final int topK;
+    private final ForkJoinPool pool;
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Optimizer(Builder builder) {
+        this.backtest = builder.backtest;
+        this.space = builder.space;
+        this.evaluation = builder.evaluation;
+        this.topK = builder.topK;
+        this.pool = builder.pool;
+    }
+
+    /**
+     * Evaluate every combination of the parameter space.
+     *
+     * @return The best results, best first.  Ties keep the order of the grid.
+     */
+    public List<Result> grid() {
+        return run(new Search(null, 0, space.size()));
+    }
+
+    /**
+     * Evaluate random combinations of the parameter space.  The same seed gives the same combinations regardless of
+     * how the work is split.
+     *
+     * @param samples The number of combinations to evaluate.
+     * @param seed    The random seed.
+     * @return The best results, best first.
+     */
+    public List<Result> random(long samples, long seed) {
+        return run(new Search(seed, 0, samples));
+    }
+
+    /**
+     * @return The number of combinations evaluated so far, including failed ones.
+     */
+    public long getEvaluatedCount() {
+        return evaluated.sum();
+    }
+
+    /**
+     * @return The number of combinations whose evaluation threw an exception.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    private List<Result> run(Search search) {
+        PriorityQueue<Result> heap = pool.invoke(search);
+        List<Result> results = new ArrayList<>(heap);
+        results.sort(WORST_FIRST.reversed());
+        return results;
+    }
+
+    private Result evaluate(Long seed, long index) {
+        ParameterSpace.Parameters parameters = seed == null
+                ? space.get(index)
+                : space.sample(new SplittableRandom(seed + index * 0x9E3779B97F4A7C15L));
+        evaluated.increment();
+        try {
+            double score = evaluation.evaluate(parameters, backtest.build());
+            return Double.isNaN(score) ? null : new Result(parameters, score, index);
+        } catch (JsonProcessingException | MT4Exception | RuntimeException e) {
+            failed.increment();
+            LOG.debug("Evaluation of {} failed", parameters, e);
+            return null;
+        }
+    }
+
+    private void offer(PriorityQueue<Result> heap, Result result) {
+        if (heap.size() < topK) {
+            heap.add(result);
+        } else if (WORST_FIRST.compare(result, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(result);
+        }
+    }
+
+    /**
+     * Evaluates the combinations in [from, to), splitting in halves down to single combinations.
+     */
+    private final class Search extends RecursiveTask<PriorityQueue<Result>> {
+        private final Long seed;
+        private final long from;
+        private final long to;
+
+        Search(Long seed, long from, long to) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PriorityQueue<Result> compute() {
+            if (to - from > 1) {
+                long mid = (from + to) >>> 1;
+                Search left = new Search(seed, from, mid);
+                left.fork();
+                PriorityQueue<Result> heap = new Search(seed, mid, to).compute();
+                for (Result result : left.join()) {
+                    offer(heap, result);
+                }
+                return heap;
+            }
+            PriorityQueue<Result> heap = new PriorityQueue<>(topK + 1, WORST_FIRST);
+            if (to > from) {
+                Result result = evaluate(seed, from);
+                if (result != null) {
+                    heap.add(result);
+                }
+            }
+            return heap;
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class Order {
     private final int ticket;
     private final int magicNumber;
     private final String symbol;
+    private final int symbolId;
     private final OrderType orderType;
     private final double lots;
     private final double openPrice;
@@ -76,7 +77,13 @@ public class Order {
                  String comment) {
         this.ticket = ticket;
         this.magicNumber = magicNumber;
-        this.symbol = symbol;
+        if (symbol == null) {
+            this.symbol = null;
+            this.symbolId = -1;
+        } else {
+            this.symbolId = SymbolRegistry.getInstance().register(symbol);
+            this.symbol = SymbolRegistry.getInstance().getName(symbolId);
+        }
         this.orderType = OrderType.fromId(orderType).orElseThrow();
         this.lots = lots;
         this.openPrice = openPrice;
@@ -0,0 +1,495 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks new orders and modifications against the specifications of their symbols and the latest ticks, so that
+ * requests the terminal would reject are caught without a round trip.
+ * <p>
+ * The checks follow the MetaTrader 4 trading limits: the volume must be within the symbol's minimum and maximum and a
+ * multiple of its step, prices must be on the symbol's digits, stop-losses and take-profits must be at least the
+ * stops level away from the price they apply to, and orders whose price, stop-loss or take-profit is within the
+ * freeze level of the market cannot be modified.  A stops or freeze level of 0 sets no minimum distance.  Checks
+ * relative to the market are skipped until the symbol has a tick, and requests for a symbol without a specification
+ * only fail with {@link Violation.Type#UNKNOWN_SYMBOL}.
+ *
+ * @see <a href="https://book.mql4.com/appendix/limits">https://book.mql4.com/appendix/limits</a>
+ */
+public class OrderValidator {
+
+    /**
+     * A reason for which the terminal would reject a request.
+     */
+    public static final class Violation {
+
+        /**
+         * The kind of violation.
+         */
+        public enum Type {
+            UNKNOWN_SYMBOL(MT4Exception.Code.ERR_UNKNOWN_SYMBOL),
+            TRADE_DISABLED(MT4Exception.Code.ERR_TRADE_DISABLED),
+            CLOSE_ONLY(MT4Exception.Code.ERR_TRADE_DISABLED),
+            LONG_ONLY(MT4Exception.Code.ERR_LONG_POSITIONS_ONLY_ALLOWED),
+            SHORT_ONLY(MT4Exception.Code.ERR_TRADE_DISABLED),
+            VOLUME_TOO_SMALL(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME),
+            VOLUME_TOO_LARGE(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME),
+            VOLUME_OFF_STEP(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME),
+            MISSING_VOLUME(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME),
+            MISSING_PRICE(MT4Exception.Code.ERR_INVALID_PRICE),
+            PRICE_NOT_NORMALIZED(MT4Exception.Code.ERR_INVALID_PRICE),
+            PRICE_TOO_CLOSE(MT4Exception.Code.ERR_INVALID_PRICE),
+            PRICE_NOT_MODIFIABLE(MT4Exception.Code.ERR_INVALID_TRADE_PARAMETERS),
+            STOPS_NOT_NORMALIZED(MT4Exception.Code.ERR_INVALID_STOPS),
+            SL_TOO_CLOSE(MT4Exception.Code.ERR_INVALID_STOPS),
+            TP_TOO_CLOSE(MT4Exception.Code.ERR_INVALID_STOPS),
+            FROZEN(MT4Exception.Code.ERR_TRADE_MODIFY_DENIED);
+
+            /**
+             * The error the terminal would return.
+             */
+            public final MT4Exception.Code errorCode;
+
+            Type(MT4Exception.Code errorCode) {
+                this.errorCode = errorCode;
+            }
+        }
+
+        public final Type type;
+        public final String message;
+
+        private Violation(Type type, String message) {
+            this.type = type;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return type + ": " + message;
+        }
+    }
+
+    /**
+     * The cached specification of one symbol.
+     */
+    private static final class Spec {
+        final String name;
+        final double point;
+        final int digits;
+        final double volumeMin;
+        final double volumeStep;
+        final double volumeMax;
+        final int stopsLevel;
+        final int freezeLevel;
+        final SymbolTradeMode tradeMode;
+
+        Spec(Symbol symbol, SymbolTradeMode tradeMode) {
+            this.name = symbol.getName();
+            this.point = symbol.getPoint();
+            this.digits = symbol.getDigits();
+            this.volumeMin = symbol.getVolumeMin();
+            this.volumeStep = symbol.getVolumeStep();
+            this.volumeMax = symbol.getVolumeMax();
+            this.stopsLevel = symbol.getTradeStopsLevel();
+            this.freezeLevel = symbol.getTradeFreezeLevel();
+            this.tradeMode = tradeMode;
+        }
+    }
+
+    /**
+     * The latest prices of one symbol.
+     */
+    private static final class Quote {
+        final double bid;
+        final double ask;
+
+        Quote(double bid, double ask) {
+            this.bid = bid;
+            this.ask = ask;
+        }
+    }
+
+    // the tolerance, in steps, for prices and volumes to be on their grid
+    private static final double EPSILON = 1e-7;
+
+    private Spec[] specs = new Spec[64];
+    private Quote[] quotes = new Quote[64];
+
+    /**
+     * Add the specification of a symbol, reading its trade mode from the terminal once.
+     *
+     * @param symbol The symbol.
+     * @throws JsonProcessingException If JSON response fails to parse.
+     * @throws MT4Exception            If server had an error.
+     */
+    public void addSymbol(Symbol symbol) throws JsonProcessingException, MT4Exception {
+        addSymbol(symbol, symbol.getTradeMode());
+    }
+
+    /**
+     * Add the specification of a symbol.
+     *
+     * @param symbol    The symbol.
+     * @param tradeMode Its trade mode.
+     */
+    public synchronized void addSymbol(Symbol symbol, SymbolTradeMode tradeMode) {
+        int id = symbol.getId();
+        if (id >= specs.length) {
+            specs = Arrays.copyOf(specs, Math.max(2 * specs.length, id + 1));
+        }
+        specs[id] = new Spec(symbol, tradeMode);
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param tick   The symbol's latest tick.
+     */
+    public void onTick(String symbol, SymbolTick tick) {
+        onTick(SymbolRegistry.getInstance().register(symbol), tick.getBid(), tick.getAsk());
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param bid    The latest bid.
+     * @param ask    The latest ask.
+     */
+    public void onTick(String symbol, double bid, double ask) {
+        onTick(SymbolRegistry.getInstance().register(symbol), bid, ask);
+    }
+
+    /**
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param bid      The latest bid.
+     * @param ask      The latest ask.
+     */
+    public synchronized void onTick(int symbolId, double bid, double ask) {
+        if (symbolId >= quotes.length) {
+            quotes = Arrays.copyOf(quotes, Math.max(2 * quotes.length, symbolId + 1));
+        }
+        quotes[symbolId] = new Quote(bid, ask);
+    }
+
+    /**
+     * @return A handler which feeds the ticks published on a {@link MarketEventBus} to this validator.
+     */
+    public MarketEventBus.Handler asHandler() {
+        return (event, sequence, endOfBatch) -> {
+            if (event.getType() == MarketEvent.Type.TICK) {
+                onTick(event.getSymbolId(), event.getBid(), event.getAsk());
+            }
+        };
+    }
+
+    /**
+     * Check a new order.
+     *
+     * @param order The new order request.
+     * @return The reasons the terminal would reject it, or an empty list.
+     */
+    public List<Violation> validate(NewOrder order) {
+        int id = SymbolRegistry.getInstance().find(order.symbol);
+        Spec spec = spec(id);
+        if (spec == null) {
+            return Collections.singletonList(new Violation(Violation.Type.UNKNOWN_SYMBOL,
+                    "No specification for symbol: " + order.symbol));
+        }
+        List<Violation> violations = new ArrayList<>();
+        OrderType type = order.orderType;
+        switch (spec.tradeMode) {
+            case SYMBOL_TRADE_MODE_DISABLED:
+                violations.add(new Violation(Violation.Type.TRADE_DISABLED, "Trading is disabled for " + spec.name));
+                break;
+            case SYMBOL_TRADE_MODE_CLOSEONLY:
+                violations.add(new Violation(Violation.Type.CLOSE_ONLY, "Only closing is allowed for " + spec.name));
+                break;
+            case SYMBOL_TRADE_MODE_LONGONLY:
+                if (type.isSell()) {
+                    violations.add(new Violation(Violation.Type.LONG_ONLY, "Only buying is allowed for " + spec.name));
+                }
+                break;
+            case SYMBOL_TRADE_MODE_SHORTONLY:
+                if (type.isBuy()) {
+                    violations.add(new Violation(Violation.Type.SHORT_ONLY,
+                            "Only selling is allowed for " + spec.name));
+                }
+                break;
+            default:
+                break;
+        }
+
+        Double lots = order.lots;
+        if (lots == null) {
+            violations.add(new Violation(Violation.Type.MISSING_VOLUME, "No volume given"));
+        } else if (lots < spec.volumeMin - EPSILON * spec.volumeMin) {
+            violations.add(new Violation(Violation.Type.VOLUME_TOO_SMALL,
+                    "Volume " + lots + " is below the minimum " + spec.volumeMin));
+        } else if (lots > spec.volumeMax + EPSILON * spec.volumeMax) {
+            violations.add(new Violation(Violation.Type.VOLUME_TOO_LARGE,
+                    "Volume " + lots + " is above the maximum " + spec.volumeMax));
+        }
+        if (lots != null && spec.volumeStep > 0 && !onGrid(lots, spec.volumeStep)) {
+            violations.add(new Violation(Violation.Type.VOLUME_OFF_STEP,
+                    "Volume " + lots + " is not a multiple of " + spec.volumeStep));
+        }
+
+        if (order.price != null && !onGrid(order.price, spec.point)) {
+            violations.add(new Violation(Violation.Type.PRICE_NOT_NORMALIZED,
+                    "Price " + order.price + " has more than " + spec.digits + " digits"));
+        }
+        checkNormalized(spec, order.sl, order.tp, violations);
+
+        Quote quote = quote(id);
+        double stops = spec.stopsLevel * spec.point;
+        boolean missingPrice = type.isPending() && order.price == null;
+        if (missingPrice) {
+            // without an open price, a pending order has no distances to check
+            violations.add(new Violation(Violation.Type.MISSING_PRICE, type + " order has no price"));
+        } else if (type.isPending() && quote != null) {
+            // pending orders must be placed at least the stops level away from the price they would open at
+            double distance = pendingDistance(type, order.price, quote);
+            if (tooClose(distance, stops, spec.point)) {
+                violations.add(new Violation(Violation.Type.PRICE_TOO_CLOSE, String.format(
+                        "%s price %s is within %d points of the market", type, order.price, spec.stopsLevel)));
+            }
+        }
+        if (!missingPrice && (type.isPending() || quote != null)) {
+            // stops of market orders apply to the closing price, those of pending orders to the open price
+            double reference = type.isPending() ? order.price : type.isBuy() ? quote.bid : quote.ask;
+            checkStops(type.isBuy(), reference, order.sl, order.tp, stops, spec, violations);
+        }
+        checkPoints(order.slPoints, Violation.Type.SL_TOO_CLOSE, spec, violations);
+        checkPoints(order.tpPoints, Violation.Type.TP_TOO_CLOSE, spec, violations);
+        return violations;
+    }
+
+    /**
+     * Check a modification of an order.
+     *
+     * @param order        The order's current state.
+     * @param modification The modification request.
+     * @return The reasons the terminal would reject it, or an empty list.
+     */
+    public List<Violation> validate(Order order, ModifyOrder modification) {
+        Spec spec = spec(order.getSymbolId());
+        if (spec == null) {
+            return Collections.singletonList(new Violation(Violation.Type.UNKNOWN_SYMBOL,
+                    "No specification for symbol: " + order.getSymbol()));
+        }
+        List<Violation> violations = new ArrayList<>();
+        if (spec.tradeMode == SymbolTradeMode.SYMBOL_TRADE_MODE_DISABLED) {
+            violations.add(new Violation(Violation.Type.TRADE_DISABLED, "Trading is disabled for " + spec.name));
+        }
+        OrderType type = order.getOrderType();
+        if (modification.price != null) {
+            if (!type.isPending()) {
+                violations.add(new Violation(Violation.Type.PRICE_NOT_MODIFIABLE,
+                        "Only pending orders can change price"));
+            } else if (!onGrid(modification.price, spec.point)) {
+                violations.add(new Violation(Violation.Type.PRICE_NOT_NORMALIZED,
+                        "Price " + modification.price + " has more than " + spec.digits + " digits"));
+            }
+        }
+        checkNormalized(spec, modification.sl, modification.tp, violations);
+
+        Quote quote = quote(order.getSymbolId());
+        double stops = spec.stopsLevel * spec.point;
+        double freeze = spec.freezeLevel * spec.point;
+        if (quote != null) {
+            if (type.isPending()) {
+                // a pending order within the freeze level of its trigger cannot be modified at all
+                double distance = pendingDistance(type, order.getOpenPrice(), quote);
+                if (freeze > 0 && tooClose(distance, freeze, spec.point)) {
+                    violations.add(new Violation(Violation.Type.FROZEN, String.format(
+                            "%s #%d is within %d points of its open price", type, order.getTicket(),
+                            spec.freezeLevel)));
+                }
+                if (modification.price != null) {
+                    double newDistance = pendingDistance(type, modification.price, quote);
+                    if (tooClose(newDistance, stops, spec.point)) {
+                        violations.add(new Violation(Violation.Type.PRICE_TOO_CLOSE, String.format(
+                                "%s price %s is within %d points of the market", type, modification.price,
+                                spec.stopsLevel)));
+                    }
+                }
+            } else if (freeze > 0) {
+                // a market order whose stop-loss or take-profit is within the freeze level cannot be modified
+                double close = type.isBuy() ? quote.bid : quote.ask;
+                boolean frozen = order.getSl() != 0
+                        && tooClose(type.isBuy() ? close - order.getSl() : order.getSl() - close, freeze, spec.point)
+                        || order.getTp() != 0
+                        && tooClose(type.isBuy() ? order.getTp() - close : close - order.getTp(), freeze, spec.point);
+                if (frozen) {
+                    violations.add(new Violation(Violation.Type.FROZEN, String.format(
+                            "%s #%d has stops within %d points of the market", type, order.getTicket(),
+                            spec.freezeLevel)));
+                }
+            }
+        }
+        if (type.isPending() || quote != null) {
+            double reference = type.isPending()
+                    ? (modification.price != null ? modification.price : order.getOpenPrice())
+                    : type.isBuy() ? quote.bid : quote.ask;
+            checkStops(type.isBuy(), reference, modification.sl, modification.tp, stops, spec, violations);
+        }
+        checkPoints(modification.slPoints, Violation.Type.SL_TOO_CLOSE, spec, violations);
+        checkPoints(modification.tpPoints, Violation.Type.TP_TOO_CLOSE, spec, violations);
+        return violations;
+    }
+
+    /**
+     * Check a new order, and throw the error the terminal would return for the first violation.
+     *
+     * @param order The new order request.
+     * @throws MT4Exception If the order would be rejected.
+     */
+    public void check(NewOrder order) throws MT4Exception {
+        throwFirst(validate(order));
+    }
+
+    /**
+     * Check a modification of an order, and throw the error the terminal would return for the first violation.
+     *
+     * @param order        The order's current state.
+     * @param modification The modification request.
+     * @throws MT4Exception If the modification would be rejected.
+     */
+    public void check(Order order, ModifyOrder modification) throws MT4Exception {
+        throwFirst(validate(order, modification));
+    }
+
+    /**
+     * Round the prices of a new order to the symbol's digits, and its volume to the nearest step within the symbol's
+     * limits.
+     *
+     * @param order The new order request.
+     * @return The normalized request, or the same one if its symbol has no specification or it lacks its volume or,
+     * for a pending order, its price.
+     */
+    public NewOrder normalize(NewOrder order) {
+        Spec spec = spec(SymbolRegistry.getInstance().find(order.symbol));
+        if (spec == null || order.lots == null || order.orderType.isPending() && order.price == null) {
+            return order;
+        }
+        double lots = order.lots;
+        if (spec.volumeStep > 0) {
+            lots = round(Math.round(lots / spec.volumeStep) * spec.volumeStep, 8);
+        }
+        lots = Math.min(Math.max(lots, spec.volumeMin), spec.volumeMax);
+        return NewOrder.Builder.newInstance()
+                .setSymbol(order.symbol)
+                .setOrderType(order.orderType)
+                .setLots(lots)
+                .setPrice(round(order.price, spec.digits))
+                .setSlippage(order.slippage)
+                .setSl(round(order.sl, spec.digits))
+                .setTp(round(order.tp, spec.digits))
+                .setSlPoints(order.slPoints)
+                .setTpPoints(order.tpPoints)
+                .setComment(order.comment)
+                .setMagicNumber(order.magicNumber)
+                .build();
+    }
+
+    /**
+     * Round the prices of an order modification to the symbol's digits.
+     *
+     * @param order        The order's current state.
+     * @param modification The modification request.
+     * @return The normalized request, or the same one if the order's symbol has no specification.
+     */
+    public ModifyOrder normalize(Order order, ModifyOrder modification) {
+        Spec spec = spec(order.getSymbolId());
+        if (spec == null) {
+            return modification;
+        }
+        return ModifyOrder.Builder.newInstance()
+                .setOrder(modification.ticket)
+                .setPrice(round(modification.price, spec.digits))
+                .setSl(round(modification.sl, spec.digits))
+                .setTp(round(modification.tp, spec.digits))
+                .setSlPoints(modification.slPoints)
+                .setTpPoints(modification.tpPoints)
+                .build();
+    }
+
+    private void checkNormalized(Spec spec, Double sl, Double tp, List<Violation> violations) {
+        if (sl != null && !onGrid(sl, spec.point) || tp != null && !onGrid(tp, spec.point)) {
+            violations.add(new Violation(Violation.Type.STOPS_NOT_NORMALIZED,
+                    "Stops sl=" + sl + " tp=" + tp + " have more than " + spec.digits + " digits"));
+        }
+    }
+
+    private static void checkStops(boolean buy, double reference, Double sl, Double tp, double stops, Spec spec,
+                                   List<Violation> violations) {
+        if (sl != null && sl != 0 && tooClose(buy ? reference - sl : sl - reference, stops, spec.point)) {
+            violations.add(new Violation(Violation.Type.SL_TOO_CLOSE, String.format(
+                    "Stop-loss %s is within %d points of %s", sl, spec.stopsLevel, reference)));
+        }
+        if (tp != null && tp != 0 && tooClose(buy ? tp - reference : reference - tp, stops, spec.point)) {
+            violations.add(new Violation(Violation.Type.TP_TOO_CLOSE, String.format(
+                    "Take-profit %s is within %d points of %s", tp, spec.stopsLevel, reference)));
+        }
+    }
+
+    private static void checkPoints(Integer points, Violation.Type type, Spec spec, List<Violation> violations) {
+        if (points != null && points > 0 && points < spec.stopsLevel) {
+            violations.add(new Violation(type, String.format(
+                    "%d points is less than the stops level of %d", points, spec.stopsLevel)));
+        }
+    }
+
+    private static double pendingDistance(OrderType type, double price, Quote quote) {
+        switch (type) {
+            case OP_BUYLIMIT:
+                return quote.ask - price;
+            case OP_BUYSTOP:
+                return price - quote.ask;
+            case OP_SELLLIMIT:
+                return price - quote.bid;
+            default:
+                return quote.bid - price;
+        }
+    }
+
+    private static boolean tooClose(double distance, double minimum, double point) {
+        // a price on the wrong side of the market is always too close
+        return distance < minimum - EPSILON * point || distance <= 0;
+    }
+
+    private static boolean onGrid(double value, double step) {
+        double steps = value / step;
+        return Math.abs(steps - Math.rint(steps)) < EPSILON;
+    }
+
+    private static Double round(Double value, int digits) {
+        return value == null ? null : round(value.doubleValue(), digits);
+    }
+
+    private static double round(double value, int digits) {
+        double scale = Math.pow(10, digits);
+        return Math.round(value * scale) / scale;
+    }
+
+    private static void throwFirst(List<Violation> violations) throws MT4Exception {
+        if (!violations.isEmpty()) {
+            Violation violation = violations.get(0);
+            throw MT4Exception.Builder.newInstance()
+                    .setErrorCode(violation.type.errorCode.id)
+                    .setErrorCodeDescription(violation.type.toString())
+                    .setMessage(violation.message)
+                    .build();
+        }
+    }
+
+    private synchronized Spec spec(int symbolId) {
+        return symbolId < 0 || symbolId >= specs.length ? null : specs[symbolId];
+    }
+
+    private synchronized Quote quote(int symbolId) {
+        return symbolId < 0 || symbolId >= quotes.length ? null : quotes[symbolId];
+    }
+}
@@ -0,0 +1,213 @@
+package human.coejoder.mt4client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The strategy parameters explored by an {@link Optimizer}: a named list of candidate values per parameter.
+ * <p>
+ * A grid search visits every combination, numbered in mixed radix with the last parameter varying fastest.  A random
+ * search picks each parameter's value uniformly from its candidates.
+ */
+public final class ParameterSpace {
+
+    /**
+     * Builder for parameter spaces.
+     */
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<double[]> values = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Construct a new parameter space builder.
+         *
+         * @return The parameter space builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the parameter space.
+         *
+         * @return The parameter space.
+         */
+        public ParameterSpace build() {
+            if (names.isEmpty()) {
+                throw new IllegalStateException("No parameters were added");
+            }
+            return new ParameterSpace(this);
+        }
+
+        /**
+         * Add a parameter taking evenly spaced values.
+         *
+         * @param name The parameter name.
+         * @param min  The first value.
+         * @param max  The last value, inclusive.
+         * @param step The distance between values.
+         * @return This Builder.
+         */
+        public Builder addRange(String name, double min, double max, double step) {
+            if (step <= 0 || max < min) {
+                throw new IllegalArgumentException("Invalid range for " + name + ": " + min + ".." + max + " by "
+                        + step);
+            }
+            int count = (int) Math.floor((max - min) / step + 1e-9) + 1;
+            double[] range = new double[count];
+            for (int i = 0; i < count; i++) {
+                range[i] = min + i * step;
+            }
+            return addValues(name, range);
+        }
+
+        /**
+         * Add a parameter taking the given values.
+         *
+         * @param name   The parameter name.
+         * @param values The values.
+         * @return This Builder.
+         */
+        public Builder addValues(String name, double... values) {
+            if (values.length == 0) {
+                throw new IllegalArgumentException("No values for " + name);
+            }
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate parameter: " + name);
+            }
+            names.add(name);
+            this.values.add(values.clone());
+            return this;
+        }
+    }
+
+    private final String[] names;
+    private final double[][] values;
+    private final long size;
+
+    private ParameterSpace(Builder builder) {
+        this.names = builder.names.toArray(new String[0]);
+        this.values = builder.values.toArray(new double[0][]);
+        long combinations = 1;
+        for (double[] v : values) {
+            combinations = Math.multiplyExact(combinations, v.length);
+        }
+        this.size = combinations;
+    }
+
+    /**
+     * @return The number of combinations in the grid.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The parameter names, in the order they were added.
+     */
+    public List<String> getNames() {
+        return Arrays.asList(names.clone());
+    }
+
+    /**
+     * Get a combination of the grid.
+     *
+     * @param index The combination number, from 0 to {@link #size()} - 1.
+     * @return The parameters.
+     */
+    public Parameters get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Combination " + index + " of " + size);
+        }
+        double[] combination = new double[names.length];
+        for (int i = names.length - 1; i >= 0; i--) {
+            int radix = values[i].length;
+            combination[i] = values[i][(int) (index % radix)];
+            index /= radix;
+        }
+        return new Parameters(names, combination);
+    }
+
+    /**
+     * Pick a random combination.
+     *
+     * @param random The source of randomness.
+     * @return The parameters.
+     */
+    public Parameters sample(SplittableRandom random) {
+        double[] combination = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+            combination[i] = values[i][random.nextInt(values[i].length)];
+        }
+        return new Parameters(names, combination);
+    }
+
+    /**
+     * One combination of parameter values.
+     */
+    public static final class Parameters {
+        private final String[] names;
+        private final double[] values;
+
+        Parameters(String[] names, double[] values) {
+            this.names = names;
+            this.values = values;
+        }
+
+        /**
+         * @param name The parameter name.
+         * @return The parameter value.
+         * @throws IllegalArgumentException If there is no such parameter.
+         */
+        public double get(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return values[i];
+                }
+            }
+            throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+
+        /**
+         * @param name The parameter name.
+         * @return The parameter value, rounded to an integer.
+         * @throws IllegalArgumentException If there is no such parameter.
+         */
+        public int getInt(String name) {
+            return (int) Math.round(get(name));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Parameters)) {
+                return false;
+            }
+            Parameters that = (Parameters) o;
+            return Arrays.equals(names, that.names) && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(names) + Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Parameters{");
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(names[i]).append('=').append(values[i]);
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -30,6 +30,13 @@ public enum Request {
 
     private static final String ACTION = "action";
 
+    /**
+     * @return Whether the request changes the account, so that sending it twice could e.g. open two orders.
+     */
+    public boolean isTradeAction() {
+        return this == DO_ORDER_SEND || this == DO_ORDER_CLOSE || this == DO_ORDER_DELETE || this == DO_ORDER_MODIFY;
+    }
+
     /**
      * Initialize a JSON request object.
      *
@@ -0,0 +1,55 @@
+package human.coejoder.mt4client;
+
+/**
+ * Priority classes of MT4 server requests, most urgent first, with their default scheduling weights.
+ *
+ * @see RequestScheduler
+ */
+public enum RequestPriority {
+    TRADING(64),
+    QUOTES(16),
+    ACCOUNT(4),
+    HISTORY(1);
+
+    private final int defaultWeight;
+
+    RequestPriority(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * @return The share of dispatches the class gets relative to the others while they all have requests queued.
+     */
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /**
+     * @param request The request type.
+     * @return The priority class of the request type.
+     */
+    public static RequestPriority of(Request request) {
+        switch (request) {
+            case DO_ORDER_SEND:
+            case DO_ORDER_CLOSE:
+            case DO_ORDER_DELETE:
+            case DO_ORDER_MODIFY:
+                return TRADING;
+            case GET_SYMBOL_TICK:
+            case GET_SYMBOL_MARKET_INFO:
+            case GET_SYMBOL_INFO:
+            case GET_SYMBOL_INFO_INTEGER:
+            case GET_SYMBOL_INFO_DOUBLE:
+            case RUN_INDICATOR:
+                return QUOTES;
+            case GET_ACCOUNT_INFO:
+            case GET_ACCOUNT_INFO_INTEGER:
+            case GET_ACCOUNT_INFO_DOUBLE:
+            case GET_ORDER:
+            case GET_ORDERS:
+                return ACCOUNT;
+            default:
+                return HISTORY;
+        }
+    }
+}
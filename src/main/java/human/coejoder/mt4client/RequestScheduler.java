@@ -0,0 +1,294 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Shares one terminal between many threads, dispatching their calls by the {@link RequestPriority} of their
+ * {@link Request}, so that e.g. an order close does not queue behind a multi-page history download.
+ * <p>
+ * Each priority class has its own lane: a queue, a client with its own connection, and a thread which runs the calls
+ * of the lane in order.  Since the terminal answers requests one at a time, only a few calls (one by default) are in
+ * flight at once; when one finishes, the next call is taken from the lane picked by stride scheduling.  Every lane with
+ * calls queued is served in proportion to its weight, so trade actions wait for at most the calls in flight while
+ * history requests still progress under a steady stream of quotes.
+ * <p>
+ * A call runs against the client of its lane, and objects it returns which query the terminal, such as {@link Symbol}
+ * and {@link Account}, belong to that client: only use them inside calls.
+ */
+public class RequestScheduler implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestScheduler.class);
+    private static final long STRIDE = 1L << 20;
+
+    /**
+     * Builder for request schedulers.
+     */
+    public static class Builder {
+        private final Map<RequestPriority, Integer> weights = new EnumMap<>(RequestPriority.class);
+        private Supplier<? extends MT4ClientInterface> clientFactory;
+        private int concurrency = 1;
+
+        private Builder() {
+            for (RequestPriority priority : RequestPriority.values()) {
+                weights.put(priority, priority.getDefaultWeight());
+            }
+        }
+
+        /**
+         * Construct a new request scheduler builder.
+         *
+         * @return The request scheduler builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the scheduler, creating the client of every lane.
+         *
+         * @return The scheduler.
+         * @throws IllegalStateException If no address or client factory was set.
+         */
+        public RequestScheduler build() {
+            if (clientFactory == null) {
+                throw new IllegalStateException("No address or client factory");
+            }
+            return new RequestScheduler(this);
+        }
+
+        /**
+         * @param address The address of the server's listening socket.
+         * @return This Builder.
+         */
+        public Builder setAddress(String address) {
+            return setClientFactory(() -> new MT4Client(address));
+        }
+
+        /**
+         * @param clientFactory Creates the client of each lane.
+         * @return This Builder.
+         */
+        public Builder setClientFactory(Supplier<? extends MT4ClientInterface> clientFactory) {
+            this.clientFactory = clientFactory;
+            return this;
+        }
+
+        /**
+         * @param priority The priority class.
+         * @param weight   The share of dispatches the class gets while others have calls queued too.
+         * @return This Builder.
+         */
+        public Builder setWeight(RequestPriority priority, int weight) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + weight);
+            }
+            weights.put(priority, weight);
+            return this;
+        }
+
+        /**
+         * @param concurrency The number of calls in flight at once, at most one per lane.
+         * @return This Builder.
+         */
+        public Builder setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+    }
+
+    private static final class Task<T> {
+        final TerminalFleet.MT4Call<T> call;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(TerminalFleet.MT4Call<T> call) {
+            this.call = call;
+        }
+    }
+
+    private static final class Lane {
+        final RequestPriority priority;
+        final long stride;
+        final MT4ClientInterface client;
+        final ExecutorService thread;
+        final ArrayDeque<Task<?>> queue = new ArrayDeque<>();
+        long pass;
+        boolean busy;
+        long dispatched;
+
+        Lane(RequestPriority priority, int weight, MT4ClientInterface client) {
+            this.priority = priority;
+            this.stride = STRIDE / weight;
+            this.client = client;
+            this.thread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "mt4-lane-" + priority.name().toLowerCase());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private final Lane[] lanes;
+    private final int concurrency;
+    private int inFlight;
+    private long globalPass;
+    private boolean closed;
+
+    private RequestScheduler(Builder builder) {
+        this.concurrency = builder.concurrency;
+        RequestPriority[] priorities = RequestPriority.values();
+        this.lanes = new Lane[priorities.length];
+        for (RequestPriority priority : priorities) {
+            lanes[priority.ordinal()] = new Lane(priority, builder.weights.get(priority), builder.clientFactory.get());
+        }
+    }
+
+    /**
+     * Queue a call in the lane of a request type.
+     *
+     * @param request The request type the call sends, which decides its priority.
+     * @param call    The call.
+     * @param <T>     The result type.
+     * @return The result of the call, once it has run.
+     */
+    public <T> CompletableFuture<T> submit(Request request, TerminalFleet.MT4Call<T> call) {
+        Task<T> task = new Task<>(call);
+        Lane lane = lanes[RequestPriority.of(request).ordinal()];
+        synchronized (this) {
+            if (closed) {
+                task.future.completeExceptionally(new CancellationException("Scheduler closed"));
+                return task.future;
+            }
+            if (lane.queue.isEmpty() && !lane.busy) {
+                // an idle lane does not bank the dispatches it missed
+                lane.pass = Math.max(lane.pass, globalPass);
+            }
+            lane.queue.add(task);
+            dispatch();
+        }
+        return task.future;
+    }
+
+    /**
+     * Run a call in the lane of a request type and wait for it.
+     *
+     * @param request The request type the call sends, which decides its priority.
+     * @param call    The call.
+     * @param <T>     The result type.
+     * @return The result of the call.
+     * @throws JsonProcessingException If JSON response fails to parse.
+     * @throws MT4Exception            If server had an error.
+     */
+    public <T> T call(Request request, TerminalFleet.MT4Call<T> call) throws JsonProcessingException, MT4Exception {
+        try {
+            return submit(request, call).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MT4Exception) {
+                throw (MT4Exception) cause;
+            } else if (cause instanceof JsonProcessingException) {
+                throw (JsonProcessingException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @param priority The priority class.
+     * @return The number of calls waiting in its lane.
+     */
+    public synchronized int getQueuedCount(RequestPriority priority) {
+        return lanes[priority.ordinal()].queue.size();
+    }
+
+    /**
+     * @param priority The priority class.
+     * @return The number of calls of its lane started so far.
+     */
+    public synchronized long getDispatchedCount(RequestPriority priority) {
+        return lanes[priority.ordinal()].dispatched;
+    }
+
+    /**
+     * Cancel the queued calls, stop the lanes and close their clients.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Lane lane : lanes) {
+                for (Task<?> task : lane.queue) {
+                    task.future.completeExceptionally(new CancellationException("Scheduler closed"));
+                }
+                lane.queue.clear();
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.thread.shutdownNow();
+            try {
+                lane.client.close();
+            } catch (Exception e) {
+                LOG.warn("Failed to close the client of the {} lane", lane.priority, e);
+            }
+        }
+    }
+
+    /**
+     * Start queued calls while fewer than the allowed number are in flight.  Must hold the lock.
+     */
+    private void dispatch() {
+        while (inFlight < concurrency) {
+            Lane next = null;
+            for (Lane lane : lanes) {
+                if (!lane.busy && !lane.queue.isEmpty() && (next == null || lane.pass < next.pass)) {
+                    next = lane;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Task<?> task = next.queue.poll();
+            globalPass = next.pass;
+            next.pass += next.stride;
+            next.busy = true;
+            next.dispatched++;
+            inFlight++;
+            Lane lane = next;
+            lane.thread.execute(() -> run(lane, task));
+        }
+    }
+
+    private <T> void run(Lane lane, Task<T> task) {
+        try {
+            task.future.complete(task.call.call(lane.client));
+        } catch (Throwable t) {
+            task.future.completeExceptionally(t);
+        } finally {
+            synchronized (this) {
+                lane.busy = false;
+                inFlight--;
+                if (!closed) {
+                    dispatch();
+                }
+            }
+        }
+    }
+}
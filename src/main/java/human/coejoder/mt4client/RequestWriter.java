@@ -0,0 +1,404 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes MT4 server requests directly into a reusable UTF-8 byte buffer, bypassing the Jackson tree model.
+ * <p>
+ * Each thread owns one writer (see {@link #begin(Request)}), so in steady state encoding a request allocates nothing:
+ * keys and enum names are copied char-by-char and prices are formatted without going through {@link Double#toString}.
+ * The bytes are only valid until the same thread begins its next request.
+ */
+final class RequestWriter {
+
+    private static final String ACTION = "action";
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_FAST_DECIMALS = 10;
+    private static final double MAX_FAST_DOUBLE = 1e15;
+    private static final long[] POW10 = new long[MAX_FAST_DECIMALS + 1];
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final ThreadLocal<RequestWriter> LOCAL = ThreadLocal.withInitial(RequestWriter::new);
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private boolean first;
+    private Request request;
+
+    private RequestWriter() {}
+
+    /**
+     * Start encoding a request on the calling thread's writer.  Any request previously encoded by this thread is
+     * discarded.
+     *
+     * @param request The request type.
+     * @return The writer, with the {@value #ACTION} property already written.
+     */
+    static RequestWriter begin(Request request) {
+        RequestWriter writer = LOCAL.get();
+        writer.length = 0;
+        writer.first = true;
+        writer.request = request;
+        writer.writeByte('{');
+        return writer.put(ACTION, request.name());
+    }
+
+    /**
+     * @return The type of the request being encoded.
+     */
+    Request getRequest() {
+        return request;
+    }
+
+    RequestWriter put(String key, String value) {
+        writeKey(key);
+        writeString(value);
+        return this;
+    }
+
+    RequestWriter put(String key, long value) {
+        writeKey(key);
+        writeLong(value);
+        return this;
+    }
+
+    RequestWriter put(String key, boolean value) {
+        writeKey(key);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    RequestWriter put(String key, double value) {
+        writeKey(key);
+        writeDouble(value);
+        return this;
+    }
+
+    RequestWriter put(String key, Integer value) {
+        writeKey(key);
+        if (value == null) {
+            writeBytes(NULL);
+        } else {
+            writeLong(value);
+        }
+        return this;
+    }
+
+    RequestWriter put(String key, Double value) {
+        writeKey(key);
+        if (value == null) {
+            writeBytes(NULL);
+        } else {
+            writeDouble(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write an array of strings.
+     *
+     * @param key    The property name.
+     * @param values The array elements.
+     * @return This writer.
+     */
+    RequestWriter putArray(String key, String... values) {
+        writeKey(key);
+        writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeString(values[i]);
+        }
+        writeByte(']');
+        return this;
+    }
+
+    /**
+     * Write a JSON tree, such as the arguments of an {@link Indicator}.
+     *
+     * @param key   The property name.
+     * @param value The JSON value.
+     * @return This writer.
+     */
+    RequestWriter putNode(String key, JsonNode value) {
+        writeKey(key);
+        writeNode(value);
+        return this;
+    }
+
+    /**
+     * Write the properties of a new order request, in the same form Jackson would serialize the {@link NewOrder}.
+     *
+     * @param newOrder The new order request.
+     * @return This writer.
+     */
+    RequestWriter putAll(NewOrder newOrder) {
+        put(NewOrder.SYMBOL, newOrder.symbol);
+        put(NewOrder.ORDER_TYPE, newOrder.orderType.id);
+        put(NewOrder.LOTS, newOrder.lots);
+        put(NewOrder.PRICE, newOrder.price);
+        put(NewOrder.SLIPPAGE, newOrder.slippage);
+        put(NewOrder.SL, newOrder.sl);
+        put(NewOrder.TP, newOrder.tp);
+        put(NewOrder.SL_POINTS, newOrder.slPoints);
+        put(NewOrder.TP_POINTS, newOrder.tpPoints);
+        put(NewOrder.COMMENT, newOrder.comment);
+        put(NewOrder.MAGIC_NUMBER, newOrder.magicNumber);
+        return this;
+    }
+
+    /**
+     * Write the properties of an order modification request, omitting unset values as Jackson would for the
+     * {@link ModifyOrder}.
+     *
+     * @param modifyOrder The order modification request.
+     * @return This writer.
+     */
+    RequestWriter putAll(ModifyOrder modifyOrder) {
+        put(ModifyOrder.TICKET, modifyOrder.ticket);
+        if (modifyOrder.price != null) {
+            put(ModifyOrder.PRICE, modifyOrder.price);
+        }
+        if (modifyOrder.sl != null) {
+            put(ModifyOrder.SL, modifyOrder.sl);
+        }
+        if (modifyOrder.tp != null) {
+            put(ModifyOrder.TP, modifyOrder.tp);
+        }
+        if (modifyOrder.slPoints != null) {
+            put(ModifyOrder.SL_POINTS, modifyOrder.slPoints);
+        }
+        if (modifyOrder.tpPoints != null) {
+            put(ModifyOrder.TP_POINTS, modifyOrder.tpPoints);
+        }
+        return this;
+    }
+
+    /**
+     * Close the request object.  Must be called once, after the last property.
+     *
+     * @return This writer.
+     */
+    RequestWriter end() {
+        writeByte('}');
+        return this;
+    }
+
+    /**
+     * @return The backing buffer.  Only the first {@link #length()} bytes are valid.
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return The number of encoded bytes.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return A copy of the encoded bytes.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decode the request.  Allocates; meant for logging and tests.
+     *
+     * @return The JSON request text.
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void writeKey(String key) {
+        if (first) {
+            first = false;
+        } else {
+            writeByte(',');
+        }
+        writeString(key);
+        writeByte(':');
+    }
+
+    private void writeNode(JsonNode node) {
+        if (node == null) {
+            writeBytes(NULL);
+            return;
+        }
+        switch (node.getNodeType()) {
+            case STRING:
+                writeString(node.textValue());
+                break;
+            case BOOLEAN:
+                writeBytes(node.booleanValue() ? TRUE : FALSE);
+                break;
+            case NUMBER:
+                if (node.isIntegralNumber() && node.canConvertToLong()) {
+                    writeLong(node.longValue());
+                } else {
+                    writeDouble(node.doubleValue());
+                }
+                break;
+            case ARRAY:
+                writeByte('[');
+                for (int i = 0; i < node.size(); i++) {
+                    if (i > 0) {
+                        writeByte(',');
+                    }
+                    writeNode(node.get(i));
+                }
+                writeByte(']');
+                break;
+            case NULL:
+            case MISSING:
+                writeBytes(NULL);
+                break;
+            default:
+                // objects are never part of a request's arguments; fall back to Jackson's encoding
+                writeAscii(node.toString());
+        }
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeBytes(NULL);
+            return;
+        }
+        writeByte('"');
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x20) {
+                writeByte('\\');
+                writeByte('u');
+                writeByte('0');
+                writeByte('0');
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xF0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3F));
+                writeByte(0x80 | ((cp >> 6) & 0x3F));
+                writeByte(0x80 | (cp & 0x3F));
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        writeDigits(value, 0);
+    }
+
+    /**
+     * Format a double without allocating when it is a short decimal, as prices and lot sizes are.  The shortest
+     * decimal of at most {@value #MAX_FAST_DECIMALS} fraction digits that parses back to exactly the same double is
+     * written; any other value falls back to {@link Double#toString(double)}.
+     */
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FAST_DOUBLE) {
+            writeAscii(Double.toString(value));
+            return;
+        }
+        double abs = Math.abs(value);
+        for (int decimals = 0; decimals <= MAX_FAST_DECIMALS; decimals++) {
+            long scale = POW10[decimals];
+            double scaled = Math.rint(abs * scale);
+            // the division is correctly rounded, so equality means the decimal string round-trips exactly
+            if (scaled < MAX_FAST_DOUBLE && scaled / scale == abs) {
+                long digits = (long) scaled;
+                if (value < 0) {
+                    writeByte('-');
+                }
+                writeDigits(digits / scale, 0);
+                writeByte('.');
+                if (decimals == 0) {
+                    writeByte('0');
+                } else {
+                    writeDigits(digits % scale, decimals);
+                }
+                return;
+            }
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    /**
+     * Write a non-negative integer, left-padded with zeros to at least {@code minDigits}.
+     */
+    private void writeDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package human.coejoder.mt4client;
+
+/**
+ * Derives the bars of a higher timeframe from a cached series of finer bars, instead of fetching every timeframe from
+ * the terminal.
+ * <p>
+ * Target bars are aligned on their open time like the terminal's: multiples of the timeframe length since the epoch
+ * for intraday and daily bars, Sunday for weekly bars and the first of the month for monthly bars.  Resampling is a
+ * single pass over the source arrays which only computes a boundary when a bar crosses into the next target bar.
+ * <p>
+ * The resampler remembers how far it has read, so {@link #update()} only folds in source bars appended since the last
+ * call.  The last target bar is therefore still forming until a source bar of the next target bar arrives.  Source
+ * bars must be complete when they are appended; a forming source bar would be folded in early.  A resampler is not
+ * thread-safe, but its {@link #getSeries() series} can be read concurrently like any {@link BarSeries}.
+ * <p>
+ * Readers which each follow the source up to their own point, such as backtests, can share one complete resampling:
+ * a resampler {@link #Resampler(Resampler) over it} reveals its bars through a {@link BarSeries#view() view} instead of
+ * building them again.
+ */
+public final class Resampler {
+
+    private final BarSeries source;
+    private final int minutes;
+    private final BarSeries complete;
+    private BarSeries target;
+    private int limit = Integer.MAX_VALUE;
+    private int consumed;
+    private long nextTime = Long.MIN_VALUE;
+
+    /**
+     * Constructor.  Nothing is resampled until {@link #update()} is called.
+     *
+     * @param source          The finer bars.
+     * @param sourceTimeframe The timeframe of the finer bars.
+     * @param targetTimeframe The timeframe to derive.
+     * @throws IllegalArgumentException If the target bars cannot be built from whole source bars.
+     */
+    public Resampler(BarSeries source, Timeframe sourceTimeframe, Timeframe targetTimeframe) {
+        this(source, sourceTimeframe.getMinutes(), targetTimeframe.getMinutes());
+    }
+
+    Resampler(BarSeries source, int sourceMinutes, int targetMinutes) {
+        if (!canResample(sourceMinutes, targetMinutes)) {
+            throw new IllegalArgumentException("Cannot build " + targetMinutes + " minute bars from " + sourceMinutes
+                    + " minute bars");
+        }
+        this.source = source;
+        this.minutes = targetMinutes;
+        this.complete = null;
+        this.target = new BarSeries();
+    }
+
+    /**
+     * Constructor for a resampler which reveals the bars of a complete resampling of the same source as it goes.  The
+     * first {@link #update(int) update} skips straight to the bar being formed.  Should the source grow past what was
+     * resampled, the resampler carries on with a copy of its bars.
+     *
+     * @param complete A resampler which has been updated, and will not be again.
+     */
+    Resampler(Resampler complete) {
+        this.source = complete.source;
+        this.minutes = complete.minutes;
+        this.complete = complete.target;
+        this.target = complete.target.view();
+        this.limit = complete.consumed;
+    }
+
+    /**
+     * Resample a whole series at once.
+     *
+     * @param source          The finer bars.
+     * @param sourceTimeframe The timeframe of the finer bars.
+     * @param targetTimeframe The timeframe to derive.
+     * @return The derived bars.
+     * @throws IllegalArgumentException If the target bars cannot be built from whole source bars.
+     */
+    public static BarSeries resample(BarSeries source, Timeframe sourceTimeframe, Timeframe targetTimeframe) {
+        Resampler resampler = new Resampler(source, sourceTimeframe, targetTimeframe);
+        resampler.update();
+        return resampler.getSeries();
+    }
+
+    /**
+     * Whether every target bar is made of whole source bars.  Weekly and monthly bars need source bars which divide a
+     * day, since weeks and months do not start on multiples of any longer length.
+     */
+    static boolean canResample(int sourceMinutes, int targetMinutes) {
+        if (sourceMinutes <= 0 || targetMinutes < sourceMinutes) {
+            return false;
+        }
+        if (targetMinutes == BarTime.MINUTES_PER_WEEK || targetMinutes == BarTime.MINUTES_PER_MONTH) {
+            return sourceMinutes == targetMinutes
+                    || BarTime.SECONDS_PER_DAY / BarTime.SECONDS_PER_MINUTE % sourceMinutes == 0;
+        }
+        return sourceMinutes != BarTime.MINUTES_PER_WEEK && sourceMinutes != BarTime.MINUTES_PER_MONTH
+                && targetMinutes % sourceMinutes == 0;
+    }
+
+    /**
+     * @return The derived bars, oldest first.  The last one may still be forming.
+     */
+    public BarSeries getSeries() {
+        return target;
+    }
+
+    /**
+     * Fold in all source bars appended since the last update.
+     *
+     * @return The number of target bars started by this update.
+     */
+    public int update() {
+        return update(source.size());
+    }
+
+    /**
+     * Fold in the source bars appended since the last update, up to an index.
+     *
+     * @param end The index of the first source bar not to read.
+     * @return The number of target bars started by this update.
+     */
+    int update(int end) {
+        int started = 0;
+        if (end > limit) {
+            target = target.copy();
+            limit = Integer.MAX_VALUE;
+        } else if (complete != null && consumed == 0 && end > 0) {
+            started = seek(end);
+        }
+        long next = nextTime;
+        for (int i = consumed; i < end; i++) {
+            long time = source.getTime(i);
+            if (time < next) {
+                target.mergeLast(source.getHigh(i), source.getLow(i), source.getClose(i), source.getVolume(i));
+            } else {
+                long openTime = BarTime.openTime(time, minutes);
+                next = BarTime.nextOpenTime(openTime, minutes);
+                target.append(openTime, source.getOpen(i), source.getHigh(i), source.getLow(i), source.getClose(i),
+                        source.getVolume(i));
+                started++;
+            }
+        }
+        consumed = Math.max(consumed, end);
+        nextTime = next;
+        return started;
+    }
+
+    /**
+     * Reveal the complete bars before the one a source bar belongs to, and continue from its first source bar.
+     *
+     * @return The number of bars revealed.
+     */
+    private int seek(int end) {
+        int bar = complete.indexAtOrBefore(source.getTime(end - 1));
+        if (bar <= 0) {
+            return 0;
+        }
+        target.seek(bar);
+        consumed = source.indexAtOrBefore(complete.getTime(bar) - 1) + 1;
+        nextTime = complete.getTime(bar);
+        return bar;
+    }
+}
@@ -0,0 +1,489 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the exposure, floating profit, used margin and margin level of an account locally, so they can be checked on
+ * every tick without querying the terminal.
+ * <p>
+ * The engine is given the open orders, the specifications of their symbols and the ticks of those symbols.  Each
+ * symbol keeps the sums of its buy and sell lots and of their open prices, so a tick reprices the symbol in constant
+ * time, and the account totals are adjusted by the change.  A price difference is converted to the deposit currency
+ * with the symbol's tick value per tick size.  The margin of a lot is the symbol's initial margin if it has one, and
+ * otherwise the lot's value at the current price, divided by the leverage for forex symbols.  Orders of a symbol
+ * without a specification or a known tick value, or without a tick yet, count at the profit the terminal last
+ * reported, and take no margin.
+ * <p>
+ * Hedging rules, conversion rates and balance operations are only known to the terminal, so the estimates are
+ * reconciled with the account's balance, equity and margin, either by calling {@link #reconcile()} or periodically on
+ * the engine's own thread.  Until the next reconciliation, the differences found are carried as an equity offset and a
+ * margin scale.
+ */
+public class RiskEngine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RiskEngine.class);
+
+    /**
+     * Builder for risk engines.
+     */
+    public static class Builder {
+        private Account account;
+        private int leverage;
+        private double balance;
+        private double credit;
+        private long reconcileIntervalMillis;
+
+        private Builder() {}
+
+        /**
+         * Construct a new risk engine builder.
+         *
+         * @return The risk engine builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the engine, and start reconciling it if an interval was set.
+         *
+         * @return The engine.
+         * @throws IllegalStateException If a reconciliation interval was set without an account.
+         */
+        public RiskEngine build() {
+            if (reconcileIntervalMillis > 0 && account == null) {
+                throw new IllegalStateException("No account to reconcile with");
+            }
+            return new RiskEngine(this);
+        }
+
+        /**
+         * @param account The account to reconcile with.
+         * @return This Builder.
+         */
+        public Builder setAccount(Account account) {
+            this.account = account;
+            return this;
+        }
+
+        /**
+         * @param leverage The account leverage.  If unset, it is read from the account when first reconciling.
+         * @return This Builder.
+         */
+        public Builder setLeverage(int leverage) {
+            this.leverage = leverage;
+            return this;
+        }
+
+        /**
+         * @param balance The balance until the first reconciliation.
+         * @param credit  The credit until the first reconciliation.
+         * @return This Builder.
+         */
+        public Builder setBalance(double balance, double credit) {
+            this.balance = balance;
+            this.credit = credit;
+            return this;
+        }
+
+        /**
+         * @param reconcileIntervalMillis The delay between reconciliations with the account, or 0 to only reconcile
+         *                                when {@link #reconcile()} is called.
+         * @return This Builder.
+         */
+        public Builder setReconcileInterval(long reconcileIntervalMillis) {
+            this.reconcileIntervalMillis = reconcileIntervalMillis;
+            return this;
+        }
+    }
+
+    /**
+     * The positions of one symbol, and what they contribute to the account totals.
+     */
+    private static final class Book {
+        boolean specified;
+        double valuePerPrice;
+        SymbolCalcMode calcMode;
+        double marginInitial;
+        boolean priced;
+        double bid;
+        double ask;
+        double buyLots;
+        double buyCost;
+        double sellLots;
+        double sellCost;
+        double reportedProfit;
+        double charges;
+        double profit;
+        double margin;
+    }
+
+    private final Account account;
+    private final ScheduledExecutorService reconciler;
+    private final Map<Integer, Order> orders = new HashMap<>();
+    private Book[] books = new Book[64];
+    private int leverage;
+    private double balance;
+    private double credit;
+    private double floatingProfit;
+    private double usedMargin;
+    private double equityOffset;
+    private double marginScale = 1;
+    private double equityDrift;
+    private double marginDrift;
+    private long reconcileCount;
+
+    private RiskEngine(Builder builder) {
+        this.account = builder.account;
+        this.leverage = builder.leverage;
+        this.balance = builder.balance;
+        this.credit = builder.credit;
+        if (builder.reconcileIntervalMillis > 0) {
+            this.reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "mt4-risk-reconciler");
+                t.setDaemon(true);
+                return t;
+            });
+            this.reconciler.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcile();
+                } catch (JsonProcessingException | MT4Exception e) {
+                    LOG.warn("Failed to reconcile the risk estimates with the account", e);
+                }
+            }, 0, builder.reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.reconciler = null;
+        }
+    }
+
+    /**
+     * Add the specification of a symbol, reading its calculation mode and initial margin from the terminal once.
+     *
+     * @param symbol The symbol.
+     * @throws JsonProcessingException If JSON response fails to parse.
+     * @throws MT4Exception            If server had an error.
+     */
+    public void addSymbol(Symbol symbol) throws JsonProcessingException, MT4Exception {
+        addSymbol(symbol, symbol.getTradeCalcMode(), symbol.getMarginInitial());
+    }
+
+    /**
+     * Add the specification of a symbol.
+     *
+     * @param symbol        The symbol.
+     * @param calcMode      Its contract price calculation mode.
+     * @param marginInitial Its margin per lot in the deposit currency, or 0 to derive it from the lot's value.
+     */
+    public synchronized void addSymbol(Symbol symbol, SymbolCalcMode calcMode, double marginInitial) {
+        Book book = book(symbol.getId());
+        // symbols restored by the UniverseLoader have no tick value, since it changes with the conversion rates
+        double valuePerPrice = symbol.getTradeTickValue() / symbol.getTradeTickSize();
+        book.specified = symbol.getTradeTickSize() > 0 && Double.isFinite(valuePerPrice);
+        book.valuePerPrice = book.specified ? valuePerPrice : 0;
+        book.calcMode = calcMode;
+        book.marginInitial = marginInitial;
+        reprice(book);
+    }
+
+    /**
+     * Replace the tracked orders.
+     *
+     * @param orders The open orders of the account.
+     */
+    public synchronized void setOrders(Collection<Order> orders) {
+        for (Order order : this.orders.values()) {
+            apply(order, -1);
+        }
+        this.orders.clear();
+        for (Order order : orders) {
+            add(order);
+        }
+    }
+
+    /**
+     * Track a new or changed order.  A pending or closed order stops being tracked.
+     *
+     * @param order The order's latest state.
+     */
+    public synchronized void updateOrder(Order order) {
+        Order previous = orders.remove(order.getTicket());
+        if (previous != null) {
+            apply(previous, -1);
+        }
+        add(order);
+    }
+
+    /**
+     * Stop tracking an order.
+     *
+     * @param ticket The ticket of the order.
+     */
+    public synchronized void removeOrder(int ticket) {
+        Order previous = orders.remove(ticket);
+        if (previous != null) {
+            apply(previous, -1);
+        }
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param tick   The symbol's latest tick.
+     */
+    public void onTick(String symbol, SymbolTick tick) {
+        onTick(SymbolRegistry.getInstance().register(symbol), tick.getBid(), tick.getAsk());
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param bid    The latest bid.
+     * @param ask    The latest ask.
+     */
+    public void onTick(String symbol, double bid, double ask) {
+        onTick(SymbolRegistry.getInstance().register(symbol), bid, ask);
+    }
+
+    /**
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param bid      The latest bid.
+     * @param ask      The latest ask.
+     */
+    public synchronized void onTick(int symbolId, double bid, double ask) {
+        Book book = book(symbolId);
+        book.bid = bid;
+        book.ask = ask;
+        book.priced = true;
+        reprice(book);
+    }
+
+    /**
+     * @return A handler which feeds the ticks published on a {@link MarketEventBus} to this engine.
+     */
+    public MarketEventBus.Handler asHandler() {
+        return (event, sequence, endOfBatch) -> {
+            if (event.getType() == MarketEvent.Type.TICK) {
+                onTick(event.getSymbolId(), event.getBid(), event.getAsk());
+            }
+        };
+    }
+
+    /**
+     * Read the balance, credit, equity and margin of the account, and carry the differences from the local estimates
+     * until the next reconciliation.
+     *
+     * @throws JsonProcessingException If JSON response fails to parse.
+     * @throws MT4Exception            If server had an error.
+     * @throws IllegalStateException   If the engine has no account.
+     */
+    public void reconcile() throws JsonProcessingException, MT4Exception {
+        if (account == null) {
+            throw new IllegalStateException("No account to reconcile with");
+        }
+        int accountLeverage = getLeverage() > 0 ? getLeverage() : (int) account.getLeverage();
+        double accountBalance = account.getBalance();
+        double accountCredit = account.getCredit();
+        double accountEquity = account.getEquity();
+        double accountMargin = account.getMargin();
+        synchronized (this) {
+            equityDrift = accountEquity - getEquity();
+            marginDrift = accountMargin - getMargin();
+            leverage = accountLeverage;
+            balance = accountBalance;
+            credit = accountCredit;
+            // recompute the totals, so that rounding does not build up in them
+            floatingProfit = 0;
+            usedMargin = 0;
+            for (Book book : books) {
+                if (book != null) {
+                    book.profit = 0;
+                    book.margin = 0;
+                    reprice(book);
+                }
+            }
+            equityOffset = accountEquity - (balance + credit + floatingProfit);
+            marginScale = usedMargin > 0 && accountMargin > 0 ? accountMargin / usedMargin : 1;
+            reconcileCount++;
+        }
+    }
+
+    /**
+     * @return The profit of the open orders, including swaps and commissions, in the deposit currency.
+     */
+    public synchronized double getFloatingProfit() {
+        return floatingProfit;
+    }
+
+    /**
+     * @return The estimated equity in the deposit currency.
+     */
+    public synchronized double getEquity() {
+        return balance + credit + floatingProfit + equityOffset;
+    }
+
+    /**
+     * @return The estimated used margin in the deposit currency.
+     */
+    public synchronized double getMargin() {
+        return usedMargin * marginScale;
+    }
+
+    /**
+     * @return The estimated free margin in the deposit currency.
+     */
+    public synchronized double getFreeMargin() {
+        return getEquity() - getMargin();
+    }
+
+    /**
+     * @return The estimated margin level in percent, or 0 if no margin is used, as in the terminal.
+     */
+    public synchronized double getMarginLevel() {
+        double margin = getMargin();
+        return margin > 0 ? getEquity() / margin * 100 : 0;
+    }
+
+    /**
+     * @return The balance as of the last reconciliation.
+     */
+    public synchronized double getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return The leverage used for forex margin, or 0 if it is not known yet.
+     */
+    public synchronized int getLeverage() {
+        return leverage;
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @return The bought minus the sold lots of the symbol.
+     */
+    public synchronized double getExposure(String symbol) {
+        Book book = find(symbol);
+        return book == null ? 0 : book.buyLots - book.sellLots;
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @return The value of the {@link #getExposure(String) exposure} at the mid price, in the deposit currency, or 0
+     * if the symbol has no specification or tick.
+     */
+    public synchronized double getNotionalExposure(String symbol) {
+        Book book = find(symbol);
+        if (book == null || !book.specified || !book.priced) {
+            return 0;
+        }
+        return (book.buyLots - book.sellLots) * (book.bid + book.ask) / 2 * book.valuePerPrice;
+    }
+
+    /**
+     * @return The account equity minus the local estimate, as of the last reconciliation.
+     */
+    public synchronized double getEquityDrift() {
+        return equityDrift;
+    }
+
+    /**
+     * @return The account margin minus the local estimate, as of the last reconciliation.
+     */
+    public synchronized double getMarginDrift() {
+        return marginDrift;
+    }
+
+    /**
+     * @return The number of reconciliations with the account.
+     */
+    public synchronized long getReconcileCount() {
+        return reconcileCount;
+    }
+
+    /**
+     * Stop reconciling periodically.
+     */
+    @Override
+    public void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+
+    private void add(Order order) {
+        if (order.getOrderType().isMarket() && order.getSymbolId() >= 0
+                && (order.getCloseTime() == null || order.getCloseTime().isEmpty())) {
+            orders.put(order.getTicket(), order);
+            apply(order, 1);
+        }
+    }
+
+    private void apply(Order order, int sign) {
+        Book book = book(order.getSymbolId());
+        double lots = sign * order.getLots();
+        if (order.getOrderType().isBuy()) {
+            book.buyLots += lots;
+            book.buyCost += lots * order.getOpenPrice();
+        } else {
+            book.sellLots += lots;
+            book.sellCost += lots * order.getOpenPrice();
+        }
+        book.reportedProfit += sign * order.getProfit();
+        book.charges += sign * (order.getSwap() + order.getCommission());
+        reprice(book);
+    }
+
+    private void reprice(Book book) {
+        double profit;
+        if (book.specified && book.priced) {
+            profit = book.valuePerPrice * (book.bid * book.buyLots - book.buyCost + book.sellCost
+                    - book.ask * book.sellLots);
+        } else {
+            profit = book.reportedProfit;
+        }
+        profit += book.charges;
+        double margin = 0;
+        if (book.specified) {
+            double lots = book.buyLots + book.sellLots;
+            if (book.marginInitial > 0) {
+                margin = lots * book.marginInitial;
+            } else {
+                double value = book.valuePerPrice * (book.priced
+                        ? book.buyLots * book.ask + book.sellLots * book.bid
+                        : book.buyCost + book.sellCost);
+                margin = book.calcMode == SymbolCalcMode.SYMBOL_CALC_MODE_CFD
+                        || book.calcMode == SymbolCalcMode.SYMBOL_CALC_MODE_CFDINDEX
+                        ? value : value / Math.max(1, leverage);
+            }
+        }
+        floatingProfit += profit - book.profit;
+        usedMargin += margin - book.margin;
+        book.profit = profit;
+        book.margin = margin;
+    }
+
+    private Book find(String symbol) {
+        int id = SymbolRegistry.getInstance().find(symbol);
+        return id < 0 || id >= books.length ? null : books[id];
+    }
+
+    private Book book(int symbolId) {
+        if (symbolId >= books.length) {
+            books = Arrays.copyOf(books, Math.max(2 * books.length, symbolId + 1));
+        }
+        Book book = books[symbolId];
+        if (book == null) {
+            book = new Book();
+            books[symbolId] = book;
+        }
+        return book;
+    }
+}
@@ -0,0 +1,37 @@
+package human.coejoder.mt4client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sequence number written by one thread and read by others, alone on its cache line so that the cursors of
+ * neighbouring producers and consumers do not invalidate each other's caches.
+ */
+final class Sequence {
+
+    // 64 bytes of padding either side of the value
+    private static final int VALUE = 8;
+
+    private final AtomicLongArray padded = new AtomicLongArray(2 * VALUE + 1);
+
+    Sequence(long initial) {
+        padded.set(VALUE, initial);
+    }
+
+    long get() {
+        return padded.get(VALUE);
+    }
+
+    /**
+     * Publish a new value, which becomes visible to readers together with all writes made before it.
+     */
+    void set(long value) {
+        padded.setRelease(VALUE, value);
+    }
+
+    /**
+     * Publish a new value, ordered before any later read by the writing thread.
+     */
+    void setVolatile(long value) {
+        padded.set(VALUE, value);
+    }
+}
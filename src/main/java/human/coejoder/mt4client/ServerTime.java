@@ -0,0 +1,84 @@
+package human.coejoder.mt4client;
+
+/**
+ * Converts the terminal's date/time strings, e.g. "2024.01.02 10:00:00", to MQL4 <code>datetime</code> values.
+ * <p>
+ * A <code>datetime</code> counts the seconds since 1970.01.01 00:00 in the trade server's time, so the fields are
+ * converted as though they were UTC.  Parsing works on the characters in place, so a JSON parser's buffer can be
+ * parsed without creating a string.
+ */
+final class ServerTime {
+
+    private ServerTime() {}
+
+    /**
+     * @param text A date/time string, in the format "yyyy.MM.dd[ HH:mm[:ss]]", or null.
+     * @return The seconds since 1970, or 0 if the text is null or empty.
+     * @throws IllegalArgumentException If the text is not a date/time.
+     */
+    static long parse(String text) {
+        return text == null ? 0 : parse(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * @param chars  The characters holding a date/time in the format "yyyy.MM.dd[ HH:mm[:ss]]".
+     * @param offset The index of the first character.
+     * @param length The number of characters, which may be 0.
+     * @return The seconds since 1970, or 0 if there are no characters.
+     * @throws IllegalArgumentException If the characters are not a date/time.
+     */
+    static long parse(char[] chars, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if ((length != 10 && length != 16 && length != 19)
+                || chars[offset + 4] != '.' || chars[offset + 7] != '.') {
+            throw new IllegalArgumentException("Not a date/time: " + new String(chars, offset, length));
+        }
+        int year = digits(chars, offset, 4);
+        int month = digits(chars, offset + 5, 2);
+        int day = digits(chars, offset + 8, 2);
+        int hour = 0, minute = 0, second = 0;
+        if (length > 10) {
+            if (chars[offset + 10] != ' ' || chars[offset + 13] != ':') {
+                throw new IllegalArgumentException("Not a date/time: " + new String(chars, offset, length));
+            }
+            hour = digits(chars, offset + 11, 2);
+            minute = digits(chars, offset + 14, 2);
+            if (length == 19) {
+                if (chars[offset + 16] != ':') {
+                    throw new IllegalArgumentException("Not a date/time: " + new String(chars, offset, length));
+                }
+                second = digits(chars, offset + 17, 2);
+            }
+        }
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw new IllegalArgumentException("Not a date/time: " + new String(chars, offset, length));
+        }
+        return epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second;
+    }
+
+    private static int digits(char[] chars, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Not a digit at " + i + ": " + chars[i]);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * The days since 1970.01.01 of a proleptic Gregorian date, counting years from March so that leap days come last.
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
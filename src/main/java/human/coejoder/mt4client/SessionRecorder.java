@@ -0,0 +1,155 @@
+package human.coejoder.mt4client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists every request/response pair exchanged by an {@link MT4Client} to a binary session file, for replay by a
+ * {@link SessionReplayServer}.
+ * <p>
+ * Attach it with {@link MT4Client#setSessionRecorder(SessionRecorder)}.  The file starts with a magic number and a
+ * version, followed by one record per exchange: the request time relative to the start of the session and the
+ * response latency (both as variable-length nanoseconds), then the length-prefixed request and response bytes.
+ * Requests which timed out are not recorded.
+ */
+public class SessionRecorder implements Closeable {
+
+    static final int MAGIC = 0x4D545353; // "MTSS"
+    static final int VERSION = 1;
+
+    /**
+     * A recorded request/response pair.
+     */
+    static final class Exchange {
+        final long offsetNanos;
+        final long latencyNanos;
+        final byte[] request;
+        final byte[] response;
+
+        Exchange(long offsetNanos, long latencyNanos, byte[] request, byte[] response) {
+            this.offsetNanos = offsetNanos;
+            this.latencyNanos = latencyNanos;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private long count;
+
+    /**
+     * Constructor.  Creates or truncates the session file.
+     *
+     * @param file The session file.
+     * @throws IOException If the file could not be created.
+     */
+    public SessionRecorder(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * @return The number of exchanges recorded so far.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Record an exchange.
+     *
+     * @param request         The buffer holding the encoded request.
+     * @param requestLength   The number of valid bytes in the buffer.
+     * @param response        The response text.
+     * @param sentNanos       The {@link System#nanoTime()} at which the request was sent.
+     * @param receivedNanos   The {@link System#nanoTime()} at which the response was received.
+     * @throws IOException If the file could not be written.
+     */
+    synchronized void record(byte[] request, int requestLength, String response, long sentNanos, long receivedNanos)
+            throws IOException {
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(Math.max(0, sentNanos - startNanos));
+        writeVarLong(Math.max(0, receivedNanos - sentNanos));
+        writeVarLong(requestLength);
+        out.write(request, 0, requestLength);
+        writeVarLong(responseBytes.length);
+        out.write(responseBytes);
+        count++;
+    }
+
+    /**
+     * Flush and close the session file.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Read all the exchanges of a session file.
+     *
+     * @param file The session file.
+     * @return The exchanges, in the order they were recorded.
+     * @throws IOException If the file could not be read or is not a session file.
+     */
+    static List<Exchange> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a session file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported session file version: " + version);
+            }
+            List<Exchange> exchanges = new ArrayList<>();
+            while (true) {
+                long offsetNanos;
+                try {
+                    offsetNanos = readVarLong(in);
+                } catch (EOFException e) {
+                    return exchanges;
+                }
+                long latencyNanos = readVarLong(in);
+                byte[] request = new byte[(int) readVarLong(in)];
+                in.readFully(request);
+                byte[] response = new byte[(int) readVarLong(in)];
+                in.readFully(response);
+                exchanges.add(new Exchange(offsetNanos, latencyNanos, request, response));
+            }
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+}
@@ -0,0 +1,169 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand-in for the MT4 server which answers requests from a session recorded by a {@link SessionRecorder}.
+ * <p>
+ * Each distinct request is answered with the responses recorded for it, in order; once they are used up the last one
+ * is repeated.  Requests that were never recorded are answered with an {@link MT4Exception.Code#ERR_UNKNOWN_COMMAND}
+ * error.  The server listens on a REP socket, so any {@link MT4Client} can connect to it in place of a terminal.
+ */
+public class SessionReplayServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionReplayServer.class);
+    private static final String LOCALHOST = "tcp://127.0.0.1";
+    private static final int POLL_TIMEOUT_MILLIS = 100;
+
+    /**
+     * How quickly to answer requests.
+     */
+    public enum Pacing {
+        /**
+         * Answer at the recorded timing: each response is sent at its recorded time relative to the start of the
+         * session, and no sooner than its recorded latency after the request.  The session starts with the first
+         * request received.
+         */
+        ORIGINAL,
+        /**
+         * Respond immediately.
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    private static final class Responses {
+        final List<SessionRecorder.Exchange> exchanges = new ArrayList<>();
+        int next;
+
+        SessionRecorder.Exchange next() {
+            SessionRecorder.Exchange exchange = exchanges.get(next);
+            if (next < exchanges.size() - 1) {
+                next++;
+            }
+            return exchange;
+        }
+    }
+
+    private final Map<String, Responses> responses = new HashMap<>();
+    private final Pacing pacing;
+    private final ZContext context = new ZContext();
+    private final byte[] unknownRequest;
+    private volatile boolean running;
+    private Thread thread;
+    private long served;
+
+    /**
+     * Constructor.
+     *
+     * @param session The session file.
+     * @param pacing  How quickly to answer requests.
+     * @throws IOException If the session file could not be read.
+     */
+    public SessionReplayServer(Path session, Pacing pacing) throws IOException {
+        this.pacing = pacing;
+        for (SessionRecorder.Exchange exchange : SessionRecorder.read(session)) {
+            responses.computeIfAbsent(new String(exchange.request, StandardCharsets.UTF_8), k -> new Responses())
+                    .exchanges.add(exchange);
+        }
+        this.unknownRequest = JsonNodeFactory.instance.objectNode()
+                .put(MT4Exception.ERROR_CODE, MT4Exception.Code.ERR_UNKNOWN_COMMAND.id)
+                .put(MT4Exception.ERROR_MESSAGE, "Request not found in the recorded session")
+                .toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bind to a random port on localhost and start answering requests on a background thread.
+     *
+     * @return The address to connect clients to.
+     */
+    public synchronized String start() {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        ZMQ.Socket socket = context.createSocket(SocketType.REP);
+        socket.setReceiveTimeOut(POLL_TIMEOUT_MILLIS);
+        int port = socket.bindToRandomPort(LOCALHOST);
+        running = true;
+        thread = new Thread(() -> serve(socket), "mt4-session-replay");
+        thread.setDaemon(true);
+        thread.start();
+        return LOCALHOST + ":" + port;
+    }
+
+    /**
+     * @return The number of requests answered so far.
+     */
+    public synchronized long getServedCount() {
+        return served;
+    }
+
+    /**
+     * Stop the server and release its socket.
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        context.destroy();
+    }
+
+    private void serve(ZMQ.Socket socket) {
+        boolean started = false;
+        long originNanos = 0;
+        while (running) {
+            byte[] request = socket.recv();
+            if (request == null) {
+                continue;
+            }
+            long receivedNanos = System.nanoTime();
+            Responses recorded = responses.get(new String(request, StandardCharsets.UTF_8));
+            if (recorded == null) {
+                LOG.warn("Unrecorded request: {}", new String(request, StandardCharsets.UTF_8));
+                socket.send(unknownRequest);
+            } else {
+                SessionRecorder.Exchange exchange = recorded.next();
+                if (pacing == Pacing.ORIGINAL) {
+                    if (!started) {
+                        originNanos = receivedNanos - exchange.offsetNanos;
+                        started = true;
+                    }
+                    long dueNanos = Math.max(originNanos + exchange.offsetNanos, receivedNanos)
+                            + exchange.latencyNanos;
+                    for (long wait; (wait = dueNanos - System.nanoTime()) > 0; ) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                socket.send(exchange.response);
+            }
+            synchronized (this) {
+                served++;
+            }
+        }
+        LOG.debug("Replay server stopped after {} requests", getServedCount());
+    }
+}
@@ -0,0 +1,532 @@
+package human.coejoder.mt4client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves the stop-losses of orders by trailing-stop and break-even rules, and deletes the other order of a
+ * one-cancels-the-other pair, from the ticks of their symbols rather than by polling the terminal.
+ * <p>
+ * Each tick of a symbol reprices the rules of its orders without locking: the wanted stop-loss of an order only moves
+ * in its favour, by compare-and-set, and becomes the order's pending modification, replacing any pending one which
+ * was not sent yet.  An order has at most one modification in flight, and modifications of an order are sent at most
+ * once per {@link Builder#setMinModifyInterval(long) interval}, so a fast market sends only the latest stop-loss.  A
+ * modification is held while the order's stop-loss or take-profit is within the freeze level of the market, and the
+ * wanted stop-loss is kept at least the stops level away from it.
+ * <p>
+ * The two orders of a pair are pending orders; once one of them is triggered, whether seen from the ticks or from
+ * {@link #onOrder(Order)}, the other is deleted.  Modifications and deletions are sent through a
+ * {@link TradeDispatcher}.
+ */
+public class StopEngine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StopEngine.class);
+
+    /**
+     * Builder for stop engines.
+     */
+    public static class Builder {
+        private TradeDispatcher dispatcher;
+        private long minModifyIntervalMillis = 500;
+
+        private Builder() {}
+
+        /**
+         * Construct a new stop engine builder.
+         *
+         * @return The stop engine builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the engine.
+         *
+         * @return The engine.
+         * @throws IllegalStateException If no dispatcher was set.
+         */
+        public StopEngine build() {
+            if (dispatcher == null) {
+                throw new IllegalStateException("No dispatcher");
+            }
+            return new StopEngine(this);
+        }
+
+        /**
+         * @param dispatcher The dispatcher to send modifications and deletions through.
+         * @return This Builder.
+         */
+        public Builder setDispatcher(TradeDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * @param minModifyIntervalMillis The shortest time between two modifications of the same order.
+         * @return This Builder.
+         */
+        public Builder setMinModifyInterval(long minModifyIntervalMillis) {
+            this.minModifyIntervalMillis = minModifyIntervalMillis;
+            return this;
+        }
+    }
+
+    /**
+     * The latest prices of a symbol.
+     */
+    private static final class Quote {
+        final double bid;
+        final double ask;
+
+        Quote(double bid, double ask) {
+            this.bid = bid;
+            this.ask = ask;
+        }
+    }
+
+    /**
+     * The specification, latest prices and tracked orders of one symbol.
+     */
+    private static final class Book {
+        final double point;
+        final int digits;
+        final double stops;
+        final double freeze;
+        final CopyOnWriteArrayList<Tracked> orders = new CopyOnWriteArrayList<>();
+        volatile Quote quote;
+
+        Book(Symbol symbol) {
+            this.point = symbol.getPoint();
+            this.digits = symbol.getDigits();
+            this.stops = symbol.getTradeStopsLevel() * symbol.getPoint();
+            this.freeze = symbol.getTradeFreezeLevel() * symbol.getPoint();
+        }
+    }
+
+    /**
+     * The rules and stop-loss state of one order.
+     */
+    private static final class Tracked {
+        final int ticket;
+        final Book book;
+        volatile OrderType orderType;
+        volatile double openPrice;
+        volatile double sl;
+        volatile double tp;
+        volatile double trailDistance;
+        volatile double trailStep;
+        volatile double breakEvenTrigger;
+        volatile double breakEvenOffset;
+        final AtomicInteger ocoTicket = new AtomicInteger();
+        // the bits of the wanted stop-loss, which may not be sent yet
+        final AtomicLong wantedSl = new AtomicLong();
+        final AtomicReference<ModifyOrder> pending = new AtomicReference<>();
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        volatile long nextSendNanos = System.nanoTime();
+
+        Tracked(Order order, Book book) {
+            this.ticket = order.getTicket();
+            this.book = book;
+            this.orderType = order.getOrderType();
+            this.openPrice = order.getOpenPrice();
+            this.sl = order.getSl();
+            this.tp = order.getTp();
+            this.wantedSl.set(Double.doubleToLongBits(order.getSl()));
+        }
+    }
+
+    private final TradeDispatcher dispatcher;
+    private final long minModifyIntervalNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Integer, Book> books = new ConcurrentHashMap<>();
+    private final Map<Integer, Tracked> orders = new ConcurrentHashMap<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong supersededCount = new AtomicLong();
+    private final AtomicLong frozenCount = new AtomicLong();
+
+    private StopEngine(Builder builder) {
+        this.dispatcher = builder.dispatcher;
+        this.minModifyIntervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.minModifyIntervalMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mt4-stop-engine");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Add the specification of a symbol.  Its orders can only be tracked once it is added.
+     *
+     * @param symbol The symbol.
+     */
+    public void addSymbol(Symbol symbol) {
+        books.putIfAbsent(symbol.getId(), new Book(symbol));
+    }
+
+    /**
+     * Trail the stop-loss of an open order behind the market.
+     *
+     * @param order          The order.
+     * @param distancePoints The distance from the closing price to keep the stop-loss at, in points.
+     * @param stepPoints     The least move of the stop-loss worth a modification, in points.
+     * @throws IllegalArgumentException If the order's symbol was not added.
+     */
+    public void trail(Order order, int distancePoints, int stepPoints) {
+        Tracked tracked = track(order);
+        tracked.trailStep = stepPoints * tracked.book.point;
+        tracked.trailDistance = distancePoints * tracked.book.point;
+    }
+
+    /**
+     * Move the stop-loss of an open order past its open price once it is far enough in profit.
+     *
+     * @param order         The order.
+     * @param triggerPoints The profit at which to move the stop-loss, in points.
+     * @param offsetPoints  The distance past the open price to move it to, in points.
+     * @throws IllegalArgumentException If the order's symbol was not added.
+     */
+    public void breakEven(Order order, int triggerPoints, int offsetPoints) {
+        Tracked tracked = track(order);
+        tracked.breakEvenOffset = offsetPoints * tracked.book.point;
+        tracked.breakEvenTrigger = triggerPoints * tracked.book.point;
+    }
+
+    /**
+     * Delete either of two pending orders once the other is triggered.
+     *
+     * @param first  A pending order.
+     * @param second The other pending order.
+     * @throws IllegalArgumentException If either order is not pending, or its symbol was not added.
+     */
+    public void oco(Order first, Order second) {
+        if (!first.getOrderType().isPending() || !second.getOrderType().isPending()) {
+            throw new IllegalArgumentException("Only pending orders can cancel each other");
+        }
+        Tracked a = track(first);
+        Tracked b = track(second);
+        a.ocoTicket.set(b.ticket);
+        b.ocoTicket.set(a.ticket);
+    }
+
+    /**
+     * Stop tracking an order.  A modification not sent yet is dropped, and the other order of its pair is kept.
+     *
+     * @param ticket The ticket of the order.
+     */
+    public void remove(int ticket) {
+        Tracked tracked = orders.remove(ticket);
+        if (tracked != null) {
+            tracked.book.orders.remove(tracked);
+            tracked.pending.set(null);
+            Tracked other = orders.get(tracked.ocoTicket.getAndSet(0));
+            if (other != null) {
+                other.ocoTicket.compareAndSet(ticket, 0);
+            }
+        }
+    }
+
+    /**
+     * Take the latest state of a tracked order, such as from an order event.  A closed or deleted order stops being
+     * tracked, and an order which is no longer pending cancels the other order of its pair.
+     *
+     * @param order The order's latest state.
+     */
+    public void onOrder(Order order) {
+        Tracked tracked = orders.get(order.getTicket());
+        if (tracked == null) {
+            return;
+        }
+        if (order.getCloseTime() != null && !order.getCloseTime().isEmpty()) {
+            remove(order.getTicket());
+            return;
+        }
+        tracked.orderType = order.getOrderType();
+        tracked.openPrice = order.getOpenPrice();
+        tracked.sl = order.getSl();
+        tracked.tp = order.getTp();
+        if (tracked.pending.get() == null && !tracked.inFlight.get()) {
+            tracked.wantedSl.set(Double.doubleToLongBits(order.getSl()));
+        }
+        if (order.getOrderType().isMarket()) {
+            cancelOther(tracked);
+        }
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param tick   The symbol's latest tick.
+     */
+    public void onTick(String symbol, SymbolTick tick) {
+        onTick(SymbolRegistry.getInstance().register(symbol), tick.getBid(), tick.getAsk());
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @param bid    The latest bid.
+     * @param ask    The latest ask.
+     */
+    public void onTick(String symbol, double bid, double ask) {
+        onTick(SymbolRegistry.getInstance().register(symbol), bid, ask);
+    }
+
+    /**
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param bid      The latest bid.
+     * @param ask      The latest ask.
+     */
+    public void onTick(int symbolId, double bid, double ask) {
+        Book book = books.get(symbolId);
+        if (book == null) {
+            return;
+        }
+        Quote quote = new Quote(bid, ask);
+        book.quote = quote;
+        for (Tracked tracked : book.orders) {
+            update(tracked, quote);
+        }
+    }
+
+    /**
+     * @return A handler which feeds the ticks published on a {@link MarketEventBus} to this engine.
+     */
+    public MarketEventBus.Handler asHandler() {
+        return (event, sequence, endOfBatch) -> {
+            if (event.getType() == MarketEvent.Type.TICK) {
+                onTick(event.getSymbolId(), event.getBid(), event.getAsk());
+            }
+        };
+    }
+
+    /**
+     * @param ticket The ticket of a tracked order.
+     * @return The stop-loss the engine wants the order to have, or 0 if it has none or is not tracked.
+     */
+    public double getWantedSl(int ticket) {
+        Tracked tracked = orders.get(ticket);
+        return tracked == null ? 0 : Double.longBitsToDouble(tracked.wantedSl.get());
+    }
+
+    /**
+     * @return The number of modifications sent to the dispatcher.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return The number of modifications replaced by a later one before they were sent.
+     */
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    /**
+     * @return The number of times a modification was held because the order was within the freeze level.
+     */
+    public long getFrozenCount() {
+        return frozenCount.get();
+    }
+
+    /**
+     * Stop sending held modifications.  The dispatcher is not closed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private Tracked track(Order order) {
+        Book book = books.get(order.getSymbolId());
+        if (book == null) {
+            throw new IllegalArgumentException("No specification for symbol: " + order.getSymbol());
+        }
+        return orders.computeIfAbsent(order.getTicket(), ticket -> {
+            Tracked tracked = new Tracked(order, book);
+            book.orders.add(tracked);
+            return tracked;
+        });
+    }
+
+    private void update(Tracked tracked, Quote quote) {
+        OrderType type = tracked.orderType;
+        if (type.isPending()) {
+            if (triggered(type, tracked.openPrice, quote)) {
+                tracked.orderType = type.isBuy() ? OrderType.OP_BUY : OrderType.OP_SELL;
+                cancelOther(tracked);
+            }
+            return;
+        }
+        Book book = tracked.book;
+        boolean buy = type.isBuy();
+        double close = buy ? quote.bid : quote.ask;
+        long currentBits = tracked.wantedSl.get();
+        double current = Double.longBitsToDouble(currentBits);
+        double sl = current;
+        if (tracked.trailDistance > 0) {
+            double candidate = buy ? close - tracked.trailDistance : close + tracked.trailDistance;
+            if (improves(buy, candidate, sl, Math.max(tracked.trailStep, book.point))) {
+                sl = candidate;
+            }
+        }
+        if (tracked.breakEvenTrigger > 0) {
+            double profit = buy ? close - tracked.openPrice : tracked.openPrice - close;
+            if (profit >= tracked.breakEvenTrigger - book.point / 2) {
+                double candidate = buy
+                        ? tracked.openPrice + tracked.breakEvenOffset
+                        : tracked.openPrice - tracked.breakEvenOffset;
+                if (improves(buy, candidate, sl, book.point)) {
+                    sl = candidate;
+                }
+            }
+        }
+        if (sl != current) {
+            // keep the stop-loss outside the stops level, and on the symbol's digits
+            sl = buy ? Math.min(sl, close - book.stops) : Math.max(sl, close + book.stops);
+            double scale = Math.pow(10, book.digits);
+            sl = Math.round(sl * scale) / scale;
+            if (improves(buy, sl, current, book.point)
+                    && tracked.wantedSl.compareAndSet(currentBits, Double.doubleToLongBits(sl))) {
+                ModifyOrder modifyOrder = ModifyOrder.Builder.newInstance().setOrder(tracked.ticket).setSl(sl).build();
+                if (tracked.pending.getAndSet(modifyOrder) != null) {
+                    supersededCount.incrementAndGet();
+                }
+            }
+        }
+        if (tracked.pending.get() != null) {
+            drain(tracked);
+        }
+    }
+
+    /**
+     * Send the pending modification of an order now, or schedule it for the end of its interval, unless one is in
+     * flight already.
+     */
+    private void drain(Tracked tracked) {
+        if (!tracked.inFlight.compareAndSet(false, true)) {
+            return;
+        }
+        long wait = tracked.nextSendNanos - System.nanoTime();
+        if (wait <= 0) {
+            send(tracked);
+        } else if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> send(tracked), wait, TimeUnit.NANOSECONDS);
+        } else {
+            tracked.inFlight.set(false);
+        }
+    }
+
+    private void send(Tracked tracked) {
+        ModifyOrder modifyOrder = tracked.pending.getAndSet(null);
+        if (modifyOrder == null || !orders.containsKey(tracked.ticket)) {
+            release(tracked);
+            return;
+        }
+        if (frozen(tracked)) {
+            // hold it until a tick moves the market away, unless a later one replaced it meanwhile
+            frozenCount.incrementAndGet();
+            tracked.pending.compareAndSet(null, modifyOrder);
+            tracked.inFlight.set(false);
+            return;
+        }
+        tracked.nextSendNanos = System.nanoTime() + minModifyIntervalNanos;
+        sentCount.incrementAndGet();
+        dispatcher.orderModify(modifyOrder).whenComplete((order, t) -> {
+            if (t == null) {
+                if (order != null) {
+                    tracked.sl = order.getSl();
+                    tracked.tp = order.getTp();
+                } else {
+                    tracked.sl = modifyOrder.sl;
+                }
+            } else {
+                LOG.warn("Failed to move the stop-loss of #{} to {}", tracked.ticket, modifyOrder.sl, t);
+                // recompute the next stop-loss from the one the terminal has, unless a later one is wanted already
+                tracked.wantedSl.compareAndSet(Double.doubleToLongBits(modifyOrder.sl),
+                        Double.doubleToLongBits(tracked.sl));
+            }
+            release(tracked);
+        });
+    }
+
+    private void release(Tracked tracked) {
+        tracked.inFlight.set(false);
+        if (tracked.pending.get() != null) {
+            drain(tracked);
+        }
+    }
+
+    /**
+     * @return Whether the stop-loss or take-profit of the order is within the freeze level of the market.
+     */
+    private static boolean frozen(Tracked tracked) {
+        Book book = tracked.book;
+        Quote quote = book.quote;
+        if (book.freeze <= 0 || quote == null) {
+            return false;
+        }
+        boolean buy = tracked.orderType.isBuy();
+        double close = buy ? quote.bid : quote.ask;
+        double sl = tracked.sl;
+        double tp = tracked.tp;
+        return sl != 0 && (buy ? close - sl : sl - close) <= book.freeze
+                || tp != 0 && (buy ? tp - close : close - tp) <= book.freeze;
+    }
+
+    private void cancelOther(Tracked tracked) {
+        int other = tracked.ocoTicket.getAndSet(0);
+        if (other == 0) {
+            return;
+        }
+        Tracked partner = orders.get(other);
+        if (partner == null || !partner.ocoTicket.compareAndSet(tracked.ticket, 0)) {
+            return;
+        }
+        remove(other);
+        dispatcher.orderDelete(other, false).whenComplete((v, t) -> {
+            if (t != null) {
+                LOG.warn("Failed to delete #{} after #{} was triggered", other, tracked.ticket, t);
+            }
+        });
+    }
+
+    /**
+     * @return Whether a pending order would be triggered at the given prices.
+     */
+    private static boolean triggered(OrderType type, double price, Quote quote) {
+        switch (type) {
+            case OP_BUYLIMIT:
+                return quote.ask <= price;
+            case OP_BUYSTOP:
+                return quote.ask >= price;
+            case OP_SELLLIMIT:
+                return quote.bid >= price;
+            case OP_SELLSTOP:
+                return quote.bid <= price;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Whether a stop-loss is better than the current one by at least the given move.
+     */
+    private static boolean improves(boolean buy, double candidate, double current, double move) {
+        if (current == 0) {
+            return true;
+        }
+        double tolerance = move * 1e-6;
+        return buy ? candidate >= current + move - tolerance : candidate <= current - move + tolerance;
+    }
+}
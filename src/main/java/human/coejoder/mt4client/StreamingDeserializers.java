@@ -0,0 +1,396 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import human.coejoder.mt5client.MT5Order;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hand-written deserializers for the response types decoded on the hot path.
+ * <p>
+ * The bean deserializers Jackson builds for these types go through creator properties, buffering and reflective
+ * constructor calls.  Each deserializer here walks the fields of one type in a single pass, switching on the field
+ * name into local variables, and then calls the constructor directly.  The JIT sees one monomorphic call site per
+ * type.  Unknown fields are handled as the annotations on the types ask, and missing fields decode to zero or null,
+ * as before.
+ */
+final class StreamingDeserializers {
+
+    private StreamingDeserializers() {}
+
+    /**
+     * @return A module registering every streaming deserializer.
+     */
+    static SimpleModule module() {
+        return new SimpleModule("mt4-streaming")
+                .addDeserializer(Order.class, new OrderDeserializer())
+                .addDeserializer(CompactOrder.class, new CompactOrderDeserializer())
+                .addDeserializer(MT5Order.class, new MT5OrderDeserializer())
+                .addDeserializer(Symbol.class, new SymbolDeserializer())
+                .addDeserializer(Account.class, new AccountDeserializer())
+                .addDeserializer(OHLCV.class, new OHLCVDeserializer())
+                .addDeserializer(SymbolTick.class, new SymbolTickDeserializer())
+                .addDeserializer(MT4Exception.class, new MT4ExceptionDeserializer());
+    }
+
+    /**
+     * @return The name of the first field of the object at the parser, or null if it is empty.
+     */
+    private static String firstField(JsonParser p, DeserializationContext ctxt, StdDeserializer<?> deserializer)
+            throws IOException {
+        if (p.isExpectedStartObjectToken()) {
+            return p.nextFieldName();
+        }
+        if (p.hasToken(JsonToken.FIELD_NAME)) {
+            return p.currentName();
+        }
+        return ctxt.reportInputMismatch(deserializer, "Expected an object for %s, got %s",
+                deserializer.handledType().getSimpleName(), p.currentToken());
+    }
+
+    /**
+     * Move to the value of the current field, which must be a scalar.
+     */
+    private static void scalar(JsonParser p, DeserializationContext ctxt, StdDeserializer<?> deserializer)
+            throws IOException {
+        JsonToken token = p.nextToken();
+        if (token == null || !token.isScalarValue()) {
+            ctxt.reportInputMismatch(deserializer, "Expected a scalar for %s.%s, got %s",
+                    deserializer.handledType().getSimpleName(), p.currentName(), token);
+        }
+    }
+
+    /**
+     * @return The date/time at the parser as seconds since 1970, parsed in the parser's buffer, or 0 if it is null.
+     */
+    private static long time(JsonParser p, DeserializationContext ctxt, StdDeserializer<?> deserializer)
+            throws IOException {
+        if (p.hasToken(JsonToken.VALUE_NULL)) {
+            return 0;
+        }
+        if (!p.hasToken(JsonToken.VALUE_STRING)) {
+            return p.getValueAsLong();
+        }
+        try {
+            return ServerTime.parse(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        } catch (IllegalArgumentException e) {
+            return ctxt.reportInputMismatch(deserializer, "%s.%s: %s", deserializer.handledType().getSimpleName(),
+                    p.currentName(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return The UTF-8 bytes of the string at the parser, or null if it is null.
+     */
+    private static byte[] utf8(JsonParser p) throws IOException {
+        if (p.hasToken(JsonToken.VALUE_NULL)) {
+            return null;
+        }
+        char[] chars = p.getTextCharacters();
+        int offset = p.getTextOffset();
+        int length = p.getTextLength();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            if (c >= 0x80) {
+                return new String(chars, offset, length).getBytes(StandardCharsets.UTF_8);
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The id of the symbol at the parser, found in the parser's buffer, or -1 if it is null.
+     */
+    private static int symbolId(JsonParser p) throws IOException {
+        if (p.hasToken(JsonToken.VALUE_NULL)) {
+            return -1;
+        }
+        SymbolRegistry registry = SymbolRegistry.getInstance();
+        int id = registry.find(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        // only a symbol seen for the first time takes a string
+        return id >= 0 ? id : registry.register(p.getText());
+    }
+
+    private static MT4Client client(DeserializationContext ctxt) throws IOException {
+        return (MT4Client) ctxt.findInjectableValue(MT4Client.class.getName(), null, null, null, null);
+    }
+
+    static final class OrderDeserializer extends StdDeserializer<Order> {
+
+        OrderDeserializer() {
+            super(Order.class);
+        }
+
+        @Override
+        public Order deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            int ticket = 0, magicNumber = 0, orderType = 0;
+            String symbol = null, openTime = null, closeTime = null, expiration = null, comment = null;
+            double lots = 0, openPrice = 0, closePrice = 0, sl = 0, tp = 0, profit = 0, commission = 0, swap = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "ticket" -> { scalar(p, ctxt, this); ticket = p.getValueAsInt(); }
+                    case "magic_number" -> { scalar(p, ctxt, this); magicNumber = p.getValueAsInt(); }
+                    case "symbol" -> { scalar(p, ctxt, this); symbol = p.getValueAsString(); }
+                    case "order_type" -> { scalar(p, ctxt, this); orderType = p.getValueAsInt(); }
+                    case "lots" -> { scalar(p, ctxt, this); lots = p.getValueAsDouble(); }
+                    case "open_price" -> { scalar(p, ctxt, this); openPrice = p.getValueAsDouble(); }
+                    case "close_price" -> { scalar(p, ctxt, this); closePrice = p.getValueAsDouble(); }
+                    case "open_time" -> { scalar(p, ctxt, this); openTime = p.getValueAsString(); }
+                    case "close_time" -> { scalar(p, ctxt, this); closeTime = p.getValueAsString(); }
+                    case "expiration" -> { scalar(p, ctxt, this); expiration = p.getValueAsString(); }
+                    case "sl" -> { scalar(p, ctxt, this); sl = p.getValueAsDouble(); }
+                    case "tp" -> { scalar(p, ctxt, this); tp = p.getValueAsDouble(); }
+                    case "profit" -> { scalar(p, ctxt, this); profit = p.getValueAsDouble(); }
+                    case "commission" -> { scalar(p, ctxt, this); commission = p.getValueAsDouble(); }
+                    case "swap" -> { scalar(p, ctxt, this); swap = p.getValueAsDouble(); }
+                    case "comment" -> { scalar(p, ctxt, this); comment = p.getValueAsString(); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, Order.class, field); }
+                }
+            }
+            try {
+                return new Order(ticket, magicNumber, symbol, orderType, lots, openPrice, closePrice, openTime,
+                        closeTime, expiration, sl, tp, profit, commission, swap, comment);
+            } catch (RuntimeException e) {
+                throw ctxt.instantiationException(Order.class, e);
+            }
+        }
+    }
+
+    static final class CompactOrderDeserializer extends StdDeserializer<CompactOrder> {
+
+        CompactOrderDeserializer() {
+            super(CompactOrder.class);
+        }
+
+        @Override
+        public CompactOrder deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            int ticket = 0, magicNumber = 0, symbolId = -1, orderType = 0;
+            long openTime = 0, closeTime = 0, expiration = 0;
+            byte[] comment = null;
+            double lots = 0, openPrice = 0, closePrice = 0, sl = 0, tp = 0, profit = 0, commission = 0, swap = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "ticket" -> { scalar(p, ctxt, this); ticket = p.getValueAsInt(); }
+                    case "magic_number" -> { scalar(p, ctxt, this); magicNumber = p.getValueAsInt(); }
+                    case "symbol" -> { scalar(p, ctxt, this); symbolId = symbolId(p); }
+                    case "order_type" -> { scalar(p, ctxt, this); orderType = p.getValueAsInt(); }
+                    case "lots" -> { scalar(p, ctxt, this); lots = p.getValueAsDouble(); }
+                    case "open_price" -> { scalar(p, ctxt, this); openPrice = p.getValueAsDouble(); }
+                    case "close_price" -> { scalar(p, ctxt, this); closePrice = p.getValueAsDouble(); }
+                    case "open_time" -> { scalar(p, ctxt, this); openTime = time(p, ctxt, this); }
+                    case "close_time" -> { scalar(p, ctxt, this); closeTime = time(p, ctxt, this); }
+                    case "expiration" -> { scalar(p, ctxt, this); expiration = time(p, ctxt, this); }
+                    case "sl" -> { scalar(p, ctxt, this); sl = p.getValueAsDouble(); }
+                    case "tp" -> { scalar(p, ctxt, this); tp = p.getValueAsDouble(); }
+                    case "profit" -> { scalar(p, ctxt, this); profit = p.getValueAsDouble(); }
+                    case "commission" -> { scalar(p, ctxt, this); commission = p.getValueAsDouble(); }
+                    case "swap" -> { scalar(p, ctxt, this); swap = p.getValueAsDouble(); }
+                    case "comment" -> { scalar(p, ctxt, this); comment = utf8(p); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, CompactOrder.class, field); }
+                }
+            }
+            OrderType type = OrderType.fromId(orderType).orElse(null);
+            if (type == null) {
+                return ctxt.reportInputMismatch(this, "Unknown order type: %d", orderType);
+            }
+            return new CompactOrder(ticket, magicNumber, symbolId, type, lots, openPrice, closePrice, openTime,
+                    closeTime, expiration, sl, tp, profit, commission, swap, comment);
+        }
+    }
+
+    static final class MT5OrderDeserializer extends StdDeserializer<MT5Order> {
+
+        MT5OrderDeserializer() {
+            super(MT5Order.class);
+        }
+
+        @Override
+        public MT5Order deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            long ticket = 0;
+            int magicNumber = 0, orderType = 0;
+            String symbol = null, openTime = null, closeTime = null, expiration = null, comment = null;
+            double lots = 0, openPrice = 0, closePrice = 0, sl = 0, tp = 0, profit = 0, commission = 0, swap = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "ticket" -> { scalar(p, ctxt, this); ticket = p.getValueAsLong(); }
+                    case "magic_number" -> { scalar(p, ctxt, this); magicNumber = p.getValueAsInt(); }
+                    case "symbol" -> { scalar(p, ctxt, this); symbol = p.getValueAsString(); }
+                    case "order_type" -> { scalar(p, ctxt, this); orderType = p.getValueAsInt(); }
+                    case "lots" -> { scalar(p, ctxt, this); lots = p.getValueAsDouble(); }
+                    case "open_price" -> { scalar(p, ctxt, this); openPrice = p.getValueAsDouble(); }
+                    case "close_price" -> { scalar(p, ctxt, this); closePrice = p.getValueAsDouble(); }
+                    case "open_time" -> { scalar(p, ctxt, this); openTime = p.getValueAsString(); }
+                    case "close_time" -> { scalar(p, ctxt, this); closeTime = p.getValueAsString(); }
+                    case "expiration" -> { scalar(p, ctxt, this); expiration = p.getValueAsString(); }
+                    case "sl" -> { scalar(p, ctxt, this); sl = p.getValueAsDouble(); }
+                    case "tp" -> { scalar(p, ctxt, this); tp = p.getValueAsDouble(); }
+                    case "profit" -> { scalar(p, ctxt, this); profit = p.getValueAsDouble(); }
+                    case "commission" -> { scalar(p, ctxt, this); commission = p.getValueAsDouble(); }
+                    case "swap" -> { scalar(p, ctxt, this); swap = p.getValueAsDouble(); }
+                    case "comment" -> { scalar(p, ctxt, this); comment = p.getValueAsString(); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, MT5Order.class, field); }
+                }
+            }
+            try {
+                return new MT5Order(ticket, magicNumber, symbol, orderType, lots, openPrice, closePrice, openTime,
+                        closeTime, expiration, sl, tp, profit, commission, swap, comment);
+            } catch (RuntimeException e) {
+                throw ctxt.instantiationException(MT5Order.class, e);
+            }
+        }
+    }
+
+    static final class SymbolDeserializer extends StdDeserializer<Symbol> {
+
+        SymbolDeserializer() {
+            super(Symbol.class);
+        }
+
+        @Override
+        public Symbol deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String name = null;
+            int digits = 0, tradeStopsLevel = 0, tradeFreezeLevel = 0;
+            double point = 0, volumeMin = 0, volumeStep = 0, volumeMax = 0, tradeContractSize = 0, tradeTickValue = 0,
+                    tradeTickSize = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "name" -> { scalar(p, ctxt, this); name = p.getValueAsString(); }
+                    case "point" -> { scalar(p, ctxt, this); point = p.getValueAsDouble(); }
+                    case "digits" -> { scalar(p, ctxt, this); digits = p.getValueAsInt(); }
+                    case "volume_min" -> { scalar(p, ctxt, this); volumeMin = p.getValueAsDouble(); }
+                    case "volume_step" -> { scalar(p, ctxt, this); volumeStep = p.getValueAsDouble(); }
+                    case "volume_max" -> { scalar(p, ctxt, this); volumeMax = p.getValueAsDouble(); }
+                    case "trade_contract_size" -> { scalar(p, ctxt, this); tradeContractSize = p.getValueAsDouble(); }
+                    case "trade_tick_value" -> { scalar(p, ctxt, this); tradeTickValue = p.getValueAsDouble(); }
+                    case "trade_tick_size" -> { scalar(p, ctxt, this); tradeTickSize = p.getValueAsDouble(); }
+                    case "trade_stops_level" -> { scalar(p, ctxt, this); tradeStopsLevel = p.getValueAsInt(); }
+                    case "trade_freeze_level" -> { scalar(p, ctxt, this); tradeFreezeLevel = p.getValueAsInt(); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, Symbol.class, field); }
+                }
+            }
+            try {
+                return new Symbol(client(ctxt), name, point, digits, volumeMin, volumeStep, volumeMax,
+                        tradeContractSize, tradeTickValue, tradeTickSize, tradeStopsLevel, tradeFreezeLevel);
+            } catch (RuntimeException e) {
+                throw ctxt.instantiationException(Symbol.class, e);
+            }
+        }
+    }
+
+    static final class AccountDeserializer extends StdDeserializer<Account> {
+
+        AccountDeserializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public Account deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            long login = 0;
+            int tradeMode = 0;
+            String name = null, server = null, currency = null, company = null;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "login" -> { scalar(p, ctxt, this); login = p.getValueAsLong(); }
+                    case "trade_mode" -> { scalar(p, ctxt, this); tradeMode = p.getValueAsInt(); }
+                    case "name" -> { scalar(p, ctxt, this); name = p.getValueAsString(); }
+                    case "server" -> { scalar(p, ctxt, this); server = p.getValueAsString(); }
+                    case "currency" -> { scalar(p, ctxt, this); currency = p.getValueAsString(); }
+                    case "company" -> { scalar(p, ctxt, this); company = p.getValueAsString(); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, Account.class, field); }
+                }
+            }
+            try {
+                return new Account(client(ctxt), login, tradeMode, name, server, currency, company);
+            } catch (RuntimeException e) {
+                throw ctxt.instantiationException(Account.class, e);
+            }
+        }
+    }
+
+    static final class OHLCVDeserializer extends StdDeserializer<OHLCV> {
+
+        OHLCVDeserializer() {
+            super(OHLCV.class);
+        }
+
+        @Override
+        public OHLCV deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            int time = 0, open = 0, high = 0, low = 0, close = 0, tickVolume = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "time" -> { scalar(p, ctxt, this); time = p.getValueAsInt(); }
+                    case "open" -> { scalar(p, ctxt, this); open = p.getValueAsInt(); }
+                    case "high" -> { scalar(p, ctxt, this); high = p.getValueAsInt(); }
+                    case "low" -> { scalar(p, ctxt, this); low = p.getValueAsInt(); }
+                    case "close" -> { scalar(p, ctxt, this); close = p.getValueAsInt(); }
+                    case "tick_volume" -> { scalar(p, ctxt, this); tickVolume = p.getValueAsInt(); }
+                    // OHLCV ignores unknown fields
+                    default -> { p.nextToken(); p.skipChildren(); }
+                }
+            }
+            return new OHLCV(time, open, high, low, close, tickVolume);
+        }
+    }
+
+    static final class SymbolTickDeserializer extends StdDeserializer<SymbolTick> {
+
+        SymbolTickDeserializer() {
+            super(SymbolTick.class);
+        }
+
+        @Override
+        public SymbolTick deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            int time = 0, volume = 0;
+            double bid = 0, ask = 0, last = 0;
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case "time" -> { scalar(p, ctxt, this); time = p.getValueAsInt(); }
+                    case "bid" -> { scalar(p, ctxt, this); bid = p.getValueAsDouble(); }
+                    case "ask" -> { scalar(p, ctxt, this); ask = p.getValueAsDouble(); }
+                    case "last" -> { scalar(p, ctxt, this); last = p.getValueAsDouble(); }
+                    case "volume" -> { scalar(p, ctxt, this); volume = p.getValueAsInt(); }
+                    default -> { p.nextToken(); ctxt.handleUnknownProperty(p, this, SymbolTick.class, field); }
+                }
+            }
+            return new SymbolTick(time, bid, ask, last, volume);
+        }
+    }
+
+    static final class MT4ExceptionDeserializer extends StdDeserializer<MT4Exception> {
+
+        MT4ExceptionDeserializer() {
+            super(MT4Exception.class);
+        }
+
+        @Override
+        public MT4Exception deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            MT4Exception.Builder builder = MT4Exception.Builder.newInstance();
+            for (String field = firstField(p, ctxt, this); field != null; field = p.nextFieldName()) {
+                switch (field) {
+                    case MT4Exception.ERROR_CODE -> {
+                        scalar(p, ctxt, this);
+                        builder.setErrorCode(p.getValueAsInt());
+                    }
+                    case MT4Exception.ERROR_CODE_DESCRIPTION -> {
+                        scalar(p, ctxt, this);
+                        builder.setErrorCodeDescription(p.getValueAsString());
+                    }
+                    case MT4Exception.ERROR_MESSAGE -> {
+                        scalar(p, ctxt, this);
+                        builder.setMessage(p.getValueAsString());
+                    }
+                    // the builder ignores unknown fields
+                    default -> { p.nextToken(); p.skipChildren(); }
+                }
+            }
+            return builder.build();
+        }
+    }
+}
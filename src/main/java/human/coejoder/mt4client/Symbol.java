@@ -27,6 +27,7 @@ public class Symbol {
 
     private final MT4Client mt4;
     private final String name;
+    private final int id;
     private final double point;
     private final int digits;
     private final double volumeMin;
@@ -68,7 +69,13 @@ public class Symbol {
            @JsonProperty(TRADE_STOPS_LEVEL) int tradeStopsLevel,
            @JsonProperty(TRADE_FREEZE_LEVEL) int tradeFreezeLevel) {
         this.mt4 = mt4;
-        this.name = name;
+        if (name == null) {
+            this.id = -1;
+            this.name = null;
+        } else {
+            this.id = SymbolRegistry.getInstance().register(name);
+            this.name = SymbolRegistry.getInstance().getName(id);
+        }
         this.point = point;
         this.digits = digits;
         this.volumeMin = volumeMin;
@@ -89,8 +96,9 @@ public class Symbol {
      * @throws MT4Exception            If server had an error.
      */
     public SymbolTick getTick() throws JsonProcessingException, MT4Exception {
-        return mt4.getResponse(Request.GET_SYMBOL_TICK.build()
-                .put(SYMBOL, name), SymbolTick.class);
+        return mt4.getResponse(RequestWriter.begin(Request.GET_SYMBOL_TICK)
+                .put(SYMBOL, name)
+                .end(), SymbolTick.class);
     }
 
 
@@ -300,22 +308,23 @@ public class Symbol {
         return getSymbolInfoDouble(SymbolInfoDouble.SYMBOL_MARGIN_MAINTENANCE);
     }
 
-    private boolean getSymbolInfoBoolean(SymbolInfoInteger prop) throws JsonProcessingException, MT4Exception {
+    boolean getSymbolInfoBoolean(SymbolInfoInteger prop) throws JsonProcessingException, MT4Exception {
         return getSymbolInfo(Request.GET_SYMBOL_INFO_INTEGER, prop.id, boolean.class);
     }
 
-    private long getSymbolInfoInteger(SymbolInfoInteger prop) throws JsonProcessingException, MT4Exception {
+    long getSymbolInfoInteger(SymbolInfoInteger prop) throws JsonProcessingException, MT4Exception {
         return getSymbolInfo(Request.GET_SYMBOL_INFO_INTEGER, prop.id, long.class);
     }
 
-    private double getSymbolInfoDouble(SymbolInfoDouble prop) throws JsonProcessingException, MT4Exception {
+    double getSymbolInfoDouble(SymbolInfoDouble prop) throws JsonProcessingException, MT4Exception {
         return getSymbolInfo(Request.GET_SYMBOL_INFO_DOUBLE, prop.id, double.class);
     }
 
     private <T> T getSymbolInfo(Request request, int propId, Class<T> responseType) throws JsonProcessingException, MT4Exception {
-        return mt4.getResponse(request.build()
+        return mt4.getResponse(RequestWriter.begin(request)
                 .put(SYMBOL, name)
-                .put(PROPERTY_ID, propId), responseType);
+                .put(PROPERTY_ID, propId)
+                .end(), responseType);
     }
 
     @Override
@@ -0,0 +1,175 @@
+package human.coejoder.mt4client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each symbol name a dense integer id, in order of first appearance, and keeps one canonical copy of the name.
+ * <p>
+ * Decoded {@link Symbol symbols} and {@link Order orders} carry the id of their symbol from the
+ * {@link #getInstance() shared registry}, so per-symbol state can live in arrays indexed by id, and hot paths can skip
+ * hashing names.  Ids are never reused: a registry only grows.
+ */
+public final class SymbolRegistry {
+
+    private static final SymbolRegistry INSTANCE = new SymbolRegistry();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile int size;
+    // open-addressed ids + 1 by name hash, for finding names in a parser's buffer; 0 is an empty slot
+    private volatile int[] slots = new int[128];
+
+    /**
+     * Construct an empty registry, e.g. to number the symbols of one broker apart from the shared registry.
+     */
+    public SymbolRegistry() {}
+
+    /**
+     * @return The registry whose ids decoded symbols and orders carry.
+     */
+    public static SymbolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param name The symbol name.
+     * @return The id of the symbol, assigned now if it is new.
+     */
+    public int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, 2 * next);
+            }
+            current[next] = name;
+            names = current;
+            size = next + 1;
+            // the name is stored before the id is published, so whoever finds the id can read the name
+            ids.put(name, next);
+            addSlot(name, next);
+            return next;
+        }
+    }
+
+    /**
+     * @param name The symbol name.
+     * @return The id of the symbol, or -1 if it was never registered.
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Find a symbol by the characters of its name, without making a string of them, e.g. straight from a parser's
+     * buffer.  A symbol being registered by another thread at the same time may not be found yet.
+     *
+     * @param chars  The buffer holding the name.
+     * @param offset The index of the first character of the name.
+     * @param length The length of the name.
+     * @return The id of the symbol, or -1 if it was not found.
+     */
+    public int find(char[] chars, int offset, int length) {
+        int[] table = slots;
+        String[] current = names;
+        int mask = table.length - 1;
+        for (int i = hash(chars, offset, length) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == 0) {
+                return -1;
+            }
+            String name = current[slot - 1];
+            if (name.length() == length && matches(name, chars, offset)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    private static boolean matches(String name, char[] chars, int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The {@link String#hashCode()} of the characters, spread over the low bits.
+     */
+    private static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Add an id to a copy of the slots while holding the lock, keeping them at most half full.  Readers keep probing the
+     * old slots until the copy is published, after the name it points to.
+     */
+    private void addSlot(String name, int id) {
+        int[] table = slots;
+        if (2 * (id + 1) > table.length) {
+            table = new int[2 * table.length];
+            for (int i = 0; i < id; i++) {
+                insert(table, names[i], i);
+            }
+        } else {
+            table = table.clone();
+        }
+        insert(table, name, id);
+        slots = table;
+    }
+
+    private static void insert(int[] table, String name, int id) {
+        int mask = table.length - 1;
+        int i = spread(name.hashCode()) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+
+    /**
+     * @param id The symbol id.
+     * @return The canonical name of the symbol.
+     * @throws IndexOutOfBoundsException If no symbol has the id.
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol id: " + id);
+        }
+        return names[id];
+    }
+
+    /**
+     * @param name The symbol name.
+     * @return The canonical copy of the name, registering it if it is new.
+     */
+    public String intern(String name) {
+        return getName(register(name));
+    }
+
+    /**
+     * @return The number of registered symbols, which is one above the highest id.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,430 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import human.coejoder.mt5client.MT5ClientInterface;
+import human.coejoder.mt5client.MT5Order;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manages the clients of many terminals, one per account, and queries them in parallel.
+ * <p>
+ * Each terminal has its own lane: a single thread which runs that terminal's calls in order, since clients are not
+ * thread-safe.  Calls are routed to a lane by account login, and fan-out queries such as {@link #getOrders()},
+ * {@link #getEquity()} and {@link #getTicks(String)} submit one call per terminal and wait for all of them up to a
+ * shared deadline.  A slow or failing terminal only affects its own entry of the {@link FleetResult}: calls still
+ * running at the deadline are reported as a {@link TimeoutException} and finish in the background, and a terminal
+ * with too many calls backed up fails new calls immediately instead of queueing them.
+ */
+public class TerminalFleet implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TerminalFleet.class);
+
+    /**
+     * A call to an MT4 terminal.
+     *
+     * @param <T> The result type.
+     */
+    @FunctionalInterface
+    public interface MT4Call<T> {
+        T call(MT4ClientInterface client) throws JsonProcessingException, MT4Exception;
+    }
+
+    /**
+     * A call to an MT5 terminal.
+     *
+     * @param <T> The result type.
+     */
+    @FunctionalInterface
+    public interface MT5Call<T> {
+        T call(MT5ClientInterface client) throws JsonProcessingException, MT4Exception;
+    }
+
+    /**
+     * Builder for terminal fleets.
+     */
+    public static class Builder {
+        private final Map<Long, Object> clients = new LinkedHashMap<>();
+        private long timeoutMillis = 15000;
+        private int maxQueuedCalls = 4;
+
+        private Builder() {}
+
+        /**
+         * Construct a new terminal fleet builder.
+         *
+         * @return The terminal fleet builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the fleet.  It takes ownership of the clients and closes them when it is closed.
+         *
+         * @return The fleet.
+         */
+        public TerminalFleet build() {
+            return new TerminalFleet(this);
+        }
+
+        /**
+         * @param login  The account login of the terminal.
+         * @param client The client of the terminal.
+         * @return This Builder.
+         */
+        public Builder addTerminal(long login, MT4ClientInterface client) {
+            return add(login, client);
+        }
+
+        /**
+         * @param login  The account login of the terminal.
+         * @param client The client of the terminal.
+         * @return This Builder.
+         */
+        public Builder addTerminal(long login, MT5ClientInterface client) {
+            return add(login, client);
+        }
+
+        /**
+         * @param timeoutMillis The longest time to wait for a call, or for all calls of a fan-out query.
+         * @return This Builder.
+         */
+        public Builder setTimeout(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param maxQueuedCalls The number of unfinished calls per terminal above which new calls fail immediately.
+         * @return This Builder.
+         */
+        public Builder setMaxQueuedCalls(int maxQueuedCalls) {
+            this.maxQueuedCalls = maxQueuedCalls;
+            return this;
+        }
+
+        private Builder add(long login, Object client) {
+            if (clients.putIfAbsent(login, client) != null) {
+                throw new IllegalArgumentException("Duplicate login: " + login);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * The merged results of a fan-out query, keyed by account login.
+     *
+     * @param <T> The result type.
+     */
+    public static final class FleetResult<T> {
+        private final Map<Long, T> values = new LinkedHashMap<>();
+        private final Map<Long, Exception> failures = new LinkedHashMap<>();
+        private final Map<Long, Long> latencyNanos = new LinkedHashMap<>();
+
+        private FleetResult() {}
+
+        /**
+         * @return The result of every terminal which answered in time.
+         */
+        public Map<Long, T> getValues() {
+            return Collections.unmodifiableMap(values);
+        }
+
+        /**
+         * @return The error of every terminal which failed or timed out.
+         */
+        public Map<Long, Exception> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return The time each terminal took to answer, queueing included, in nanoseconds.
+         */
+        public Map<Long, Long> getLatencyNanos() {
+            return Collections.unmodifiableMap(latencyNanos);
+        }
+
+        /**
+         * @return Whether every terminal answered.
+         */
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "FleetResult{" +
+                    "values=" + values +
+                    ", failures=" + failures +
+                    '}';
+        }
+    }
+
+    private static final class Terminal {
+        final long login;
+        final MT4ClientInterface mt4;
+        final MT5ClientInterface mt5;
+        final ExecutorService lane;
+        final AtomicInteger unfinished = new AtomicInteger();
+
+        Terminal(long login, Object client) {
+            this.login = login;
+            this.mt4 = client instanceof MT4ClientInterface ? (MT4ClientInterface) client : null;
+            this.mt5 = client instanceof MT5ClientInterface ? (MT5ClientInterface) client : null;
+            this.lane = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "mt4-fleet-" + login);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * A call in flight, and when it was submitted.
+     */
+    private static final class Pending<T> {
+        final CompletableFuture<T> future;
+        final long submittedNanos;
+        volatile long completedNanos;
+
+        Pending(CompletableFuture<T> future, long submittedNanos) {
+            this.future = future;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+
+    private final Map<Long, Terminal> terminals = new LinkedHashMap<>();
+    private final long timeoutMillis;
+    private final int maxQueuedCalls;
+
+    private TerminalFleet(Builder builder) {
+        this.timeoutMillis = builder.timeoutMillis;
+        this.maxQueuedCalls = builder.maxQueuedCalls;
+        builder.clients.forEach((login, client) -> terminals.put(login, new Terminal(login, client)));
+    }
+
+    /**
+     * @return The account logins of all terminals.
+     */
+    public List<Long> getLogins() {
+        return new ArrayList<>(terminals.keySet());
+    }
+
+    /**
+     * Run a call on the MT4 terminal of an account, waiting at most the fleet timeout.
+     *
+     * @param login The account login.
+     * @param call  The call.
+     * @param <T>   The result type.
+     * @return The result.
+     * @throws JsonProcessingException  If JSON response fails to parse.
+     * @throws MT4Exception             If server had an error.
+     * @throws TimeoutException         If the call did not finish in time, or too many calls are backed up.
+     * @throws IllegalArgumentException If there is no MT4 terminal for the account.
+     */
+    public <T> T call(long login, MT4Call<T> call) throws JsonProcessingException, MT4Exception, TimeoutException {
+        Terminal terminal = terminal(login);
+        if (terminal.mt4 == null) {
+            throw new IllegalArgumentException("Not an MT4 terminal: " + login);
+        }
+        return await(submit(terminal, () -> call.call(terminal.mt4)).future, System.nanoTime());
+    }
+
+    /**
+     * Run a call on the MT5 terminal of an account, waiting at most the fleet timeout.
+     *
+     * @param login The account login.
+     * @param call  The call.
+     * @param <T>   The result type.
+     * @return The result.
+     * @throws JsonProcessingException  If JSON response fails to parse.
+     * @throws MT4Exception             If server had an error.
+     * @throws TimeoutException         If the call did not finish in time, or too many calls are backed up.
+     * @throws IllegalArgumentException If there is no MT5 terminal for the account.
+     */
+    public <T> T callMT5(long login, MT5Call<T> call) throws JsonProcessingException, MT4Exception, TimeoutException {
+        Terminal terminal = terminal(login);
+        if (terminal.mt5 == null) {
+            throw new IllegalArgumentException("Not an MT5 terminal: " + login);
+        }
+        return await(submit(terminal, () -> call.call(terminal.mt5)).future, System.nanoTime());
+    }
+
+    /**
+     * Run a call on every terminal in parallel.
+     *
+     * @param mt4 The call for MT4 terminals, or null to skip them.
+     * @param mt5 The call for MT5 terminals, or null to skip them.
+     * @param <T> The result type.
+     * @return The merged results.
+     */
+    public <T> FleetResult<T> query(MT4Call<T> mt4, MT5Call<T> mt5) {
+        long start = System.nanoTime();
+        Map<Long, Pending<T>> pending = new LinkedHashMap<>();
+        for (Terminal terminal : terminals.values()) {
+            if (terminal.mt4 != null && mt4 != null) {
+                pending.put(terminal.login, submit(terminal, () -> mt4.call(terminal.mt4)));
+            } else if (terminal.mt5 != null && mt5 != null) {
+                pending.put(terminal.login, submit(terminal, () -> mt5.call(terminal.mt5)));
+            }
+        }
+
+        FleetResult<T> result = new FleetResult<>();
+        for (Map.Entry<Long, Pending<T>> entry : pending.entrySet()) {
+            Long login = entry.getKey();
+            Pending<T> call = entry.getValue();
+            try {
+                result.values.put(login, await(call.future, start));
+                result.latencyNanos.put(login, call.completedNanos - call.submittedNanos);
+            } catch (Exception e) {
+                result.failures.put(login, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run a call on every MT4 terminal in parallel.
+     *
+     * @param mt4 The call.
+     * @param <T> The result type.
+     * @return The merged results.
+     */
+    public <T> FleetResult<T> query(MT4Call<T> mt4) {
+        return query(mt4, null);
+    }
+
+    /**
+     * @return The open orders of every MT4 terminal.
+     */
+    public FleetResult<List<Order>> getOrders() {
+        return query(MT4ClientInterface::getOrders, null);
+    }
+
+    /**
+     * @return The open orders of every MT5 terminal.
+     */
+    public FleetResult<List<MT5Order>> getMT5Orders() {
+        return query(null, MT5ClientInterface::getOrders);
+    }
+
+    /**
+     * @return The equity of every account.
+     */
+    public FleetResult<Double> getEquity() {
+        return query(c -> c.getAccount().getEquity(), c -> c.getAccount().getEquity());
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @return The latest tick of the symbol on every terminal.
+     */
+    public FleetResult<SymbolTick> getTicks(String symbol) {
+        return query(c -> c.getSymbol(symbol).getTick(), c -> c.getSymbol(symbol).getTick());
+    }
+
+    /**
+     * Stop the lanes and close every client.
+     */
+    @Override
+    public void close() {
+        for (Terminal terminal : terminals.values()) {
+            terminal.lane.shutdownNow();
+            try {
+                if (terminal.mt4 != null) {
+                    terminal.mt4.close();
+                } else {
+                    terminal.mt5.close();
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to close the client of {}", terminal.login, e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task<T> {
+        T run() throws JsonProcessingException, MT4Exception;
+    }
+
+    private Terminal terminal(long login) {
+        Terminal terminal = terminals.get(login);
+        if (terminal == null) {
+            throw new IllegalArgumentException("Unknown login: " + login);
+        }
+        return terminal;
+    }
+
+    private <T> Pending<T> submit(Terminal terminal, Task<T> task) {
+        Pending<T> pending = new Pending<>(new CompletableFuture<>(), System.nanoTime());
+        if (terminal.unfinished.incrementAndGet() > maxQueuedCalls) {
+            terminal.unfinished.decrementAndGet();
+            pending.future.completeExceptionally(new TimeoutException(
+                    "Too many calls backed up on terminal " + terminal.login));
+            return pending;
+        }
+        try {
+            terminal.lane.execute(() -> {
+                try {
+                    T value = task.run();
+                    pending.completedNanos = System.nanoTime();
+                    pending.future.complete(value);
+                } catch (Throwable t) {
+                    pending.completedNanos = System.nanoTime();
+                    pending.future.completeExceptionally(t);
+                } finally {
+                    terminal.unfinished.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            terminal.unfinished.decrementAndGet();
+            pending.future.completeExceptionally(e);
+        }
+        return pending;
+    }
+
+    /**
+     * Wait for a call until the fleet timeout has passed since a start time, and unwrap its failure.
+     */
+    private <T> T await(CompletableFuture<T> future, long startNanos)
+            throws JsonProcessingException, MT4Exception, TimeoutException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - startNanos);
+        try {
+            return future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("No answer within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MT4Exception) {
+                throw (MT4Exception) cause;
+            } else if (cause instanceof JsonProcessingException) {
+                throw (JsonProcessingException) cause;
+            } else if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
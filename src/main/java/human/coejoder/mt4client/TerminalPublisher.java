@@ -0,0 +1,406 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Flow.Publisher} of terminal data, such as the ticks of a symbol, its completed bars or order changes.
+ * <p>
+ * Items come from either a polling {@link Source}, or a push transport which calls {@link #publish(Object)}.  Every
+ * subscriber gets every item, but only as many as it has {@link Flow.Subscription#request(long) requested}; items
+ * arriving beyond its demand are buffered, and the oldest are dropped once the buffer is full, as newer market data
+ * supersedes them.  Polling only runs while a subscriber has outstanding demand, so a publisher whose subscribers are
+ * idle sends no requests to the terminal.
+ * <p>
+ * A poll which fails with an {@link MT4Exception} or a malformed response is logged and tried again after the
+ * interval, since the terminal may recover; subscribers only get {@link Flow.Subscriber#onError(Throwable) onError} if
+ * the source fails in any other way.
+ * <p>
+ * All signals are delivered on the publisher's own thread, which also runs the polls.  The client of a polling source
+ * must not be used by other threads meanwhile, unless it is an {@link MT4Client}, which can be shared.
+ */
+public class TerminalPublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TerminalPublisher.class);
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+    private static final long BAR_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Polls the terminal for new items.
+     *
+     * @param <T> The item type.
+     */
+    @FunctionalInterface
+    public interface Source<T> {
+
+        /**
+         * @return The items which are new since the previous poll, oldest first.
+         * @throws JsonProcessingException If JSON response fails to parse.
+         * @throws MT4Exception            If server had an error.
+         */
+        List<T> poll() throws JsonProcessingException, MT4Exception;
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        final Flow.Subscriber<? super T> subscriber;
+        final ArrayDeque<T> buffer = new ArrayDeque<>();
+        long demand;
+        boolean done;
+
+        Subscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            run(() -> {
+                if (done) {
+                    return;
+                }
+                if (n <= 0) {
+                    terminate(this, new IllegalArgumentException("Non-positive request: " + n));
+                    return;
+                }
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                drain(this);
+                if (demand > 0) {
+                    startPolling();
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            run(() -> {
+                done = true;
+                subscriptions.remove(this);
+            });
+        }
+    }
+
+    private final Source<T> source;
+    private final long intervalMillis;
+    private final int bufferSize;
+    private final ScheduledExecutorService thread;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private boolean polling;
+    private boolean closed;
+    private long lastPollNanos;
+    private volatile long pollCount;
+    private volatile long droppedCount;
+
+    private TerminalPublisher(Source<T> source, long intervalMillis, int bufferSize) {
+        this.source = source;
+        this.intervalMillis = intervalMillis;
+        this.bufferSize = bufferSize;
+        this.thread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mt4-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Publish the items of a polling source.
+     *
+     * @param source         The source.
+     * @param intervalMillis The time between polls.
+     * @param bufferSize     The number of items buffered per subscriber beyond its demand.
+     * @param <T>            The item type.
+     * @return The publisher.
+     */
+    public static <T> TerminalPublisher<T> polling(Source<T> source, long intervalMillis, int bufferSize) {
+        return new TerminalPublisher<>(source, intervalMillis, bufferSize);
+    }
+
+    /**
+     * Publish the items of a push transport, which passes them to {@link #publish(Object)}.
+     *
+     * @param bufferSize The number of items buffered per subscriber beyond its demand.
+     * @param <T>        The item type.
+     * @return The publisher.
+     */
+    public static <T> TerminalPublisher<T> push(int bufferSize) {
+        return new TerminalPublisher<>(null, 0, bufferSize);
+    }
+
+    /**
+     * Publish the ticks of a symbol, polled with {@link Symbol#getTick()}.  A tick identical to the previous one is not
+     * published again.
+     *
+     * @param client         The client.
+     * @param symbol         The symbol name.
+     * @param intervalMillis The time between polls.
+     * @return The publisher.
+     */
+    public static TerminalPublisher<SymbolTick> ticks(MT4ClientInterface client, String symbol, long intervalMillis) {
+        return polling(new Source<>() {
+            private Symbol info;
+            private SymbolTick last;
+
+            @Override
+            public List<SymbolTick> poll() throws JsonProcessingException, MT4Exception {
+                if (info == null) {
+                    info = client.getSymbol(symbol);
+                }
+                SymbolTick tick = info.getTick();
+                if (tick == null || tick.equals(last)) {
+                    return Collections.emptyList();
+                }
+                last = tick;
+                return Collections.singletonList(tick);
+            }
+        }, intervalMillis, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Publish the bars of a symbol as they complete, polled with
+     * {@link MT4ClientInterface#getOHLCV(String, Timeframe, long, long)}.  The first poll publishes the latest completed
+     * bar.
+     *
+     * @param client         The client.
+     * @param symbol         The symbol name.
+     * @param timeframe      The bar timeframe.
+     * @param intervalMillis The time between polls.
+     * @return The publisher.
+     */
+    public static TerminalPublisher<OHLCV> bars(MT4ClientInterface client, String symbol, Timeframe timeframe,
+                                                long intervalMillis) {
+        return polling(new Source<>() {
+            private long lastTime = Long.MIN_VALUE;
+
+            @Override
+            public List<OHLCV> poll() throws JsonProcessingException, MT4Exception {
+                // the latest bar is still forming, so the one before it is the latest completed bar
+                List<OHLCV> bars = new ArrayList<>(client.getOHLCV(symbol, timeframe, 2, BAR_TIMEOUT_MILLIS));
+                if (bars.size() < 2) {
+                    return Collections.emptyList();
+                }
+                bars.sort((a, b) -> Integer.compare(a.time, b.time));
+                OHLCV completed = bars.get(0);
+                if (completed.time <= lastTime) {
+                    return Collections.emptyList();
+                }
+                lastTime = completed.time;
+                return Collections.singletonList(completed);
+            }
+        }, intervalMillis, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Publish order changes, polled with {@link MT4ClientInterface#getOrders()}.  The first poll publishes every open
+     * and pending order.  Afterwards an order is published again whenever anything but its floating profit and the
+     * market price changes, and once more with its final state when it leaves the Trades tab, unless that state cannot
+     * be read.
+     *
+     * @param client         The client.
+     * @param intervalMillis The time between polls.
+     * @return The publisher.
+     */
+    public static TerminalPublisher<Order> orders(MT4ClientInterface client, long intervalMillis) {
+        return polling(new Source<>() {
+            private Map<Integer, Order> last = new HashMap<>();
+
+            @Override
+            public List<Order> poll() throws JsonProcessingException, MT4Exception {
+                List<Order> changes = new ArrayList<>();
+                Map<Integer, Order> current = new HashMap<>();
+                for (Order order : client.getOrders()) {
+                    current.put(order.getTicket(), order);
+                    Order previous = last.remove(order.getTicket());
+                    if (previous == null || !sameState(previous, order)) {
+                        changes.add(order);
+                    }
+                }
+                for (Integer ticket : last.keySet()) {
+                    // a failed lookup must not fail the poll, or every later poll would fail on it too
+                    try {
+                        changes.add(client.getOrder(ticket));
+                    } catch (JsonProcessingException | MT4Exception e) {
+                        LOG.warn("Failed to get the final state of order #{}; it is not published", ticket, e);
+                    }
+                }
+                last = current;
+                return changes;
+            }
+        }, intervalMillis, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        Subscription subscription = new Subscription(subscriber);
+        run(() -> {
+            subscriber.onSubscribe(subscription);
+            if (closed) {
+                subscription.done = true;
+                subscriber.onComplete();
+            } else if (!subscription.done) {
+                subscriptions.add(subscription);
+            }
+        });
+    }
+
+    /**
+     * Pass an item of a push transport to the subscribers.
+     *
+     * @param item The item.
+     * @throws IllegalStateException If the publisher polls a source.
+     */
+    public void publish(T item) {
+        if (source != null) {
+            throw new IllegalStateException("Publisher polls a source");
+        }
+        Objects.requireNonNull(item);
+        run(() -> deliver(Collections.singletonList(item)));
+    }
+
+    /**
+     * @return The number of polls so far.
+     */
+    public long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return The number of items dropped from full subscriber buffers.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Stop polling and complete every subscription.  Items still buffered are discarded.
+     */
+    @Override
+    public void close() {
+        run(() -> {
+            closed = true;
+            for (Subscription subscription : new ArrayList<>(subscriptions)) {
+                subscription.done = true;
+                subscription.subscriber.onComplete();
+            }
+            subscriptions.clear();
+            thread.shutdown();
+        });
+    }
+
+    private void run(Runnable task) {
+        try {
+            thread.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private void startPolling() {
+        if (source == null || polling || closed) {
+            return;
+        }
+        polling = true;
+        long waitNanos = lastPollNanos == 0 ? 0
+                : TimeUnit.MILLISECONDS.toNanos(intervalMillis) - (System.nanoTime() - lastPollNanos);
+        thread.schedule(this::poll, Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private void poll() {
+        if (closed || !hasDemand()) {
+            polling = false;
+            return;
+        }
+        lastPollNanos = System.nanoTime();
+        pollCount++;
+        try {
+            deliver(source.poll());
+        } catch (JsonProcessingException | MT4Exception e) {
+            LOG.warn("Poll failed; trying again in {} ms", intervalMillis, e);
+        } catch (Throwable t) {
+            for (Subscription subscription : new ArrayList<>(subscriptions)) {
+                terminate(subscription, t);
+            }
+            polling = false;
+            return;
+        }
+        if (hasDemand()) {
+            thread.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            polling = false;
+        }
+    }
+
+    private boolean hasDemand() {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.demand > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deliver(List<T> items) {
+        for (Subscription subscription : new ArrayList<>(subscriptions)) {
+            for (T item : items) {
+                if (subscription.buffer.size() == bufferSize) {
+                    subscription.buffer.poll();
+                    droppedCount++;
+                }
+                subscription.buffer.add(item);
+            }
+            drain(subscription);
+        }
+    }
+
+    private void drain(Subscription subscription) {
+        while (subscription.demand > 0 && !subscription.buffer.isEmpty() && !subscription.done) {
+            subscription.demand--;
+            T item = subscription.buffer.poll();
+            try {
+                subscription.subscriber.onNext(item);
+            } catch (Throwable t) {
+                subscription.done = true;
+                subscriptions.remove(subscription);
+                subscription.subscriber.onError(t);
+            }
+        }
+    }
+
+    private void terminate(Subscription subscription, Throwable t) {
+        subscription.done = true;
+        subscriptions.remove(subscription);
+        subscription.subscriber.onError(t);
+    }
+
+    /**
+     * @return Whether an order is unchanged but for its floating profit, and its close price while it is still open,
+     * which is the current market price.
+     */
+    static boolean sameState(Order a, Order b) {
+        return a.getTicket() == b.getTicket()
+                && a.getOrderType() == b.getOrderType()
+                && a.getLots() == b.getLots()
+                && a.getOpenPrice() == b.getOpenPrice()
+                && Objects.equals(a.getOpenTime(), b.getOpenTime())
+                && Objects.equals(a.getCloseTime(), b.getCloseTime())
+                && (a.getCloseTime() == null || a.getClosePrice() == b.getClosePrice())
+                && Objects.equals(a.getExpiration(), b.getExpiration())
+                && a.getSl() == b.getSl()
+                && a.getTp() == b.getTp()
+                && a.getCommission() == b.getCommission()
+                && a.getSwap() == b.getSwap()
+                && Objects.equals(a.getComment(), b.getComment());
+    }
+}
@@ -0,0 +1,985 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embedded stand-in for a MetaTrader terminal running the ZeroMQ server, for load-testing clients locally.
+ * <p>
+ * The simulator answers every {@link Request} over a real ROUTER socket, so any number of {@link MT4Client MT4Clients}
+ * can connect to it concurrently.  Prices follow a seeded random walk which advances whenever a symbol is quoted;
+ * market orders fill at the current bid/ask, and pending orders, stop-losses and take-profits trigger as prices move.
+ * OHLCV history and indicator values are synthetic but deterministic.  Responses can be delayed by a configurable
+ * latency, and any request type can be made to fail at a configurable rate with a given {@link MT4Exception.Code}.
+ * <p>
+ * All state is confined to a single server thread, which answers tens of thousands of requests per second.
+ */
+public class TerminalSimulator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TerminalSimulator.class);
+    private static final String LOCALHOST = "tcp://127.0.0.1";
+    private static final int POLL_TIMEOUT_MILLIS = 100;
+    private static final int FIRST_TICKET = 100000;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy.MM.dd HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final String ACTION = "action";
+    private static final String RESPONSE = "response";
+    private static final String SYMBOL = "symbol";
+    private static final String NAMES = "names";
+    private static final String PROPERTY_ID = "property_id";
+    private static final String TICKET = "ticket";
+    private static final String TIMEFRAME = "timeframe";
+    private static final String LIMIT = "limit";
+    private static final String OFFSET = "offset";
+    private static final String INDICATOR = "indicator";
+    private static final String ARGV = "argv";
+    private static final String CLOSE_IF_OPENED = "close_if_opened";
+
+    /**
+     * Builder for terminal simulators.
+     */
+    public static class Builder {
+        private final Map<String, SymbolSpec> symbols = new LinkedHashMap<>();
+        private final Map<Request, ErrorInjection> errors = new EnumMap<>(Request.class);
+        private ErrorInjection defaultError;
+        private long seed = 42;
+        private int minLatencyMicros;
+        private int maxLatencyMicros;
+        private double balance = 10000;
+        private int leverage = 100;
+        private double volatility = 0.0001;
+
+        private Builder() {}
+
+        /**
+         * Construct a new simulator builder.
+         *
+         * @return The simulator builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the simulator.  If no symbols were added, EURUSD, GBPUSD and USDJPY are simulated.
+         *
+         * @return The simulator, not yet {@link #start() started}.
+         */
+        public TerminalSimulator build() {
+            if (symbols.isEmpty()) {
+                addSymbol("EURUSD", 1.08500, 5);
+                addSymbol("GBPUSD", 1.27000, 5);
+                addSymbol("USDJPY", 150.000, 3);
+            }
+            return new TerminalSimulator(this);
+        }
+
+        /**
+         * @param name   The symbol name.
+         * @param price  The initial bid price.
+         * @param digits The number of digits after the decimal point.
+         * @return This Builder.
+         */
+        public Builder addSymbol(String name, double price, int digits) {
+            symbols.put(name, new SymbolSpec(name, price, digits));
+            return this;
+        }
+
+        /**
+         * @param seed The seed of the random walks and error injection.
+         * @return This Builder.
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param volatility The standard deviation of each random-walk step, relative to the price.
+         * @return This Builder.
+         */
+        public Builder setVolatility(double volatility) {
+            this.volatility = volatility;
+            return this;
+        }
+
+        /**
+         * @param minMicros The minimum delay before a response is sent, in microseconds.
+         * @param maxMicros The maximum delay before a response is sent, in microseconds.
+         * @return This Builder.
+         */
+        public Builder setLatency(int minMicros, int maxMicros) {
+            if (minMicros < 0 || maxMicros < minMicros) {
+                throw new IllegalArgumentException("Invalid latency range: " + minMicros + ".." + maxMicros);
+            }
+            this.minLatencyMicros = minMicros;
+            this.maxLatencyMicros = maxMicros;
+            return this;
+        }
+
+        /**
+         * @param rate The probability of failing any request.
+         * @param code The error to fail with.
+         * @return This Builder.
+         */
+        public Builder setErrorRate(double rate, MT4Exception.Code code) {
+            this.defaultError = new ErrorInjection(rate, code);
+            return this;
+        }
+
+        /**
+         * @param request The request type.
+         * @param rate    The probability of failing requests of this type.  Overrides {@link #setErrorRate(double,
+         *                MT4Exception.Code)}.
+         * @param code    The error to fail with.
+         * @return This Builder.
+         */
+        public Builder setErrorRate(Request request, double rate, MT4Exception.Code code) {
+            this.errors.put(request, new ErrorInjection(rate, code));
+            return this;
+        }
+
+        /**
+         * @param balance The initial account balance.
+         * @return This Builder.
+         */
+        public Builder setBalance(double balance) {
+            this.balance = balance;
+            return this;
+        }
+
+        /**
+         * @param leverage The account leverage.
+         * @return This Builder.
+         */
+        public Builder setLeverage(int leverage) {
+            this.leverage = leverage;
+            return this;
+        }
+    }
+
+    private static final class ErrorInjection {
+        final double rate;
+        final MT4Exception.Code code;
+
+        ErrorInjection(double rate, MT4Exception.Code code) {
+            this.rate = rate;
+            this.code = code;
+        }
+    }
+
+    private static final class SymbolSpec {
+        final String name;
+        final int digits;
+        final double point;
+        final double contractSize = 100000;
+        double bid;
+        int spreadPoints = 10;
+        long time;
+        int volume;
+
+        SymbolSpec(String name, double price, int digits) {
+            this.name = name;
+            this.digits = digits;
+            this.point = Math.pow(10, -digits);
+            this.bid = price;
+        }
+
+        double ask() {
+            return round(bid + spreadPoints * point);
+        }
+
+        double round(double price) {
+            return Math.round(price / point) * point;
+        }
+
+        double tickValue() {
+            return contractSize * point;
+        }
+    }
+
+    private static final class SimOrder {
+        final int ticket;
+        final int magicNumber;
+        final SymbolSpec symbol;
+        OrderType orderType;
+        final double lots;
+        double openPrice;
+        double closePrice;
+        long openTime;
+        long closeTime;
+        double sl;
+        double tp;
+        final String comment;
+
+        SimOrder(int ticket, int magicNumber, SymbolSpec symbol, OrderType orderType, double lots, String comment) {
+            this.ticket = ticket;
+            this.magicNumber = magicNumber;
+            this.symbol = symbol;
+            this.orderType = orderType;
+            this.lots = lots;
+            this.comment = comment;
+        }
+
+        double profit() {
+            if (orderType.isPending()) {
+                return 0;
+            }
+            double price = closeTime > 0 ? closePrice : (orderType.isBuy() ? symbol.bid : symbol.ask());
+            double diff = orderType.isBuy() ? price - openPrice : openPrice - price;
+            return diff / symbol.point * symbol.tickValue() * lots;
+        }
+    }
+
+    private static final class DelayedReply {
+        final long dueNanos;
+        final byte[] identity;
+        final byte[] body;
+
+        DelayedReply(long dueNanos, byte[] identity, byte[] body) {
+            this.dueNanos = dueNanos;
+            this.identity = identity;
+            this.body = body;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonNodeFactory nodes = JsonNodeFactory.instance;
+    private final ZContext context = new ZContext();
+    private final Map<String, SymbolSpec> symbols;
+    private final Map<Request, ErrorInjection> errors;
+    private final ErrorInjection defaultError;
+    private final SplittableRandom random;
+    private final long seed;
+    private final int minLatencyMicros;
+    private final int maxLatencyMicros;
+    private final double volatility;
+    private final int leverage;
+    private final Map<Integer, SimOrder> openOrders = new LinkedHashMap<>();
+    private final List<SimOrder> closedOrders = new ArrayList<>();
+    private final PriorityQueue<DelayedReply> delayed =
+            new PriorityQueue<>((a, b) -> Long.compare(a.dueNanos, b.dueNanos));
+    private final AtomicLong served = new AtomicLong();
+    private double balance;
+    private int nextTicket = FIRST_TICKET;
+    private volatile boolean running;
+    private volatile boolean unresponsive;
+    private Thread thread;
+
+    private TerminalSimulator(Builder builder) {
+        this.symbols = new LinkedHashMap<>();
+        builder.symbols.values().forEach(s -> symbols.put(s.name, new SymbolSpec(s.name, s.bid, s.digits)));
+        this.errors = new EnumMap<>(builder.errors);
+        this.defaultError = builder.defaultError;
+        this.seed = builder.seed;
+        this.random = new SplittableRandom(builder.seed);
+        this.minLatencyMicros = builder.minLatencyMicros;
+        this.maxLatencyMicros = builder.maxLatencyMicros;
+        this.volatility = builder.volatility;
+        this.balance = builder.balance;
+        this.leverage = builder.leverage;
+        long now = Instant.now().getEpochSecond();
+        for (SymbolSpec symbol : symbols.values()) {
+            symbol.time = now;
+        }
+    }
+
+    /**
+     * Bind to a random port on localhost and start answering requests on a background thread.
+     *
+     * @return The address to connect clients to.
+     */
+    public synchronized String start() {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        ZMQ.Socket socket = context.createSocket(SocketType.ROUTER);
+        socket.setReceiveTimeOut(POLL_TIMEOUT_MILLIS);
+        int port = socket.bindToRandomPort(LOCALHOST);
+        running = true;
+        thread = new Thread(() -> serve(socket), "mt4-terminal-simulator");
+        thread.setDaemon(true);
+        thread.start();
+        return LOCALHOST + ":" + port;
+    }
+
+    /**
+     * @return The number of requests answered so far.
+     */
+    public long getServedCount() {
+        return served.get();
+    }
+
+    /**
+     * Drop requests without answering them, like a terminal whose expert advisor is restarting.
+     *
+     * @param unresponsive Whether to drop requests.
+     */
+    public void setUnresponsive(boolean unresponsive) {
+        this.unresponsive = unresponsive;
+    }
+
+    /**
+     * Stop the simulator and release its socket.
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        context.destroy();
+    }
+
+    private void serve(ZMQ.Socket socket) {
+        ArrayDeque<byte[]> frames = new ArrayDeque<>();
+        while (running) {
+            flushDelayed(socket);
+            socket.setReceiveTimeOut(delayed.isEmpty() ? POLL_TIMEOUT_MILLIS : nextDueMillis());
+            byte[] identity = socket.recv();
+            if (identity == null) {
+                continue;
+            }
+            // REQ envelope: identity, empty delimiter, body
+            frames.clear();
+            while (socket.hasReceiveMore()) {
+                frames.add(socket.recv());
+            }
+            byte[] body = frames.pollLast();
+            if (unresponsive) {
+                continue;
+            }
+            byte[] reply = handle(body);
+            served.incrementAndGet();
+
+            long latencyNanos = latencyNanos();
+            if (latencyNanos == 0) {
+                reply(socket, identity, reply);
+            } else {
+                delayed.add(new DelayedReply(System.nanoTime() + latencyNanos, identity, reply));
+            }
+        }
+        LOG.debug("Terminal simulator stopped after {} requests", served.get());
+    }
+
+    private void flushDelayed(ZMQ.Socket socket) {
+        long now = System.nanoTime();
+        while (!delayed.isEmpty() && delayed.peek().dueNanos <= now) {
+            DelayedReply reply = delayed.poll();
+            reply(socket, reply.identity, reply.body);
+        }
+    }
+
+    private int nextDueMillis() {
+        long nanos = delayed.peek().dueNanos - System.nanoTime();
+        return (int) Math.max(1, (nanos + 999_999) / 1_000_000);
+    }
+
+    private long latencyNanos() {
+        if (maxLatencyMicros == 0) {
+            return 0;
+        }
+        int micros = minLatencyMicros == maxLatencyMicros
+                ? minLatencyMicros
+                : random.nextInt(minLatencyMicros, maxLatencyMicros + 1);
+        return micros * 1000L;
+    }
+
+    private static void reply(ZMQ.Socket socket, byte[] identity, byte[] body) {
+        socket.sendMore(identity);
+        socket.sendMore(new byte[0]);
+        socket.send(body);
+    }
+
+    /**
+     * Answer a single request.
+     *
+     * @param body The JSON request.
+     * @return The JSON response.
+     */
+    byte[] handle(byte[] body) {
+        ObjectNode response;
+        try {
+            JsonNode request = body == null ? null : objectMapper.readTree(body);
+            response = dispatch(request);
+        } catch (SimulatedError e) {
+            response = error(e.code, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            response = error(MT4Exception.Code.ERR_INVALID_FUNCTION_PARAMVALUE, String.valueOf(e.getMessage()));
+        }
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ObjectNode dispatch(JsonNode request) {
+        if (request == null || !request.hasNonNull(ACTION)) {
+            throw new SimulatedError(MT4Exception.Code.ERR_UNKNOWN_COMMAND, "Missing action");
+        }
+        Request action;
+        try {
+            action = Request.valueOf(request.get(ACTION).asText());
+        } catch (IllegalArgumentException e) {
+            throw new SimulatedError(MT4Exception.Code.ERR_UNKNOWN_COMMAND, "Unknown action: " + request.get(ACTION));
+        }
+        ErrorInjection injection = errors.getOrDefault(action, defaultError);
+        if (injection != null && random.nextDouble() < injection.rate) {
+            throw new SimulatedError(injection.code, "Injected error");
+        }
+
+        JsonNode result;
+        switch (action) {
+            case GET_ACCOUNT_INFO:
+                result = accountInfo();
+                break;
+            case GET_ACCOUNT_INFO_INTEGER:
+                result = nodes.numberNode(accountInfoInteger(request.path(PROPERTY_ID).asInt()));
+                break;
+            case GET_ACCOUNT_INFO_DOUBLE:
+                result = nodes.numberNode(accountInfoDouble(request.path(PROPERTY_ID).asInt()));
+                break;
+            case GET_SYMBOLS:
+                ArrayNode names = nodes.arrayNode();
+                symbols.keySet().forEach(names::add);
+                result = names;
+                break;
+            case GET_SYMBOL_INFO:
+                ObjectNode infos = nodes.objectNode();
+                for (JsonNode name : request.path(NAMES)) {
+                    infos.set(name.asText(), symbolInfo(symbol(name.asText())));
+                }
+                result = infos;
+                break;
+            case GET_SYMBOL_MARKET_INFO:
+                result = nodes.numberNode(marketInfo(symbol(request), request.path(PROPERTY_ID).asInt()));
+                break;
+            case GET_SYMBOL_INFO_INTEGER:
+                result = nodes.numberNode(symbolInfoInteger(symbol(request), request.path(PROPERTY_ID).asInt()));
+                break;
+            case GET_SYMBOL_INFO_DOUBLE:
+                result = nodes.numberNode(symbolInfoDouble(symbol(request), request.path(PROPERTY_ID).asInt()));
+                break;
+            case GET_SYMBOL_TICK:
+                result = tick(symbol(request));
+                break;
+            case GET_ORDER:
+                result = orderJson(order(request.path(TICKET).asInt(), true));
+                break;
+            case GET_ORDERS:
+                ArrayNode open = nodes.arrayNode();
+                openOrders.values().forEach(o -> open.add(orderJson(o)));
+                result = open;
+                break;
+            case GET_HISTORICAL_ORDERS:
+                ArrayNode closed = nodes.arrayNode();
+                closedOrders.forEach(o -> closed.add(orderJson(o)));
+                result = closed;
+                break;
+            case GET_OHLCV:
+                result = ohlcv(symbol(request), request.path(TIMEFRAME).asInt(), request.path(LIMIT).asLong(),
+                        request.path(OFFSET).asLong());
+                break;
+            case GET_SIGNALS:
+                result = nodes.arrayNode();
+                break;
+            case GET_SIGNAL_INFO:
+                result = nodes.objectNode();
+                break;
+            case DO_ORDER_SEND:
+                result = orderJson(orderSend(request));
+                break;
+            case DO_ORDER_MODIFY:
+                result = orderJson(orderModify(request));
+                break;
+            case DO_ORDER_CLOSE:
+                orderClose(order(request.path(TICKET).asInt(), false));
+                result = nodes.nullNode();
+                break;
+            case DO_ORDER_DELETE:
+                orderDelete(order(request.path(TICKET).asInt(), false), request.path(CLOSE_IF_OPENED).asBoolean(true));
+                result = nodes.nullNode();
+                break;
+            case RUN_INDICATOR:
+                result = nodes.numberNode(indicator(request.path(INDICATOR).asText(), request.path(ARGV)));
+                break;
+            default:
+                throw new SimulatedError(MT4Exception.Code.ERR_UNKNOWN_COMMAND, "Unsupported action: " + action);
+        }
+        ObjectNode response = nodes.objectNode();
+        response.set(RESPONSE, result);
+        return response;
+    }
+
+    private ObjectNode error(MT4Exception.Code code, String message) {
+        return nodes.objectNode()
+                .put(MT4Exception.ERROR_CODE, code.id)
+                .put(MT4Exception.ERROR_CODE_DESCRIPTION, code.toString())
+                .put(MT4Exception.ERROR_MESSAGE, message);
+    }
+
+    private SymbolSpec symbol(JsonNode request) {
+        return symbol(request.path(SYMBOL).asText());
+    }
+
+    private SymbolSpec symbol(String name) {
+        SymbolSpec symbol = symbols.get(name);
+        if (symbol == null) {
+            throw new SimulatedError(MT4Exception.Code.ERR_UNKNOWN_SYMBOL, "Unknown symbol: " + name);
+        }
+        return symbol;
+    }
+
+    private SimOrder order(int ticket, boolean includeClosed) {
+        SimOrder order = openOrders.get(ticket);
+        if (order == null && includeClosed) {
+            order = closedOrders.stream().filter(o -> o.ticket == ticket).findFirst().orElse(null);
+        }
+        if (order == null) {
+            throw new SimulatedError(MT4Exception.Code.ERR_INVALID_TICKET, "Invalid ticket: " + ticket);
+        }
+        return order;
+    }
+
+    /**
+     * Advance the random walk of a symbol by one step and trigger any orders whose prices were reached.
+     */
+    private void step(SymbolSpec symbol) {
+        symbol.bid = Math.max(symbol.point, symbol.round(symbol.bid * (1 + volatility * random.nextGaussian())));
+        symbol.time = Math.max(symbol.time, Instant.now().getEpochSecond());
+        symbol.volume++;
+        triggerOrders(symbol);
+    }
+
+    private void triggerOrders(SymbolSpec symbol) {
+        double bid = symbol.bid;
+        double ask = symbol.ask();
+        Iterator<SimOrder> it = openOrders.values().iterator();
+        while (it.hasNext()) {
+            SimOrder order = it.next();
+            if (order.symbol != symbol) {
+                continue;
+            }
+            switch (order.orderType) {
+                case OP_BUYLIMIT:
+                case OP_BUYSTOP:
+                    if (order.orderType == OrderType.OP_BUYLIMIT ? ask <= order.openPrice : ask >= order.openPrice) {
+                        order.orderType = OrderType.OP_BUY;
+                        order.openTime = symbol.time;
+                    }
+                    break;
+                case OP_SELLLIMIT:
+                case OP_SELLSTOP:
+                    if (order.orderType == OrderType.OP_SELLLIMIT ? bid >= order.openPrice : bid <= order.openPrice) {
+                        order.orderType = OrderType.OP_SELL;
+                        order.openTime = symbol.time;
+                    }
+                    break;
+                case OP_BUY:
+                    if (order.sl > 0 && bid <= order.sl || order.tp > 0 && bid >= order.tp) {
+                        close(order, bid);
+                        it.remove();
+                    }
+                    break;
+                case OP_SELL:
+                    if (order.sl > 0 && ask >= order.sl || order.tp > 0 && ask <= order.tp) {
+                        close(order, ask);
+                        it.remove();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void close(SimOrder order, double price) {
+        order.closePrice = price;
+        order.closeTime = order.symbol.time;
+        balance += order.profit();
+        closedOrders.add(order);
+    }
+
+    private ObjectNode tick(SymbolSpec symbol) {
+        step(symbol);
+        return nodes.objectNode()
+                .put("time", symbol.time)
+                .put("bid", symbol.bid)
+                .put("ask", symbol.ask())
+                .put("last", 0.0)
+                .put("volume", symbol.volume);
+    }
+
+    private ObjectNode accountInfo() {
+        return nodes.objectNode()
+                .put("login", 1000000 + seed % 1000000)
+                .put("trade_mode", AccountTradeMode.ACCOUNT_TRADE_MODE_DEMO.id)
+                .put("name", "Simulator")
+                .put("server", "Simulator-Demo")
+                .put("currency", "USD")
+                .put("company", "TerminalSimulator");
+    }
+
+    private long accountInfoInteger(int propertyId) {
+        if (propertyId == AccountInfoInteger.ACCOUNT_LEVERAGE.id) {
+            return leverage;
+        } else if (propertyId == AccountInfoInteger.ACCOUNT_TRADE_ALLOWED.id
+                || propertyId == AccountInfoInteger.ACCOUNT_TRADE_EXPERT.id) {
+            return 1;
+        } else if (propertyId == AccountInfoInteger.ACCOUNT_LOGIN.id) {
+            return 1000000 + seed % 1000000;
+        } else if (propertyId == AccountInfoInteger.ACCOUNT_TRADE_MODE.id) {
+            return AccountTradeMode.ACCOUNT_TRADE_MODE_DEMO.id;
+        }
+        return 0;
+    }
+
+    private double accountInfoDouble(int propertyId) {
+        double profit = openOrders.values().stream().mapToDouble(SimOrder::profit).sum();
+        double margin = openOrders.values().stream()
+                .filter(o -> !o.orderType.isPending())
+                .mapToDouble(o -> o.lots * o.symbol.contractSize * o.openPrice / leverage)
+                .sum();
+        double equity = balance + profit;
+        if (propertyId == AccountInfoDouble.ACCOUNT_BALANCE.id) {
+            return balance;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_PROFIT.id) {
+            return profit;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_EQUITY.id) {
+            return equity;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_MARGIN.id) {
+            return margin;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_MARGIN_FREE.id) {
+            return equity - margin;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_MARGIN_LEVEL.id) {
+            return margin == 0 ? 0 : equity / margin * 100;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_MARGIN_SO_CALL.id) {
+            return 100;
+        } else if (propertyId == AccountInfoDouble.ACCOUNT_MARGIN_SO_SO.id) {
+            return 50;
+        }
+        return 0;
+    }
+
+    private ObjectNode symbolInfo(SymbolSpec symbol) {
+        return nodes.objectNode()
+                .put("name", symbol.name)
+                .put("point", symbol.point)
+                .put("digits", symbol.digits)
+                .put("volume_min", 0.01)
+                .put("volume_step", 0.01)
+                .put("volume_max", 100.0)
+                .put("trade_contract_size", symbol.contractSize)
+                .put("trade_tick_value", symbol.tickValue())
+                .put("trade_tick_size", symbol.point)
+                .put("trade_stops_level", 0)
+                .put("trade_freeze_level", 0);
+    }
+
+    private long symbolInfoInteger(SymbolSpec symbol, int propertyId) {
+        if (propertyId == SymbolInfoInteger.SYMBOL_SELECT.id || propertyId == SymbolInfoInteger.SYMBOL_VISIBLE.id
+                || propertyId == SymbolInfoInteger.SYMBOL_SPREAD_FLOAT.id) {
+            return 1;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_TIME.id) {
+            return symbol.time;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_DIGITS.id) {
+            return symbol.digits;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_SPREAD.id) {
+            return symbol.spreadPoints;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_TRADE_MODE.id) {
+            return SymbolTradeMode.SYMBOL_TRADE_MODE_FULL.id;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_TRADE_EXEMODE.id) {
+            return SymbolTradeExecution.SYMBOL_TRADE_EXECUTION_MARKET.id;
+        } else if (propertyId == SymbolInfoInteger.SYMBOL_SWAP_ROLLOVER3DAYS.id) {
+            return DayOfWeek.WEDNESDAY.id;
+        }
+        return 0;
+    }
+
+    private double symbolInfoDouble(SymbolSpec symbol, int propertyId) {
+        if (propertyId == SymbolInfoDouble.SYMBOL_BID.id) {
+            step(symbol);
+            return symbol.bid;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_ASK.id) {
+            step(symbol);
+            return symbol.ask();
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_POINT.id
+                || propertyId == SymbolInfoDouble.SYMBOL_TRADE_TICK_SIZE.id) {
+            return symbol.point;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_TRADE_TICK_VALUE.id) {
+            return symbol.tickValue();
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_TRADE_CONTRACT_SIZE.id) {
+            return symbol.contractSize;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_VOLUME_MIN.id
+                || propertyId == SymbolInfoDouble.SYMBOL_VOLUME_STEP.id) {
+            return 0.01;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_VOLUME_MAX.id) {
+            return 100;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_MARGIN_INITIAL.id) {
+            return symbol.contractSize * symbol.bid / leverage;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_SWAP_LONG.id) {
+            return -1.5;
+        } else if (propertyId == SymbolInfoDouble.SYMBOL_SWAP_SHORT.id) {
+            return 0.5;
+        }
+        return 0;
+    }
+
+    /**
+     * Answer a <code>MarketInfo(symbol, type)</code> query.
+     *
+     * @see <a href="https://docs.mql4.com/constants/environment_state/marketinfoconstants">marketinfoconstants</a>
+     */
+    private double marketInfo(SymbolSpec symbol, int mode) {
+        switch (mode) {
+            case 5: // MODE_TIME
+                return symbol.time;
+            case 9: // MODE_BID
+                return symbol.bid;
+            case 10: // MODE_ASK
+                return symbol.ask();
+            case 11: // MODE_POINT
+            case 17: // MODE_TICKSIZE
+                return symbol.point;
+            case 12: // MODE_DIGITS
+                return symbol.digits;
+            case 13: // MODE_SPREAD
+                return symbol.spreadPoints;
+            case 15: // MODE_LOTSIZE
+                return symbol.contractSize;
+            case 16: // MODE_TICKVALUE
+                return symbol.tickValue();
+            case 23: // MODE_MINLOT
+            case 24: // MODE_LOTSTEP
+                return 0.01;
+            case 25: // MODE_MAXLOT
+                return 100;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Generate synthetic bars, oldest first.  A bar's prices depend only on the symbol, timeframe and open time, so
+     * repeated and overlapping requests agree with each other.
+     */
+    private ArrayNode ohlcv(SymbolSpec symbol, int timeframe, long limit, long offset) {
+        long seconds = Math.max(1, timeframe) * 60L;
+        long current = symbol.time / seconds * seconds;
+        ArrayNode bars = nodes.arrayNode();
+        for (long i = offset + limit - 1; i >= offset; i--) {
+            long time = current - i * seconds;
+            SplittableRandom bar = new SplittableRandom(seed ^ symbol.name.hashCode() * 31L ^ time * 1_000_003L);
+            double drift = volatility * Math.sqrt(Math.max(1, timeframe));
+            double open = symbol.bid * (1 + drift * (bar.nextDouble() - 0.5) * 4);
+            double close = open * (1 + drift * (bar.nextDouble() - 0.5) * 2);
+            double high = Math.max(open, close) * (1 + drift * bar.nextDouble());
+            double low = Math.min(open, close) * (1 - drift * bar.nextDouble());
+            bars.addObject()
+                    .put("time", time)
+                    .put("open", symbol.round(open))
+                    .put("high", symbol.round(high))
+                    .put("low", symbol.round(low))
+                    .put("close", symbol.round(close))
+                    .put("tick_volume", 1 + bar.nextInt(1000));
+        }
+        return bars;
+    }
+
+    private double indicator(String name, JsonNode argv) {
+        SymbolSpec symbol = argv.path(0).isNull() || argv.path(0).isMissingNode()
+                ? symbols.values().iterator().next()
+                : symbol(argv.path(0).asText());
+        double mid = (symbol.bid + symbol.ask()) / 2;
+        // a deterministic value for the given arguments
+        double u = new SplittableRandom(seed ^ argv.toString().hashCode() ^ symbol.time / 60).nextDouble();
+        switch (name) {
+            case "iMA":
+            case "iBands":
+            case "iEnvelopes":
+            case "iSAR":
+            case "iIchimoku":
+            case "iAlligator":
+            case "iFractals":
+                return symbol.round(mid * (1 + volatility * (u - 0.5) * 10));
+            case "iRSI":
+            case "iMFI":
+            case "iStochastic":
+            case "iADX":
+                return 20 + 60 * u;
+            case "iWPR":
+                return -100 * u;
+            case "iDeMarker":
+                return u;
+            case "iCCI":
+                return 400 * u - 200;
+            case "iMomentum":
+                return 99 + 2 * u;
+            case "iATR":
+            case "iStdDev":
+                return mid * volatility * (5 + 10 * u);
+            case "iAC":
+            case "iAD":
+            case "iAO":
+            case "iBearsPower":
+            case "iBullsPower":
+            case "iBWMFI":
+            case "iForce":
+            case "iGator":
+            case "iMACD":
+            case "iOBV":
+            case "iOsMA":
+            case "iRVI":
+                return mid * volatility * (u - 0.5) * 10;
+            default:
+                throw new SimulatedError(MT4Exception.Code.ERR_INDICATOR_CANNOT_LOAD, "Unknown indicator: " + name);
+        }
+    }
+
+    private SimOrder orderSend(JsonNode request) {
+        SymbolSpec symbol = symbol(request);
+        OrderType orderType = OrderType.fromId(request.path(NewOrder.ORDER_TYPE).asInt(-1))
+                .filter(t -> t.isBuy() || t.isSell())
+                .orElseThrow(() -> new SimulatedError(MT4Exception.Code.ERR_INVALID_TRADE_PARAMETERS,
+                        "Invalid order type: " + request.path(NewOrder.ORDER_TYPE)));
+        double lots = request.path(NewOrder.LOTS).asDouble();
+        if (lots < 0.01 || lots > 100 || Math.abs(lots * 100 - Math.rint(lots * 100)) > 1e-6) {
+            throw new SimulatedError(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME, "Invalid volume: " + lots);
+        }
+        step(symbol);
+
+        SimOrder order = new SimOrder(nextTicket++, request.path(NewOrder.MAGIC_NUMBER).asInt(), symbol, orderType,
+                lots, request.path(NewOrder.COMMENT).asText(""));
+        if (orderType.isPending()) {
+            if (!request.hasNonNull(NewOrder.PRICE)) {
+                throw new SimulatedError(MT4Exception.Code.ERR_INVALID_PRICE, "Pending orders must specify a price");
+            }
+            order.openPrice = symbol.round(request.get(NewOrder.PRICE).asDouble());
+        } else {
+            order.openPrice = orderType.isBuy() ? symbol.ask() : symbol.bid;
+        }
+        order.openTime = symbol.time;
+        order.sl = stop(request, NewOrder.SL, NewOrder.SL_POINTS, order, -1);
+        order.tp = stop(request, NewOrder.TP, NewOrder.TP_POINTS, order, 1);
+        openOrders.put(order.ticket, order);
+        return order;
+    }
+
+    private SimOrder orderModify(JsonNode request) {
+        SimOrder order = order(request.path(ModifyOrder.TICKET).asInt(), false);
+        if (request.hasNonNull(ModifyOrder.PRICE)) {
+            if (!order.orderType.isPending()) {
+                throw new SimulatedError(MT4Exception.Code.ERR_INVALID_TRADE_PARAMETERS,
+                        "Only pending orders can change price");
+            }
+            order.openPrice = order.symbol.round(request.get(ModifyOrder.PRICE).asDouble());
+        }
+        if (request.has(ModifyOrder.SL) || request.has(ModifyOrder.SL_POINTS)) {
+            order.sl = stop(request, ModifyOrder.SL, ModifyOrder.SL_POINTS, order, -1);
+        }
+        if (request.has(ModifyOrder.TP) || request.has(ModifyOrder.TP_POINTS)) {
+            order.tp = stop(request, ModifyOrder.TP, ModifyOrder.TP_POINTS, order, 1);
+        }
+        return order;
+    }
+
+    /**
+     * Resolve an absolute or relative (points) stop-loss or take-profit.
+     *
+     * @param direction -1 for a stop-loss, 1 for a take-profit.
+     */
+    private static double stop(JsonNode request, String absolute, String points, SimOrder order, int direction) {
+        if (request.hasNonNull(absolute)) {
+            return order.symbol.round(request.get(absolute).asDouble());
+        }
+        if (request.hasNonNull(points)) {
+            int sign = order.orderType.isBuy() ? direction : -direction;
+            return order.symbol.round(order.openPrice + sign * request.get(points).asInt() * order.symbol.point);
+        }
+        return 0;
+    }
+
+    private void orderClose(SimOrder order) {
+        if (order.orderType.isPending()) {
+            throw new SimulatedError(MT4Exception.Code.ERR_INVALID_TICKET, "Order is pending: " + order.ticket);
+        }
+        step(order.symbol);
+        if (openOrders.remove(order.ticket) != null) {
+            close(order, order.orderType.isBuy() ? order.symbol.bid : order.symbol.ask());
+        }
+    }
+
+    private void orderDelete(SimOrder order, boolean closeIfOpened) {
+        if (!order.orderType.isPending()) {
+            if (!closeIfOpened) {
+                throw new SimulatedError(MT4Exception.Code.ERR_INVALID_TICKET, "Order is open: " + order.ticket);
+            }
+            orderClose(order);
+            return;
+        }
+        openOrders.remove(order.ticket);
+        order.closeTime = order.symbol.time;
+        closedOrders.add(order);
+    }
+
+    private ObjectNode orderJson(SimOrder order) {
+        return nodes.objectNode()
+                .put("ticket", order.ticket)
+                .put("magic_number", order.magicNumber)
+                .put("symbol", order.symbol.name)
+                .put("order_type", order.orderType.id)
+                .put("lots", order.lots)
+                .put("open_price", order.openPrice)
+                .put("close_price", order.closeTime > 0 ? order.closePrice : 0)
+                .put("open_time", TIME_FORMAT.format(Instant.ofEpochSecond(order.openTime)))
+                .put("close_time", order.closeTime > 0 ? TIME_FORMAT.format(Instant.ofEpochSecond(order.closeTime)) : null)
+                .putNull("expiration")
+                .put("sl", order.sl)
+                .put("tp", order.tp)
+                .put("profit", order.profit())
+                .put("commission", 0.0)
+                .put("swap", 0.0)
+                .put("comment", order.comment);
+    }
+
+    private static final class SimulatedError extends RuntimeException {
+        final MT4Exception.Code code;
+
+        SimulatedError(MT4Exception.Code code, String message) {
+            super(message, null, false, false);
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package human.coejoder.mt4client;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Keeps the latest ticks of each symbol in fixed-capacity rings outside the Java heap.
+ * <p>
+ * Each symbol's ring is a direct buffer holding one column each for time, bid, ask, last and volume, so the heap holds
+ * the same few objects whatever the depth of the history, and scanning a column touches contiguous memory.  A ring is
+ * written by one thread at a time and read by any number of threads without locks: a reader copies the rows it wants,
+ * then checks whether the writer overwrote any of them meanwhile and discards those, as they had left the history
+ * anyway.  Tick times must not decrease, so that the ticks since a given time are found by binary search.
+ * <p>
+ * Rings are indexed by the {@link SymbolRegistry} id of their symbol, so callers which keep the id skip the name lookup.
+ */
+public class TickHistory {
+
+    private static final int COLUMNS = 5;
+
+    /**
+     * Builder for tick histories.
+     */
+    public static class Builder {
+        private int capacity = 100_000;
+
+        private Builder() {}
+
+        /**
+         * Construct a new tick history builder.
+         *
+         * @return The tick history builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the tick history.
+         *
+         * @return The tick history.
+         */
+        public TickHistory build() {
+            return new TickHistory(capacity);
+        }
+
+        /**
+         * @param capacity The number of ticks kept per symbol.
+         * @return This Builder.
+         */
+        public Builder setCapacity(int capacity) {
+            if (capacity <= 0 || (long) capacity * COLUMNS * Long.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            }
+            this.capacity = capacity;
+            return this;
+        }
+    }
+
+    /**
+     * A reusable heap buffer which ticks are read into, holding at most as many as it was created for.
+     */
+    public static final class Columns {
+        final long[] times;
+        final double[] bids;
+        final double[] asks;
+        final double[] lasts;
+        final long[] volumes;
+        int size;
+
+        /**
+         * @param capacity The most ticks a read returns.
+         */
+        public Columns(int capacity) {
+            this.times = new long[capacity];
+            this.bids = new double[capacity];
+            this.asks = new double[capacity];
+            this.lasts = new double[capacity];
+            this.volumes = new long[capacity];
+        }
+
+        /**
+         * @return The number of ticks read, oldest first.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i The row.
+         * @return The time of the tick.
+         */
+        public long getTime(int i) {
+            return times[checkRow(i)];
+        }
+
+        /**
+         * @param i The row.
+         * @return The bid price of the tick.
+         */
+        public double getBid(int i) {
+            return bids[checkRow(i)];
+        }
+
+        /**
+         * @param i The row.
+         * @return The ask price of the tick.
+         */
+        public double getAsk(int i) {
+            return asks[checkRow(i)];
+        }
+
+        /**
+         * @param i The row.
+         * @return The last deal price of the tick.
+         */
+        public double getLast(int i) {
+            return lasts[checkRow(i)];
+        }
+
+        /**
+         * @param i The row.
+         * @return The volume of the tick.
+         */
+        public long getVolume(int i) {
+            return volumes[checkRow(i)];
+        }
+
+        private int checkRow(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Row " + i + " of " + size);
+            }
+            return i;
+        }
+
+        private void drop(int count) {
+            size -= count;
+            System.arraycopy(times, count, times, 0, size);
+            System.arraycopy(bids, count, bids, 0, size);
+            System.arraycopy(asks, count, asks, 0, size);
+            System.arraycopy(lasts, count, lasts, 0, size);
+            System.arraycopy(volumes, count, volumes, 0, size);
+        }
+    }
+
+    private static final class Ring {
+        final ByteBuffer data;
+        final int capacity;
+        final int bidOffset;
+        final int askOffset;
+        final int lastOffset;
+        final int volumeOffset;
+        // ticks written so far, counting one ahead while a tick is being written
+        final Sequence reserved = new Sequence(0);
+        final Sequence published = new Sequence(0);
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.data = ByteBuffer.allocateDirect(capacity * COLUMNS * Long.BYTES).order(ByteOrder.nativeOrder());
+            this.bidOffset = capacity * Long.BYTES;
+            this.askOffset = 2 * bidOffset;
+            this.lastOffset = 3 * bidOffset;
+            this.volumeOffset = 4 * bidOffset;
+        }
+
+        long time(long index) {
+            return data.getLong(slot(index));
+        }
+
+        int slot(long index) {
+            return (int) (index % capacity) * Long.BYTES;
+        }
+
+        void add(long time, double bid, double ask, double last, long volume) {
+            long index = published.get();
+            reserved.setVolatile(index + 1);
+            VarHandle.storeStoreFence();
+            int slot = slot(index);
+            data.putLong(slot, time);
+            data.putDouble(bidOffset + slot, bid);
+            data.putDouble(askOffset + slot, ask);
+            data.putDouble(lastOffset + slot, last);
+            data.putLong(volumeOffset + slot, volume);
+            published.set(index + 1);
+        }
+
+        /**
+         * @return The index of the oldest tick at or after a time, or the end index if there is none.
+         */
+        long lowerBound(long from, long to, long time) {
+            while (from < to) {
+                long mid = (from + to) >>> 1;
+                if (time(mid) < time) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+
+        void read(long time, Columns into) {
+            long end = published.get();
+            long start = Math.max(lowerBound(Math.max(0, end - capacity), end, time), end - into.times.length);
+            into.size = (int) (end - start);
+            for (int i = 0; i < into.size; i++) {
+                int slot = slot(start + i);
+                into.times[i] = data.getLong(slot);
+                into.bids[i] = data.getDouble(bidOffset + slot);
+                into.asks[i] = data.getDouble(askOffset + slot);
+                into.lasts[i] = data.getDouble(lastOffset + slot);
+                into.volumes[i] = data.getLong(volumeOffset + slot);
+            }
+            VarHandle.acquireFence();
+            // rows the writer overwrote while they were copied, which may also have misled the search
+            long overwritten = Math.max(0, reserved.get() - capacity - start);
+            int drop = (int) Math.min(into.size, overwritten);
+            while (drop < into.size && into.times[drop] < time) {
+                drop++;
+            }
+            if (drop > 0) {
+                into.drop(drop);
+            }
+        }
+    }
+
+    private final SymbolRegistry registry = SymbolRegistry.getInstance();
+    private final int capacity;
+    private volatile Ring[] rings = new Ring[0];
+    private int ringCount;
+
+    private TickHistory(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Append a tick to the history of its symbol, dropping the oldest once the history is full.
+     *
+     * @param symbol The symbol name.
+     * @param tick   The tick.
+     */
+    public void add(String symbol, SymbolTick tick) {
+        add(registry.register(symbol), tick.time, tick.bid, tick.ask, tick.last, tick.volume);
+    }
+
+    /**
+     * Append a tick to the history of its symbol, dropping the oldest once the history is full.  Only one thread at a
+     * time may add the ticks of a symbol.
+     *
+     * @param symbol The symbol name.
+     * @param time   The time of the tick, not before the previous tick of the symbol.
+     * @param bid    The bid price.
+     * @param ask    The ask price.
+     * @param last   The last deal price.
+     * @param volume The volume.
+     */
+    public void add(String symbol, long time, double bid, double ask, double last, long volume) {
+        add(registry.register(symbol), time, bid, ask, last, volume);
+    }
+
+    /**
+     * Append a tick to the history of its symbol without hashing the symbol name.
+     *
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param time     The time of the tick, not before the previous tick of the symbol.
+     * @param bid      The bid price.
+     * @param ask      The ask price.
+     * @param last     The last deal price.
+     * @param volume   The volume.
+     * @see #add(String, long, double, double, double, long)
+     */
+    public void add(int symbolId, long time, double bid, double ask, double last, long volume) {
+        Ring ring = ring(symbolId);
+        if (ring == null) {
+            ring = createRing(symbolId);
+        }
+        ring.add(time, bid, ask, last, volume);
+    }
+
+    /**
+     * Read the ticks of a symbol at or after a time, oldest first.  If there are more than the buffer holds, the newest
+     * are read.
+     *
+     * @param symbol The symbol name.
+     * @param time   The earliest tick time.
+     * @param into   The buffer to read into, replacing its contents.
+     * @return The number of ticks read.
+     */
+    public int readSince(String symbol, long time, Columns into) {
+        return readSince(registry.find(symbol), time, into);
+    }
+
+    /**
+     * Read the ticks of a symbol at or after a time without hashing the symbol name.
+     *
+     * @param symbolId The id of the symbol in the {@link SymbolRegistry#getInstance() shared registry}.
+     * @param time     The earliest tick time.
+     * @param into     The buffer to read into, replacing its contents.
+     * @return The number of ticks read.
+     * @see #readSince(String, long, Columns)
+     */
+    public int readSince(int symbolId, long time, Columns into) {
+        Ring ring = ring(symbolId);
+        if (ring == null) {
+            into.size = 0;
+        } else {
+            ring.read(time, into);
+        }
+        return into.size;
+    }
+
+    /**
+     * @param symbol The symbol name.
+     * @return The number of ticks of the symbol in the history.
+     */
+    public int size(String symbol) {
+        Ring ring = ring(registry.find(symbol));
+        return ring == null ? 0 : (int) Math.min(ring.published.get(), capacity);
+    }
+
+    /**
+     * @return The symbols which have ticks in the history.
+     */
+    public Set<String> getSymbols() {
+        Ring[] current = rings;
+        Set<String> symbols = new LinkedHashSet<>();
+        for (int id = 0; id < current.length; id++) {
+            if (current[id] != null) {
+                symbols.add(registry.getName(id));
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * @return The memory held outside the heap by all rings, in bytes.
+     */
+    public synchronized long getOffHeapBytes() {
+        return (long) ringCount * capacity * COLUMNS * Long.BYTES;
+    }
+
+    private Ring ring(int symbolId) {
+        Ring[] current = rings;
+        return symbolId >= 0 && symbolId < current.length ? current[symbolId] : null;
+    }
+
+    private synchronized Ring createRing(int symbolId) {
+        Ring[] current = rings;
+        if (symbolId >= current.length) {
+            current = Arrays.copyOf(current, Math.max(symbolId + 1, 2 * current.length));
+        } else if (current[symbolId] != null) {
+            return current[symbolId];
+        } else {
+            current = current.clone();
+        }
+        Ring ring = new Ring(capacity);
+        current[symbolId] = ring;
+        rings = current;
+        ringCount++;
+        return ring;
+    }
+}
@@ -0,0 +1,388 @@
+package human.coejoder.mt4client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the trade actions of one terminal one at a time, in arrival order, retrying those which fail for a transient
+ * reason.
+ * <p>
+ * The terminal only has one trade context, so concurrent trade actions fail with {@code ERR_TRADE_CONTEXT_BUSY} and
+ * blind retries by each caller only make the contention worse.  The dispatcher queues the actions of all threads and
+ * runs them on its own thread.  An action which fails with a {@link #TRANSIENT_ERRORS transient error} is retried after
+ * a random delay of up to an exponentially growing backoff, while the rest of the queue waits.  A
+ * {@link #REQUOTE_ERRORS requote} is only retried for an action at the market price, which takes the new price when
+ * sent again; an order with an explicit price is not sent at a price its caller did not ask for.  A modification queued
+ * for a ticket which already has one queued is merged into it: the queued modification keeps its place, takes the
+ * newer stops and price, and both callers get its result.  Timeouts are never retried, as the action may have executed.
+ * <p>
+ * The client must not be used by other threads while the dispatcher runs.
+ */
+public class TradeDispatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TradeDispatcher.class);
+
+    /**
+     * Errors after which the trade action was not executed and may succeed if sent again.
+     */
+    public static final Set<MT4Exception.Code> TRANSIENT_ERRORS = EnumSet.of(
+            MT4Exception.Code.ERR_SERVER_BUSY,
+            MT4Exception.Code.ERR_NO_CONNECTION,
+            MT4Exception.Code.ERR_TOO_FREQUENT_REQUESTS,
+            MT4Exception.Code.ERR_OFF_QUOTES,
+            MT4Exception.Code.ERR_BROKER_BUSY,
+            MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY);
+
+    /**
+     * Errors after which the trade action was not executed because the price moved, so it may succeed if sent again at
+     * the market price.
+     */
+    public static final Set<MT4Exception.Code> REQUOTE_ERRORS = EnumSet.of(
+            MT4Exception.Code.ERR_PRICE_CHANGED,
+            MT4Exception.Code.ERR_REQUOTE);
+
+    /**
+     * Builder for trade dispatchers.
+     */
+    public static class Builder {
+        private MT4ClientInterface client;
+        private int maxAttempts = 5;
+        private long baseDelayMillis = 50;
+        private long maxDelayMillis = 2000;
+
+        private Builder() {}
+
+        /**
+         * Construct a new trade dispatcher builder.
+         *
+         * @return The trade dispatcher builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the dispatcher and start its thread.
+         *
+         * @return The dispatcher.
+         * @throws IllegalStateException If no client was set.
+         */
+        public TradeDispatcher build() {
+            if (client == null) {
+                throw new IllegalStateException("No client");
+            }
+            return new TradeDispatcher(this);
+        }
+
+        /**
+         * @param client The client of the terminal.
+         * @return This Builder.
+         */
+        public Builder setClient(MT4ClientInterface client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts The number of times an action is sent before its transient error is given up on.
+         * @return This Builder.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param baseDelayMillis The backoff before the first retry, doubled for each further one.
+         * @param maxDelayMillis  The longest backoff.
+         * @return This Builder.
+         */
+        public Builder setBackoff(long baseDelayMillis, long maxDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+    }
+
+    private static final class Task {
+        final Request action;
+        final boolean atMarket;
+        final List<CompletableFuture<Object>> futures = new ArrayList<>(1);
+        TerminalFleet.MT4Call<?> call;
+        ModifyOrder modifyOrder;
+
+        Task(Request action, boolean atMarket, TerminalFleet.MT4Call<?> call) {
+            this.action = action;
+            this.atMarket = atMarket;
+            this.call = call;
+        }
+    }
+
+    private final MT4ClientInterface client;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final ArrayDeque<Task> queue = new ArrayDeque<>();
+    private final Map<Integer, Task> queuedModifies = new HashMap<>();
+    private final Thread thread;
+    private boolean closed;
+    private long retryCount;
+    private long mergedCount;
+
+    private TradeDispatcher(Builder builder) {
+        this.client = builder.client;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.thread = new Thread(this::run, "mt4-trade-dispatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a new order.
+     *
+     * @param newOrder The {@link NewOrder new order request}.
+     * @return The new {@link Order}, once sent.
+     */
+    public CompletableFuture<Order> orderSend(NewOrder newOrder) {
+        boolean atMarket = newOrder.orderType.isMarket() && newOrder.price == null;
+        return enqueue(new Task(Request.DO_ORDER_SEND, atMarket, c -> c.orderSend(newOrder)));
+    }
+
+    /**
+     * Queue a modification, or merge it into the one queued for the same ticket.
+     *
+     * @param modifyOrder The {@link ModifyOrder modify-order request}.
+     * @return The modified {@link Order}, once sent.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Order> orderModify(ModifyOrder modifyOrder) {
+        synchronized (this) {
+            Task queued = queuedModifies.get(modifyOrder.ticket);
+            if (queued != null) {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                setModifyOrder(queued, merge(queued.modifyOrder, modifyOrder));
+                queued.futures.add(future);
+                mergedCount++;
+                return (CompletableFuture<Order>) (CompletableFuture<?>) future;
+            }
+            Task task = new Task(Request.DO_ORDER_MODIFY, false, null);
+            setModifyOrder(task, modifyOrder);
+            return enqueue(task);
+        }
+    }
+
+    /**
+     * Queue the close of an open order.
+     *
+     * @param ticket The ticket number.
+     * @return Completes once the order is closed.
+     */
+    public CompletableFuture<Void> orderClose(int ticket) {
+        return enqueue(new Task(Request.DO_ORDER_CLOSE, true, c -> {
+            c.orderClose(ticket);
+            return null;
+        }));
+    }
+
+    /**
+     * Queue the deletion of a pending order.
+     *
+     * @param ticket        The ticket number.
+     * @param closeIfOpened If true and the order is open, it is closed at market price.
+     * @return Completes once the order is deleted.
+     */
+    public CompletableFuture<Void> orderDelete(int ticket, boolean closeIfOpened) {
+        return enqueue(new Task(Request.DO_ORDER_DELETE, false, c -> {
+            c.orderDelete(ticket, closeIfOpened);
+            return null;
+        }));
+    }
+
+    /**
+     * @return The number of actions waiting to be sent.
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of times an action was sent again after a transient error.
+     */
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return The number of modifications merged into one already queued.
+     */
+    public synchronized long getMergedCount() {
+        return mergedCount;
+    }
+
+    /**
+     * Stop the thread and cancel the queued actions.  The action being sent, if any, is left to finish but is not
+     * retried, and a backoff in progress ends at once.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Task task : queue) {
+                fail(task, new CancellationException("Dispatcher closed"));
+            }
+            queue.clear();
+            queuedModifies.clear();
+            notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> enqueue(Task task) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new CancellationException("Dispatcher closed"));
+            } else {
+                task.futures.add(future);
+                queue.add(task);
+                if (task.modifyOrder != null) {
+                    queuedModifies.put(task.modifyOrder.ticket, task);
+                }
+                notifyAll();
+            }
+        }
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    private void run() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() stops the thread
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                task = queue.poll();
+                if (task.modifyOrder != null) {
+                    queuedModifies.remove(task.modifyOrder.ticket);
+                }
+            }
+            execute(task);
+        }
+    }
+
+    private void execute(Task task) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Object result = task.call.call(client);
+                for (CompletableFuture<Object> future : task.futures) {
+                    future.complete(result);
+                }
+                return;
+            } catch (MT4Exception e) {
+                if (!isRetriable(task, e) || attempt >= maxAttempts || !backOff(attempt)) {
+                    fail(task, e);
+                    return;
+                }
+                LOG.debug("Retrying {} after {}", task.action, e.errorCode);
+                if (task.modifyOrder != null) {
+                    adoptQueuedModify(task);
+                }
+            } catch (Throwable t) {
+                fail(task, t);
+                return;
+            }
+        }
+    }
+
+    private static boolean isRetriable(Task task, MT4Exception e) {
+        return TRANSIENT_ERRORS.contains(e.errorCode) || task.atMarket && REQUOTE_ERRORS.contains(e.errorCode);
+    }
+
+    /**
+     * Wait a random time of up to the backoff of an attempt, on the monitor so that {@link #close()} ends the wait.
+     *
+     * @return False if the dispatcher was closed meanwhile.
+     */
+    private synchronized boolean backOff(int attempt) {
+        if (closed) {
+            return false;
+        }
+        retryCount++;
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        long deadline = System.nanoTime() + waitNanos;
+        // new actions notify the monitor too, so wait out whatever remains
+        while (!closed && waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            waitNanos = deadline - System.nanoTime();
+        }
+        return !closed;
+    }
+
+    /**
+     * Take over a modification of the same ticket queued while the action was backing off.
+     */
+    private synchronized void adoptQueuedModify(Task task) {
+        Task queued = queuedModifies.remove(task.modifyOrder.ticket);
+        if (queued != null) {
+            queue.remove(queued);
+            setModifyOrder(task, merge(task.modifyOrder, queued.modifyOrder));
+            task.futures.addAll(queued.futures);
+            mergedCount++;
+        }
+    }
+
+    private static void setModifyOrder(Task task, ModifyOrder modifyOrder) {
+        task.modifyOrder = modifyOrder;
+        task.call = c -> c.orderModify(modifyOrder);
+    }
+
+    /**
+     * Combine two modifications of a ticket.  The later one wins for each of the price, the stop-loss and the
+     * take-profit it sets, whether as an absolute price or in points.
+     */
+    static ModifyOrder merge(ModifyOrder earlier, ModifyOrder later) {
+        boolean laterSl = later.sl != null || later.slPoints != null;
+        boolean laterTp = later.tp != null || later.tpPoints != null;
+        return ModifyOrder.Builder.newInstance()
+                .setOrder(later.ticket)
+                .setPrice(later.price != null ? later.price : earlier.price)
+                .setSl(laterSl ? later.sl : earlier.sl)
+                .setSlPoints(laterSl ? later.slPoints : earlier.slPoints)
+                .setTp(laterTp ? later.tp : earlier.tp)
+                .setTpPoints(laterTp ? later.tpPoints : earlier.tpPoints)
+                .build();
+    }
+
+    private static void fail(Task task, Throwable t) {
+        for (CompletableFuture<Object> future : task.futures) {
+            future.completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package human.coejoder.mt4client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Loads the specifications of every symbol offered by the broker, without one request for thousands of symbols.
+ * <p>
+ * The symbol names are split into chunks, which are fetched concurrently over several connections.  Symbols are
+ * added to a concurrent map, and passed to an optional listener, as their chunk arrives, so startup can proceed with
+ * the symbols it needs first.  Once every chunk has arrived, the static specifications are written to a cache file,
+ * from which the next {@link #load()} restores them without querying the terminal, unless the file is older than
+ * {@link Builder#setCacheMaxAge(long) its maximum age} or was {@link #invalidateCache() invalidated}.  The tick value
+ * follows exchange rates, so it is not cached: symbols restored from the cache have a {@link Double#NaN NaN}
+ * {@link Symbol#getTradeTickValue() tick value} until they are {@link #reload() reloaded}.  Loaded symbols are bound
+ * to the main client, whatever connection fetched them.
+ */
+public class UniverseLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UniverseLoader.class);
+    static final int MAGIC = 0x4D545355; // "MTSU"
+    static final int VERSION = 2;
+
+    /**
+     * Builder for universe loaders.
+     */
+    public static class Builder {
+        private MT4Client client;
+        private Supplier<? extends MT4ClientInterface> clientFactory;
+        private int connections = 4;
+        private int chunkSize = 100;
+        private Path cacheFile;
+        private long cacheMaxAgeMillis = TimeUnit.DAYS.toMillis(1);
+        private Consumer<Symbol> listener = symbol -> {};
+
+        private Builder() {}
+
+        /**
+         * Construct a new universe loader builder.
+         *
+         * @return The universe loader builder instance.
+         */
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Build the loader.
+         *
+         * @return The loader.
+         * @throws IllegalStateException If no client was set.
+         */
+        public UniverseLoader build() {
+            if (client == null) {
+                throw new IllegalStateException("No client");
+            }
+            return new UniverseLoader(this);
+        }
+
+        /**
+         * @param client The client which lists the symbol names, and which loaded symbols query.
+         * @return This Builder.
+         */
+        public Builder setClient(MT4Client client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * @param address The address of the server's listening socket, to open the extra connections to.
+         * @return This Builder.
+         */
+        public Builder setAddress(String address) {
+            return setClientFactory(() -> new MT4Client(address));
+        }
+
+        /**
+         * @param clientFactory Opens the extra connections which fetch chunks.  Without one, the main client fetches
+         *                      every chunk.
+         * @return This Builder.
+         */
+        public Builder setClientFactory(Supplier<? extends MT4ClientInterface> clientFactory) {
+            this.clientFactory = clientFactory;
+            return this;
+        }
+
+        /**
+         * @param connections The number of connections fetching chunks at once.
+         * @return This Builder.
+         */
+        public Builder setConnections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * @param chunkSize The number of symbols fetched per request.
+         * @return This Builder.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param cacheFile The file the specifications are persisted to for the next start.
+         * @return This Builder.
+         */
+        public Builder setCacheFile(Path cacheFile) {
+            this.cacheFile = cacheFile;
+            return this;
+        }
+
+        /**
+         * @param cacheMaxAgeMillis The age after which the cache file is no longer used, and the symbols are loaded
+         *                          from the terminal again.  One day by default.
+         * @return This Builder.
+         */
+        public Builder setCacheMaxAge(long cacheMaxAgeMillis) {
+            this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+            return this;
+        }
+
+        /**
+         * @param listener Called with each symbol as it is loaded, on a loader thread.
+         * @return This Builder.
+         */
+        public Builder setListener(Consumer<Symbol> listener) {
+            this.listener = listener;
+            return this;
+        }
+    }
+
+    private final MT4Client client;
+    private final Supplier<? extends MT4ClientInterface> clientFactory;
+    private final int connections;
+    private final int chunkSize;
+    private final Path cacheFile;
+    private final long cacheMaxAgeMillis;
+    private final Consumer<Symbol> listener;
+    private final Map<String, Symbol> symbols = new ConcurrentHashMap<>();
+
+    private UniverseLoader(Builder builder) {
+        this.client = builder.client;
+        this.clientFactory = builder.clientFactory;
+        this.connections = builder.clientFactory == null ? 1 : Math.max(1, builder.connections);
+        this.chunkSize = builder.chunkSize;
+        this.cacheFile = builder.cacheFile;
+        this.cacheMaxAgeMillis = builder.cacheMaxAgeMillis;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Load the symbols from the cache file if there is one young enough, or else from the terminal.
+     *
+     * @return The loaded symbols by name, once all are loaded.
+     */
+    public CompletableFuture<Map<String, Symbol>> load() {
+        if (cacheFile != null && Files.exists(cacheFile)) {
+            try {
+                for (Symbol symbol : readCache()) {
+                    add(symbol);
+                }
+                return CompletableFuture.completedFuture(getSymbols());
+            } catch (StaleCacheException e) {
+                LOG.info("Ignoring symbol cache {}: {}", cacheFile, e.getMessage());
+            } catch (IOException e) {
+                LOG.warn("Ignoring unreadable symbol cache {}", cacheFile, e);
+            }
+        }
+        return reload();
+    }
+
+    /**
+     * Load the symbols from the terminal, and update the cache file.
+     *
+     * @return The loaded symbols by name, once all are loaded.
+     */
+    public CompletableFuture<Map<String, Symbol>> reload() {
+        CompletableFuture<Map<String, Symbol>> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                fetch();
+                if (cacheFile != null) {
+                    writeCache();
+                }
+                result.complete(getSymbols());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, "mt4-universe-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Delete the cache file, so that the next {@link #load()} queries the terminal.
+     *
+     * @throws IOException If the file could not be deleted.
+     */
+    public void invalidateCache() throws IOException {
+        if (cacheFile != null) {
+            Files.deleteIfExists(cacheFile);
+        }
+    }
+
+    /**
+     * @param name The symbol name.
+     * @return The symbol, or null if it is not loaded (yet).
+     */
+    public Symbol getSymbol(String name) {
+        return symbols.get(name);
+    }
+
+    /**
+     * @return A live view of the symbols loaded so far, by name.
+     */
+    public Map<String, Symbol> getSymbols() {
+        return Collections.unmodifiableMap(symbols);
+    }
+
+    private void fetch() throws Exception {
+        List<String> names = client.getSymbolNames();
+        ConcurrentLinkedQueue<String[]> chunks = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < names.size(); i += chunkSize) {
+            chunks.add(names.subList(i, Math.min(names.size(), i + chunkSize)).toArray(new String[0]));
+        }
+        int workers = Math.min(connections, chunks.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            Thread worker = new Thread(() -> {
+                try {
+                    fetchChunks(chunks);
+                    future.complete(null);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            worker.setName("mt4-universe-loader-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+        LOG.debug("Loaded {} symbols in {} chunks over {} connections", symbols.size(),
+                (names.size() + chunkSize - 1) / Math.max(1, chunkSize), workers);
+    }
+
+    private void fetchChunks(ConcurrentLinkedQueue<String[]> chunks) throws Exception {
+        MT4ClientInterface connection = clientFactory == null ? client : clientFactory.get();
+        try {
+            String[] chunk;
+            while ((chunk = chunks.poll()) != null) {
+                for (Symbol symbol : connection.getSymbols(chunk).values()) {
+                    add(rebind(symbol));
+                }
+            }
+        } finally {
+            if (connection != client) {
+                connection.close();
+            }
+        }
+    }
+
+    private Symbol rebind(Symbol symbol) {
+        if (symbol.getMt4() == client) {
+            return symbol;
+        }
+        return new Symbol(client, symbol.getName(), symbol.getPoint(), symbol.getDigits(), symbol.getVolumeMin(),
+                symbol.getVolumeStep(), symbol.getVolumeMax(), symbol.getTradeContractSize(),
+                symbol.getTradeTickValue(), symbol.getTradeTickSize(), symbol.getTradeStopsLevel(),
+                symbol.getTradeFreezeLevel());
+    }
+
+    private void add(Symbol symbol) {
+        symbols.put(symbol.getName(), symbol);
+        listener.accept(symbol);
+    }
+
+    private void writeCache() throws IOException {
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(symbols.size());
+            for (Symbol symbol : symbols.values()) {
+                out.writeUTF(symbol.getName());
+                out.writeDouble(symbol.getPoint());
+                out.writeInt(symbol.getDigits());
+                out.writeDouble(symbol.getVolumeMin());
+                out.writeDouble(symbol.getVolumeStep());
+                out.writeDouble(symbol.getVolumeMax());
+                out.writeDouble(symbol.getTradeContractSize());
+                out.writeDouble(symbol.getTradeTickSize());
+                out.writeInt(symbol.getTradeStopsLevel());
+                out.writeInt(symbol.getTradeFreezeLevel());
+            }
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Symbol> readCache() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a symbol cache: " + cacheFile);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new StaleCacheException("unsupported version " + version);
+            }
+            long ageMillis = System.currentTimeMillis() - in.readLong();
+            if (ageMillis >= cacheMaxAgeMillis) {
+                throw new StaleCacheException("written " + ageMillis + " ms ago");
+            }
+            int count = in.readInt();
+            List<Symbol> cached = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                double point = in.readDouble();
+                int digits = in.readInt();
+                double volumeMin = in.readDouble();
+                double volumeStep = in.readDouble();
+                double volumeMax = in.readDouble();
+                double tradeContractSize = in.readDouble();
+                double tradeTickSize = in.readDouble();
+                cached.add(new Symbol(client, name, point, digits, volumeMin, volumeStep, volumeMax, tradeContractSize,
+                        Double.NaN, tradeTickSize, in.readInt(), in.readInt()));
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Thrown when the cache file is readable but should not be used.
+     */
+    private static final class StaleCacheException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleCacheException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package human.coejoder.mt4client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, always-on flight recorder of the raw request/response frames exchanged with the MT4 server.
+ * <p>
+ * Frames are copied into fixed-size slots of an off-heap ring buffer, so only the last {@link #getCapacity()} frames
+ * are kept and recording allocates nothing.  Writers claim slots with a single atomic increment and publish them with
+ * a per-slot sequence stamp, so no locks are taken; a {@link #dump(OutputStream) dump} skips any slot that is being
+ * overwritten while it is read.  Payloads longer than a slot are truncated, but their full length is kept.
+ */
+public class WireRecorder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WireRecorder.class);
+    public static final int DEFAULT_CAPACITY = 512;
+    public static final int DEFAULT_FRAME_SIZE = 2048;
+    private static final VarHandle STAMP = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int STAMP_OFFSET = 0;
+    private static final int MILLIS_OFFSET = 8;
+    private static final int NANOS_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int KIND_OFFSET = 28;
+    private static final int HEADER_SIZE = 32;
+    private static final long EMPTY = -1;
+    private static final String DUMP_PREFIX = "mt4-wire-";
+    private static final String DUMP_SUFFIX = ".log";
+
+    /**
+     * The kinds of recorded frames.
+     */
+    public enum Kind {
+        REQUEST,
+        RESPONSE,
+        TIMEOUT;
+
+        private static final Kind[] VALUES = values();
+    }
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final int frameSize;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile Path dumpDirectory;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity  The number of frames to keep.  Rounded up to a power of two.
+     * @param frameSize The size in bytes of each slot, including a {@value #HEADER_SIZE}-byte header.
+     */
+    public WireRecorder(int capacity, int frameSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (frameSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Frame size must exceed " + HEADER_SIZE + " bytes: " + frameSize);
+        }
+        int slots = 1;
+        while (slots < capacity) {
+            slots <<= 1;
+        }
+        this.capacity = slots;
+        this.frameSize = (frameSize + 7) & ~7;
+        this.mask = this.capacity - 1;
+        this.ring = ByteBuffer.allocateDirect(this.capacity * this.frameSize).order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < this.capacity; slot++) {
+            STAMP.setRelease(ring, slot * this.frameSize + STAMP_OFFSET, EMPTY);
+        }
+    }
+
+    /**
+     * Constructor.  Keeps the last {@value #DEFAULT_CAPACITY} frames of up to {@value #DEFAULT_FRAME_SIZE} bytes.
+     */
+    public WireRecorder() {
+        this(DEFAULT_CAPACITY, DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @return The number of frames kept.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The total number of frames recorded so far, including those already overwritten.
+     */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Automatically {@link #dump(Path) dump} the recorder into a new file in the given directory whenever the client
+     * raises an {@link MT4Exception}.
+     *
+     * @param directory The directory for the dump files, or null to disable automatic dumps.
+     */
+    public void setDumpOnError(Path directory) {
+        this.dumpDirectory = directory;
+    }
+
+    /**
+     * Record an outgoing request.
+     *
+     * @param bytes  The buffer holding the encoded request.
+     * @param length The number of valid bytes in the buffer.
+     */
+    void recordRequest(byte[] bytes, int length) {
+        long seq = claim();
+        int offset = offsetOf(seq);
+        int payload = Math.min(length, frameSize - HEADER_SIZE);
+        ring.put(offset + HEADER_SIZE, bytes, 0, payload);
+        publish(seq, Kind.REQUEST, length);
+    }
+
+    /**
+     * Record an incoming response.
+     *
+     * @param response The response text, or null if none was received.
+     */
+    void recordResponse(String response) {
+        long seq = claim();
+        if (response == null) {
+            publish(seq, Kind.TIMEOUT, 0);
+            return;
+        }
+        int offset = offsetOf(seq);
+        int position = offset + HEADER_SIZE;
+        int limit = offset + frameSize;
+        int length = 0;
+        // encode as UTF-8 in place, so that nothing is allocated; a character which does not fit is not split
+        for (int i = 0; i < response.length(); i++) {
+            int c = response.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < response.length()
+                    && Character.isLowSurrogate(response.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, response.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            int size = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (position + size <= limit) {
+                if (size == 1) {
+                    ring.put(position++, (byte) c);
+                } else {
+                    // the lead byte has as many high bits set as the sequence has bytes
+                    int shift = 6 * (size - 1);
+                    ring.put(position++, (byte) ((0xF00 >> size) | (c >> shift)));
+                    for (shift -= 6; shift >= 0; shift -= 6) {
+                        ring.put(position++, (byte) (0x80 | ((c >> shift) & 0x3F)));
+                    }
+                }
+            } else {
+                // blank the rest of the slot, so that a dump does not show the bytes of an older frame
+                while (position < limit) {
+                    ring.put(position++, (byte) ' ');
+                }
+            }
+            length += size;
+        }
+        publish(seq, Kind.RESPONSE, length);
+    }
+
+    /**
+     * Dump the recorded frames into a new file in {@link #setDumpOnError(Path) the error dump directory}, if any.
+     * Failures are logged rather than thrown so that the original error reaches the caller.
+     *
+     * @param error The error which triggered the dump.
+     */
+    void dumpOnError(MT4Exception error) {
+        Path directory = dumpDirectory;
+        if (directory == null) {
+            return;
+        }
+        try {
+            Path file = dump(directory.resolve(DUMP_PREFIX + System.currentTimeMillis() + DUMP_SUFFIX));
+            LOG.warn("Dumped wire history to {} after {}", file, error.errorCode);
+        } catch (IOException e) {
+            LOG.error("Failed to dump wire history", e);
+        }
+    }
+
+    /**
+     * Write the recorded frames, oldest first, to a file.
+     *
+     * @param file The file to create or overwrite.
+     * @return The file.
+     * @throws IOException If the file could not be written.
+     */
+    public Path dump(Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            dump(out);
+        }
+        return file;
+    }
+
+    /**
+     * Write the recorded frames, oldest first, one per line as {@code <time> <nanoTime> <kind> <length> <payload>}.
+     * Truncated payloads end with {@code ...}.
+     *
+     * @param out The stream to write to.  Not closed.
+     * @throws IOException If the stream could not be written.
+     */
+    public void dump(OutputStream out) throws IOException {
+        byte[] payload = new byte[frameSize - HEADER_SIZE];
+        long end = cursor.get();
+        for (long seq = Math.max(0, end - capacity); seq < end; seq++) {
+            int offset = offsetOf(seq);
+            long stamp = (long) STAMP.getAcquire(ring, offset + STAMP_OFFSET);
+            if (stamp != seq) {
+                continue;
+            }
+            long millis = ring.getLong(offset + MILLIS_OFFSET);
+            long nanos = ring.getLong(offset + NANOS_OFFSET);
+            int length = ring.getInt(offset + LENGTH_OFFSET);
+            Kind kind = Kind.VALUES[ring.get(offset + KIND_OFFSET)];
+            int copied = Math.min(length, payload.length);
+            ring.get(offset + HEADER_SIZE, payload, 0, copied);
+            VarHandle.loadLoadFence();
+            if ((long) STAMP.getVolatile(ring, offset + STAMP_OFFSET) != seq) {
+                // overwritten while copying
+                continue;
+            }
+            String header = Instant.ofEpochMilli(millis) + " " + nanos + " " + kind + " " + length + " ";
+            out.write(header.getBytes(StandardCharsets.US_ASCII));
+            out.write(payload, 0, copied);
+            if (copied < length) {
+                out.write("...".getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private long claim() {
+        long seq = cursor.getAndIncrement();
+        // mark the slot as being written before touching its contents
+        STAMP.setVolatile(ring, offsetOf(seq) + STAMP_OFFSET, EMPTY);
+        VarHandle.storeStoreFence();
+        return seq;
+    }
+
+    private void publish(long seq, Kind kind, int length) {
+        int offset = offsetOf(seq);
+        ring.putLong(offset + MILLIS_OFFSET, System.currentTimeMillis());
+        ring.putLong(offset + NANOS_OFFSET, System.nanoTime());
+        ring.putInt(offset + LENGTH_OFFSET, length);
+        ring.put(offset + KIND_OFFSET, (byte) kind.ordinal());
+        STAMP.setRelease(ring, offset + STAMP_OFFSET, seq);
+    }
+
+    private int offsetOf(long seq) {
+        return (int) (seq & mask) * frameSize;
+    }
+}
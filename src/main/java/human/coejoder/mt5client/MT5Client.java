@@ -3,10 +3,7 @@ package human.coejoder.mt5client;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.InjectableValues;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.*;
-import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import human.coejoder.mt4client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,11 +30,6 @@ public class MT5Client implements MT5ClientInterface {
     private static final int DEFAULT_RESPONSE_TIMEOUT_MILLIS = 10000;
     private static final int DEFAULT_INDICATOR_TIMEOUT = 5000;
     private static final boolean DEFAULT_CLOSE_IF_OPENED = true;
-    private static final String ERROR_CODE = MT4Exception.ERROR_CODE;
-    private static final String ERROR_CODE_DESCRIPTION = MT4Exception.ERROR_CODE_DESCRIPTION;
-    private static final String ERROR_MESSAGE = MT4Exception.ERROR_MESSAGE;
-    private static final String WARNING = "warning";
-    private static final String RESPONSE = "response";
     private static final String NAMES = "names";
     private static final String INDICATOR = "indicator";
     private static final String ARGV = "argv";
@@ -55,7 +47,7 @@ public class MT5Client implements MT5ClientInterface {
 
     private final ZContext context;
     private final ZMQ.Socket socket;
-    private final ObjectMapper objectMapper;
+    private final InjectableValues injectables;
 
     /**
      * Constructor.  Initialize the REQ socket and connect to the MT5 server.
@@ -65,13 +57,8 @@ public class MT5Client implements MT5ClientInterface {
      * @param responseTimeoutMs The number of milliseconds to wait for a response to be received.
      */
     public MT5Client(String address, int requestTimeoutMs, int responseTimeoutMs) {
-        // create JSON object mapper
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new ParameterNamesModule());
-
-        InjectableValues.Std injectableValues = new InjectableValues.Std();
-        injectableValues.addValue(MT5Client.class, this);
-        objectMapper.setInjectableValues(injectableValues);
+        // the shared codecs inject this client into the objects they decode
+        injectables = new InjectableValues.Std().addValue(MT5Client.class, this);
 
         // create and configure REQ socket
         this.context = new ZContext();
@@ -318,7 +305,7 @@ public class MT5Client implements MT5ClientInterface {
      */
     public MT5Order orderSend(NewOrder newOrder) throws JsonProcessingException, MT4Exception {
         ObjectNode request = Request.DO_ORDER_SEND.build()
-                .setAll(objectMapper.<ObjectNode>valueToTree(newOrder));
+                .setAll(Codecs.<ObjectNode>valueToTree(newOrder));
         return getResponse(request, MT5Order.class);
     }
 
@@ -334,7 +321,7 @@ public class MT5Client implements MT5ClientInterface {
      */
     public MT5Order orderModify(MT5ModifyOrder modifyOrder) throws JsonProcessingException, MT4Exception {
         ObjectNode request = Request.DO_ORDER_MODIFY.build()
-                .setAll(objectMapper.<ObjectNode>valueToTree(modifyOrder));
+                .setAll(Codecs.<ObjectNode>valueToTree(modifyOrder));
         return getResponse(request, MT5Order.class);
     }
 
@@ -430,7 +417,7 @@ public class MT5Client implements MT5ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     <T> T getResponse(ObjectNode request, Class<T> responseType) throws JsonProcessingException, MT4Exception {
-        return objectMapper.convertValue(getResponse(request), responseType);
+        return Codecs.readResponse(getReply(request), responseType, injectables);
     }
 
     /**
@@ -444,31 +431,20 @@ public class MT5Client implements MT5ClientInterface {
      * @throws MT4Exception            If server had an error.
      */
     <T> T getResponse(ObjectNode request, TypeReference<T> responseType) throws JsonProcessingException, MT4Exception {
-        return objectMapper.convertValue(getResponse(request), responseType);
+        return Codecs.readResponse(getReply(request), responseType, injectables);
+    }
+
+    private void getResponse(ObjectNode request) throws JsonProcessingException, MT4Exception {
+        Codecs.checkResponse(getReply(request), injectables);
     }
 
-    private JsonNode getResponse(ObjectNode request) throws JsonProcessingException, MT4Exception {
+    private String getReply(ObjectNode request) {
         String strRequest = request.toString();
         socket.send(strRequest);
         LOG.trace("Request: " + strRequest);
         String strResponse = socket.recvStr();
         LOG.trace(strResponse == null ? "Response is empty." : "Response: " + strResponse);
-        JsonNode response = objectMapper.readTree(strResponse);
-
-        // throw exception for any errors
-        JsonNode errorCode = response.get(ERROR_CODE);
-        JsonNode errorCodeDescription = response.get(ERROR_CODE_DESCRIPTION);
-        JsonNode errorMessage = response.get(ERROR_MESSAGE);
-        if (errorCode != null || errorCodeDescription != null || errorMessage != null) {
-            throw objectMapper.convertValue(response, MT4Exception.class);
-        }
-
-        // log any warnings
-        if (response.has(WARNING)) {
-            LOG.warn(response.get(WARNING).asText());
-        }
-
-        // unwrap the response
-        return response.get(RESPONSE);
+        // errors and warnings are found while the caller decodes the reply
+        return strResponse;
     }
 }
@@ -0,0 +1,223 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BacktestClient}.
+ */
+class BacktestClientTest {
+
+    private static final long MONDAY = 1704067200; // 2024.01.01 00:00:00 UTC
+    private static final double DELTA = 1e-9;
+
+    @Test
+    @DisplayName("Market orders fill at the bid/ask and close at the take-profit")
+    void testTakeProfit() throws Exception {
+        BarSeries bars = new BarSeries();
+        bars.append(MONDAY, 1.10000, 1.10010, 1.09990, 1.10000, 10);
+        bars.append(MONDAY + 60, 1.10000, 1.10080, 1.09990, 1.10050, 10);
+        bars.append(MONDAY + 120, 1.10050, 1.10300, 1.10040, 1.10250, 10);
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("EURUSD", 5, bars)
+                .setCommissionPerLot(7)
+                .build();
+
+        assertTrue(client.step());
+        Order order = client.orderSend(NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_BUY)
+                .setLots(1)
+                .setTpPoints(200)
+                .build());
+        assertEquals(1.10010, order.getOpenPrice(), DELTA, "buys fill at the ask");
+        assertEquals(1.10210, order.getTp(), DELTA);
+        assertEquals(-7, order.getCommission(), DELTA);
+
+        assertTrue(client.step());
+        assertEquals(1, client.getOrders().size());
+        assertEquals(40, client.getOrders().get(0).getProfit(), 1e-6);
+
+        assertTrue(client.step());
+        assertTrue(client.getOrders().isEmpty());
+        Order closed = client.getOrdersHistorical().get(0);
+        assertEquals(1.10210, closed.getClosePrice(), DELTA);
+        assertEquals("2024.01.01 00:02:00", closed.getCloseTime());
+        assertEquals(10000 + 200 - 7, client.getAccount().getBalance(), 1e-6);
+        assertFalse(client.step());
+    }
+
+    @Test
+    @DisplayName("Pending orders trigger on the bar range and stop-losses win ties")
+    void testPendingAndStopLoss() throws Exception {
+        BarSeries bars = new BarSeries();
+        bars.append(MONDAY, 1.10000, 1.10000, 1.10000, 1.10000, 1);
+        bars.append(MONDAY + 60, 1.10000, 1.10020, 1.09850, 1.09900, 1);
+        bars.append(MONDAY + 120, 1.09900, 1.10200, 1.09700, 1.10000, 1);
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("EURUSD", 5, bars)
+                .build();
+        client.step();
+
+        Order pending = client.orderSend(NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_SELLSTOP)
+                .setLots(0.5)
+                .setPrice(1.09900)
+                .setSl(1.10100)
+                .setTp(1.09800)
+                .build());
+        assertEquals(OrderType.OP_SELLSTOP, pending.getOrderType());
+        MT4Exception e = assertThrows(MT4Exception.class, () -> client.orderClose(pending.getTicket()));
+        assertEquals(MT4Exception.Code.ERR_INVALID_TICKET, e.errorCode);
+
+        client.step();
+        Order open = client.getOrder(pending.getTicket());
+        assertEquals(OrderType.OP_SELL, open.getOrderType());
+        assertEquals(1.09900, open.getOpenPrice(), DELTA);
+
+        client.step();
+        Order closed = client.getOrder(pending.getTicket());
+        assertEquals(1.10100, closed.getClosePrice(), DELTA, "both stops were reached; the stop-loss is assumed first");
+        assertEquals(10000 - 100, client.getAccount().getBalance(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("Deleting an open order closes it, as on a terminal")
+    void testDeleteOpenOrder() throws Exception {
+        BarSeries bars = new BarSeries();
+        bars.append(MONDAY, 1.10000, 1.10010, 1.09990, 1.10000, 10);
+        bars.append(MONDAY + 60, 1.10000, 1.10080, 1.09990, 1.10050, 10);
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("EURUSD", 5, bars)
+                .build();
+        client.step();
+
+        NewOrder buy = NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_BUY)
+                .setLots(1)
+                .build();
+        Order first = client.orderSend(buy);
+        Order second = client.orderSend(buy);
+        MT4Exception e = assertThrows(MT4Exception.class, () -> client.orderDelete(first, false));
+        assertEquals(MT4Exception.Code.ERR_INVALID_TICKET, e.errorCode);
+
+        client.step();
+        client.orderDelete(first.getTicket());
+        client.orderDelete(second);
+        assertTrue(client.getOrders().isEmpty());
+        List<Order> history = client.getOrdersHistorical();
+        assertEquals(2, history.size());
+        assertEquals(1.10050, history.get(0).getClosePrice(), DELTA, "closed at the bid");
+        assertEquals(10000 + 2 * 40, client.getAccount().getBalance(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("Swap is charged at weekday rollovers, triple on Wednesdays")
+    void testSwap() throws Exception {
+        BarSeries bars = new BarSeries();
+        for (int day = 0; day < 7; day++) {
+            bars.append(MONDAY + day * 86400L + 3600, 1.1, 1.1, 1.1, 1.1, 1);
+        }
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("EURUSD", 5, 10, 100000, -5, 2, bars)
+                .build();
+        client.step();
+        client.orderSend(NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_BUY)
+                .setLots(2)
+                .build());
+
+        client.run(c -> {});
+
+        // Monday, Tuesday, Wednesday (x3), Thursday, Friday rollovers; none at the weekend
+        assertEquals(7 * -5 * 1.0 * 2, client.getOrders().get(0).getSwap(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("History and indicators only see bars up to the clock")
+    void testNoLookAhead() throws Exception {
+        BarSeries bars = new BarSeries();
+        for (int i = 0; i < 180; i++) {
+            double price = 100 + i;
+            bars.append(MONDAY + i * 60L, price, price + 0.5, price - 0.5, price, 1);
+        }
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("XYZ", 2, bars)
+                .build();
+        for (int i = 0; i < 90; i++) {
+            client.step();
+        }
+
+        List<OHLCV> hours = client.getOHLCV("XYZ", StandardTimeframe.PERIOD_H1, 10, 0);
+        assertEquals(2, hours.size());
+        assertEquals(new OHLCV((int) MONDAY + 3600, 160, 189, 159, 189, 30), hours.get(1));
+        List<OHLCV> minutes = client.getOHLCV("XYZ", StandardTimeframe.PERIOD_M1, 5, 0, 1);
+        assertEquals(5, minutes.size());
+        assertEquals(188, minutes.get(4).close);
+
+        double sma = client.runIndicator(Indicator.iMA("XYZ", StandardTimeframe.PERIOD_M1, 10, 0, SmoothingMethod.SMA,
+                AppliedPrice.PRICE_CLOSE, 0));
+        assertEquals(184.5, sma, DELTA);
+        double ema = client.runIndicator(Indicator.iMA("XYZ", StandardTimeframe.PERIOD_H1, 2, 0, SmoothingMethod.EMA,
+                AppliedPrice.PRICE_CLOSE, 0));
+        assertEquals(159 + (189 - 159) * 2 / 3.0, ema, DELTA);
+        assertEquals(100, client.runIndicator(Indicator.iRSI("XYZ", StandardTimeframe.PERIOD_M1, 14,
+                AppliedPrice.PRICE_CLOSE, 0)), DELTA);
+        assertEquals(1.5, client.runIndicator(Indicator.iATR("XYZ", StandardTimeframe.PERIOD_M1, 14, 0)), DELTA);
+        assertEquals(189, client.getSymbol("XYZ").getTick().bid, DELTA);
+
+        MT4Exception e = assertThrows(MT4Exception.class, () -> client.runIndicator(
+                Indicator.iAC("XYZ", StandardTimeframe.PERIOD_M1, 0)));
+        assertEquals(MT4Exception.Code.ERR_INDICATOR_CANNOT_LOAD, e.errorCode);
+    }
+
+    @Test
+    @DisplayName("A year of M1 bars runs in seconds")
+    void testYearOfBars() throws Exception {
+        SplittableRandom random = new SplittableRandom(7);
+        BarSeries bars = new BarSeries(400_000);
+        double price = 1.1;
+        for (long t = MONDAY; t < MONDAY + 365 * 86400L; t += 60) {
+            int dayOfWeek = (int) ((t - MONDAY) / 86400 % 7);
+            if (dayOfWeek >= 5) {
+                continue;
+            }
+            double open = price;
+            price = Math.max(0.5, price + random.nextGaussian() * 0.0002);
+            bars.append(t, open, Math.max(open, price) + 0.0001, Math.min(open, price) - 0.0001, price, 10);
+        }
+        BacktestClient client = BacktestClient.Builder.newInstance()
+                .addSymbol("EURUSD", 5, bars)
+                .build();
+
+        long start = System.nanoTime();
+        client.run(mt4 -> {
+            double fast = mt4.runIndicator(Indicator.iMA("EURUSD", StandardTimeframe.PERIOD_M15, 10, 0,
+                    SmoothingMethod.EMA, AppliedPrice.PRICE_CLOSE, 0));
+            double slow = mt4.runIndicator(Indicator.iMA("EURUSD", StandardTimeframe.PERIOD_M15, 30, 0,
+                    SmoothingMethod.SMA, AppliedPrice.PRICE_CLOSE, 0));
+            if (slow > 0 && mt4.getOrders().isEmpty()) {
+                mt4.orderSend(NewOrder.Builder.newInstance()
+                        .setSymbol("EURUSD")
+                        .setOrderType(fast > slow ? OrderType.OP_BUY : OrderType.OP_SELL)
+                        .setLots(0.1)
+                        .setSlPoints(300)
+                        .setTpPoints(300)
+                        .build());
+            }
+        });
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(bars.size() > 370_000);
+        assertFalse(client.getOrdersHistorical().isEmpty());
+        assertTrue(elapsedMillis < 30_000, "took " + elapsedMillis + " ms");
+    }
+}
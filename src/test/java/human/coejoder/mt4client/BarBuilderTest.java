@@ -0,0 +1,104 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BarBuilder}.
+ */
+class BarBuilderTest {
+
+    private static final long MONDAY = 1704067200; // 2024.01.01 00:00:00 UTC
+
+    @Test
+    @DisplayName("Bars of non-standard timeframes complete on their boundaries")
+    void testNonStandardTimeframes() {
+        BarBuilder builder = new BarBuilder(StandardTimeframe.PERIOD_M1, NonStandardTimeframe.PERIOD_M3,
+                NonStandardTimeframe.PERIOD_H2);
+        List<String> completed = new ArrayList<>();
+        builder.addListener((timeframe, series, index) ->
+                completed.add(timeframe + "@" + (series.getTime(index) - MONDAY)));
+
+        for (int second = 0; second < 400; second += 10) {
+            builder.onTick(MONDAY + second, 1.1 + second * 1e-5, 1.1002 + second * 1e-5);
+        }
+
+        assertEquals(List.of("PERIOD_M1@0", "PERIOD_M1@60", "PERIOD_M1@120", "PERIOD_M3@0", "PERIOD_M1@180",
+                "PERIOD_M1@240", "PERIOD_M1@300", "PERIOD_M3@180"), completed);
+        BarSeries m3 = builder.getSeries(NonStandardTimeframe.PERIOD_M3);
+        assertEquals(2, m3.size());
+        assertEquals(1.1, m3.getOpen(0), 1e-12);
+        assertEquals(1.1 + 170 * 1e-5, m3.getClose(0), 1e-12);
+        assertEquals(18, m3.getVolume(0));
+
+        BarBuilder.FormingBar h2 = builder.getFormingBar(NonStandardTimeframe.PERIOD_H2);
+        assertEquals(MONDAY, h2.getTime());
+        assertEquals(40, h2.getVolume());
+        assertEquals(1.1 + 390 * 1e-5, h2.getHigh(), 1e-12);
+
+        builder.onTime(MONDAY + 7200);
+        assertEquals(1, builder.getSeries(NonStandardTimeframe.PERIOD_H2).size());
+        assertTrue(h2.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Repeated polls are ignored, late ticks fold into the forming bar")
+    void testRepeatedAndLateTicks() {
+        BarBuilder builder = new BarBuilder(StandardTimeframe.PERIOD_M1);
+        builder.onTick(new SymbolTick((int) MONDAY + 5, 1.2, 1.3, 0, 1));
+        builder.onTick(new SymbolTick((int) MONDAY + 5, 1.2, 1.3, 0, 1));
+        builder.onTick(new SymbolTick((int) MONDAY + 65, 1.25, 1.35, 0, 2));
+        builder.onTick(new SymbolTick((int) MONDAY + 50, 1.1, 1.2, 0, 3));
+        builder.onTick(new SymbolTick((int) MONDAY + 70, 1.15, 1.25, 0, 4));
+
+        BarSeries m1 = builder.getSeries(StandardTimeframe.PERIOD_M1);
+        assertEquals(1, m1.size());
+        assertEquals(1, m1.getVolume(0));
+        BarBuilder.FormingBar forming = builder.getFormingBar(StandardTimeframe.PERIOD_M1);
+        assertEquals(MONDAY + 60, forming.getTime());
+        assertEquals(1.1, forming.getLow(), 1e-12);
+        assertEquals(3, forming.getVolume());
+    }
+
+    @Test
+    @DisplayName("Weekly bars open on Sunday and monthly bars on the first of the month")
+    void testWeeklyAndMonthly() {
+        BarBuilder builder = new BarBuilder(StandardTimeframe.PERIOD_W1, StandardTimeframe.PERIOD_MN1);
+        builder.onTick(MONDAY + 86400 * 2, 1, 1); // Wednesday 3 January
+        builder.onTick(MONDAY + 86400L * 31, 2, 2); // Thursday 1 February
+
+        assertEquals(MONDAY - 86400, builder.getSeries(StandardTimeframe.PERIOD_W1).getTime(0));
+        assertEquals(MONDAY, builder.getSeries(StandardTimeframe.PERIOD_MN1).getTime(0));
+        assertEquals(MONDAY + 86400L * 27, builder.getFormingBar(StandardTimeframe.PERIOD_W1).getTime());
+        assertEquals(MONDAY + 86400L * 31, builder.getFormingBar(StandardTimeframe.PERIOD_MN1).getTime());
+    }
+
+    @Test
+    @DisplayName("Handling ticks allocates nothing beyond the bar series")
+    void testZeroAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        BarBuilder builder = new BarBuilder(StandardTimeframe.PERIOD_H1, NonStandardTimeframe.PERIOD_H12);
+        long threadId = Thread.currentThread().getId();
+
+        // warm up the JIT; ticks every second, so bars complete rarely
+        long time = MONDAY;
+        for (int i = 0; i < 100_000; i++) {
+            builder.onTick(time++, 1.1 + (i % 100) * 1e-5, 1.1002);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            builder.onTick(time++, 1.1 + (i % 100) * 1e-5, 1.1002);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(builder.getSeries(StandardTimeframe.PERIOD_H1).size() > 0);
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+    }
+}
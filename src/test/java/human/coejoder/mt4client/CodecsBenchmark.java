@@ -0,0 +1,64 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Benchmarks decoding replies the way the client does, against the tree and reflection path it replaced.  Run with
+ * {@code mvn test -Pbenchmark}; the results are logged rather than asserted, since they depend on the machine.
+ */
+class CodecsBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodecsBenchmark.class);
+    private static final TypeReference<List<Order>> ORDERS = new TypeReference<>() {};
+
+    @FunctionalInterface
+    private interface Decoder {
+        List<Order> decode(String reply) throws Exception;
+    }
+
+    @Test
+    @DisplayName("Benchmark: decoding a 100-order reply")
+    void benchmarkOrders() throws Exception {
+        String reply = "{\"response\":" + CodecsTest.orders(100) + "}";
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        ObjectMapper reflective = new ObjectMapper().registerModule(new ParameterNamesModule());
+        reflective.setInjectableValues(injectables);
+        Decoder tree = json -> reflective.convertValue(reflective.readTree(json).get("response"), ORDERS);
+        Decoder streaming = json -> Codecs.readResponse(json, ORDERS, injectables);
+        assertEquals(tree.decode(reply).size(), streaming.decode(reply).size());
+
+        // per message: median of interleaved rounds, after both paths are compiled
+        long[] treeRounds = new long[9];
+        long[] streamingRounds = new long[9];
+        round(tree, reply, 2000);
+        round(streaming, reply, 2000);
+        for (int r = 0; r < treeRounds.length; r++) {
+            treeRounds[r] = round(tree, reply, 300);
+            streamingRounds[r] = round(streaming, reply, 300);
+        }
+        Arrays.sort(treeRounds);
+        Arrays.sort(streamingRounds);
+        LOG.info("List<Order> x100 per reply: tree and reflection {} ns, streaming {} ns",
+                treeRounds[treeRounds.length / 2], streamingRounds[streamingRounds.length / 2]);
+    }
+
+    private static long round(Decoder decoder, String reply, int messages) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            decoder.decode(reply);
+        }
+        return (System.nanoTime() - start) / messages;
+    }
+}
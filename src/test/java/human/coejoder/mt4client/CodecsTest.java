@@ -0,0 +1,142 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the shared {@link Codecs}.
+ */
+class CodecsTest {
+
+    @Test
+    @DisplayName("Warm-up decodes every sample response")
+    void testWarmUp() {
+        assertDoesNotThrow(() -> Codecs.warmUp(10));
+    }
+
+    @Test
+    @DisplayName("Each read injects its own client into the shared mapper's objects")
+    void testInjection() throws JsonProcessingException {
+        String json = "{\"EURUSD\":{\"name\":\"EURUSD\",\"point\":0.00001,\"digits\":5,\"volume_min\":0.01,"
+                + "\"volume_step\":0.01,\"volume_max\":100,\"trade_contract_size\":100000,\"trade_tick_value\":1,"
+                + "\"trade_tick_size\":0.00001,\"trade_stops_level\":0,\"trade_freeze_level\":0}}";
+        TypeReference<HashMap<String, Symbol>> type = new TypeReference<>() {};
+        MT4Client first = mock(MT4Client.class);
+        MT4Client second = mock(MT4Client.class);
+
+        Symbol a = Codecs.readValue(Codecs.readTree(json), type,
+                new InjectableValues.Std().addValue(MT4Client.class, first)).get("EURUSD");
+        Symbol b = Codecs.readValue(Codecs.readTree(json), type,
+                new InjectableValues.Std().addValue(MT4Client.class, second)).get("EURUSD");
+        assertSame(first, a.getMt4());
+        assertSame(second, b.getMt4());
+        assertEquals(5, b.getDigits());
+    }
+
+    @Test
+    @DisplayName("Mismatched responses fail with a JSON processing error")
+    void testMismatch() {
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree("[1, 2]"),
+                SymbolTick.class, new InjectableValues.Std()));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readTree("{"));
+    }
+
+    @Test
+    @DisplayName("Missing trees decode to null")
+    void testMissing() throws JsonProcessingException {
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        assertNull(Codecs.readValue((JsonNode) null, Order.class, injectables));
+        assertNull(Codecs.readValue(Codecs.readTree("{}").get("response"), Order.class, injectables));
+        assertNull(Codecs.readValue(Codecs.readTree("{}").path("response"), new TypeReference<List<Order>>() {},
+                injectables));
+    }
+
+    @Test
+    @DisplayName("Streaming decoders match the reflective ones")
+    void testStreamingMatchesReflective() throws Exception {
+        String json = orders(100);
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        List<Order> expected = new ObjectMapper().registerModule(new ParameterNamesModule())
+                .readerFor(new TypeReference<List<Order>>() {}).with(injectables).readValue(json);
+        List<Order> actual = Codecs.readResponse("{\"response\":" + json + "}", new TypeReference<List<Order>>() {},
+                injectables);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Order e = expected.get(i);
+            Order a = actual.get(i);
+            assertEquals(e.getTicket(), a.getTicket());
+            assertEquals(e.getOrderType(), a.getOrderType());
+            assertSame(e.getSymbol(), a.getSymbol());
+            assertEquals(e.getProfit(), a.getProfit());
+            assertEquals(e.getCommission(), a.getCommission());
+            assertEquals(e.getOpenTime(), a.getOpenTime());
+            assertNull(a.getCloseTime());
+            assertEquals(e.getComment(), a.getComment());
+        }
+    }
+
+    @Test
+    @DisplayName("Replies are decoded from their text, with errors raised wherever the error fields are")
+    void testReadResponse() throws Exception {
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        assertEquals(List.of("EURUSD"), Codecs.readResponse("{\"warning\":\"slow\",\"response\":[\"EURUSD\"]}",
+                new TypeReference<List<String>>() {}, injectables));
+        assertEquals(1.5, Codecs.readResponse("{\"response\":1.5,\"extra\":{\"a\":[1]}}", double.class,
+                injectables));
+        assertNull(Codecs.readResponse("{}", Order.class, injectables));
+
+        MT4Exception e = assertThrows(MT4Exception.class, () -> Codecs.readResponse(
+                "{\"response\":[1],\"error_code\":4106,\"error_message\":\"no such symbol\"}", SymbolTick.class,
+                injectables));
+        assertEquals(MT4Exception.Code.ERR_UNKNOWN_SYMBOL, e.errorCode);
+        assertThrows(MT4Exception.class, () -> Codecs.checkResponse("{\"error_code_description\":\"x\"}",
+                injectables));
+        assertDoesNotThrow(() -> Codecs.checkResponse("{\"response\":null}", injectables));
+        assertThrows(JsonProcessingException.class, () -> Codecs.checkResponse("[]", injectables));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readResponse("{\"response\":", Order.class,
+                injectables));
+    }
+
+    @Test
+    @DisplayName("Streaming decoders keep the reflective ones' failures")
+    void testStreamingFailures() {
+        InjectableValues injectables = new InjectableValues.Std().addValue(MT4Client.class, null);
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"time\":1,\"bid\":1,\"ask\":1,\"last\":0,\"volume\":0,\"spread\":1}"),
+                SymbolTick.class, injectables));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"ticket\":1,\"order_type\":99}"), Order.class, injectables));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"ticket\":{\"nested\":1}}"), Order.class, injectables));
+        assertDoesNotThrow(() -> Codecs.readValue(Codecs.readTree(
+                "[{\"time\":1,\"open\":1,\"high\":1,\"low\":1,\"close\":1,\"tick_volume\":1,\"spread\":{}}]"),
+                new TypeReference<List<OHLCV>>() {}, injectables));
+        assertEquals(MT4Exception.Code.ERR_UNKNOWN_SYMBOL, assertDoesNotThrow(() -> Codecs.readValue(Codecs.readTree(
+                "{\"error_code\":4106,\"extra\":[1]}"), MT4Exception.class, injectables)).errorCode);
+    }
+
+    static String orders(int count) {
+        StringJoiner orders = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < count; i++) {
+            orders.add("{\"ticket\":" + i + ",\"magic_number\":7,\"symbol\":\"EURUSD\",\"order_type\":" + (i % 6)
+                    + ",\"lots\":0.1,\"open_price\":1.085,\"close_price\":1.0851,"
+                    + "\"open_time\":\"2024.01.02 10:00:00\",\"close_time\":null,\"expiration\":null,\"sl\":1.08,"
+                    + "\"tp\":1.09,\"profit\":" + i + ".5,\"commission\":-0.7,\"swap\":0,\"comment\":\"c" + i + "\"}");
+        }
+        return orders.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.InjectableValues;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Benchmarks the heap taken by histories decoded as {@link Order orders} and as {@link CompactOrder compact orders}.
+ * Run with {@code mvn test -Pbenchmark}; the results are logged rather than asserted, since heap readings depend on
+ * the collector.
+ */
+class CompactOrderBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactOrderBenchmark.class);
+    private static final InjectableValues INJECTABLES = new InjectableValues.Std().addValue(MT4Client.class, null);
+    private static final TypeReference<List<Order>> ORDERS = new TypeReference<>() {};
+    private static final TypeReference<List<CompactOrder>> COMPACT_ORDERS = new TypeReference<>() {};
+
+    @Test
+    @DisplayName("Benchmark: heap taken by a 100k-order history")
+    void benchmarkFootprint() throws Exception {
+        int count = 100_000;
+        List<String> replies = new ArrayList<>();
+        for (int i = 0; i < count; i += 1000) {
+            replies.add("{\"response\":" + CompactOrderTest.orders(i, 1000) + "}");
+        }
+
+        long base = usedHeap();
+        List<Order> orders = new ArrayList<>(count);
+        for (String reply : replies) {
+            orders.addAll(Codecs.readResponse(reply, ORDERS, INJECTABLES));
+        }
+        long orderBytes = usedHeap() - base;
+        assertEquals(count, orders.size());
+        orders = null;
+
+        base = usedHeap();
+        List<CompactOrder> compact = new ArrayList<>(count);
+        for (String reply : replies) {
+            compact.addAll(Codecs.readResponse(reply, COMPACT_ORDERS, INJECTABLES));
+        }
+        long compactBytes = usedHeap() - base;
+        assertEquals(count, compact.size());
+
+        LOG.info("{} orders: Order {} bytes ({} per order), CompactOrder {} bytes ({} per order)", count,
+                orderBytes, orderBytes / count, compactBytes, compactBytes / count);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
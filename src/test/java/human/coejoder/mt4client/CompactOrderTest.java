@@ -0,0 +1,107 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.InjectableValues;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CompactOrder} and its decoding.
+ */
+class CompactOrderTest {
+
+    private static final InjectableValues INJECTABLES = new InjectableValues.Std().addValue(MT4Client.class, null);
+    private static final TypeReference<List<Order>> ORDERS = new TypeReference<>() {};
+    private static final TypeReference<List<CompactOrder>> COMPACT_ORDERS = new TypeReference<>() {};
+
+    static String orders(int first, int count) {
+        StringJoiner json = new StringJoiner(",", "[", "]");
+        for (int i = first; i < first + count; i++) {
+            json.add("{\"ticket\":" + i + ",\"magic_number\":7,\"symbol\":\"" + (i % 2 == 0 ? "EURUSD" : "GBPUSD")
+                    + "\",\"order_type\":" + (i % 2) + ",\"lots\":0.1,\"open_price\":1.085,\"close_price\":1.0851,"
+                    + "\"open_time\":\"2024.01." + String.format("%02d", 1 + i % 28) + " 10:00:00\","
+                    + "\"close_time\":\"2024.02.01 " + String.format("%02d", i % 24) + ":30:15\",\"expiration\":null,"
+                    + "\"sl\":1.08,\"tp\":1.09,\"profit\":" + i + ".5,\"commission\":-0.7,\"swap\":0,"
+                    + "\"comment\":\"grid " + i + "\"}");
+        }
+        return json.toString();
+    }
+
+    private static long epoch(String time) {
+        return LocalDateTime.parse(time.replace('.', '-').replace(' ', 'T')).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @Test
+    @DisplayName("Decodes the same values as an order, with times parsed to seconds")
+    void testDecode() throws JsonProcessingException {
+        String json = orders(0, 50);
+        List<Order> orders = Codecs.readValue(Codecs.readTree(json), ORDERS, INJECTABLES);
+        List<CompactOrder> compact = Codecs.readValue(Codecs.readTree(json), COMPACT_ORDERS, INJECTABLES);
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            CompactOrder c = compact.get(i);
+            assertEquals(order.getTicket(), c.getTicket());
+            assertEquals(order.getOrderType(), c.getOrderType());
+            assertSame(order.getSymbol(), c.getSymbol());
+            assertEquals(order.getSymbolId(), c.getSymbolId());
+            assertEquals(order.getProfit(), c.getProfit());
+            assertEquals(epoch(order.getOpenTime()), c.getOpenTime());
+            assertEquals(epoch(order.getCloseTime()), c.getCloseTime());
+            assertEquals(0, c.getExpiration());
+            assertEquals(order.getComment(), c.getComment());
+            assertEquals(c.toString(), CompactOrder.of(order).toString());
+        }
+
+        CompactOrder open = Codecs.readValue(Codecs.readTree("{\"ticket\":1,\"symbol\":null,\"order_type\":2,"
+                + "\"open_time\":\"2024.03.04 05:06\",\"close_time\":null,\"expiration\":1709600000,"
+                + "\"comment\":\"été\"}"), CompactOrder.class, INJECTABLES);
+        assertEquals(OrderType.OP_BUYLIMIT, open.getOrderType());
+        assertNull(open.getSymbol());
+        assertEquals(epoch("2024.03.04 05:06:00"), open.getOpenTime());
+        assertEquals(0, open.getCloseTime());
+        assertEquals(1709600000, open.getExpiration());
+        assertEquals("été", open.getComment());
+    }
+
+    @Test
+    @DisplayName("Rejects malformed times and order types")
+    void testMalformed() {
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"ticket\":1,\"open_time\":\"2024-01-02 10:00:00\"}"), CompactOrder.class, INJECTABLES));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"ticket\":1,\"open_time\":\"2024.13.02 10:00:00\"}"), CompactOrder.class, INJECTABLES));
+        assertThrows(JsonProcessingException.class, () -> Codecs.readValue(Codecs.readTree(
+                "{\"ticket\":1,\"order_type\":42}"), CompactOrder.class, INJECTABLES));
+        assertEquals(epoch("1999.12.31 23:59:59"), ServerTime.parse("1999.12.31 23:59:59"));
+        assertEquals(epoch("2000.02.29 00:00:00"), ServerTime.parse("2000.02.29"));
+        assertEquals(0, ServerTime.parse(""));
+    }
+
+    @Test
+    @DisplayName("Downloads the history in compact form")
+    void testClient() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance().build()) {
+            try (MT4Client client = new MT4Client(simulator.start())) {
+                Order order = client.orderSend(NewOrder.Builder.newInstance()
+                        .setSymbol("EURUSD")
+                        .setOrderType(OrderType.OP_BUY)
+                        .setLots(0.1)
+                        .build());
+                client.orderClose(order);
+                Order closed = client.getOrdersHistorical().get(0);
+                CompactOrder compact = client.getOrdersHistoricalCompact().get(0);
+                assertEquals(closed.getTicket(), compact.getTicket());
+                assertEquals(epoch(closed.getCloseTime()), compact.getCloseTime());
+                assertEquals("EURUSD", compact.getSymbol());
+            }
+        }
+    }
+}
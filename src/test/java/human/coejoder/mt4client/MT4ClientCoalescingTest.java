@@ -0,0 +1,143 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for coalescing identical reads in {@link MT4Client}, against a slow localhost server which counts requests.
+ */
+class MT4ClientCoalescingTest {
+
+    private ZContext context;
+    private Thread server;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicInteger received = new AtomicInteger();
+    private String address;
+
+    @BeforeEach
+    void setUp() {
+        context = new ZContext();
+        ZMQ.Socket socket = context.createSocket(SocketType.ROUTER);
+        socket.setReceiveTimeOut(50);
+        address = "tcp://127.0.0.1:" + socket.bindToRandomPort("tcp://127.0.0.1");
+        server = new Thread(() -> {
+            while (running.get()) {
+                byte[] identity = socket.recv();
+                if (identity == null) {
+                    continue;
+                }
+                while (socket.hasReceiveMore()) {
+                    socket.recv();
+                }
+                received.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                socket.sendMore(identity);
+                socket.sendMore(new byte[0]);
+                socket.send("{\"response\": [\"EURUSD\"]}".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        running.set(false);
+        server.join();
+        context.close();
+    }
+
+    @Test
+    @DisplayName("Identical concurrent reads share one request")
+    void testCoalesceReads() throws Exception {
+        try (MT4Client client = new MT4Client(address, 5000, 5000)) {
+            client.setCoalescing(true);
+            List<Future<List<String>>> results = runConcurrently(20, client::getSymbolNames);
+            for (Future<List<String>> result : results) {
+                assertEquals(List.of("EURUSD"), result.get());
+            }
+            assertTrue(received.get() <= 3, received.get() + " requests");
+            assertEquals(20, received.get() + client.getCollapsedCount());
+        }
+    }
+
+    @Test
+    @DisplayName("A read joining a slower one still gives up at its own deadline")
+    void testJoinDeadline() throws Exception {
+        try (MT4Client client = new MT4Client(address, 5000, 5000)) {
+            // connect with a call of its own, which times out rather than leaving the loop below waiting
+            client.getSymbolNames();
+            client.setCoalescing(true);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<List<String>> leader = executor.submit(client::getSymbolNames);
+            while (received.get() == 1) {
+                Thread.sleep(1);
+            }
+            try (MT4Client.Deadline ignored = client.deadline(20)) {
+                assertThrows(MT4Exception.class, client::getSymbolNames);
+            }
+            assertEquals(1, client.getCollapsedCount());
+            assertEquals(List.of("EURUSD"), leader.get(), "the leader is not affected");
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Trade actions are never coalesced")
+    void testTradeActionsNotCoalesced() throws Exception {
+        try (MT4Client client = new MT4Client(address, 5000, 5000)) {
+            client.setCoalescing(true);
+            List<Future<Object>> results = runConcurrently(5, () -> {
+                client.orderClose(42);
+                return null;
+            });
+            for (Future<Object> result : results) {
+                result.get();
+            }
+            assertEquals(5, received.get());
+            assertEquals(0, client.getCollapsedCount());
+        }
+    }
+
+    private static <T> List<Future<T>> runConcurrently(int threads, TerminalCall<T> call) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return call.call();
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface TerminalCall<T> {
+        T call() throws Exception;
+    }
+}
@@ -0,0 +1,131 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the deadlines and hedged reads of {@link MT4Client}, over real localhost sockets.
+ */
+class MT4ClientDeadlineTest {
+
+    @Test
+    @DisplayName("Adaptive deadlines follow the observed latency of each request type")
+    void testAdaptiveDeadlines() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance().build();
+             MT4Client client = new MT4Client(simulator.start(), 5000, 5000)) {
+            assertTrue(Double.isNaN(client.getLatencyPercentile(Request.GET_SYMBOLS, 0.99)));
+            // enough samples that the 99th percentile is not the first, cold call; latencies are recorded either way,
+            // and a pause during warm-up would otherwise fail the read at the 100 ms floor
+            for (int i = 0; i < 200; i++) {
+                client.getSymbolNames();
+            }
+            assertTrue(client.getLatencyPercentile(Request.GET_SYMBOLS, 0.99) < 100);
+            client.setAdaptiveDeadlines(true);
+
+            simulator.setUnresponsive(true);
+            long start = System.nanoTime();
+            assertThrows(MT4Exception.class, client::getSymbolNames);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis < 1000, "took " + elapsedMillis + " ms"); // two attempts of 100 ms
+            assertTrue(client.getLatencyPercentile(Request.GET_SYMBOLS, 1) >= 100, "the miss counts at its deadline");
+
+            // no samples for this type yet, so the constructor's timeout would apply; bound it explicitly
+            start = System.nanoTime();
+            try (MT4Client.Deadline deadline = client.deadline(150)) {
+                assertThrows(MT4Exception.class, client::getOrders);
+            }
+            elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis < 1000, "took " + elapsedMillis + " ms");
+
+            simulator.setUnresponsive(false);
+            assertEquals(3, client.getSymbolNames().size());
+        }
+    }
+
+    @Test
+    @DisplayName("Trade actions keep the response timeout when deadlines adapt")
+    void testTradeActionDeadline() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance().build();
+             MT4Client client = new MT4Client(simulator.start(), 5000, 500)) {
+            NewOrder order = NewOrder.Builder.newInstance()
+                    .setSymbol("EURUSD")
+                    .setOrderType(OrderType.OP_BUY)
+                    .setLots(0.1)
+                    .build();
+            for (int i = 0; i < 2 * LatencyTracker.MIN_SAMPLES; i++) {
+                client.orderSend(order);
+            }
+            client.setAdaptiveDeadlines(true);
+
+            simulator.setUnresponsive(true);
+            long start = System.nanoTime();
+            MT4Exception e = assertThrows(MT4Exception.class, () -> client.orderSend(order));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertEquals(MT4Exception.Code.ERR_TRADE_TIMEOUT, e.errorCode);
+            assertTrue(elapsedMillis >= 450, "took " + elapsedMillis + " ms");
+        }
+    }
+
+    @Test
+    @DisplayName("A read slower than its 95th percentile is hedged on a second connection")
+    void testHedgedRead() throws Exception {
+        AtomicBoolean dropNext = new AtomicBoolean();
+        AtomicInteger received = new AtomicInteger();
+        try (ZContext context = new ZContext()) {
+            ZMQ.Socket server = context.createSocket(SocketType.ROUTER);
+            server.setReceiveTimeOut(50);
+            int port = server.bindToRandomPort("tcp://127.0.0.1");
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread thread = new Thread(() -> {
+                while (running.get()) {
+                    byte[] identity = server.recv();
+                    if (identity == null) {
+                        continue;
+                    }
+                    while (server.hasReceiveMore()) {
+                        server.recv();
+                    }
+                    received.incrementAndGet();
+                    if (!dropNext.getAndSet(false)) {
+                        server.sendMore(identity);
+                        server.sendMore(new byte[0]);
+                        server.send("{\"response\": [\"EURUSD\"]}".getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            });
+            thread.start();
+
+            try (MT4Client client = new MT4Client("tcp://127.0.0.1:" + port, 5000, 5000)) {
+                // latencies are recorded without hedging, which would otherwise fire on about one read in twenty
+                for (int i = 0; i < 50; i++) {
+                    client.getSymbolNames();
+                }
+                client.setHedging(true);
+                assertEquals(0, client.getHedgeCount());
+
+                dropNext.set(true);
+                long start = System.nanoTime();
+                assertEquals(1, client.getSymbolNames().size());
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(elapsedMillis < 1000, "took " + elapsedMillis + " ms");
+                assertEquals(1, client.getHedgeCount());
+                assertEquals(52, received.get());
+
+                // the hedge won, so it carries on as the current connection
+                assertEquals(1, client.getSymbolNames().size());
+            } finally {
+                running.set(false);
+                thread.join();
+            }
+        }
+    }
+}
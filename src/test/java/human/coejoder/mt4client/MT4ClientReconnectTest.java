@@ -0,0 +1,168 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for how {@link MT4Client} recovers from timeouts, over real localhost sockets.
+ */
+class MT4ClientReconnectTest {
+
+    @Test
+    @DisplayName("A timed-out connection is replaced, so the next call succeeds")
+    void testRecycleAfterTimeout() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance().build();
+             MT4Client client = new MT4Client(simulator.start(), 500, 200)) {
+            client.setStandby(true);
+            assertEquals(3, client.getSymbolNames().size());
+
+            simulator.setUnresponsive(true);
+            assertThrows(MT4Exception.class, client::getSymbolNames);
+            assertEquals(1, client.getReconnectCount()); // the timeout covers both attempts, so it is not resent
+
+            simulator.setUnresponsive(false);
+            assertEquals(List.of("EURUSD", "GBPUSD", "USDJPY"), client.getSymbolNames());
+            assertEquals(10000, client.getAccount().getBalance());
+            assertEquals(1, client.getReconnectCount());
+        }
+    }
+
+    @Test
+    @DisplayName("A timed-out trade action is never sent twice")
+    void testTradeActionNotResent() {
+        try (ZContext context = new ZContext();
+             MT4Client client = newClientOfSilentServer(context)) {
+            ZMQ.Socket server = context.getSockets().get(0);
+
+            MT4Exception e = assertThrows(MT4Exception.class, () -> client.orderSend(NewOrder.Builder.newInstance()
+                    .setSymbol("EURUSD")
+                    .setOrderType(OrderType.OP_BUY)
+                    .setLots(0.1)
+                    .build()));
+            assertEquals(MT4Exception.Code.ERR_TRADE_TIMEOUT, e.errorCode);
+            assertEquals(1, drain(server));
+
+            assertThrows(MT4Exception.class, client::getOrders);
+            assertEquals(1, drain(server));
+        }
+    }
+
+    @Test
+    @DisplayName("Calls fail fast while the liveness probe gets no answer")
+    void testLivenessProbe() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance().build();
+             MT4Client client = new MT4Client(simulator.start(), 2000, 2000)) {
+            client.setStandby(true);
+            client.startLivenessProbe(100);
+            assertEquals(3, client.getSymbolNames().size());
+
+            simulator.setUnresponsive(true);
+            await(() -> !client.isAlive());
+            long start = System.nanoTime();
+            MT4Exception e = assertThrows(MT4Exception.class, client::getOrders);
+            assertEquals(MT4Exception.Code.ERR_NO_CONNECTION, e.errorCode);
+            assertTrue(System.nanoTime() - start < 100_000_000L);
+
+            simulator.setUnresponsive(false);
+            await(client::isAlive);
+            assertEquals(3, client.getSymbolNames().size());
+        }
+    }
+
+    @Test
+    @DisplayName("Probes queued behind a long call do not count as misses")
+    void testProbeBehindLongCall() throws Exception {
+        try (ZContext context = new ZContext()) {
+            // answers one request at a time like the expert advisor, taking a second over each symbol listing
+            ZMQ.Socket server = context.createSocket(SocketType.ROUTER);
+            server.setReceiveTimeOut(50);
+            int port = server.bindToRandomPort("tcp://127.0.0.1");
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread thread = new Thread(() -> {
+                while (running.get()) {
+                    byte[] identity = server.recv();
+                    if (identity == null) {
+                        continue;
+                    }
+                    String body = null;
+                    while (server.hasReceiveMore()) {
+                        body = server.recvStr();
+                    }
+                    if (body != null && body.contains(Request.GET_SYMBOLS.name())) {
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    server.sendMore(identity);
+                    server.sendMore(new byte[0]);
+                    server.send("{\"response\": [\"EURUSD\"]}".getBytes(StandardCharsets.UTF_8));
+                }
+            });
+            thread.start();
+
+            try (MT4Client client = new MT4Client("tcp://127.0.0.1:" + port, 2000, 2000)) {
+                client.startLivenessProbe(100);
+                AtomicBoolean died = new AtomicBoolean();
+                Thread monitor = new Thread(() -> {
+                    while (running.get()) {
+                        if (!client.isAlive()) {
+                            died.set(true);
+                        }
+                        LockSupport.parkNanos(1_000_000);
+                    }
+                });
+                monitor.start();
+                try {
+                    assertEquals(List.of("EURUSD"), client.getSymbolNames());
+                } finally {
+                    running.set(false);
+                    monitor.join();
+                    thread.join();
+                }
+                assertFalse(died.get());
+            }
+        }
+    }
+
+    private static MT4Client newClientOfSilentServer(ZContext context) {
+        ZMQ.Socket server = context.createSocket(SocketType.ROUTER);
+        server.setReceiveTimeOut(300);
+        int port = server.bindToRandomPort("tcp://127.0.0.1");
+        return new MT4Client("tcp://127.0.0.1:" + port, 500, 200);
+    }
+
+    /**
+     * Count the requests received by a ROUTER socket which never answers.
+     */
+    private static int drain(ZMQ.Socket server) {
+        int requests = 0;
+        while (server.recv() != null) {
+            while (server.hasReceiveMore()) {
+                server.recv();
+            }
+            requests++;
+        }
+        return requests;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
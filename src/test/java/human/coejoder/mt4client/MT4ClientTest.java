@@ -39,6 +39,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
@@ -55,6 +56,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282", 5000, 5000);
@@ -70,6 +72,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
@@ -86,6 +89,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
@@ -102,6 +106,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
 
                     String accountResponse = "{\"response\": {\"login\": 12345, \"trade_mode\": 0, " +
                             "\"name\": \"Test\", \"server\": \"Demo\", \"currency\": \"USD\", \"company\": \"Broker\"}}";
@@ -128,6 +133,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
 
                     String symbolsResponse = "{\"response\": [\"EURUSD\", \"GBPUSD\", \"USDJPY\"]}";
                     when(socketMock.recvStr()).thenReturn(symbolsResponse);
@@ -153,6 +159,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                     when(socketMock.recvStr()).thenReturn(null);
                 })) {
 
@@ -169,6 +176,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
 
                     String errorResponse = "{\"error_code\": 6, \"error_message\": \"No connection\"}";
                     when(socketMock.recvStr()).thenReturn(errorResponse);
@@ -188,6 +196,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
 
                     String ordersResponse = "{\"response\": [{\"ticket\": 123, \"magic_number\": 0, " +
                             "\"symbol\": \"EURUSD\", \"order_type\": 0, \"lots\": 0.1, \"open_price\": 1.1, " +
@@ -217,6 +226,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
 
                     String warningResponse = "{\"warning\": \"Some warning message\", " +
                             "\"response\": [\"EURUSD\", \"GBPUSD\"]}";
@@ -242,6 +252,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
@@ -262,6 +273,7 @@ class MT4ClientTest {
                 (mock, context) -> {
                     ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
                     when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
                 })) {
 
             MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
@@ -0,0 +1,96 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Benchmarks the fan-out of a {@link MarketEventBus} against per-consumer queues.  Run with
+ * {@code mvn test -Pbenchmark}; the throughputs are logged rather than asserted, since they depend on the machine.
+ */
+class MarketEventBusBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MarketEventBusBenchmark.class);
+
+    private static final class Counter implements MarketEventBus.Handler {
+        long count;
+
+        @Override
+        public void onEvent(MarketEvent event, long sequence, boolean endOfBatch) {
+            count++;
+        }
+    }
+
+    @Test
+    @DisplayName("Benchmark: 1M ticks fanned out to 32 consumers")
+    void benchmarkFanOut() throws Exception {
+        int consumers = 32;
+        int ticks = 1_000_000;
+
+        List<Counter> counters = new ArrayList<>();
+        MarketEventBus.Builder builder = MarketEventBus.Builder.newInstance();
+        for (int i = 0; i < consumers; i++) {
+            Counter counter = new Counter();
+            counters.add(counter);
+            builder.addHandler(counter);
+        }
+        MarketEventBus bus = builder.build();
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            bus.publishTick("EURUSD", i, 1, 1.0001, 0, 1);
+        }
+        bus.close();
+        long busNanos = System.nanoTime() - start;
+        for (Counter counter : counters) {
+            assertEquals(ticks, counter.count);
+        }
+
+        // the listener-list-and-queues design the bus replaces, on a tenth of the ticks
+        int queueTicks = ticks / 10;
+        List<BlockingQueue<SymbolTick>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        SymbolTick poison = new SymbolTick(-1, 0, 0, 0, 0);
+        for (int i = 0; i < consumers; i++) {
+            BlockingQueue<SymbolTick> queue = new ArrayBlockingQueue<>(1024);
+            queues.add(queue);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (queue.take() != poison) {
+                        // drain
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < queueTicks; i++) {
+            SymbolTick tick = new SymbolTick(i, 1, 1.0001, 0, 1);
+            synchronized (queues) {
+                for (BlockingQueue<SymbolTick> queue : queues) {
+                    queue.put(tick);
+                }
+            }
+        }
+        for (BlockingQueue<SymbolTick> queue : queues) {
+            queue.put(poison);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long queueNanos = (System.nanoTime() - start) * (ticks / queueTicks);
+
+        LOG.info("Fan-out of {} ticks to {} consumers: bus {} ticks/s, queues {} ticks/s", ticks, consumers,
+                ticks * 1_000_000_000L / busNanos, ticks * 1_000_000_000L / queueNanos);
+    }
+}
@@ -0,0 +1,96 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the delivery guarantees of {@link MarketEventBus}.
+ */
+class MarketEventBusTest {
+
+    private static final class Checker implements MarketEventBus.Handler {
+        long expected;
+        long batches;
+        int bars;
+        double bidSum;
+        String error;
+
+        @Override
+        public void onEvent(MarketEvent event, long sequence, boolean endOfBatch) {
+            if (sequence != expected++ && error == null) {
+                error = "expected " + (expected - 1) + " but got " + sequence;
+            }
+            if (event.getType() == MarketEvent.Type.BAR) {
+                bars++;
+            } else {
+                bidSum += event.getBid();
+            }
+            if (endOfBatch) {
+                batches++;
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MarketEventBus.WaitStrategy.class)
+    @DisplayName("Every consumer handles every event in order, across ring wraps")
+    void testDelivery(MarketEventBus.WaitStrategy waitStrategy) {
+        Checker fast = new Checker();
+        Checker slow = new Checker();
+        MarketEventBus bus = MarketEventBus.Builder.newInstance()
+                .setBufferSize(16)
+                .setWaitStrategy(waitStrategy)
+                .addHandler(fast)
+                .addHandler((event, sequence, endOfBatch) -> {
+                    if (sequence % 100 == 0) {
+                        Thread.yield();
+                    }
+                    slow.onEvent(event, sequence, endOfBatch);
+                })
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 == 9) {
+                bus.publish("EURUSD", new OHLCV(i, 1, 2, 0, 1, 10));
+            } else {
+                bus.publishTick("EURUSD", i, 1, 1.0001, 0, 1);
+            }
+        }
+        bus.close();
+
+        for (Checker checker : List.of(fast, slow)) {
+            assertNull(checker.error);
+            assertEquals(1000, checker.expected);
+            assertEquals(100, checker.bars);
+            assertEquals(900, checker.bidSum, 1e-9);
+            assertTrue(checker.batches >= 1 && checker.batches <= 1000);
+        }
+        assertEquals(999, bus.getMinimumConsumerSequence());
+        assertThrows(IllegalStateException.class, () -> bus.publishTick("EURUSD", 0, 1, 1, 0, 0));
+    }
+
+    @Test
+    @DisplayName("Slots copy out to immutable ticks and bars")
+    void testCopies() {
+        List<Object> copies = new ArrayList<>();
+        MarketEventBus bus = MarketEventBus.Builder.newInstance()
+                .setBufferSize(2)
+                .addHandler((event, sequence, endOfBatch) -> copies.add(
+                        event.getType() == MarketEvent.Type.TICK ? event.toTick() : event.toBar()))
+                .build();
+        SymbolTick tick = new SymbolTick(1, 1.1, 1.2, 0, 3);
+        OHLCV bar = new OHLCV(60, 1, 3, 0, 2, 9);
+        bus.publish("EURUSD", tick);
+        bus.publish("EURUSD", bar);
+        bus.publish("EURUSD", tick);
+        bus.close();
+        assertEquals(List.of(tick, bar, tick), copies);
+        assertThrows(IllegalArgumentException.class, () -> MarketEventBus.Builder.newInstance().setBufferSize(10));
+    }
+}
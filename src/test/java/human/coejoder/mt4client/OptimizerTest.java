@@ -0,0 +1,145 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link Optimizer} and {@link ParameterSpace}.
+ */
+class OptimizerTest {
+
+    private static final long MONDAY = 1704067200; // 2024.01.01 00:00:00 UTC
+
+    @Test
+    @DisplayName("Grid combinations are numbered with the last parameter varying fastest")
+    void testParameterSpace() {
+        ParameterSpace space = ParameterSpace.Builder.newInstance()
+                .addRange("period", 10, 30, 10)
+                .addValues("deviation", 1.5, 2.5)
+                .build();
+
+        assertEquals(6, space.size());
+        assertEquals(10, space.get(0).getInt("period"));
+        assertEquals(2.5, space.get(1).get("deviation"));
+        assertEquals(30, space.get(5).getInt("period"));
+        assertThrows(IndexOutOfBoundsException.class, () -> space.get(6));
+        assertThrows(IllegalArgumentException.class, () -> space.get(0).get("shift"));
+    }
+
+    @Test
+    @DisplayName("A parallel grid search returns the same top results as a serial one")
+    void testGrid() throws Exception {
+        BacktestClient.Builder backtest = backtest();
+        ParameterSpace space = ParameterSpace.Builder.newInstance()
+                .addRange("fast", 2, 10, 2)
+                .addRange("slow", 12, 40, 4)
+                .build();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Optimizer optimizer = Optimizer.Builder.newInstance()
+                    .setBacktest(backtest)
+                    .setParameterSpace(space)
+                    .setEvaluation(OptimizerTest::crossover)
+                    .setTopK(5)
+                    .setPool(pool)
+                    .build();
+
+            List<Optimizer.Result> results = optimizer.grid();
+
+            List<Optimizer.Result> serial = new ArrayList<>();
+            for (long i = 0; i < space.size(); i++) {
+                serial.add(new Optimizer.Result(space.get(i), crossover(space.get(i), backtest.build()), i));
+            }
+            serial.sort(Comparator.comparingDouble((Optimizer.Result r) -> -r.score).thenComparingLong(r -> r.index));
+
+            assertEquals(40, optimizer.getEvaluatedCount());
+            assertEquals(5, results.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(serial.get(i).parameters, results.get(i).parameters);
+                assertEquals(serial.get(i).score, results.get(i).score);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Random searches are reproducible and failed evaluations are counted")
+    void testRandom() {
+        ParameterSpace space = ParameterSpace.Builder.newInstance()
+                .addRange("fast", 2, 10, 1)
+                .addRange("slow", 12, 40, 1)
+                .build();
+        Optimizer optimizer = Optimizer.Builder.newInstance()
+                .setBacktest(backtest())
+                .setParameterSpace(space)
+                .setEvaluation((parameters, client) -> {
+                    if (parameters.getInt("fast") == 2) {
+                        throw new IllegalStateException("unlucky");
+                    }
+                    return crossover(parameters, client);
+                })
+                .setTopK(3)
+                .build();
+
+        List<Optimizer.Result> first = optimizer.random(50, 99);
+        List<Optimizer.Result> second = optimizer.random(50, 99);
+
+        assertEquals(3, first.size());
+        assertEquals(first.get(0).parameters, second.get(0).parameters);
+        assertTrue(first.get(0).score >= first.get(2).score);
+        assertTrue(optimizer.getFailedCount() > 0);
+        assertEquals(0, optimizer.getFailedCount() % 2, "both runs fail on the same samples");
+    }
+
+    /**
+     * Score a moving-average crossover strategy by its final equity.
+     */
+    private static double crossover(ParameterSpace.Parameters parameters, BacktestClient client)
+            throws JsonProcessingException, MT4Exception {
+        int fast = parameters.getInt("fast");
+        int slow = parameters.getInt("slow");
+        client.run(mt4 -> {
+            double f = mt4.runIndicator(Indicator.iMA("EURUSD", StandardTimeframe.PERIOD_M1, fast, 0,
+                    SmoothingMethod.SMA, AppliedPrice.PRICE_CLOSE, 0));
+            double s = mt4.runIndicator(Indicator.iMA("EURUSD", StandardTimeframe.PERIOD_M1, slow, 0,
+                    SmoothingMethod.SMA, AppliedPrice.PRICE_CLOSE, 0));
+            if (s == 0) {
+                return;
+            }
+            OrderType wanted = f > s ? OrderType.OP_BUY : OrderType.OP_SELL;
+            List<Order> orders = mt4.getOrders();
+            if (!orders.isEmpty() && orders.get(0).getOrderType() != wanted) {
+                mt4.orderClose(orders.get(0));
+                orders = List.of();
+            }
+            if (orders.isEmpty()) {
+                mt4.orderSend(NewOrder.Builder.newInstance()
+                        .setSymbol("EURUSD")
+                        .setOrderType(wanted)
+                        .setLots(0.1)
+                        .build());
+            }
+        });
+        return client.getEquity();
+    }
+
+    private static BacktestClient.Builder backtest() {
+        BarSeries bars = new BarSeries();
+        double price = 1.1;
+        for (int i = 0; i < 2000; i++) {
+            double next = 1.1 + 0.01 * Math.sin(i / 50.0) + 0.002 * Math.sin(i / 7.0);
+            bars.append(MONDAY + i * 60L, price, Math.max(price, next), Math.min(price, next), next, 1);
+            price = next;
+        }
+        return BacktestClient.Builder.newInstance().addSymbol("EURUSD", 5, bars);
+    }
+}
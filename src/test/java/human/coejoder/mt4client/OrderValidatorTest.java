@@ -0,0 +1,174 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link OrderValidator}.
+ */
+class OrderValidatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    private OrderValidator validator;
+
+    @BeforeEach
+    void setUp() {
+        validator = new OrderValidator();
+        // stops level of 10 points, freeze level of 5 points
+        validator.addSymbol(new Symbol(null, "EURUSD", 0.00001, 5, 0.01, 0.01, 50, 100000, 1, 0.00001, 10, 5),
+                SymbolTradeMode.SYMBOL_TRADE_MODE_FULL);
+        validator.onTick("EURUSD", 1.10000, 1.10010);
+    }
+
+    private static List<OrderValidator.Violation.Type> types(List<OrderValidator.Violation> violations) {
+        return violations.stream().map(v -> v.type).collect(Collectors.toList());
+    }
+
+    private static Order order(OrderType type, double openPrice, double sl, double tp) {
+        return new Order(42, 0, "EURUSD", type.id, 1, openPrice, 0, "2024.01.01 00:00:00", null, null,
+                sl, tp, 0, 0, 0, null);
+    }
+
+    private static NewOrder buy(String symbol, double lots) {
+        return NewOrder.Builder.newInstance().setSymbol(symbol).setOrderType(OrderType.OP_BUY).setLots(lots).build();
+    }
+
+    @Test
+    @DisplayName("Volumes outside the limits or off the step are rejected")
+    void testVolume() {
+        assertTrue(validator.validate(buy("EURUSD", 0.3)).isEmpty());
+        assertEquals(List.of(OrderValidator.Violation.Type.VOLUME_TOO_SMALL),
+                types(validator.validate(buy("EURUSD", 0))));
+        assertEquals(List.of(OrderValidator.Violation.Type.VOLUME_TOO_LARGE),
+                types(validator.validate(buy("EURUSD", 51))));
+        assertEquals(List.of(OrderValidator.Violation.Type.VOLUME_OFF_STEP),
+                types(validator.validate(buy("EURUSD", 0.015))));
+        assertEquals(List.of(OrderValidator.Violation.Type.UNKNOWN_SYMBOL),
+                types(validator.validate(buy("XAUUSD", 1))));
+    }
+
+    @Test
+    @DisplayName("Stops and pending prices inside the stops level are rejected")
+    void testStopsLevel() {
+        // buys close at the bid of 1.10000, so their stops must be 10 points from it
+        assertTrue(validator.validate(NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD").setOrderType(OrderType.OP_BUY).setLots(1)
+                .setSl(1.09990).setTp(1.10010).build()).isEmpty());
+        assertEquals(List.of(OrderValidator.Violation.Type.SL_TOO_CLOSE, OrderValidator.Violation.Type.TP_TOO_CLOSE),
+                types(validator.validate(NewOrder.Builder.newInstance()
+                        .setSymbol("EURUSD").setOrderType(OrderType.OP_BUY).setLots(1)
+                        .setSl(1.09995).setTp(1.10005).build())));
+        assertEquals(List.of(OrderValidator.Violation.Type.SL_TOO_CLOSE), types(validator.validate(
+                NewOrder.Builder.newInstance().setSymbol("EURUSD").setOrderType(OrderType.OP_SELL).setLots(1)
+                        .setSl(1.10015).build())), "sells close at the ask");
+        assertEquals(List.of(OrderValidator.Violation.Type.TP_TOO_CLOSE), types(validator.validate(
+                NewOrder.Builder.newInstance().setSymbol("EURUSD").setOrderType(OrderType.OP_BUY).setLots(1)
+                        .setTpPoints(5).build())));
+
+        assertEquals(List.of(OrderValidator.Violation.Type.PRICE_TOO_CLOSE), types(validator.validate(
+                NewOrder.Builder.newInstance().setSymbol("EURUSD").setOrderType(OrderType.OP_BUYSTOP).setLots(1)
+                        .setPrice(1.10015).build())));
+        assertEquals(List.of(OrderValidator.Violation.Type.PRICE_TOO_CLOSE), types(validator.validate(
+                NewOrder.Builder.newInstance().setSymbol("EURUSD").setOrderType(OrderType.OP_BUYLIMIT).setLots(1)
+                        .setPrice(1.10020).build())), "limits on the wrong side of the market are rejected");
+        assertEquals(List.of(OrderValidator.Violation.Type.SL_TOO_CLOSE), types(validator.validate(
+                NewOrder.Builder.newInstance().setSymbol("EURUSD").setOrderType(OrderType.OP_SELLLIMIT).setLots(1)
+                        .setPrice(1.10100).setSl(1.10105).build())), "pending stops apply to the open price");
+    }
+
+    @Test
+    @DisplayName("Orders within the freeze level cannot be modified")
+    void testFreezeLevel() {
+        ModifyOrder modify = ModifyOrder.Builder.newInstance().setOrder(42).setSl(1.09900).build();
+        assertTrue(validator.validate(order(OrderType.OP_BUY, 1.09000, 1.09980, 0), modify).isEmpty());
+        assertEquals(List.of(OrderValidator.Violation.Type.FROZEN),
+                types(validator.validate(order(OrderType.OP_BUY, 1.09000, 1.09997, 0), modify)));
+        assertEquals(List.of(OrderValidator.Violation.Type.FROZEN),
+                types(validator.validate(order(OrderType.OP_SELLSTOP, 1.09997, 0, 0),
+                        ModifyOrder.Builder.newInstance().setOrder(42).setPrice(1.09900).build())));
+        assertEquals(List.of(OrderValidator.Violation.Type.PRICE_NOT_MODIFIABLE),
+                types(validator.validate(order(OrderType.OP_BUY, 1.09000, 0, 0),
+                        ModifyOrder.Builder.newInstance().setOrder(42).setPrice(1.09900).build())));
+
+        MT4Exception e = assertThrows(MT4Exception.class,
+                () -> validator.check(order(OrderType.OP_BUY, 1.09000, 1.09997, 0), modify));
+        assertEquals(MT4Exception.Code.ERR_TRADE_MODIFY_DENIED, e.errorCode);
+    }
+
+    @Test
+    @DisplayName("Disabled and restricted trade modes are rejected")
+    void testTradeMode() throws Exception {
+        validator.addSymbol(new Symbol(null, "GBPUSD", 0.00001, 5, 0.01, 0.01, 50, 100000, 1, 0.00001, 0, 0),
+                SymbolTradeMode.SYMBOL_TRADE_MODE_CLOSEONLY);
+        NewOrder buy = buy("GBPUSD", 1);
+        assertEquals(List.of(OrderValidator.Violation.Type.CLOSE_ONLY), types(validator.validate(buy)));
+        Order open = new Order(43, 0, "GBPUSD", OrderType.OP_BUY.id, 1, 1.25, 0, "2024.01.01 00:00:00", null, null,
+                0, 0, 0, 0, 0, null);
+        ModifyOrder modify = ModifyOrder.Builder.newInstance().setOrder(43).setSl(1.2).build();
+        assertTrue(validator.validate(open, modify).isEmpty(), "closing-only symbols can still be modified");
+
+        validator.addSymbol(new Symbol(null, "GBPUSD", 0.00001, 5, 0.01, 0.01, 50, 100000, 1, 0.00001, 0, 0),
+                SymbolTradeMode.SYMBOL_TRADE_MODE_DISABLED);
+        MT4Exception e = assertThrows(MT4Exception.class, () -> validator.check(buy));
+        assertEquals(MT4Exception.Code.ERR_TRADE_DISABLED, e.errorCode);
+    }
+
+    @Test
+    @DisplayName("Normalizing rounds prices to the digits and volumes to the step")
+    void testNormalize() {
+        NewOrder order = NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD").setOrderType(OrderType.OP_BUYLIMIT).setLots(0.123)
+                .setPrice(1.0950000001).setSl(1.094123456).setComment("test").setMagicNumber(7).build();
+        assertEquals(List.of(OrderValidator.Violation.Type.VOLUME_OFF_STEP,
+                        OrderValidator.Violation.Type.PRICE_NOT_NORMALIZED,
+                        OrderValidator.Violation.Type.STOPS_NOT_NORMALIZED),
+                types(validator.validate(order)));
+
+        NewOrder normalized = validator.normalize(order);
+        assertEquals(0.12, normalized.lots, DELTA);
+        assertEquals(1.09500, normalized.price, DELTA);
+        assertEquals(1.09412, normalized.sl, DELTA);
+        assertNull(normalized.tp);
+        assertEquals("test", normalized.comment);
+        assertEquals(7, normalized.magicNumber);
+        assertTrue(validator.validate(normalized).isEmpty());
+
+        ModifyOrder modify = validator.normalize(order(OrderType.OP_BUY, 1.09, 0, 0),
+                ModifyOrder.Builder.newInstance().setOrder(42).setTp(1.1234567).build());
+        assertEquals(42, modify.ticket);
+        assertEquals(1.12346, modify.tp, DELTA);
+        assertNull(modify.sl);
+    }
+
+    @Test
+    @DisplayName("Orders missing their volume or pending price are rejected rather than unboxed")
+    void testMissingFields() throws Exception {
+        // the builder requires both, so clear them as a request built by other means could lack them
+        NewOrder pending = without(NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD").setOrderType(OrderType.OP_SELLLIMIT).setLots(0.1)
+                .setPrice(1.10100).setSl(1.10200).build(), "price");
+        assertEquals(List.of(OrderValidator.Violation.Type.MISSING_PRICE), types(validator.validate(pending)));
+        MT4Exception e = assertThrows(MT4Exception.class, () -> validator.check(pending));
+        assertEquals(MT4Exception.Code.ERR_INVALID_PRICE, e.errorCode);
+        assertSame(pending, validator.normalize(pending));
+
+        NewOrder noLots = without(buy("EURUSD", 0.1), "lots");
+        assertEquals(List.of(OrderValidator.Violation.Type.MISSING_VOLUME), types(validator.validate(noLots)));
+        assertSame(noLots, validator.normalize(noLots));
+    }
+
+    private static NewOrder without(NewOrder order, String field) throws ReflectiveOperationException {
+        Field f = NewOrder.class.getField(field);
+        f.setAccessible(true);
+        f.set(order, null);
+        return order;
+    }
+}
@@ -0,0 +1,107 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmarks order latency through a {@link RequestScheduler} while a history download runs.  Run with
+ * {@code mvn test -Pbenchmark}; the percentiles are logged rather than asserted, since they depend on the machine.
+ */
+class RequestSchedulerBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestSchedulerBenchmark.class);
+
+    @Test
+    @DisplayName("Benchmark: order latency while a history download runs")
+    void benchmarkOrderLatencyUnderHistoryLoad() throws Exception {
+        try (TerminalSimulator simulator = TerminalSimulator.Builder.newInstance()
+                .setLatency(500, 1500)
+                .build()) {
+            String address = simulator.start();
+            try (RequestScheduler scheduler = RequestScheduler.Builder.newInstance()
+                    .setAddress(address)
+                    .build()) {
+                tradeLatencies(scheduler, Request.DO_ORDER_SEND, 100); // warm up
+                long[] idle = tradeLatencies(scheduler, Request.DO_ORDER_SEND, 100);
+
+                AtomicBoolean running = new AtomicBoolean(true);
+                Thread download = new Thread(() -> {
+                    while (running.get()) {
+                        // keep a deep backlog of pages, like a multi-page download
+                        if (scheduler.getQueuedCount(RequestPriority.HISTORY) < 50) {
+                            for (int page = 0; page < 10; page++) {
+                                long offset = page * 200L;
+                                scheduler.submit(Request.GET_OHLCV, c -> c.getOHLCV("EURUSD",
+                                        StandardTimeframe.PERIOD_M1, 200, 1000, offset));
+                            }
+                        } else {
+                            sleep();
+                        }
+                    }
+                });
+                download.start();
+                try {
+                    while (scheduler.getQueuedCount(RequestPriority.HISTORY) < 40) {
+                        sleep();
+                    }
+                    long historyBefore = scheduler.getDispatchedCount(RequestPriority.HISTORY);
+                    long[] prioritized = tradeLatencies(scheduler, Request.DO_ORDER_SEND, 100);
+                    long historyDuring = scheduler.getDispatchedCount(RequestPriority.HISTORY) - historyBefore;
+                    // the same calls keyed as history queue behind the download, like on a single FIFO client
+                    long[] fifo = tradeLatencies(scheduler, Request.GET_OHLCV, 10);
+
+                    LOG.info("Order latency p50/p99: idle {}/{} ms, under load {}/{} ms, FIFO under load {}/{} ms; "
+                                    + "{} history pages served meanwhile",
+                            millis(idle, 0.5), millis(idle, 0.99), millis(prioritized, 0.5),
+                            millis(prioritized, 0.99), millis(fifo, 0.5), millis(fifo, 0.99), historyDuring);
+                } finally {
+                    running.set(false);
+                    download.join();
+                }
+            }
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double millis(long[] sortedNanos, double percentile) {
+        return sortedNanos[(int) Math.ceil(sortedNanos.length * percentile) - 1] / 1e6;
+    }
+
+    /**
+     * Open and close a position repeatedly, measuring each call.
+     *
+     * @return The latency of each call in nanoseconds, sorted.
+     */
+    private static long[] tradeLatencies(RequestScheduler scheduler, Request key, int calls) throws Exception {
+        long[] nanos = new long[calls];
+        for (int i = 0; i < calls; i += 2) {
+            long start = System.nanoTime();
+            Order order = scheduler.call(key, c -> c.orderSend(NewOrder.Builder.newInstance()
+                    .setSymbol("EURUSD")
+                    .setOrderType(OrderType.OP_BUY)
+                    .setLots(0.01)
+                    .build()));
+            nanos[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            scheduler.call(key == Request.DO_ORDER_SEND ? Request.DO_ORDER_CLOSE : key, c -> {
+                c.orderClose(order);
+                return null;
+            });
+            nanos[i + 1] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+}
@@ -0,0 +1,88 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link RequestScheduler}.
+ */
+class RequestSchedulerTest {
+
+    @Test
+    @DisplayName("Lanes are served by weight, and history is never starved")
+    void testWeightedFairness() throws Exception {
+        List<RequestPriority> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        try (RequestScheduler scheduler = RequestScheduler.Builder.newInstance()
+                .setClientFactory(() -> mock(MT4ClientInterface.class))
+                .build()) {
+            CompletableFuture<Object> blocker = scheduler.submit(Request.GET_ORDERS, c -> {
+                await(release);
+                return null;
+            });
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(scheduler.submit(Request.GET_OHLCV, c -> order.add(RequestPriority.HISTORY)));
+                futures.add(scheduler.submit(Request.GET_SYMBOL_TICK, c -> order.add(RequestPriority.QUOTES)));
+            }
+            for (int i = 0; i < 10; i++) {
+                futures.add(scheduler.submit(Request.DO_ORDER_CLOSE, c -> order.add(RequestPriority.TRADING)));
+            }
+            assertEquals(40, scheduler.getQueuedCount(RequestPriority.HISTORY));
+            release.countDown();
+            blocker.get();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+            assertEquals(90, order.size());
+            assertTrue(order.lastIndexOf(RequestPriority.TRADING) < 15, order.toString());
+            long historyBeforeQuotesDone = order.subList(0, order.lastIndexOf(RequestPriority.QUOTES)).stream()
+                    .filter(p -> p == RequestPriority.HISTORY)
+                    .count();
+            assertTrue(historyBeforeQuotesDone >= 2, order.toString());
+            assertEquals(40, scheduler.getDispatchedCount(RequestPriority.HISTORY));
+        }
+    }
+
+    @Test
+    @DisplayName("Failures reach the caller, and closing cancels queued calls")
+    void testFailuresAndClose() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RequestScheduler scheduler = RequestScheduler.Builder.newInstance()
+                .setClientFactory(() -> mock(MT4ClientInterface.class))
+                .build();
+        MT4Exception e = assertThrows(MT4Exception.class, () -> scheduler.call(Request.DO_ORDER_SEND, c -> {
+            throw MT4Exception.Builder.newInstance()
+                    .setErrorCode(MT4Exception.Code.ERR_NOT_ENOUGH_MONEY.id)
+                    .setMessage("no money")
+                    .build();
+        }));
+        assertEquals(MT4Exception.Code.ERR_NOT_ENOUGH_MONEY, e.errorCode);
+
+        scheduler.submit(Request.GET_OHLCV, c -> {
+            await(release);
+            return null;
+        });
+        CompletableFuture<Object> queued = scheduler.submit(Request.GET_SYMBOLS, c -> null);
+        scheduler.close();
+        release.countDown();
+        assertTrue(queued.isCancelled() || queued.isCompletedExceptionally());
+        assertTrue(scheduler.submit(Request.GET_ORDERS, c -> null).isCompletedExceptionally());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
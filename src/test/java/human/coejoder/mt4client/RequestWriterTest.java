@@ -0,0 +1,122 @@
+package human.coejoder.mt4client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link RequestWriter}.
+ */
+class RequestWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    @DisplayName("Encodes the action of every request type")
+    void testAction() throws Exception {
+        for (Request request : Request.values()) {
+            RequestWriter writer = RequestWriter.begin(request).end();
+            assertEquals(request.build(), objectMapper.readTree(writer.toString()));
+            assertSame(request, writer.getRequest());
+        }
+    }
+
+    @Test
+    @DisplayName("Encodes a new order exactly as Jackson does")
+    void testNewOrder() throws Exception {
+        NewOrder newOrder = NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_BUYLIMIT)
+                .setLots(0.1)
+                .setPrice(1.08765)
+                .setSl(1.0801)
+                .setComment("quote \" and ünïcödé €")
+                .setMagicNumber(42)
+                .build();
+        ObjectNode expected = Request.DO_ORDER_SEND.build().setAll(objectMapper.<ObjectNode>valueToTree(newOrder));
+
+        String encoded = RequestWriter.begin(Request.DO_ORDER_SEND).putAll(newOrder).end().toString();
+
+        assertEquals(expected, objectMapper.readTree(encoded));
+    }
+
+    @Test
+    @DisplayName("Encodes a modify-order request exactly as Jackson does")
+    void testModifyOrder() throws Exception {
+        ModifyOrder modifyOrder = ModifyOrder.Builder.newInstance()
+                .setOrder(123456)
+                .setSl(1.2345)
+                .setTpPoints(150)
+                .build();
+        ObjectNode expected = Request.DO_ORDER_MODIFY.build().setAll(objectMapper.<ObjectNode>valueToTree(modifyOrder));
+
+        String encoded = RequestWriter.begin(Request.DO_ORDER_MODIFY).putAll(modifyOrder).end().toString();
+
+        assertEquals(expected, objectMapper.readTree(encoded));
+    }
+
+    @Test
+    @DisplayName("Encodes indicator arguments, including a null symbol")
+    void testIndicator() throws Exception {
+        Indicator func = Indicator.iBands(null, StandardTimeframe.PERIOD_H1, 20, 2.5, 0, AppliedPrice.PRICE_CLOSE,
+                IndicatorLine_iBands.UPPER, 1);
+
+        String encoded = RequestWriter.begin(Request.RUN_INDICATOR)
+                .put("indicator", func.getName())
+                .putNode("argv", func.getArguments())
+                .end()
+                .toString();
+
+        JsonNode tree = objectMapper.readTree(encoded);
+        assertEquals(func.getArguments().toString(), tree.get("argv").toString());
+        assertTrue(tree.get("argv").get(0).isNull());
+    }
+
+    @Test
+    @DisplayName("Formats doubles so that they parse back to the same value")
+    void testDoubleRoundTrip() throws Exception {
+        double[] values = {0.0, 1.0, -1.0, 0.1, 1.1, 1.08765, 0.00001, 123456.789, 1e-12, 1e20, 3.0e14, -0.5,
+                Math.PI, 1.0 / 3.0};
+        for (double value : values) {
+            String encoded = RequestWriter.begin(Request.GET_ORDERS).put("v", value).end().toString();
+            assertEquals(value, objectMapper.readTree(encoded).get("v").doubleValue(), 0.0, encoded);
+        }
+        assertEquals("{\"action\":\"GET_ORDERS\",\"v\":1.08765}",
+                RequestWriter.begin(Request.GET_ORDERS).put("v", 1.08765).end().toString());
+    }
+
+    @Test
+    @DisplayName("Encoding getTick and orderModify requests allocates nothing in steady state")
+    void testZeroAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ModifyOrder modifyOrder = ModifyOrder.Builder.newInstance().setOrder(1).setSl(1.2345).setTp(1.3456).build();
+        long threadId = Thread.currentThread().getId();
+
+        // warm up: grow the buffer and let the JIT compile the encoding paths
+        int total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            total += encode(modifyOrder);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            total += encode(modifyOrder);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(total > 0);
+        // allow for a little noise from the measurement itself, but far less than one byte per request
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+    }
+
+    private static int encode(ModifyOrder modifyOrder) {
+        int length = RequestWriter.begin(Request.GET_SYMBOL_TICK).put("symbol", "EURUSD").end().length();
+        return length + RequestWriter.begin(Request.DO_ORDER_MODIFY).putAll(modifyOrder).end().length();
+    }
+}
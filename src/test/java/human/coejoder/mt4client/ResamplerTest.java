@@ -0,0 +1,159 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link Resampler}.
+ */
+class ResamplerTest {
+
+    private static final long MONDAY = 1704067200; // 2024.01.01 00:00:00 UTC
+
+    @Test
+    @DisplayName("Resampled bars match a calendar-based reference for every timeframe")
+    void testAgainstReference() {
+        BarSeries m1 = randomMinutes(90 * 1440, 3);
+        Timeframe[] timeframes = {StandardTimeframe.PERIOD_M5, NonStandardTimeframe.PERIOD_M3,
+                StandardTimeframe.PERIOD_H1, NonStandardTimeframe.PERIOD_H12, StandardTimeframe.PERIOD_D1,
+                StandardTimeframe.PERIOD_W1, StandardTimeframe.PERIOD_MN1};
+        for (Timeframe timeframe : timeframes) {
+            BarSeries actual = Resampler.resample(m1, StandardTimeframe.PERIOD_M1, timeframe);
+            BarSeries expected = reference(m1, timeframe);
+            assertSeriesEquals(expected, actual, timeframe.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("Incremental updates give the same bars as resampling at once")
+    void testIncremental() {
+        BarSeries all = randomMinutes(3 * 1440, 5);
+        BarSeries growing = new BarSeries();
+        Resampler resampler = new Resampler(growing, StandardTimeframe.PERIOD_M1, StandardTimeframe.PERIOD_H4);
+        int started = 0;
+        for (int i = 0; i < all.size(); i++) {
+            growing.append(all.getTime(i), all.getOpen(i), all.getHigh(i), all.getLow(i), all.getClose(i),
+                    all.getVolume(i));
+            if (i % 17 == 0) {
+                started += resampler.update();
+            }
+        }
+        started += resampler.update();
+
+        assertEquals(resampler.getSeries().size(), started);
+        assertSeriesEquals(Resampler.resample(all, StandardTimeframe.PERIOD_M1, StandardTimeframe.PERIOD_H4),
+                resampler.getSeries(), "H4");
+        assertEquals(0, resampler.update());
+    }
+
+    @Test
+    @DisplayName("Views of a complete resampling match a resampler of their own at every step")
+    void testView() {
+        BarSeries m1 = randomMinutes(2 * 1440, 7);
+        Resampler complete = new Resampler(m1, 1, 60);
+        complete.update();
+        for (int first : new int[]{1, 1000}) {
+            Resampler view = new Resampler(complete);
+            Resampler own = new Resampler(m1, 1, 60);
+            for (int end = first; end <= m1.size(); end += 7) {
+                assertEquals(own.update(end), view.update(end));
+                assertSeriesEquals(own.getSeries(), view.getSeries(), "H1 up to " + end);
+            }
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> complete.getSeries().view().append(MONDAY + 60, 1, 1, 1, 1, 1));
+
+        // bars appended after the complete resampling are folded into a copy
+        BarSeries growing = randomMinutes(1440, 9);
+        Resampler partial = new Resampler(growing, 1, 60);
+        partial.update();
+        Resampler view = new Resampler(partial);
+        view.update(1400);
+        BarSeries revealed = view.getSeries();
+        BarSeries more = randomMinutes(1500, 9);
+        for (int i = growing.size(); i < more.size(); i++) {
+            growing.append(more.getTime(i), more.getOpen(i), more.getHigh(i), more.getLow(i), more.getClose(i),
+                    more.getVolume(i));
+        }
+        view.update(growing.size());
+        assertNotSame(revealed, view.getSeries());
+        assertSeriesEquals(Resampler.resample(growing, StandardTimeframe.PERIOD_M1, StandardTimeframe.PERIOD_H1),
+                view.getSeries(), "H1 after growing");
+    }
+
+    @Test
+    @DisplayName("Target bars must be made of whole source bars")
+    void testInvalid() {
+        BarSeries series = new BarSeries();
+        assertThrows(IllegalArgumentException.class,
+                () -> new Resampler(series, StandardTimeframe.PERIOD_H1, StandardTimeframe.PERIOD_M15));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Resampler(series, StandardTimeframe.PERIOD_M15, NonStandardTimeframe.PERIOD_M20));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Resampler(series, StandardTimeframe.PERIOD_W1, StandardTimeframe.PERIOD_MN1));
+        assertDoesNotThrow(() -> new Resampler(series, StandardTimeframe.PERIOD_H4, StandardTimeframe.PERIOD_W1));
+    }
+
+    private static BarSeries randomMinutes(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BarSeries bars = new BarSeries(count);
+        double price = 1.1;
+        long time = MONDAY - 86400L * 3;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(10) == 0 ? 120 : 60; // with gaps
+            double open = price;
+            price += random.nextGaussian() * 0.0002;
+            bars.append(time, open, Math.max(open, price) + random.nextDouble() * 0.0001,
+                    Math.min(open, price) - random.nextDouble() * 0.0001, price, 1 + random.nextInt(50));
+        }
+        return bars;
+    }
+
+    /**
+     * Group bars by their calendar period, computed independently of {@link BarTime}.
+     */
+    private static BarSeries reference(BarSeries source, Timeframe timeframe) {
+        BarSeries result = new BarSeries();
+        for (int i = 0; i < source.size(); i++) {
+            ZonedDateTime time = Instant.ofEpochSecond(source.getTime(i)).atZone(ZoneOffset.UTC);
+            long openTime;
+            if (timeframe == StandardTimeframe.PERIOD_MN1) {
+                openTime = time.toLocalDate().withDayOfMonth(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+            } else if (timeframe == StandardTimeframe.PERIOD_W1) {
+                int daysSinceSunday = time.getDayOfWeek() == DayOfWeek.SUNDAY ? 0 : time.getDayOfWeek().getValue();
+                openTime = time.toLocalDate().minusDays(daysSinceSunday).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+            } else {
+                long length = timeframe.getMinutes() * 60L;
+                openTime = source.getTime(i) / length * length;
+            }
+            int n = result.size();
+            if (n > 0 && result.getTime(n - 1) == openTime) {
+                result.mergeLast(source.getHigh(i), source.getLow(i), source.getClose(i), source.getVolume(i));
+            } else {
+                result.append(openTime, source.getOpen(i), source.getHigh(i), source.getLow(i), source.getClose(i),
+                        source.getVolume(i));
+            }
+        }
+        return result;
+    }
+
+    private static void assertSeriesEquals(BarSeries expected, BarSeries actual, String name) {
+        assertEquals(expected.size(), actual.size(), name);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTime(i), actual.getTime(i), name);
+            assertEquals(expected.getOpen(i), actual.getOpen(i), name);
+            assertEquals(expected.getHigh(i), actual.getHigh(i), name);
+            assertEquals(expected.getLow(i), actual.getLow(i), name);
+            assertEquals(expected.getClose(i), actual.getClose(i), name);
+            assertEquals(expected.getVolume(i), actual.getVolume(i), name);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link RiskEngine}.
+ */
+class RiskEngineTest {
+
+    private static final double DELTA = 1e-6;
+
+    private static Symbol eurusd() {
+        return new Symbol(null, "EURUSD", 0.00001, 5, 0.01, 0.01, 100, 100000, 1, 0.00001, 10, 5);
+    }
+
+    private static Order order(int ticket, OrderType type, double lots, double openPrice, double profit) {
+        return new Order(ticket, 0, "EURUSD", type.id, lots, openPrice, 0, "2024.01.01 00:00:00", null, null,
+                0, 0, profit, -7, -1, null);
+    }
+
+    @Test
+    @DisplayName("Ticks reprice the floating profit, margin and margin level of open orders")
+    void testTicks() {
+        RiskEngine engine = RiskEngine.Builder.newInstance().setLeverage(100).setBalance(10000, 0).build();
+        engine.addSymbol(eurusd(), SymbolCalcMode.SYMBOL_CALC_MODE_FOREX, 0);
+        engine.setOrders(List.of(
+                order(1, OrderType.OP_BUY, 1, 1.10000, 5),
+                order(2, OrderType.OP_SELL, 0.5, 1.10200, 3),
+                order(3, OrderType.OP_BUYLIMIT, 2, 1.09000, 0)));
+        assertEquals(0.5, engine.getExposure("EURUSD"), DELTA, "pending orders are not exposed");
+        assertEquals(8 - 16, engine.getFloatingProfit(), DELTA, "without a tick, the reported profit is used");
+
+        engine.onTick("EURUSD", 1.10100, 1.10110);
+        assertEquals(100 + 45 - 16, engine.getFloatingProfit(), DELTA);
+        assertEquals(10129, engine.getEquity(), DELTA);
+        double margin = (110110 + 0.5 * 110100) / 100.0;
+        assertEquals(margin, engine.getMargin(), DELTA);
+        assertEquals(10129 / margin * 100, engine.getMarginLevel(), DELTA);
+        assertEquals(0.5 * 110105, engine.getNotionalExposure("EURUSD"), DELTA);
+
+        engine.onTick("EURUSD", 1.09900, 1.09910);
+        assertEquals(-100 + 145 - 16, engine.getFloatingProfit(), DELTA);
+
+        engine.removeOrder(1);
+        assertEquals(-0.5, engine.getExposure("EURUSD"), DELTA);
+        assertEquals(145 - 8, engine.getFloatingProfit(), DELTA);
+        engine.updateOrder(new Order(2, 0, "EURUSD", OrderType.OP_SELL.id, 0.5, 1.10200, 1.09910,
+                "2024.01.01 00:00:00", "2024.01.01 01:00:00", null, 0, 0, 145, -7, -1, null));
+        assertEquals(0, engine.getFloatingProfit(), DELTA, "closed orders stop being tracked");
+        assertEquals(0, engine.getMargin(), DELTA);
+        assertEquals(0, engine.getMarginLevel(), DELTA);
+    }
+
+    @Test
+    @DisplayName("Initial margins and CFD symbols are not divided by the leverage")
+    void testMarginModes() {
+        RiskEngine engine = RiskEngine.Builder.newInstance().setLeverage(100).build();
+        engine.setOrders(List.of(order(1, OrderType.OP_BUY, 2, 1.10000, 0)));
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        assertEquals(0, engine.getMargin(), DELTA, "unspecified symbols take no margin");
+
+        engine.addSymbol(eurusd(), SymbolCalcMode.SYMBOL_CALC_MODE_CFD, 0);
+        assertEquals(2 * 110010, engine.getMargin(), DELTA);
+        engine.addSymbol(eurusd(), SymbolCalcMode.SYMBOL_CALC_MODE_FOREX, 1000);
+        assertEquals(2000, engine.getMargin(), DELTA);
+    }
+
+    @Test
+    @DisplayName("Symbols restored without a tick value count at the reported profit")
+    void testUnknownTickValue() {
+        RiskEngine engine = RiskEngine.Builder.newInstance().setLeverage(100).setBalance(10000, 0).build();
+        // as the UniverseLoader restores it from its cache
+        Symbol restored = new Symbol(null, "EURUSD", 0.00001, 5, 0.01, 0.01, 100, 100000, Double.NaN, 0.00001, 10, 5);
+        engine.addSymbol(restored, SymbolCalcMode.SYMBOL_CALC_MODE_FOREX, 0);
+        engine.setOrders(List.of(order(1, OrderType.OP_BUY, 1, 1.10000, 5)));
+        engine.onTick("EURUSD", 1.10100, 1.10110);
+        assertEquals(5 - 8, engine.getFloatingProfit(), DELTA);
+        assertEquals(10000 + 5 - 8, engine.getEquity(), DELTA);
+        assertEquals(0, engine.getMargin(), DELTA);
+        assertEquals(0, engine.getMarginLevel(), DELTA);
+
+        engine.addSymbol(eurusd(), SymbolCalcMode.SYMBOL_CALC_MODE_FOREX, 0);
+        assertEquals(100 - 8, engine.getFloatingProfit(), DELTA, "reloading the symbol reprices it");
+    }
+
+    @Test
+    @DisplayName("Reconciling carries the account's differences until the next reconciliation")
+    void testReconcile() throws Exception {
+        Account account = mock(Account.class);
+        when(account.getLeverage()).thenReturn(100L);
+        when(account.getBalance()).thenReturn(10000.0);
+        when(account.getCredit()).thenReturn(0.0);
+        when(account.getEquity()).thenReturn(10080.0);
+        when(account.getMargin()).thenReturn(2202.0);
+        RiskEngine engine = RiskEngine.Builder.newInstance().setAccount(account).build();
+        engine.addSymbol(eurusd(), SymbolCalcMode.SYMBOL_CALC_MODE_FOREX, 0);
+        engine.setOrders(List.of(order(1, OrderType.OP_BUY, 1, 1.10000, 0)));
+        engine.onTick("EURUSD", 1.10100, 1.10100);
+
+        engine.reconcile();
+        assertEquals(100, engine.getLeverage());
+        assertEquals(1, engine.getReconcileCount());
+        assertEquals(10080, engine.getEquity(), DELTA);
+        assertEquals(2202, engine.getMargin(), DELTA);
+        assertEquals(10080 - (100 - 8), engine.getEquityDrift(), DELTA);
+
+        engine.onTick("EURUSD", 1.10200, 1.10200);
+        assertEquals(10180, engine.getEquity(), DELTA, "the offset is kept across ticks");
+        assertEquals(2204, engine.getMargin(), DELTA, "so is the margin scale");
+        verify(account, times(1)).getMargin();
+    }
+
+    @Test
+    @DisplayName("Periodic reconciliation needs an account")
+    void testBuilder() {
+        assertThrows(IllegalStateException.class,
+                () -> RiskEngine.Builder.newInstance().setReconcileInterval(1000).build());
+        assertThrows(IllegalStateException.class, () -> RiskEngine.Builder.newInstance().build().reconcile());
+    }
+}
@@ -0,0 +1,104 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link SessionRecorder} and {@link SessionReplayServer} over real localhost sockets.
+ */
+class SessionReplayServerTest {
+
+    private static final String TICK_1 = "{\"response\": {\"time\": 1, \"bid\": 1.1, \"ask\": 1.2, \"last\": 0, \"volume\": 0}}";
+    private static final String TICK_2 = "{\"response\": {\"time\": 2, \"bid\": 1.3, \"ask\": 1.4, \"last\": 0, \"volume\": 0}}";
+
+    @Test
+    @DisplayName("Session files round-trip")
+    void testReadWrite(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("session.bin");
+        byte[] request = RequestWriter.begin(Request.GET_SYMBOLS).end().toByteArray();
+        try (SessionRecorder recorder = new SessionRecorder(file)) {
+            recorder.record(request, request.length, "{\"response\": [\"EURUSD\"]}", 1_000, 301_000);
+            assertEquals(1, recorder.getCount());
+        }
+
+        List<SessionRecorder.Exchange> exchanges = SessionRecorder.read(file);
+
+        assertEquals(1, exchanges.size());
+        assertEquals(300_000, exchanges.get(0).latencyNanos);
+        assertArrayEquals(request, exchanges.get(0).request);
+        assertEquals("{\"response\": [\"EURUSD\"]}", new String(exchanges.get(0).response, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Replayed responses are served in order and can be recorded again")
+    void testReplay(@TempDir Path directory) throws Exception {
+        Path original = directory.resolve("original.bin");
+        byte[] symbols = RequestWriter.begin(Request.GET_SYMBOLS).end().toByteArray();
+        byte[] tick = RequestWriter.begin(Request.GET_SYMBOL_TICK).put("symbol", "EURUSD").end().toByteArray();
+        try (SessionRecorder recorder = new SessionRecorder(original)) {
+            recorder.record(symbols, symbols.length, "{\"response\": [\"EURUSD\"]}", 0, 1);
+            recorder.record(tick, tick.length, TICK_1, 2, 3);
+            recorder.record(tick, tick.length, TICK_2, 4, 5);
+        }
+
+        Path copy = directory.resolve("copy.bin");
+        try (SessionReplayServer server = new SessionReplayServer(original, SessionReplayServer.Pacing.AS_FAST_AS_POSSIBLE);
+             SessionRecorder recorder = new SessionRecorder(copy)) {
+            MT4Client client = new MT4Client(server.start(), 2000, 2000);
+            client.setSessionRecorder(recorder);
+            try {
+                assertEquals(List.of("EURUSD"), client.getSymbolNames());
+
+                Symbol symbol = new Symbol(client, "EURUSD", 0.00001, 5, 0.01, 0.01, 100, 100000, 1, 0.00001, 0, 0);
+                assertEquals(1.1, symbol.getTick().bid);
+                assertEquals(1.3, symbol.getTick().bid);
+                assertEquals(1.3, symbol.getTick().bid, "last response repeats");
+
+                MT4Exception e = assertThrows(MT4Exception.class, client::getOrders);
+                assertEquals(MT4Exception.Code.ERR_UNKNOWN_COMMAND, e.errorCode);
+                assertEquals(5, server.getServedCount());
+            } finally {
+                client.close();
+            }
+        }
+
+        List<SessionRecorder.Exchange> recorded = SessionRecorder.read(copy);
+        assertEquals(5, recorded.size(), "error responses are recorded too");
+        assertArrayEquals(tick, recorded.get(1).request);
+    }
+
+    @Test
+    @DisplayName("Original pacing answers at the recorded times relative to the session start")
+    void testOriginalPacing(@TempDir Path directory) throws Exception {
+        Path session = directory.resolve("session.bin");
+        byte[] symbols = RequestWriter.begin(Request.GET_SYMBOLS).end().toByteArray();
+        byte[] tick = RequestWriter.begin(Request.GET_SYMBOL_TICK).put("symbol", "EURUSD").end().toByteArray();
+        try (SessionRecorder recorder = new SessionRecorder(session)) {
+            // offsets are taken from when the recorder was opened
+            long opened = System.nanoTime();
+            recorder.record(symbols, symbols.length, "{\"response\": [\"EURUSD\"]}", opened, opened + 1_000_000);
+            recorder.record(tick, tick.length, TICK_1, opened + 300_000_000, opened + 301_000_000);
+        }
+
+        try (SessionReplayServer server = new SessionReplayServer(session, SessionReplayServer.Pacing.ORIGINAL)) {
+            MT4Client client = new MT4Client(server.start(), 2000, 2000);
+            try {
+                long start = System.nanoTime();
+                client.getSymbolNames();
+                Symbol symbol = new Symbol(client, "EURUSD", 0.00001, 5, 0.01, 0.01, 100, 100000, 1, 0.00001, 0, 0);
+                assertEquals(1.1, symbol.getTick().bid);
+                long elapsedNanos = System.nanoTime() - start;
+                assertTrue(elapsedNanos >= 300_000_000, "the tick was recorded 300 ms into the session");
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
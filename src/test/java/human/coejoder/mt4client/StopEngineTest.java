@@ -0,0 +1,145 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link StopEngine}.
+ */
+class StopEngineTest {
+
+    private static final double DELTA = 1e-9;
+
+    private MT4ClientInterface client;
+    private TradeDispatcher dispatcher;
+    private StopEngine engine;
+    private final List<ModifyOrder> sent = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        client = mock(MT4ClientInterface.class);
+        when(client.orderModify(any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return null;
+        });
+        dispatcher = TradeDispatcher.Builder.newInstance().setClient(client).build();
+        engine = StopEngine.Builder.newInstance().setDispatcher(dispatcher).setMinModifyInterval(300).build();
+        // stops level of 10 points, freeze level of 5 points
+        engine.addSymbol(new Symbol(null, "EURUSD", 0.00001, 5, 0.01, 0.01, 50, 100000, 1, 0.00001, 10, 5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.close();
+        dispatcher.close();
+    }
+
+    private static Order order(int ticket, OrderType type, double openPrice, double sl, double tp) {
+        return new Order(ticket, 0, "EURUSD", type.id, 1, openPrice, 0, "2024.01.01 00:00:00", null, null,
+                sl, tp, 0, 0, 0, null);
+    }
+
+    @Test
+    @DisplayName("Trailing stops only send the latest stop-loss once per interval")
+    void testTrailing() throws Exception {
+        engine.trail(order(1, OrderType.OP_BUY, 1.10000, 0, 0), 100, 10);
+
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        verify(client, timeout(1000)).orderModify(any());
+        engine.onTick("EURUSD", 1.10050, 1.10060);
+        engine.onTick("EURUSD", 1.10100, 1.10110);
+        engine.onTick("EURUSD", 1.10030, 1.10040);
+        assertEquals(1.10000, engine.getWantedSl(1), DELTA, "the stop-loss never moves back");
+        assertEquals(1, engine.getSupersededCount());
+
+        verify(client, timeout(2000).times(2)).orderModify(any());
+        Thread.sleep(400);
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(0).ticket);
+        assertEquals(1.09900, sent.get(0).sl, DELTA);
+        assertEquals(1.10000, sent.get(1).sl, DELTA);
+        assertNull(sent.get(1).tp, "the take-profit is left as it is");
+        assertEquals(2, engine.getSentCount());
+    }
+
+    @Test
+    @DisplayName("A rejected stop-loss is recomputed from the one the terminal has")
+    void testRejected() throws Exception {
+        doThrow(MT4Exception.Builder.newInstance().setErrorCode(MT4Exception.Code.ERR_INVALID_STOPS.id).build())
+                .doAnswer(invocation -> {
+                    sent.add(invocation.getArgument(0));
+                    return null;
+                })
+                .when(client).orderModify(any());
+        engine.trail(order(12, OrderType.OP_BUY, 1.10000, 0, 0), 100, 10);
+
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        verify(client, timeout(1000)).orderModify(any());
+        Thread.sleep(100);
+        assertEquals(0, engine.getWantedSl(12), DELTA);
+
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        verify(client, timeout(2000).times(2)).orderModify(any());
+        assertEquals(1.09900, sent.get(0).sl, DELTA, "the same level is sent again without waiting for a full step");
+    }
+
+    @Test
+    @DisplayName("Break-even moves the stop-loss past the open price once in profit")
+    void testBreakEven() throws Exception {
+        engine.breakEven(order(2, OrderType.OP_SELL, 1.10000, 1.10500, 0), 50, 5);
+
+        engine.onTick("EURUSD", 1.09950, 1.09960);
+        assertEquals(1.10500, engine.getWantedSl(2), DELTA);
+        engine.onTick("EURUSD", 1.09940, 1.09950);
+        verify(client, timeout(1000)).orderModify(any());
+        assertEquals(1.09995, sent.get(0).sl, DELTA);
+    }
+
+    @Test
+    @DisplayName("Modifications are held while the order is within the freeze level")
+    void testFreezeLevel() throws Exception {
+        engine.trail(order(3, OrderType.OP_BUY, 1.10000, 0, 1.10003), 100, 10);
+
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        assertEquals(1, engine.getFrozenCount());
+        Thread.sleep(100);
+        verify(client, never()).orderModify(any());
+
+        engine.onTick("EURUSD", 1.09990, 1.10000);
+        verify(client, timeout(1000)).orderModify(any());
+        assertEquals(1.09900, sent.get(0).sl, DELTA, "the held stop-loss is sent once the market moves away");
+    }
+
+    @Test
+    @DisplayName("Triggering one order of a pair deletes the other")
+    void testOco() throws Exception {
+        engine.oco(order(4, OrderType.OP_BUYSTOP, 1.10100, 0, 0), order(5, OrderType.OP_SELLSTOP, 1.09900, 0, 0));
+        engine.onTick("EURUSD", 1.10000, 1.10010);
+        engine.onTick("EURUSD", 1.10100, 1.10110);
+        verify(client, timeout(1000)).orderDelete(5, false);
+
+        engine.oco(order(6, OrderType.OP_BUYLIMIT, 1.09000, 0, 0), order(7, OrderType.OP_SELLLIMIT, 1.11000, 0, 0));
+        engine.onOrder(order(6, OrderType.OP_BUY, 1.09000, 0, 0));
+        verify(client, timeout(1000)).orderDelete(7, false);
+
+        engine.oco(order(8, OrderType.OP_BUYLIMIT, 1.09000, 0, 0), order(9, OrderType.OP_SELLLIMIT, 1.11000, 0, 0));
+        engine.remove(8);
+        engine.onTick("EURUSD", 1.11000, 1.11010);
+        Thread.sleep(100);
+        verify(client, times(2)).orderDelete(anyInt(), anyBoolean());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.oco(order(10, OrderType.OP_BUY, 1.1, 0, 0), order(11, OrderType.OP_SELLSTOP, 1.0, 0, 0)));
+    }
+}
@@ -0,0 +1,106 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link SymbolRegistry}.
+ */
+class SymbolRegistryTest {
+
+    @Test
+    @DisplayName("Assigns dense ids and canonical names")
+    void testRegister() {
+        SymbolRegistry registry = new SymbolRegistry();
+        assertEquals(-1, registry.find("EURUSD"));
+        assertEquals(0, registry.register("EURUSD"));
+        assertEquals(1, registry.register("GBPUSD"));
+        assertEquals(0, registry.register(new String("EURUSD")));
+        assertEquals(1, registry.find("GBPUSD"));
+        assertEquals(2, registry.size());
+
+        String copy = new String("GBPUSD");
+        assertSame(registry.getName(1), registry.intern(copy));
+        assertThrows(IndexOutOfBoundsException.class, () -> registry.getName(2));
+    }
+
+    @Test
+    @DisplayName("Finds names within a character buffer without copying them")
+    void testFindChars() {
+        SymbolRegistry registry = new SymbolRegistry();
+        char[] buffer = "{\"symbol\":\"EURUSD\",\"other\":\"EURUSD.m\"}".toCharArray();
+        assertEquals(-1, registry.find(buffer, 11, 6));
+        for (int i = 0; i < 300; i++) {
+            registry.register("SYM" + i);
+        }
+        assertEquals(300, registry.register("EURUSD"));
+        assertEquals(300, registry.find(buffer, 11, 6));
+        assertEquals(-1, registry.find(buffer, 11, 5));
+        assertEquals(-1, registry.find(buffer, 28, 8));
+        assertEquals(299, registry.find("SYM299".toCharArray(), 0, 6), "names survive the table growing");
+    }
+
+    @Test
+    @DisplayName("Concurrent registrations share one id per name and leave no gaps")
+    void testConcurrentRegister() throws Exception {
+        SymbolRegistry registry = new SymbolRegistry();
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    int id = registry.register("SYM" + i);
+                    if (!registry.getName(id).equals("SYM" + i)) {
+                        ids.add(-1);
+                    }
+                    ids.add(id);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(500, registry.size());
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    @DisplayName("Decoded orders and bus events carry the shared symbol id")
+    void testDecodedIds() {
+        Order a = new Order(1, 0, new String("EURUSD"), 0, 0.1, 1.1, 0, null, null, null, 0, 0, 0, 0, 0, null);
+        Order b = new Order(2, 0, new String("EURUSD"), 0, 0.1, 1.1, 0, null, null, null, 0, 0, 0, 0, 0, null);
+        SymbolRegistry registry = SymbolRegistry.getInstance();
+        assertEquals(registry.find("EURUSD"), a.getSymbolId());
+        assertSame(a.getSymbol(), b.getSymbol());
+
+        int[] seen = {-2};
+        MarketEventBus bus = MarketEventBus.Builder.newInstance()
+                .setBufferSize(4)
+                .addHandler((event, sequence, endOfBatch) -> seen[0] = event.getSymbolId())
+                .build();
+        bus.publishTick(a.getSymbolId(), 1, 1.1, 1.2, 0, 1);
+        bus.close();
+        assertEquals(a.getSymbolId(), seen[0]);
+    }
+
+    @Test
+    @DisplayName("Orders and symbols without a name have no id")
+    void testMissingName() {
+        Order order = new Order(1, 0, null, 0, 0.1, 1.1, 0, null, null, null, 0, 0, 0, 0, 0, null);
+        assertEquals(-1, order.getSymbolId());
+        Symbol symbol = new Symbol(null, null, 0.00001, 5, 0.01, 0.01, 100, 100000, 1, 0.00001, 0, 0);
+        assertEquals(-1, symbol.getId());
+        assertNull(symbol.getName());
+    }
+}
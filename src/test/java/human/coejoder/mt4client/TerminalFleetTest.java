@@ -0,0 +1,132 @@
+package human.coejoder.mt4client;
+
+import human.coejoder.mt5client.MT5ClientInterface;
+import human.coejoder.mt5client.MT5Order;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link TerminalFleet}.
+ */
+class TerminalFleetTest {
+
+    private static MT4ClientInterface mt4WithEquity(double equity) throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        Account account = mock(Account.class);
+        when(account.getEquity()).thenReturn(equity);
+        when(client.getAccount()).thenReturn(account);
+        return client;
+    }
+
+    @Test
+    @DisplayName("A slow terminal times out without stalling the others")
+    void testSlowTerminalIsolated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MT4ClientInterface slow = mock(MT4ClientInterface.class);
+        when(slow.getAccount()).thenAnswer(invocation -> {
+            release.await();
+            return null;
+        });
+        MT4ClientInterface failing = mock(MT4ClientInterface.class);
+        when(failing.getAccount()).thenThrow(MT4Exception.Builder.newInstance()
+                .setErrorCode(MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY.id)
+                .setMessage("busy")
+                .build());
+
+        try (TerminalFleet fleet = TerminalFleet.Builder.newInstance()
+                .addTerminal(1, mt4WithEquity(1000))
+                .addTerminal(2, slow)
+                .addTerminal(3, failing)
+                .addTerminal(4, mt4WithEquity(2500))
+                .setTimeout(200)
+                .build()) {
+            long start = System.nanoTime();
+            TerminalFleet.FleetResult<Double> equity = fleet.getEquity();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(elapsed < 2000, "took " + elapsed + " ms");
+            assertEquals(1000, equity.getValues().get(1L));
+            assertEquals(2500, equity.getValues().get(4L));
+            assertInstanceOf(TimeoutException.class, equity.getFailures().get(2L));
+            assertInstanceOf(MT4Exception.class, equity.getFailures().get(3L));
+            assertFalse(equity.isComplete());
+            assertTrue(equity.getLatencyNanos().containsKey(1L));
+            assertFalse(equity.getLatencyNanos().containsKey(2L));
+
+            // the stuck call still occupies its lane, but other terminals answer at once
+            assertEquals(2500.0, (double) fleet.call(4, c -> c.getAccount().getEquity()));
+            release.countDown();
+        }
+        verify(slow).close();
+    }
+
+    @Test
+    @DisplayName("Calls to a backed-up terminal fail fast")
+    void testBackedUpTerminal() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MT4ClientInterface slow = mock(MT4ClientInterface.class);
+        when(slow.getOrders()).thenAnswer(invocation -> {
+            release.await();
+            return List.of();
+        });
+
+        try (TerminalFleet fleet = TerminalFleet.Builder.newInstance()
+                .addTerminal(7, slow)
+                .setTimeout(50)
+                .setMaxQueuedCalls(2)
+                .build()) {
+            assertFalse(fleet.getOrders().isComplete());
+            assertFalse(fleet.getOrders().isComplete());
+            long start = System.nanoTime();
+            TimeoutException e = assertThrows(TimeoutException.class, () -> fleet.call(7, MT4ClientInterface::getOrders));
+            assertTrue(e.getMessage().contains("backed up"));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+            release.countDown();
+        }
+    }
+
+    @Test
+    @DisplayName("Queries route to MT4 and MT5 terminals by login")
+    void testMixedFleet() throws Exception {
+        MT4ClientInterface mt4 = mock(MT4ClientInterface.class);
+        Order order = mock(Order.class);
+        when(mt4.getOrders()).thenReturn(List.of(order));
+        MT5ClientInterface mt5 = mock(MT5ClientInterface.class);
+        MT5Order mt5Order = mock(MT5Order.class);
+        when(mt5.getOrders()).thenReturn(List.of(mt5Order, mt5Order));
+        Symbol symbol = mock(Symbol.class);
+        SymbolTick tick = new SymbolTick(1704067200, 1.1, 1.1002, 0, 1);
+        when(symbol.getTick()).thenReturn(tick);
+        when(mt4.getSymbol("EURUSD")).thenReturn(symbol);
+        when(mt5.getSymbol("EURUSD")).thenReturn(symbol);
+
+        try (TerminalFleet fleet = TerminalFleet.Builder.newInstance()
+                .addTerminal(10, mt4)
+                .addTerminal(20, mt5)
+                .build()) {
+            assertEquals(List.of(10L, 20L), fleet.getLogins());
+
+            TerminalFleet.FleetResult<List<Order>> orders = fleet.getOrders();
+            assertEquals(1, orders.getValues().size());
+            assertEquals(List.of(order), orders.getValues().get(10L));
+            assertEquals(2, fleet.getMT5Orders().getValues().get(20L).size());
+
+            TerminalFleet.FleetResult<SymbolTick> ticks = fleet.getTicks("EURUSD");
+            assertTrue(ticks.isComplete());
+            assertSame(tick, ticks.getValues().get(10L));
+            assertSame(tick, ticks.getValues().get(20L));
+
+            assertEquals(2, (int) fleet.callMT5(20, c -> c.getOrders().size()));
+            assertThrows(IllegalArgumentException.class, () -> fleet.call(20, MT4ClientInterface::getOrders));
+            assertThrows(IllegalArgumentException.class, () -> fleet.call(99, MT4ClientInterface::getOrders));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the demand-driven polling and buffering of {@link TerminalPublisher}.
+ */
+public class TerminalPublisherTest {
+
+    private static final class Collector<T> implements Flow.Subscriber<T> {
+        final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile CountDownLatch received = new CountDownLatch(0);
+
+        void request(int n) throws InterruptedException {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            received = new CountDownLatch(n);
+            subscription.request(n);
+        }
+
+        boolean await() throws InterruptedException {
+            return received.await(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    private static Order order(int ticket, double sl, double profit) {
+        return new Order(ticket, 0, "EURUSD", 0, 0.1, 1.1, 1.1, "2024.01.02 10:00", null, null, sl, 0, profit, 0, 0, "");
+    }
+
+    @Test
+    @DisplayName("Polling stops without demand and resumes on request")
+    public void testPollingFollowsDemand() throws Exception {
+        int[] counter = {0};
+        try (TerminalPublisher<Integer> publisher = TerminalPublisher.polling(
+                () -> Collections.singletonList(++counter[0]), 5, 16)) {
+            Collector<Integer> collector = new Collector<>();
+            publisher.subscribe(collector);
+            Thread.sleep(50);
+            assertEquals(0, publisher.getPollCount(), "no polls before any demand");
+
+            collector.request(3);
+            assertTrue(collector.await());
+            Thread.sleep(20);
+            long polls = publisher.getPollCount();
+            assertEquals(3, polls);
+            Thread.sleep(100);
+            assertEquals(polls, publisher.getPollCount(), "polling pauses once demand is met");
+
+            collector.request(2);
+            assertTrue(collector.await());
+            assertEquals(Arrays.asList(1, 2, 3, 4, 5), collector.items);
+        }
+    }
+
+    @Test
+    @DisplayName("Order stream publishes new, changed and closed orders")
+    public void testOrderChanges() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        Order closed = order(2, 0, 7);
+        when(client.getOrders())
+                .thenReturn(Arrays.asList(order(1, 0, 1), order(2, 0, 2)))
+                .thenReturn(Arrays.asList(order(1, 0, 5), order(2, 0, 6)))
+                .thenReturn(Arrays.asList(order(1, 1.05, 5), order(2, 0, 6)))
+                .thenReturn(Collections.singletonList(order(1, 1.05, 5)));
+        when(client.getOrder(2)).thenReturn(closed);
+
+        try (TerminalPublisher<Order> publisher = TerminalPublisher.orders(client, 1)) {
+            Collector<Order> collector = new Collector<>();
+            publisher.subscribe(collector);
+            collector.request(4);
+            assertTrue(collector.await());
+
+            assertEquals(4, collector.items.size());
+            assertEquals(1, collector.items.get(0).getTicket());
+            assertEquals(2, collector.items.get(1).getTicket());
+            assertEquals(1.05, collector.items.get(2).getSl(), "profit changes alone are not published");
+            assertSame(closed, collector.items.get(3));
+        }
+
+        Order open = order(3, 0, 1);
+        Order moved = new Order(3, 0, "EURUSD", 0, 0.1, 1.1, 1.2, "2024.01.02 10:00", null, null, 0, 0, 9, 0, 0, "");
+        assertTrue(TerminalPublisher.sameState(open, moved), "the close price of an open order is the market price");
+        Order closedAt = new Order(3, 0, "EURUSD", 0, 0.1, 1.1, 1.2, "2024.01.02 10:00", "2024.01.02 11:00", null,
+                0, 0, 9, 0, 0, "");
+        Order corrected = new Order(3, 0, "EURUSD", 0, 0.1, 1.1, 1.3, "2024.01.02 10:00", "2024.01.02 11:00", null,
+                0, 0, 9, 0, 0, "");
+        assertFalse(TerminalPublisher.sameState(closedAt, corrected));
+    }
+
+    @Test
+    @DisplayName("An order whose final state cannot be read is dropped")
+    public void testVanishedOrderLookupFails() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        when(client.getOrders())
+                .thenReturn(Arrays.asList(order(1, 0, 1), order(2, 0, 2)))
+                .thenReturn(Collections.singletonList(order(1, 0, 1)))
+                .thenReturn(Arrays.asList(order(1, 0, 1), order(3, 0, 3)));
+        when(client.getOrder(2)).thenThrow(MT4Exception.Builder.newInstance()
+                .setErrorCode(MT4Exception.Code.ERR_INVALID_TICKET.id)
+                .setMessage("Invalid ticket")
+                .build());
+
+        try (TerminalPublisher<Order> publisher = TerminalPublisher.orders(client, 1)) {
+            Collector<Order> collector = new Collector<>();
+            publisher.subscribe(collector);
+            collector.request(3);
+            assertTrue(collector.await());
+            assertEquals(Arrays.asList(1, 2, 3), collector.items.stream().map(Order::getTicket).toList());
+            assertNull(collector.error);
+            verify(client, times(1)).getOrder(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Failed polls are tried again, and only other failures end the subscriptions")
+    public void testPollFailures() throws Exception {
+        int[] counter = {0};
+        try (TerminalPublisher<Integer> publisher = TerminalPublisher.polling(() -> {
+            if (++counter[0] % 2 == 1) {
+                throw MT4Exception.Builder.newInstance()
+                        .setErrorCode(MT4Exception.Code.ERR_NO_CONNECTION.id)
+                        .setMessage("No connection")
+                        .build();
+            }
+            return Collections.singletonList(counter[0]);
+        }, 1, 16)) {
+            Collector<Integer> collector = new Collector<>();
+            publisher.subscribe(collector);
+            collector.request(2);
+            assertTrue(collector.await());
+            assertEquals(Arrays.asList(2, 4), collector.items);
+            assertNull(collector.error);
+        }
+
+        IllegalStateException bug = new IllegalStateException("bug");
+        try (TerminalPublisher<Integer> publisher = TerminalPublisher.polling(() -> {
+            throw bug;
+        }, 1, 16)) {
+            Collector<Integer> collector = new Collector<>();
+            publisher.subscribe(collector);
+            collector.request(1);
+            assertTrue(collector.completed.await(5, TimeUnit.SECONDS));
+            assertSame(bug, collector.error);
+        }
+    }
+
+    @Test
+    @DisplayName("Push transport drops the oldest items beyond a subscriber's buffer")
+    public void testPushBuffering() throws Exception {
+        TerminalPublisher<Integer> publisher = TerminalPublisher.push(2);
+        Collector<Integer> slow = new Collector<>();
+        Collector<Integer> fast = new Collector<>();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        fast.request(5);
+        for (int i = 1; i <= 5; i++) {
+            publisher.publish(i);
+        }
+        assertTrue(fast.await());
+        assertThrows(IllegalStateException.class,
+                () -> TerminalPublisher.polling(Collections::emptyList, 1, 1).publish(1));
+
+        slow.request(5);
+        slow.received.await(200, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(4, 5), slow.items);
+        assertEquals(3, publisher.getDroppedCount());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), fast.items);
+
+        slow.subscription.request(0);
+        publisher.close();
+        assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(fast.completed.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, slow.error);
+        assertNull(fast.error);
+    }
+}
@@ -0,0 +1,135 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link TerminalSimulator} over real localhost sockets.
+ */
+class TerminalSimulatorTest {
+
+    private TerminalSimulator simulator;
+    private String address;
+
+    @BeforeEach
+    void setUp() {
+        simulator = TerminalSimulator.Builder.newInstance()
+                .setSeed(7)
+                .setErrorRate(Request.GET_SIGNALS, 1.0, MT4Exception.Code.ERR_SERVER_BUSY)
+                .build();
+        address = simulator.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        simulator.close();
+    }
+
+    @Test
+    @DisplayName("Serves account, symbol, history and indicator requests")
+    void testQueries() throws Exception {
+        try (MT4Client client = new MT4Client(address, 2000, 2000)) {
+            assertEquals("USD", client.getAccount().getCurrency());
+            assertEquals(10000, client.getAccount().getBalance());
+            assertEquals(List.of("EURUSD", "GBPUSD", "USDJPY"), client.getSymbolNames());
+
+            Symbol eurusd = client.getSymbol("EURUSD");
+            assertEquals(5, eurusd.getDigits());
+            SymbolTick tick = eurusd.getTick();
+            assertTrue(tick.ask > tick.bid);
+            assertEquals(SymbolTradeMode.SYMBOL_TRADE_MODE_FULL, eurusd.getTradeMode());
+
+            List<OHLCV> bars = client.getOHLCV("EURUSD", StandardTimeframe.PERIOD_M5, 10, 1000);
+            assertEquals(10, bars.size());
+            assertEquals(300, bars.get(9).time - bars.get(8).time);
+
+            double rsi = client.runIndicator(Indicator.iRSI("EURUSD", StandardTimeframe.PERIOD_H1, 14,
+                    AppliedPrice.PRICE_CLOSE, 0));
+            assertTrue(rsi >= 0 && rsi <= 100);
+
+            MT4Exception unknown = assertThrows(MT4Exception.class, () -> client.getSymbol("XAUUSD"));
+            assertEquals(MT4Exception.Code.ERR_UNKNOWN_SYMBOL, unknown.errorCode);
+            MT4Exception injected = assertThrows(MT4Exception.class, client::getSignalNames);
+            assertEquals(MT4Exception.Code.ERR_SERVER_BUSY, injected.errorCode);
+        }
+    }
+
+    @Test
+    @DisplayName("Opens, modifies and closes orders")
+    void testOrders() throws Exception {
+        try (MT4Client client = new MT4Client(address, 2000, 2000)) {
+            Order order = client.orderSend(NewOrder.Builder.newInstance()
+                    .setSymbol("EURUSD")
+                    .setOrderType(OrderType.OP_BUY)
+                    .setLots(0.1)
+                    .setSlPoints(500)
+                    .build());
+            assertEquals(OrderType.OP_BUY, order.getOrderType());
+            assertTrue(order.getSl() < order.getOpenPrice());
+            assertEquals(1, client.getOrders().size());
+
+            Order modified = client.orderModify(ModifyOrder.Builder.newInstance()
+                    .setOrder(order)
+                    .setTpPoints(500)
+                    .build());
+            assertTrue(modified.getTp() > modified.getOpenPrice());
+            assertEquals(order.getSl(), modified.getSl());
+
+            MT4Exception invalid = assertThrows(MT4Exception.class, () -> client.orderDelete(order.getTicket(), false));
+            assertEquals(MT4Exception.Code.ERR_INVALID_TICKET, invalid.errorCode);
+
+            client.orderClose(order);
+            assertTrue(client.getOrders().isEmpty());
+            assertEquals(order.getTicket(), client.getOrdersHistorical().get(0).getTicket());
+            assertNotNull(client.getOrder(order.getTicket()).getCloseTime());
+
+            MT4Exception volume = assertThrows(MT4Exception.class, () -> client.orderSend(NewOrder.Builder.newInstance()
+                    .setSymbol("EURUSD")
+                    .setOrderType(OrderType.OP_SELL)
+                    .setLots(0.001)
+                    .build()));
+            assertEquals(MT4Exception.Code.ERR_INVALID_TRADE_VOLUME, volume.errorCode);
+        }
+    }
+
+    @Test
+    @DisplayName("Serves concurrent clients")
+    void testConcurrentClients() throws Exception {
+        int clients = 4;
+        int requests = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                results.add(executor.submit(() -> {
+                    try (MT4Client client = new MT4Client(address, 2000, 2000)) {
+                        Symbol symbol = client.getSymbol("GBPUSD");
+                        int ticks = 0;
+                        for (int i = 0; i < requests; i++) {
+                            if (symbol.getTick().bid > 0) {
+                                ticks++;
+                            }
+                        }
+                        return ticks;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(requests, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(clients * (requests + 1), simulator.getServedCount());
+    }
+}
@@ -0,0 +1,84 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link TickHistory}.
+ */
+class TickHistoryTest {
+
+    @Test
+    @DisplayName("Keeps the latest ticks per symbol and finds those since a time")
+    void testReadSince() {
+        TickHistory history = TickHistory.Builder.newInstance().setCapacity(100).build();
+        for (int t = 0; t < 250; t++) {
+            history.add("EURUSD", t, 1 + t, 2 + t, 0, t);
+        }
+        history.add("GBPUSD", new SymbolTick(7, 1.25, 1.26, 0, 3));
+        assertEquals(100, history.size("EURUSD"));
+        assertEquals(1, history.size("GBPUSD"));
+        assertEquals(0, history.size("USDJPY"));
+        assertEquals(2L * 100 * 5 * 8, history.getOffHeapBytes());
+
+        TickHistory.Columns columns = new TickHistory.Columns(1000);
+        assertEquals(10, history.readSince("EURUSD", 240, columns));
+        assertEquals(240, columns.getTime(0));
+        assertEquals(241, columns.getBid(0));
+        assertEquals(249, columns.getVolume(9));
+        assertThrows(IndexOutOfBoundsException.class, () -> columns.getTime(10));
+
+        assertEquals(100, history.readSince("EURUSD", 0, columns), "older ticks have left the history");
+        assertEquals(150, columns.getTime(0));
+        assertEquals(0, history.readSince("EURUSD", 250, columns));
+        assertEquals(0, history.readSince("USDJPY", 0, columns));
+
+        TickHistory.Columns small = new TickHistory.Columns(5);
+        assertEquals(5, history.readSince("EURUSD", 0, small));
+        assertEquals(245, small.getTime(0), "the newest ticks are read when the buffer is too small");
+
+        assertEquals(1, history.readSince("GBPUSD", 7, columns));
+        assertEquals(1.26, columns.getAsk(0));
+    }
+
+    @Test
+    @DisplayName("Readers never see a torn or stale row while the writer laps the ring")
+    void testConcurrentReaders() throws Exception {
+        TickHistory history = TickHistory.Builder.newInstance().setCapacity(64).build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                TickHistory.Columns columns = new TickHistory.Columns(64);
+                while (running.get()) {
+                    long since = ThreadLocalRandom.current().nextLong(1_000_000);
+                    int n = history.readSince("EURUSD", since, columns);
+                    for (int i = 0; i < n; i++) {
+                        long t = columns.getTime(i);
+                        if (t < since || columns.getBid(i) != t || columns.getAsk(i) != t + 1
+                                || columns.getLast(i) != -t || columns.getVolume(i) != t
+                                || (i > 0 && t != columns.getTime(i - 1) + 1)) {
+                            error.compareAndSet(null, "bad row " + i + " at " + t + " since " + since);
+                        }
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (long t = 0; t < 1_000_000; t++) {
+            history.add("EURUSD", t, t, t + 1, -t, t);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+}
@@ -0,0 +1,209 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link TradeDispatcher}.
+ */
+class TradeDispatcherTest {
+
+    private static final NewOrder BUY = NewOrder.Builder.newInstance()
+            .setSymbol("EURUSD")
+            .setOrderType(OrderType.OP_BUY)
+            .setLots(0.1)
+            .build();
+
+    private static MT4Exception error(MT4Exception.Code code) {
+        return MT4Exception.Builder.newInstance()
+                .setErrorCode(code.id)
+                .setMessage(code.name())
+                .build();
+    }
+
+    @Test
+    @DisplayName("Transient errors are retried, others fail at once")
+    void testRetry() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        Order order = mock(Order.class);
+        when(client.orderSend(any()))
+                .thenThrow(error(MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY))
+                .thenThrow(error(MT4Exception.Code.ERR_REQUOTE))
+                .thenReturn(order)
+                .thenThrow(error(MT4Exception.Code.ERR_NOT_ENOUGH_MONEY));
+
+        try (TradeDispatcher dispatcher = TradeDispatcher.Builder.newInstance()
+                .setClient(client)
+                .setBackoff(1, 5)
+                .build()) {
+            assertSame(order, dispatcher.orderSend(BUY).get());
+            assertEquals(2, dispatcher.getRetryCount());
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> dispatcher.orderSend(BUY).get());
+            assertEquals(MT4Exception.Code.ERR_NOT_ENOUGH_MONEY, ((MT4Exception) e.getCause()).errorCode);
+            assertEquals(2, dispatcher.getRetryCount());
+        }
+        verify(client, times(4)).orderSend(any());
+    }
+
+    @Test
+    @DisplayName("Requotes are only retried for orders at the market price")
+    void testRequote() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        when(client.orderSend(any())).thenThrow(error(MT4Exception.Code.ERR_REQUOTE));
+        NewOrder priced = NewOrder.Builder.newInstance()
+                .setSymbol("EURUSD")
+                .setOrderType(OrderType.OP_BUY)
+                .setLots(0.1)
+                .setPrice(1.1)
+                .build();
+
+        try (TradeDispatcher dispatcher = TradeDispatcher.Builder.newInstance()
+                .setClient(client)
+                .setMaxAttempts(3)
+                .setBackoff(1, 5)
+                .build()) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> dispatcher.orderSend(priced).get());
+            assertEquals(MT4Exception.Code.ERR_REQUOTE, ((MT4Exception) e.getCause()).errorCode);
+            assertEquals(0, dispatcher.getRetryCount());
+
+            assertThrows(ExecutionException.class, () -> dispatcher.orderSend(BUY).get());
+            assertEquals(2, dispatcher.getRetryCount());
+        }
+        verify(client, times(4)).orderSend(any());
+    }
+
+    @Test
+    @DisplayName("Closing lets the action being sent finish and ends a backoff at once")
+    void testClose() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            interrupted.set(Thread.currentThread().isInterrupted());
+            return null;
+        }).when(client).orderClose(7);
+        TradeDispatcher dispatcher = TradeDispatcher.Builder.newInstance().setClient(client).build();
+        CompletableFuture<Void> close = dispatcher.orderClose(7);
+        started.await();
+        dispatcher.close();
+        release.countDown();
+        close.get();
+        assertFalse(interrupted.get());
+
+        when(client.orderSend(any())).thenThrow(error(MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY));
+        dispatcher = TradeDispatcher.Builder.newInstance()
+                .setClient(client)
+                .setBackoff(60_000, 60_000)
+                .build();
+        CompletableFuture<Order> order = dispatcher.orderSend(BUY);
+        verify(client, timeout(1000)).orderSend(any());
+        dispatcher.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> order.get(1, TimeUnit.SECONDS));
+        assertEquals(MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY, ((MT4Exception) e.getCause()).errorCode);
+        verify(client, times(1)).orderSend(any());
+    }
+
+    @Test
+    @DisplayName("Queued modifications of a ticket merge into the latest stops")
+    void testMergeModifies() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        }).when(client).orderClose(7);
+        List<ModifyOrder> sent = new ArrayList<>();
+        when(client.orderModify(any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return mock(Order.class);
+        });
+
+        try (TradeDispatcher dispatcher = TradeDispatcher.Builder.newInstance().setClient(client).build()) {
+            CompletableFuture<Void> close = dispatcher.orderClose(7);
+            started.await();
+            CompletableFuture<Order> first = dispatcher.orderModify(ModifyOrder.Builder.newInstance()
+                    .setOrder(1).setSl(1.05).setTp(1.10).build());
+            CompletableFuture<Order> other = dispatcher.orderModify(ModifyOrder.Builder.newInstance()
+                    .setOrder(2).setSl(1.20).build());
+            CompletableFuture<Order> second = dispatcher.orderModify(ModifyOrder.Builder.newInstance()
+                    .setOrder(1).setSlPoints(100).build());
+            assertEquals(2, dispatcher.getQueuedCount());
+            release.countDown();
+            close.get();
+
+            assertSame(first.get(), second.get());
+            assertNotSame(first.get(), other.get());
+            assertEquals(1, dispatcher.getMergedCount());
+        }
+        assertEquals(2, sent.size());
+        ModifyOrder merged = sent.get(0);
+        assertEquals(1, merged.ticket);
+        assertNull(merged.sl);
+        assertEquals(100, merged.slPoints);
+        assertEquals(1.10, merged.tp);
+        assertEquals(2, sent.get(1).ticket);
+    }
+
+    @Test
+    @DisplayName("Serialized actions never collide on the trade context")
+    void testSerializedUnderLoad() throws Exception {
+        MT4ClientInterface client = mock(MT4ClientInterface.class);
+        AtomicBoolean tradeContext = new AtomicBoolean();
+        AtomicInteger busy = new AtomicInteger();
+        when(client.orderSend(any())).thenAnswer(invocation -> {
+            if (!tradeContext.compareAndSet(false, true)) {
+                busy.incrementAndGet();
+                throw error(MT4Exception.Code.ERR_TRADE_CONTEXT_BUSY);
+            }
+            try {
+                Thread.sleep(1);
+                return mock(Order.class);
+            } finally {
+                tradeContext.set(false);
+            }
+        });
+
+        try (TradeDispatcher dispatcher = TradeDispatcher.Builder.newInstance().setClient(client).build()) {
+            List<CompletableFuture<Order>> orders = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        CompletableFuture<Order> order = dispatcher.orderSend(BUY);
+                        synchronized (orders) {
+                            orders.add(order);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(orders.toArray(new CompletableFuture[0])).get();
+            assertEquals(160, orders.size());
+            assertEquals(0, busy.get());
+            assertEquals(0, dispatcher.getRetryCount());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link UniverseLoader} against a {@link TerminalSimulator} with a large symbol set.
+ */
+class UniverseLoaderTest {
+
+    private static final int SYMBOLS = 600;
+
+    private static TerminalSimulator simulator() {
+        TerminalSimulator.Builder builder = TerminalSimulator.Builder.newInstance().setLatency(50_000, 50_000);
+        for (int i = 0; i < SYMBOLS; i++) {
+            builder.addSymbol(String.format("SYM%03d", i), 1 + i / 1000.0, 5);
+        }
+        return builder.build();
+    }
+
+    @Test
+    @DisplayName("Chunks load concurrently, stream in, and warm-start from the cache")
+    void testLoad(@TempDir Path dir) throws Exception {
+        Path cache = dir.resolve("symbols.bin");
+        try (TerminalSimulator simulator = simulator()) {
+            String address = simulator.start();
+            try (MT4Client client = new MT4Client(address)) {
+                Map<String, Symbol> sequential = UniverseLoader.Builder.newInstance()
+                        .setClient(client)
+                        .setChunkSize(50)
+                        .build()
+                        .load().get(10, TimeUnit.SECONDS);
+                assertEquals(SYMBOLS, sequential.size());
+
+                AtomicInteger streamed = new AtomicInteger();
+                UniverseLoader loader = UniverseLoader.Builder.newInstance()
+                        .setClient(client)
+                        .setAddress(address)
+                        .setConnections(4)
+                        .setChunkSize(50)
+                        .setCacheFile(cache)
+                        .setListener(symbol -> streamed.incrementAndGet())
+                        .build();
+                long served = simulator.getServedCount();
+                Map<String, Symbol> symbols = loader.load().get(10, TimeUnit.SECONDS);
+
+                assertEquals(SYMBOLS, symbols.size());
+                assertEquals(SYMBOLS, streamed.get());
+                assertEquals(served + 13, simulator.getServedCount(), "one name listing and twelve chunks");
+                Symbol symbol = loader.getSymbol("SYM042");
+                assertSame(client, symbol.getMt4());
+                assertEquals(5, symbol.getDigits());
+                assertTrue(Files.exists(cache));
+            }
+
+            try (MT4Client client = new MT4Client(address)) {
+                long served = simulator.getServedCount();
+                UniverseLoader loader = UniverseLoader.Builder.newInstance()
+                        .setClient(client)
+                        .setCacheFile(cache)
+                        .build();
+                Map<String, Symbol> symbols = loader.load().get();
+                assertEquals(SYMBOLS, symbols.size());
+                assertEquals(served, simulator.getServedCount(), "a warm start sends no requests");
+                Symbol symbol = symbols.get("SYM042");
+                assertSame(client, symbol.getMt4());
+                assertEquals(0.00001, symbol.getPoint());
+                assertNotNull(symbol.getTick(), "cached symbols query the terminal through the client");
+                assertTrue(Double.isNaN(symbol.getTradeTickValue()), "the tick value is not cached");
+            }
+
+            try (MT4Client client = new MT4Client(address)) {
+                long served = simulator.getServedCount();
+                UniverseLoader loader = UniverseLoader.Builder.newInstance()
+                        .setClient(client)
+                        .setCacheFile(cache)
+                        .setCacheMaxAge(0)
+                        .build();
+                Map<String, Symbol> symbols = loader.load().get(10, TimeUnit.SECONDS);
+                assertEquals(SYMBOLS, symbols.size());
+                assertTrue(simulator.getServedCount() > served, "an expired cache is loaded again");
+                assertFalse(Double.isNaN(symbols.get("SYM042").getTradeTickValue()));
+
+                loader.invalidateCache();
+                assertFalse(Files.exists(cache));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package human.coejoder.mt4client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link WireRecorder}.
+ */
+class WireRecorderTest {
+
+    @Test
+    @DisplayName("Dump lists recorded frames oldest first")
+    void testDump() throws Exception {
+        WireRecorder recorder = new WireRecorder(8, 128);
+        RequestWriter request = RequestWriter.begin(Request.GET_ORDERS).end();
+        recorder.recordRequest(request.buffer(), request.length());
+        recorder.recordResponse("{\"response\": []}");
+        recorder.recordResponse(null);
+
+        List<String> lines = dumpLines(recorder);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).contains(" REQUEST ") && lines.get(0).endsWith("{\"action\":\"GET_ORDERS\"}"));
+        assertTrue(lines.get(1).contains(" RESPONSE 16 ") && lines.get(1).endsWith("{\"response\": []}"));
+        assertTrue(lines.get(2).contains(" TIMEOUT 0 "));
+    }
+
+    @Test
+    @DisplayName("Only the last frames are kept and long payloads are truncated")
+    void testWrapAndTruncate() throws Exception {
+        WireRecorder recorder = new WireRecorder(3, 40);
+        assertEquals(4, recorder.getCapacity());
+        for (int i = 0; i < 10; i++) {
+            recorder.recordResponse("frame-" + i + "-with-a-long-tail");
+        }
+
+        List<String> lines = dumpLines(recorder);
+
+        assertEquals(10, recorder.getRecordedCount());
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).contains(" 24 frame-6-"));
+        assertTrue(lines.get(3).endsWith("..."));
+    }
+
+    @Test
+    @DisplayName("Responses are kept as UTF-8 and truncated between characters")
+    void testUtf8() throws Exception {
+        WireRecorder recorder = new WireRecorder(2, 40);
+        recorder.recordResponse("Prüfung");
+        recorder.recordResponse("ab\u20ac\u20ac\u20ac");
+
+        List<String> lines = dumpLines(recorder);
+
+        assertTrue(lines.get(0).endsWith(" RESPONSE 8 Prüfung"), "the length is in bytes");
+        assertTrue(lines.get(1).endsWith(" RESPONSE 11 ab\u20ac\u20ac..."));
+    }
+
+    @Test
+    @DisplayName("MT4Client dumps the recorder when the server returns an error")
+    void testDumpOnError(@TempDir Path directory) throws Exception {
+        try (MockedConstruction<ZContext> mockedContext = mockConstruction(ZContext.class,
+                (mock, context) -> {
+                    ZMQ.Socket socketMock = mock(ZMQ.Socket.class);
+                    when(mock.createSocket(SocketType.REQ)).thenReturn(socketMock);
+                    when(socketMock.send(any(byte[].class), anyInt(), anyInt(), anyInt())).thenReturn(true);
+                    when(socketMock.recvStr()).thenReturn("{\"error_code\": 4108, \"error_message\": \"bad ticket\"}");
+                })) {
+
+            MT4Client client = new MT4Client("tcp://127.0.0.1:28282");
+            client.getWireRecorder().setDumpOnError(directory);
+
+            assertThrows(MT4Exception.class, () -> client.getOrder(42));
+
+            try (Stream<Path> files = Files.list(directory)) {
+                Path dump = files.findFirst().orElseThrow();
+                String text = Files.readString(dump);
+                assertTrue(text.contains("{\"action\":\"GET_ORDER\",\"ticket\":42}"));
+                assertTrue(text.contains("bad ticket"));
+            }
+        }
+    }
+
+    private static List<String> dumpLines(WireRecorder recorder) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.dump(out);
+        return out.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+}